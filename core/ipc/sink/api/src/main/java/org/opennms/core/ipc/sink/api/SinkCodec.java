@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.core.ipc.sink.api;
+
+/**
+ * Encodes and decodes the messages of a {@link SinkModule} to and from an
+ * alternate wire format.
+ *
+ * Codecs are identified by name. The name is sent along with the encoded message,
+ * so that the consumers can decode messages regardless of the codec the producer
+ * was configured to use.
+ *
+ * @param <T> type of message that will be received by the consumers
+ */
+public interface SinkCodec<T extends Message> {
+
+    /**
+     * Unique name of the codec within the module, i.e. "protobuf".
+     *
+     * Must be 1 to 127 US-ASCII characters long.
+     */
+    String getName();
+
+    /**
+     * Encodes the message to a byte array.
+     */
+    byte[] encode(T message);
+
+    /**
+     * Decodes a message from a region of the given byte array.
+     */
+    T decode(byte[] bytes, int offset, int length);
+}
@@ -28,6 +28,9 @@
 
 package org.opennms.core.ipc.sink.api;
 
+import java.util.Collections;
+import java.util.List;
+
 /**
  * Defines how the messages will be routed and marshaled/unmarshaled over the wire.
  *
@@ -82,4 +85,30 @@ public interface SinkModule<S extends Message, T extends Message> {
      * messages for this module.
      */
     AsyncPolicy getAsyncPolicy();
+
+    /**
+     * Optional key used to route the message.
+     *
+     * Brokers that partition their topics, i.e. Kafka, deliver the messages with the
+     * same key to the same partition, and hence in order to the same consumer.
+     *
+     * @param message the message being dispatched
+     * @return the key, or {@code null} if the messages can be routed freely
+     */
+    default String getRoutingKey(T message) {
+        return null;
+    }
+
+    /**
+     * Additional codecs supported by the module.
+     *
+     * Modules that support codecs are expected to accept messages encoded with any of
+     * these in {@link #unmarshal(byte[])}, in addition to their default format, and to
+     * use the codec selected by the configuration in {@link #marshal(Message)}.
+     *
+     * @return the supported codecs, or an empty list if the module only supports its default format
+     */
+    default List<SinkCodec<T>> getCodecs() {
+        return Collections.emptyList();
+    }
 }
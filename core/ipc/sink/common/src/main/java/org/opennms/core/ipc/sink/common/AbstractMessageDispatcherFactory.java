@@ -28,6 +28,8 @@
 
 package org.opennms.core.ipc.sink.common;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Objects;
 
 import org.opennms.core.ipc.sink.aggregation.AggregatingSinkMessageProducer;
@@ -36,6 +38,8 @@ import org.opennms.core.ipc.sink.api.Message;
 import org.opennms.core.ipc.sink.api.MessageDispatcherFactory;
 import org.opennms.core.ipc.sink.api.SinkModule;
 import org.opennms.core.ipc.sink.api.SyncDispatcher;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer.Context;
@@ -47,6 +51,7 @@ import com.codahale.metrics.Timer.Context;
  * Different types of dispatchers are created based on whether or not the module is using aggregation.
  *
  * Asynchronous dispatchers use a queue and a thread pool to delegate to a suitable synchronous dispatcher.
+ * When a spool directory is configured, they spill to disk instead, see {@link SpoolingAsyncDispatcherImpl}.
  *
  * @author jwhite
  *
@@ -54,6 +59,8 @@ import com.codahale.metrics.Timer.Context;
  */
 public abstract class AbstractMessageDispatcherFactory<W> implements MessageDispatcherFactory {
 
+    private static final Logger LOG = LoggerFactory.getLogger(AbstractMessageDispatcherFactory.class);
+
     public abstract <S extends Message, T extends Message> void dispatch(SinkModule<S, T> module, W metadata, T message);
 
     private final MetricRegistry metrics = new MetricRegistry();
@@ -93,6 +100,19 @@ public abstract class AbstractMessageDispatcherFactory<W> implements MessageDisp
         Objects.requireNonNull(module, "module cannot be null");
         Objects.requireNonNull(module.getAsyncPolicy(), "module must have an AsyncPolicy");
         final DispatcherState<W,S,T> state = new DispatcherState<>(this, module);
+
+        final String spoolDirectory = System.getProperty(SpoolingAsyncDispatcherImpl.SPOOL_DIRECTORY_SYS_PROP);
+        if (spoolDirectory != null && !spoolDirectory.trim().isEmpty()) {
+            try {
+                return new SpoolingAsyncDispatcherImpl<>(state, module.getAsyncPolicy(), Paths.get(spoolDirectory.trim()),
+                        Integer.getInteger(SpoolingAsyncDispatcherImpl.SPOOL_SEGMENT_SIZE_SYS_PROP, SpoolingAsyncDispatcherImpl.DEFAULT_SPOOL_SEGMENT_SIZE),
+                        Integer.getInteger(SpoolingAsyncDispatcherImpl.BATCH_SIZE_SYS_PROP, SpoolingAsyncDispatcherImpl.DEFAULT_BATCH_SIZE),
+                        message -> timedDispatch(state, message));
+            } catch (IOException e) {
+                LOG.error("Failed to open the spool for module {} in {}. Messages will not be spooled.", module.getId(), spoolDirectory, e);
+            }
+        }
+
         final SyncDispatcher<S> syncDispatcher = createSyncDispatcher(state);
         return new AsyncDispatcherImpl<>(state, module.getAsyncPolicy(), syncDispatcher);
     }
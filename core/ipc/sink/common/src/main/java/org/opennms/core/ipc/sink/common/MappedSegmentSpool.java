@@ -0,0 +1,368 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.common;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only, on-disk FIFO of byte array records stored in memory-mapped segment files.
+ *
+ * Records are appended to the last segment, and read back (in order) from the first segment.
+ * Once a segment is full, it is sealed and a new one is created. Segments are deleted
+ * once all of their records have been read.
+ *
+ * Each segment starts with a header containing the offset of the next record to be read,
+ * followed by the records, each prefixed with its length. Since the segments are memory-mapped,
+ * their content is written to disk by the operating system, and records that were not read
+ * before the process was stopped are recovered when the spool is re-opened.
+ *
+ * This class is thread-safe.
+ */
+public class MappedSegmentSpool implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedSegmentSpool.class);
+
+    private static final String SEGMENT_SUFFIX = ".spool";
+
+    /**
+     * The header contains the offset of the next record to read.
+     */
+    private static final int HEADER_SIZE = Long.BYTES;
+
+    /**
+     * Written in place of the record length to mark the end of a sealed segment.
+     */
+    private static final int END_OF_SEGMENT = -1;
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final LinkedList<Segment> segments = new LinkedList<>();
+
+    private long nextSegmentId = 0;
+
+    private long numRecords = 0;
+
+    private long numBytes = 0;
+
+    private static class Segment {
+        private final Path path;
+        private final MappedByteBuffer buffer;
+        private int readOffset;
+        private int writeOffset;
+        private boolean sealed = false;
+
+        private Segment(Path path, int size) throws IOException {
+            this.path = path;
+            try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw");
+                 FileChannel channel = raf.getChannel()) {
+                if (raf.length() < size) {
+                    raf.setLength(size);
+                }
+                // The mapping remains valid once the channel is closed
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+            }
+
+            // Recover the read and write offsets
+            final long committedReadOffset = buffer.getLong(0);
+            readOffset = committedReadOffset < HEADER_SIZE ? HEADER_SIZE : (int)committedReadOffset;
+            writeOffset = HEADER_SIZE;
+            while (writeOffset + Integer.BYTES <= buffer.capacity()) {
+                final int length = buffer.getInt(writeOffset);
+                if (length == END_OF_SEGMENT) {
+                    sealed = true;
+                    break;
+                } else if (length <= 0 || writeOffset + Integer.BYTES + length > buffer.capacity()) {
+                    // Either the end of the records, or a partially written record
+                    break;
+                }
+                writeOffset += Integer.BYTES + length;
+            }
+            readOffset = Math.min(readOffset, writeOffset);
+        }
+
+        private boolean hasRoomFor(int length) {
+            // Always keep room for the end of segment marker
+            return writeOffset + Integer.BYTES + length + Integer.BYTES <= buffer.capacity();
+        }
+
+        private void write(byte[] record) {
+            final ByteBuffer slice = buffer.duplicate();
+            slice.position(writeOffset + Integer.BYTES);
+            slice.put(record);
+            // Write the length last, so that partial records are never recovered
+            buffer.putInt(writeOffset, record.length);
+            writeOffset += Integer.BYTES + record.length;
+        }
+
+        private byte[] peek() {
+            if (readOffset >= writeOffset) {
+                return null;
+            }
+            final int length = buffer.getInt(readOffset);
+            final byte[] record = new byte[length];
+            final ByteBuffer slice = buffer.duplicate();
+            slice.position(readOffset + Integer.BYTES);
+            slice.get(record);
+            return record;
+        }
+
+        /**
+         * Commits the read of the next record.
+         *
+         * @return the length of the record, or -1 if there are no records to read
+         */
+        private int skip() {
+            if (readOffset >= writeOffset) {
+                return -1;
+            }
+            final int length = buffer.getInt(readOffset);
+            readOffset += Integer.BYTES + length;
+            buffer.putLong(0, readOffset);
+            return length;
+        }
+
+        private void seal() {
+            buffer.putInt(writeOffset, END_OF_SEGMENT);
+            sealed = true;
+        }
+
+        private boolean isExhausted() {
+            return sealed && readOffset >= writeOffset;
+        }
+
+        private void forEachPendingRecordLength(IntConsumer consumer) {
+            int offset = readOffset;
+            while (offset < writeOffset) {
+                final int length = buffer.getInt(offset);
+                consumer.accept(length);
+                offset += Integer.BYTES + length;
+            }
+        }
+    }
+
+    /**
+     * Opens the spool stored in the given directory, recovering any existing segments.
+     *
+     * @param directory directory in which the segments are stored, created if it does not exist
+     * @param segmentSize size of the segment files in bytes
+     * @throws IOException if the directory or the segments cannot be opened
+     */
+    public MappedSegmentSpool(Path directory, int segmentSize) throws IOException {
+        this.directory = Objects.requireNonNull(directory);
+        if (segmentSize <= HEADER_SIZE + 2 * Integer.BYTES) {
+            throw new IllegalArgumentException("segmentSize is too small: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+
+        Files.createDirectories(directory);
+        final List<Long> segmentIds = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.map(p -> p.getFileName().toString())
+                .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                .forEach(name -> {
+                    try {
+                        segmentIds.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        LOG.warn("Ignoring unrecognized file {} in spool directory {}.", name, directory);
+                    }
+                });
+        }
+        Collections.sort(segmentIds);
+
+        for (Long segmentId : segmentIds) {
+            final Segment segment = new Segment(getSegmentPath(segmentId), segmentSize);
+            segment.forEachPendingRecordLength(length -> {
+                numRecords++;
+                numBytes += length;
+            });
+            segments.add(segment);
+            nextSegmentId = segmentId + 1;
+        }
+        // Only the last segment can be appended to
+        for (Segment segment : segments) {
+            if (segment != segments.getLast() && !segment.sealed) {
+                segment.seal();
+            }
+        }
+        removeExhaustedSegments();
+
+        if (numRecords > 0) {
+            LOG.info("Recovered {} records ({} bytes) from spool directory {}.", numRecords, numBytes, directory);
+        }
+    }
+
+    /**
+     * Appends the given record to the end of the spool.
+     *
+     * @param record the record
+     * @throws IOException if a new segment cannot be created
+     */
+    public synchronized void append(byte[] record) throws IOException {
+        if (Integer.BYTES + record.length + Integer.BYTES > segmentSize - HEADER_SIZE) {
+            throw new IOException(String.format("Record of %d bytes does not fit in a segment of %d bytes.",
+                    record.length, segmentSize));
+        }
+
+        Segment tail = segments.peekLast();
+        if (tail == null || tail.sealed || !tail.hasRoomFor(record.length)) {
+            if (tail != null && !tail.sealed) {
+                tail.seal();
+            }
+            tail = new Segment(getSegmentPath(nextSegmentId++), segmentSize);
+            segments.add(tail);
+        }
+        tail.write(record);
+        numRecords++;
+        numBytes += record.length;
+    }
+
+    /**
+     * Retrieves and removes the oldest record in the spool.
+     *
+     * @return the record, or <code>null</code> if the spool is empty
+     */
+    public synchronized byte[] poll() {
+        final byte[] record = peek();
+        if (record != null) {
+            remove();
+        }
+        return record;
+    }
+
+    /**
+     * Retrieves, but does not remove, the oldest record in the spool.
+     *
+     * The record remains in the spool, and is recovered when the spool is re-opened,
+     * until it is removed with {@link #remove()}.
+     *
+     * @return the record, or <code>null</code> if the spool is empty
+     */
+    public synchronized byte[] peek() {
+        while (!segments.isEmpty()) {
+            final byte[] record = segments.getFirst().peek();
+            if (record != null) {
+                return record;
+            }
+            if (!removeExhaustedSegments()) {
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the oldest record in the spool.
+     *
+     * @return <code>false</code> if the spool is empty
+     */
+    public synchronized boolean remove() {
+        while (!segments.isEmpty()) {
+            final int length = segments.getFirst().skip();
+            if (length >= 0) {
+                numRecords--;
+                numBytes -= length;
+                if (segments.getFirst().isExhausted()) {
+                    removeExhaustedSegments();
+                }
+                return true;
+            }
+            if (!removeExhaustedSegments()) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of records that are awaiting to be read
+     */
+    public synchronized long getNumRecords() {
+        return numRecords;
+    }
+
+    /**
+     * @return the total size of the records that are awaiting to be read, in bytes
+     */
+    public synchronized long getNumBytes() {
+        return numBytes;
+    }
+
+    public synchronized boolean isEmpty() {
+        return numRecords == 0;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+        segments.clear();
+    }
+
+    private boolean removeExhaustedSegments() {
+        boolean removed = false;
+        while (!segments.isEmpty() && segments.getFirst().isExhausted()) {
+            final Segment segment = segments.removeFirst();
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                LOG.warn("Failed to delete spool segment {}.", segment.path, e);
+            }
+            removed = true;
+        }
+        return removed;
+    }
+
+    private Path getSegmentPath(long segmentId) {
+        return directory.resolve(String.format("%020d%s", segmentId, SEGMENT_SUFFIX));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MappedSegmentSpool[directory=%s]", directory);
+    }
+}
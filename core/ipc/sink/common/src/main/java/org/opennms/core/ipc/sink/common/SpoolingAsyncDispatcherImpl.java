@@ -0,0 +1,420 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.common;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.joda.time.Duration;
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.ipc.sink.aggregation.AggregatingMessageProducer;
+import org.opennms.core.ipc.sink.api.AggregationPolicy;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.SinkModule;
+import org.opennms.core.utils.SystemInfoUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+
+/**
+ * An {@link AsyncDispatcher} that spills messages to a {@link MappedSegmentSpool}
+ * on local disk when the in-memory queue is full, and replays them once the
+ * queue has been drained.
+ *
+ * Messages are aggregated on the calling thread, and the resulting (aggregated) messages
+ * are queued. These are drained in batches by the dispatch threads, avoiding the need to
+ * wrap every message in a task. When the broker is slow or unavailable, the queue fills up and
+ * subsequent messages are marshaled and appended to the spool. While the spool is non-empty,
+ * all new messages are appended to the spool in order to preserve ordering. Messages that are
+ * still in the spool when the dispatcher is closed are replayed when it is re-created.
+ *
+ * Messages are only removed from the spool once they were successfully dispatched. Messages
+ * of the queue that fail to be dispatched are appended to the spool, and the dispatch is
+ * retried after a delay.
+ *
+ * The returned futures are resolved once the message was accepted by either the queue or
+ * the spool.
+ *
+ * This dispatcher is used instead of the {@link AsyncDispatcherImpl} when the
+ * {@link #SPOOL_DIRECTORY_SYS_PROP} system property is set.
+ */
+public class SpoolingAsyncDispatcherImpl<W, S extends Message, T extends Message> implements AsyncDispatcher<S> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpoolingAsyncDispatcherImpl.class);
+
+    /**
+     * System property used to enable spooling. Each module is spooled to a
+     * sub-directory of the given directory.
+     */
+    public static final String SPOOL_DIRECTORY_SYS_PROP = "org.opennms.core.ipc.sink.spool.directory";
+
+    /**
+     * System property used to override the size of the spool segment files.
+     */
+    public static final String SPOOL_SEGMENT_SIZE_SYS_PROP = "org.opennms.core.ipc.sink.spool.segmentSize";
+
+    public static final int DEFAULT_SPOOL_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * System property used to override the maximum number of messages dispatched in a single batch.
+     */
+    public static final String BATCH_SIZE_SYS_PROP = "org.opennms.core.ipc.sink.spool.batchSize";
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private static final long POLL_TIMEOUT_MS = 100;
+
+    /**
+     * Delay before dispatching again after a failure.
+     */
+    private static final long RETRY_DELAY_MS = TimeUnit.SECONDS.toMillis(1);
+
+    private final RateLimitedLog rateLimittedLogger = RateLimitedLog
+            .withRateLimit(LOG)
+            .maxRate(5).every(Duration.standardSeconds(30))
+            .build();
+
+    private final DispatcherState<W,S,T> state;
+
+    private final SinkModule<S,T> module;
+
+    private final Consumer<T> dispatcher;
+
+    private final AggregatingMessageProducer<S,T> aggregator;
+
+    private final ArrayBlockingQueue<T> queue;
+
+    private final MappedSegmentSpool spool;
+
+    private final int batchSize;
+
+    private final List<Thread> threads = new ArrayList<>();
+
+    /**
+     * Held while replaying, so that the records of the spool are replayed by a single thread.
+     */
+    private final Lock replayLock = new ReentrantLock();
+
+    private final Meter spooledMeter;
+
+    private final Meter replayedMeter;
+
+    private final Counter droppedCounter;
+
+    /**
+     * Set while the spool is (possibly) non-empty. Modified while holding the lock on the spool.
+     */
+    private volatile boolean spooling;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param state dispatcher state
+     * @param asyncPolicy the module's asynchronous dispatch policy
+     * @param spoolDirectory directory in which the module's spool is stored
+     * @param segmentSize size of the spool segment files in bytes
+     * @param batchSize maximum number of messages dispatched in a single batch
+     * @param dispatcher used to dispatch the (aggregated) messages to the broker
+     * @throws IOException if the spool cannot be opened
+     */
+    public SpoolingAsyncDispatcherImpl(DispatcherState<W,S,T> state, AsyncPolicy asyncPolicy, Path spoolDirectory,
+            int segmentSize, int batchSize, Consumer<T> dispatcher) throws IOException {
+        this.state = Objects.requireNonNull(state);
+        Objects.requireNonNull(asyncPolicy);
+        this.dispatcher = Objects.requireNonNull(dispatcher);
+        this.batchSize = Math.max(1, batchSize);
+        module = state.getModule();
+
+        final AggregationPolicy<S,T,?> aggregationPolicy = module.getAggregationPolicy();
+        final int queueSize;
+        if (aggregationPolicy != null) {
+            aggregator = new AggregatingMessageProducer<S,T>(module.getId(), aggregationPolicy) {
+                @Override
+                public void dispatch(T message) {
+                    enqueue(message);
+                }
+            };
+            // The queue holds aggregated messages, so scale the size accordingly
+            queueSize = Math.max(1, asyncPolicy.getQueueSize() / Math.max(1, aggregationPolicy.getCompletionSize()));
+        } else {
+            aggregator = null;
+            queueSize = asyncPolicy.getQueueSize();
+        }
+        queue = new ArrayBlockingQueue<>(queueSize);
+
+        spool = new MappedSegmentSpool(spoolDirectory.resolve(module.getId()), segmentSize);
+        spooling = !spool.isEmpty();
+
+        final MetricRegistry metrics = state.getMetrics();
+        spooledMeter = metrics.meter(MetricRegistry.name(module.getId(), "spooled"));
+        replayedMeter = metrics.meter(MetricRegistry.name(module.getId(), "replayed"));
+        droppedCounter = metrics.counter(MetricRegistry.name(module.getId(), "dropped"));
+        metrics.register(MetricRegistry.name(module.getId(), "queue-size"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return queue.size();
+            }
+        });
+        metrics.register(MetricRegistry.name(module.getId(), "spool-size"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return spool.getNumBytes();
+            }
+        });
+        metrics.register(MetricRegistry.name(module.getId(), "spool-messages"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return spool.getNumRecords();
+            }
+        });
+
+        final ThreadFactory threadFactory = new LogPreservingThreadFactory(SystemInfoUtils.DEFAULT_INSTANCE_ID + ".Sink.SpoolingAsyncDispatcher." + module.getId(), Integer.MAX_VALUE);
+        for (int i = 0; i < asyncPolicy.getNumThreads(); i++) {
+            final Thread thread = threadFactory.newThread(this::drain);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public CompletableFuture<S> send(S message) {
+        try {
+            if (aggregator != null) {
+                aggregator.send(message);
+            } else {
+                // Modules that do not use an AggregationPolicy must have the same types for S and T
+                enqueue((T)message);
+            }
+            return CompletableFuture.completedFuture(message);
+        } catch (RuntimeException e) {
+            final CompletableFuture<S> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+    }
+
+    private void enqueue(T message) {
+        if (!spooling && queue.offer(message)) {
+            return;
+        }
+
+        final byte[] bytes = module.marshal(message);
+        synchronized (spool) {
+            spooling = true;
+            try {
+                spool.append(bytes);
+            } catch (IOException e) {
+                droppedCounter.inc();
+                throw new SpoolException("Failed to spool message for module " + module.getId(), e);
+            }
+        }
+        spooledMeter.mark();
+    }
+
+    private void drain() {
+        final List<T> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                batch.clear();
+                queue.drainTo(batch, batchSize);
+                if (batch.isEmpty() && spooling && replayLock.tryLock()) {
+                    try {
+                        replay();
+                    } finally {
+                        replayLock.unlock();
+                    }
+                    continue;
+                }
+                if (batch.isEmpty()) {
+                    final T message = queue.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    if (message == null) {
+                        continue;
+                    }
+                    batch.add(message);
+                    queue.drainTo(batch, batchSize - 1);
+                }
+
+                for (int i = 0; i < batch.size(); i++) {
+                    if (!dispatch(batch.get(i))) {
+                        // Keep the messages that were not dispatched
+                        respool(batch.subList(i, batch.size()));
+                        backOff();
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Throwable t) {
+                rateLimittedLogger.error("An error occurred while draining the queue for module {}.", module.getId(), t);
+            }
+        }
+    }
+
+    /**
+     * Dispatches up to a batch of messages from the spool. The messages are
+     * only removed from the spool once they were successfully dispatched.
+     */
+    private void replay() throws InterruptedException {
+        for (int i = 0; i < batchSize; i++) {
+            final byte[] bytes;
+            synchronized (spool) {
+                bytes = spool.peek();
+                if (bytes == null) {
+                    // The spool is empty, new messages can go to the queue again
+                    spooling = false;
+                    return;
+                }
+            }
+
+            final T message;
+            try {
+                message = module.unmarshal(bytes);
+            } catch (RuntimeException e) {
+                droppedCounter.inc();
+                rateLimittedLogger.error("Dropping a spooled message for module {} that cannot be unmarshaled.", module.getId(), e);
+                spool.remove();
+                continue;
+            }
+            if (!dispatch(message)) {
+                backOff();
+                return;
+            }
+            spool.remove();
+            replayedMeter.mark();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the message was dispatched
+     */
+    private boolean dispatch(T message) {
+        try {
+            dispatcher.accept(message);
+            return true;
+        } catch (Throwable t) {
+            rateLimittedLogger.error("An error occurred while dispatching a message for module {}. The message will be spooled and retried.", module.getId(), t);
+            return false;
+        }
+    }
+
+    private void respool(List<T> messages) {
+        synchronized (spool) {
+            spooling = true;
+            for (T message : messages) {
+                try {
+                    spool.append(module.marshal(message));
+                    spooledMeter.mark();
+                } catch (IOException | RuntimeException e) {
+                    droppedCounter.inc();
+                    rateLimittedLogger.error("Failed to spool message for module {}.", module.getId(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits before dispatching again, unless the dispatcher is closed.
+     */
+    private void backOff() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + RETRY_DELAY_MS;
+        while (running && System.currentTimeMillis() < deadline) {
+            Thread.sleep(Math.min(POLL_TIMEOUT_MS, Math.max(1, deadline - System.currentTimeMillis())));
+        }
+    }
+
+    @Override
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * @return the number of messages that are currently stored in the spool
+     */
+    public long getSpoolSize() {
+        return spool.getNumRecords();
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (aggregator != null) {
+            aggregator.close();
+        }
+
+        running = false;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // Spool anything that remains in the queue so that it survives a restart
+        final List<T> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        synchronized (spool) {
+            for (T message : remaining) {
+                try {
+                    spool.append(module.marshal(message));
+                } catch (IOException e) {
+                    droppedCounter.inc();
+                    LOG.warn("Failed to spool message for module {} on close.", module.getId(), e);
+                }
+            }
+            spool.close();
+        }
+        state.close();
+    }
+
+    /**
+     * Thrown when a message cannot be appended to the spool.
+     */
+    public static class SpoolException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public SpoolException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
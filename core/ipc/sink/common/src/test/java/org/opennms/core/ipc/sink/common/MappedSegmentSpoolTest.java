@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedSegmentSpoolTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void canAppendAndPollAcrossSegments() throws IOException {
+        final Path directory = tempFolder.getRoot().toPath();
+        try (MappedSegmentSpool spool = new MappedSegmentSpool(directory, SEGMENT_SIZE)) {
+            assertNull(spool.poll());
+            assertTrue(spool.isEmpty());
+
+            // Enough records to fill several segments
+            for (int i = 0; i < 500; i++) {
+                spool.append(toBytes(i));
+            }
+            assertEquals(500, spool.getNumRecords());
+            assertEquals(500 * Integer.BYTES, spool.getNumBytes());
+            assertTrue(countSegments(directory) > 1);
+
+            for (int i = 0; i < 500; i++) {
+                assertArrayEquals(toBytes(i), spool.poll());
+            }
+            assertNull(spool.poll());
+            assertTrue(spool.isEmpty());
+
+            // Exhausted segments should have been removed
+            assertEquals(1, countSegments(directory));
+        }
+    }
+
+    @Test
+    public void canRecoverPendingRecords() throws IOException {
+        final Path directory = tempFolder.getRoot().toPath();
+        try (MappedSegmentSpool spool = new MappedSegmentSpool(directory, SEGMENT_SIZE)) {
+            for (int i = 0; i < 300; i++) {
+                spool.append(toBytes(i));
+            }
+            // Consume some of the records
+            for (int i = 0; i < 100; i++) {
+                assertArrayEquals(toBytes(i), spool.poll());
+            }
+        }
+
+        try (MappedSegmentSpool spool = new MappedSegmentSpool(directory, SEGMENT_SIZE)) {
+            assertEquals(200, spool.getNumRecords());
+            // Append some more, these should be returned after the recovered records
+            for (int i = 300; i < 400; i++) {
+                spool.append(toBytes(i));
+            }
+            for (int i = 100; i < 400; i++) {
+                assertArrayEquals(toBytes(i), spool.poll());
+            }
+            assertNull(spool.poll());
+        }
+    }
+
+    @Test
+    public void keepsPeekedRecordsUntilRemoved() throws IOException {
+        final Path directory = tempFolder.getRoot().toPath();
+        try (MappedSegmentSpool spool = new MappedSegmentSpool(directory, SEGMENT_SIZE)) {
+            for (int i = 0; i < 300; i++) {
+                spool.append(toBytes(i));
+            }
+            for (int i = 0; i < 100; i++) {
+                assertArrayEquals(toBytes(i), spool.peek());
+                assertArrayEquals(toBytes(i), spool.peek());
+                assertTrue(spool.remove());
+            }
+            // Peek at a record without removing it
+            assertArrayEquals(toBytes(100), spool.peek());
+            assertEquals(200, spool.getNumRecords());
+        }
+
+        // The peeked record is recovered
+        try (MappedSegmentSpool spool = new MappedSegmentSpool(directory, SEGMENT_SIZE)) {
+            assertEquals(200, spool.getNumRecords());
+            for (int i = 100; i < 300; i++) {
+                assertArrayEquals(toBytes(i), spool.poll());
+            }
+            assertNull(spool.peek());
+            assertFalse(spool.remove());
+        }
+    }
+
+    @Test(expected=IOException.class)
+    public void cannotAppendRecordsLargerThanASegment() throws IOException {
+        try (MappedSegmentSpool spool = new MappedSegmentSpool(tempFolder.getRoot().toPath(), SEGMENT_SIZE)) {
+            spool.append(new byte[SEGMENT_SIZE]);
+        }
+    }
+
+    private static byte[] toBytes(int value) {
+        return ByteBuffer.allocate(Integer.BYTES).putInt(value).array();
+    }
+
+    private static long countSegments(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.count();
+        }
+    }
+}
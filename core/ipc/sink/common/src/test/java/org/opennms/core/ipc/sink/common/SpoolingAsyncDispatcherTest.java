@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.common;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.when;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.Message;
+import org.opennms.core.ipc.sink.api.SinkModule;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SpoolingAsyncDispatcherTest {
+
+    private static final int QUEUE_SIZE = 10;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Mock
+    private SinkModule<MyMessage, MyMessage> module;
+
+    private static class MyMessage implements Message {
+        private final int id;
+
+        private MyMessage(int id) {
+            this.id = id;
+        }
+    }
+
+    private final ThreadLockingDispatcherFactory<MyMessage> dispatcherFactory = new ThreadLockingDispatcherFactory<>();
+
+    private final List<Integer> dispatched = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        when(module.getId()).thenReturn("spool-test");
+        when(module.getAsyncPolicy()).thenReturn(new AsyncPolicy() {
+            @Override
+            public int getQueueSize() {
+                return QUEUE_SIZE;
+            }
+
+            @Override
+            public int getNumThreads() {
+                return 1;
+            }
+
+            @Override
+            public boolean isBlockWhenFull() {
+                return true;
+            }
+        });
+        when(module.marshal(any(MyMessage.class))).then(invocation -> {
+            final MyMessage message = (MyMessage)invocation.getArguments()[0];
+            return ByteBuffer.allocate(Integer.BYTES).putInt(message.id).array();
+        });
+        when(module.unmarshal(any(byte[].class))).then(invocation -> {
+            final byte[] bytes = (byte[])invocation.getArguments()[0];
+            return new MyMessage(ByteBuffer.wrap(bytes).getInt());
+        });
+    }
+
+    @Test(timeout=3*60*1000)
+    public void canSpoolAndReplayInOrder() throws Exception {
+        final CountDownLatch brokerAvailable = new CountDownLatch(1);
+        final SpoolingAsyncDispatcherImpl<Void, MyMessage, MyMessage> asyncDispatcher = createDispatcher(message -> {
+            try {
+                brokerAvailable.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            dispatched.add(message.id);
+        });
+
+        // Send more messages than the queue can hold while the broker is unavailable
+        final int numMessages = 10 * QUEUE_SIZE;
+        for (int i = 0; i < numMessages; i++) {
+            final CompletableFuture<MyMessage> future = asyncDispatcher.send(new MyMessage(i));
+            // Messages are never rejected or blocked
+            assertTrue(future.isDone());
+            assertTrue(!future.isCompletedExceptionally());
+        }
+        assertTrue(asyncDispatcher.getSpoolSize() > 0);
+
+        // The broker recovers, all of the messages should be dispatched in order
+        brokerAvailable.countDown();
+        await().atMost(1, MINUTES).until(() -> dispatched.size(), equalTo(numMessages));
+        for (int i = 0; i < numMessages; i++) {
+            assertEquals(Integer.valueOf(i), dispatched.get(i));
+        }
+        assertEquals(0, asyncDispatcher.getSpoolSize());
+        assertEquals(0, asyncDispatcher.getQueueSize());
+
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=3*60*1000)
+    public void canReplaySpoolAfterRestart() throws Exception {
+        final CountDownLatch brokerAvailable = new CountDownLatch(1);
+        SpoolingAsyncDispatcherImpl<Void, MyMessage, MyMessage> asyncDispatcher = createDispatcher(message -> {
+            try {
+                brokerAvailable.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            dispatched.add(message.id);
+        });
+
+        final int numMessages = 5 * QUEUE_SIZE;
+        for (int i = 0; i < numMessages; i++) {
+            asyncDispatcher.send(new MyMessage(i));
+        }
+
+        // Close the dispatcher while the broker is still unavailable, the blocked dispatch
+        // thread will be released once the broker comes back
+        final SpoolingAsyncDispatcherImpl<Void, MyMessage, MyMessage> closingDispatcher = asyncDispatcher;
+        final Thread closer = new Thread(() -> {
+            try {
+                closingDispatcher.close();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        closer.start();
+        brokerAvailable.countDown();
+        closer.join();
+
+        // Re-create the dispatcher, the spooled messages should be replayed
+        asyncDispatcher = createDispatcher(message -> dispatched.add(message.id));
+        await().atMost(1, MINUTES).until(() -> dispatched.size(), equalTo(numMessages));
+        assertEquals(numMessages, dispatched.stream().distinct().count());
+        asyncDispatcher.close();
+    }
+
+    @Test(timeout=3*60*1000)
+    public void canRetryWhenTheBrokerFails() throws Exception {
+        final AtomicBoolean brokerAvailable = new AtomicBoolean(false);
+        final AtomicInteger failures = new AtomicInteger();
+        final SpoolingAsyncDispatcherImpl<Void, MyMessage, MyMessage> asyncDispatcher = createDispatcher(message -> {
+            if (!brokerAvailable.get()) {
+                failures.incrementAndGet();
+                throw new RuntimeException("Broker unavailable");
+            }
+            dispatched.add(message.id);
+        });
+
+        final int numMessages = 5 * QUEUE_SIZE;
+        for (int i = 0; i < numMessages; i++) {
+            asyncDispatcher.send(new MyMessage(i));
+        }
+
+        // The failed messages must be kept, and retried
+        await().atMost(1, MINUTES).until(() -> failures.get() > 1);
+        await().atMost(1, MINUTES).until(() -> asyncDispatcher.getSpoolSize() + asyncDispatcher.getQueueSize(), equalTo((long)numMessages));
+        assertEquals(0, dispatched.size());
+
+        // The broker recovers, all of the messages should be dispatched exactly once
+        brokerAvailable.set(true);
+        await().atMost(1, MINUTES).until(() -> dispatched.size(), equalTo(numMessages));
+        assertEquals(numMessages, dispatched.stream().distinct().count());
+        assertEquals(0, asyncDispatcher.getSpoolSize());
+        assertEquals(0, asyncDispatcher.getQueueSize());
+
+        asyncDispatcher.close();
+    }
+
+    private SpoolingAsyncDispatcherImpl<Void, MyMessage, MyMessage> createDispatcher(Consumer<MyMessage> dispatcher) throws Exception {
+        final Path spoolDirectory = tempFolder.getRoot().toPath();
+        final DispatcherState<Void, MyMessage, MyMessage> state = new DispatcherState<>(dispatcherFactory, module);
+        return new SpoolingAsyncDispatcherImpl<>(state, module.getAsyncPolicy(), spoolDirectory, 1024, 4, dispatcher);
+    }
+}
@@ -28,21 +28,30 @@
 
 package org.opennms.core.ipc.sink.kafka;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.consumer.ConsumerRecords;
 import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
 import org.apache.kafka.common.errors.WakeupException;
 import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 import org.apache.kafka.common.serialization.StringDeserializer;
@@ -51,19 +60,35 @@ import org.opennms.core.ipc.sink.api.Message;
 import org.opennms.core.ipc.sink.api.MessageConsumerManager;
 import org.opennms.core.ipc.sink.api.SinkModule;
 import org.opennms.core.ipc.sink.common.AbstractMessageConsumerManager;
+import org.opennms.core.ipc.sink.kafka.offset.KafkaOffset;
+import org.opennms.core.ipc.sink.kafka.offset.KafkaOffsetProvider;
 import org.opennms.core.logging.Logging;
 import org.opennms.core.utils.SystemInfoUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+/**
+ * Consumes the sink messages from Kafka.
+ *
+ * Each module is consumed by one or more polling threads, which hand the records over to
+ * the module's {@link OrderedLanes}. The records are unmarshalled and dispatched on the lanes,
+ * keyed by the record key, so that the messages of a source are processed in order while
+ * different sources are processed in parallel. The offsets of the polled batches are committed
+ * asynchronously once all of their records were processed.
+ */
 public class KafkaMessageConsumerManager extends AbstractMessageConsumerManager implements InitializingBean {
 
     private static final Logger LOG = LoggerFactory.getLogger(KafkaMessageConsumerManager.class);
 
-    private final Map<SinkModule<?, Message>, List<KafkaConsumerRunner>> consumerRunnersByModule = new ConcurrentHashMap<>();
+    private static final long LAG_REPORT_INTERVAL_MS = 5000;
+
+    private static final long SHUTDOWN_TIMEOUT_MS = 30000;
+
+    private final Map<SinkModule<?, Message>, ModuleConsumers> consumersByModule = new ConcurrentHashMap<>();
 
     private final ThreadFactory threadFactory = new ThreadFactoryBuilder()
             .setNameFormat("kafka-consumer-%d")
@@ -73,15 +98,58 @@ public class KafkaMessageConsumerManager extends AbstractMessageConsumerManager
 
     private final Properties kafkaConfig = new Properties();
 
+    private int numPollers = KafkaSinkConstants.DEFAULT_CONSUMER_POLLERS;
+
+    private int maxInFlightBatches = KafkaSinkConstants.DEFAULT_CONSUMER_MAX_IN_FLIGHT_BATCHES;
+
+    @Autowired(required = false)
+    private KafkaOffsetProvider offsetProvider;
+
+    private static class ModuleConsumers {
+        private final List<KafkaConsumerRunner> runners;
+        private final OrderedLanes lanes;
+
+        private ModuleConsumers(List<KafkaConsumerRunner> runners, OrderedLanes lanes) {
+            this.runners = runners;
+            this.lanes = lanes;
+        }
+    }
+
+    /**
+     * The records returned by a single poll, which can be committed once all of them were processed.
+     */
+    private static class Batch {
+        private final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        private final CountDownLatch pending;
+
+        private Batch(ConsumerRecords<String, byte[]> records) {
+            pending = new CountDownLatch(records.count());
+            for (TopicPartition partition : records.partitions()) {
+                final List<ConsumerRecord<String, byte[]>> partitionRecords = records.records(partition);
+                offsets.put(partition, new OffsetAndMetadata(partitionRecords.get(partitionRecords.size() - 1).offset() + 1));
+            }
+        }
+
+        private boolean isDone() {
+            return pending.getCount() == 0;
+        }
+    }
+
     private class KafkaConsumerRunner implements Runnable {
         private final SinkModule<?, Message> module;
+        private final OrderedLanes lanes;
         private final AtomicBoolean closed = new AtomicBoolean(false);
         private final KafkaConsumer<String, byte[]> consumer;
         private final String topic;
+        private final Deque<Batch> inFlight = new ArrayDeque<>();
+        private final Map<TopicPartition, Long> committed = new ConcurrentHashMap<>();
+        private final CountDownLatch stopped = new CountDownLatch(1);
+        private long lastLagReport = 0;
 
-        public KafkaConsumerRunner(SinkModule<?, Message> module) {
+        public KafkaConsumerRunner(SinkModule<?, Message> module, OrderedLanes lanes) {
             this.module = module;
-            
+            this.lanes = lanes;
+
             final JmsQueueNameFactory topicNameFactory = new JmsQueueNameFactory(KafkaSinkConstants.KAFKA_TOPIC_PREFIX, module.getId());
             topic = topicNameFactory.getName();
 
@@ -92,24 +160,132 @@ public class KafkaMessageConsumerManager extends AbstractMessageConsumerManager
         public void run() {
             Logging.putPrefix(MessageConsumerManager.LOG_PREFIX);
             try {
-                consumer.subscribe(Arrays.asList(topic));
+                consumer.subscribe(Arrays.asList(topic), new ConsumerRebalanceListener() {
+                    @Override
+                    public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+                        // Commit what we have processed before the partitions are handed over
+                        commit(true);
+                        committed.keySet().removeAll(partitions);
+                    }
+
+                    @Override
+                    public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+                        // pass
+                    }
+                });
                 while (!closed.get()) {
-                    ConsumerRecords<String, byte[]> records = consumer.poll(100);
-                    for (ConsumerRecord<String, byte[]> record : records) {
-                        try {
-                            dispatch(module, module.unmarshal(record.value()));
-                        } catch (RuntimeException e) {
-                            LOG.warn("Unexpected exception while dispatching message", e);
+                    final ConsumerRecords<String, byte[]> records = consumer.poll(100);
+                    if (!records.isEmpty()) {
+                        final Batch batch = new Batch(records);
+                        for (ConsumerRecord<String, byte[]> record : records) {
+                            lanes.execute(record.key(), () -> {
+                                try {
+                                    dispatch(module, module.unmarshal(record.value()));
+                                } catch (RuntimeException e) {
+                                    LOG.warn("Unexpected exception while dispatching message", e);
+                                } finally {
+                                    batch.pending.countDown();
+                                }
+                            });
                         }
+                        inFlight.add(batch);
+                    }
+                    commit(false);
+
+                    // Wait for the lanes to catch up before polling more records
+                    while (inFlight.size() > maxInFlightBatches && !closed.get()) {
+                        inFlight.peek().pending.await(100, TimeUnit.MILLISECONDS);
+                        commit(false);
                     }
+
+                    reportLag();
                 }
             } catch (WakeupException e) {
                 // Ignore exception if closing
                 if (!closed.get()) {
                     throw e;
                 }
+            } catch (InterruptedException e) {
+                LOG.warn("Interrupted while consuming from topic {}.", topic);
+                Thread.currentThread().interrupt();
             } finally {
-                consumer.close();
+                try {
+                    commit(true);
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed to commit the offsets of topic {} while closing.", topic, e);
+                }
+                try {
+                    consumer.close();
+                } finally {
+                    stopped.countDown();
+                }
+            }
+        }
+
+        /**
+         * Commits the offsets of the oldest batches which were completely processed.
+         *
+         * @param wait whether to wait for all of the batches to be processed and commit synchronously
+         */
+        private void commit(boolean wait) {
+            final Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+            while (!inFlight.isEmpty()) {
+                final Batch batch = inFlight.peek();
+                if (wait) {
+                    try {
+                        if (!batch.pending.await(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                            LOG.warn("Timed out while waiting for the messages of topic {} to be processed.", topic);
+                            break;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                } else if (!batch.isDone()) {
+                    break;
+                }
+                // The offsets of the later batches supersede the earlier ones
+                offsets.putAll(inFlight.poll().offsets);
+            }
+            if (offsets.isEmpty()) {
+                return;
+            }
+
+            if (wait) {
+                consumer.commitSync(offsets);
+                onCommitted(offsets);
+            } else {
+                consumer.commitAsync(offsets, (committedOffsets, exception) -> {
+                    if (exception != null) {
+                        LOG.warn("Failed to commit the offsets of topic {}: {}", topic, committedOffsets, exception);
+                    } else {
+                        onCommitted(committedOffsets);
+                    }
+                });
+            }
+        }
+
+        private void onCommitted(Map<TopicPartition, OffsetAndMetadata> offsets) {
+            for (Entry<TopicPartition, OffsetAndMetadata> entry : offsets.entrySet()) {
+                committed.merge(entry.getKey(), entry.getValue().offset(), Math::max);
+            }
+        }
+
+        private void reportLag() {
+            final long now = System.currentTimeMillis();
+            if (offsetProvider == null || committed.isEmpty() || now - lastLagReport < LAG_REPORT_INTERVAL_MS) {
+                return;
+            }
+            lastLagReport = now;
+
+            final String group = kafkaConfig.getProperty("group.id");
+            for (Entry<TopicPartition, Long> entry : consumer.endOffsets(committed.keySet()).entrySet()) {
+                final Long consumerOffset = committed.get(entry.getKey());
+                if (consumerOffset == null || entry.getValue() == null) {
+                    continue;
+                }
+                offsetProvider.updateOffset(new KafkaOffset(group, entry.getKey().topic(), entry.getKey().partition(),
+                        entry.getValue(), consumerOffset, Math.max(0, entry.getValue() - consumerOffset)));
             }
         }
 
@@ -118,34 +294,53 @@ public class KafkaMessageConsumerManager extends AbstractMessageConsumerManager
             closed.set(true);
             consumer.wakeup();
         }
+
+        /**
+         * Waits for the polling thread to commit the processed records and exit.
+         *
+         * @return false if the timeout elapsed before the thread exited
+         */
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return stopped.await(timeout, unit);
+        }
     }
 
     @Override
     protected void startConsumingForModule(SinkModule<?, Message> module) throws Exception {
-        if (!consumerRunnersByModule.containsKey(module)) {
+        if (!consumersByModule.containsKey(module)) {
             LOG.info("Starting consumers for module: {}", module);
 
-            final int numConsumerThreads = getNumConsumerThreads(module);
-            final List<KafkaConsumerRunner> consumerRunners = new ArrayList<>(numConsumerThreads);
-            for (int i = 0; i < numConsumerThreads; i++) {
-                final KafkaConsumerRunner consumerRunner = new KafkaConsumerRunner(module);
+            final OrderedLanes lanes = new OrderedLanes(getNumConsumerThreads(module), new ThreadFactoryBuilder()
+                    .setNameFormat("kafka-consumer-" + module.getId() + "-lane-%d")
+                    .build());
+            final List<KafkaConsumerRunner> consumerRunners = new ArrayList<>(numPollers);
+            for (int i = 0; i < numPollers; i++) {
+                final KafkaConsumerRunner consumerRunner = new KafkaConsumerRunner(module, lanes);
                 executor.execute(consumerRunner);
-                consumerRunners.add(new KafkaConsumerRunner(module));
+                consumerRunners.add(consumerRunner);
             }
 
-            consumerRunnersByModule.put(module, consumerRunners);
+            consumersByModule.put(module, new ModuleConsumers(consumerRunners, lanes));
         }
     }
 
     @Override
     protected void stopConsumingForModule(SinkModule<?, Message> module) throws Exception {
-        if (consumerRunnersByModule.containsKey(module)) {
+        final ModuleConsumers consumers = consumersByModule.remove(module);
+        if (consumers != null) {
             LOG.info("Stopping consumers for module: {}", module);
-            final List<KafkaConsumerRunner> consumerRunners = consumerRunnersByModule.get(module);
-            for (KafkaConsumerRunner consumerRunner : consumerRunners) {
+            for (KafkaConsumerRunner consumerRunner : consumers.runners) {
                 consumerRunner.shutdown();
             }
-            consumerRunnersByModule.remove(module);
+            // The pollers wait for the lanes to process the polled records before committing them,
+            // so the lanes are only shut down once the pollers have exited
+            final long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT_MS;
+            for (KafkaConsumerRunner consumerRunner : consumers.runners) {
+                if (!consumerRunner.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    LOG.warn("Timed out while waiting for the consumers of module {} to stop.", module.getId());
+                }
+            }
+            consumers.lanes.shutdown(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
         }
     }
 
@@ -154,10 +349,10 @@ public class KafkaMessageConsumerManager extends AbstractMessageConsumerManager
         // Set the defaults
         kafkaConfig.clear();
         kafkaConfig.put("group.id", SystemInfoUtils.getInstanceId());
-        kafkaConfig.put("enable.auto.commit", "true");
+        // The offsets are committed once the records were processed
+        kafkaConfig.put("enable.auto.commit", "false");
         kafkaConfig.put("key.deserializer", StringDeserializer.class.getCanonicalName());
         kafkaConfig.put("value.deserializer", ByteArrayDeserializer.class.getCanonicalName());
-        kafkaConfig.put("auto.commit.interval.ms", "1000");
 
         // Find all of the  system properties that start with 'org.opennms.core.ipc.sink.kafka.'
         // and add them to the config. See https://kafka.apache.org/0100/documentation.html#newconsumerconfigs
@@ -169,12 +364,19 @@ public class KafkaMessageConsumerManager extends AbstractMessageConsumerManager
             }
             final String key = (String)keyAsObject;
 
+            if (key.startsWith(KafkaSinkConstants.KAFKA_CONSUMER_SYS_PROP_PREFIX)) {
+                // Options of the consumer manager itself
+                continue;
+            }
             if (key.length() > KafkaSinkConstants.KAFKA_CONFIG_SYS_PROP_PREFIX.length()
                     && key.startsWith(KafkaSinkConstants.KAFKA_CONFIG_SYS_PROP_PREFIX)) {
                 final String kafkaConfigKey = key.substring(KafkaSinkConstants.KAFKA_CONFIG_SYS_PROP_PREFIX.length());
                 kafkaConfig.put(kafkaConfigKey, entry.getValue());
             }
         }
-        LOG.info("KafkaMessageConsumerManager: consuming from Kafka using: {}", kafkaConfig);
+
+        numPollers = Math.max(1, Integer.getInteger(KafkaSinkConstants.KAFKA_CONSUMER_POLLERS_SYS_PROP, KafkaSinkConstants.DEFAULT_CONSUMER_POLLERS));
+        maxInFlightBatches = Math.max(1, Integer.getInteger(KafkaSinkConstants.KAFKA_CONSUMER_MAX_IN_FLIGHT_BATCHES_SYS_PROP, KafkaSinkConstants.DEFAULT_CONSUMER_MAX_IN_FLIGHT_BATCHES));
+        LOG.info("KafkaMessageConsumerManager: consuming from Kafka with {} poller(s) per module using: {}", numPollers, kafkaConfig);
     }
 }
@@ -28,10 +28,19 @@
 
 package org.opennms.core.ipc.sink.kafka;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
 import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.common.serialization.StringSerializer;
 import org.opennms.core.camel.JmsQueueNameFactory;
@@ -48,41 +57,114 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 
-public class KafkaRemoteMessageDispatcherFactory extends AbstractMessageDispatcherFactory<String> {
+/**
+ * Dispatches the sink messages to Kafka.
+ *
+ * All modules share the same producer, unless producer properties are overridden for
+ * a module using the 'module.&lt;module-id&gt;.' prefix, i.e. to tune 'linger.ms', 'batch.size'
+ * or 'compression.type' for the flows. These modules get a producer of their own.
+ *
+ * The records are keyed with the {@link SinkModule#getRoutingKey(Message)} of the message,
+ * so that all the messages of an exporter or agent end up in the same partition.
+ */
+public class KafkaRemoteMessageDispatcherFactory extends AbstractMessageDispatcherFactory<KafkaRemoteMessageDispatcherFactory.ModuleMetadata> {
     private static final Logger LOG = LoggerFactory.getLogger(KafkaRemoteMessageDispatcherFactory.class);
 
+    private static final int DEFAULT_BATCH_SIZE = 16384;
+
     private final Properties kafkaConfig = new Properties();
 
+    private final Map<String, Properties> moduleConfigs = new HashMap<>();
+
+    private final Map<String, Producer<String,byte[]>> moduleProducers = new ConcurrentHashMap<>();
+
     private ConfigurationAdmin configAdmin;
 
     private JmxReporter reporter;
 
-    private KafkaProducer<String,byte[]> producer;
+    private Producer<String,byte[]> producer;
+
+    /**
+     * The topic, producer and metrics used to dispatch the messages of a module.
+     */
+    public static class ModuleMetadata {
+        private final String topic;
+        private final Producer<String,byte[]> producer;
+        private final Timer sendLatency;
+        private final Histogram messageSize;
+
+        private ModuleMetadata(String topic, Producer<String,byte[]> producer, Timer sendLatency, Histogram messageSize) {
+            this.topic = topic;
+            this.producer = producer;
+            this.sendLatency = sendLatency;
+            this.messageSize = messageSize;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+    }
 
     @Override
-    public <S extends Message, T extends Message> String getModuleMetadata(final SinkModule<S, T> module) {
+    public <S extends Message, T extends Message> ModuleMetadata getModuleMetadata(final SinkModule<S, T> module) {
         final JmsQueueNameFactory topicNameFactory = new JmsQueueNameFactory(KafkaSinkConstants.KAFKA_TOPIC_PREFIX, module.getId());
-        return topicNameFactory.getName();
+
+        final Producer<String,byte[]> moduleProducer;
+        final Properties moduleConfig = moduleConfigs.get(module.getId());
+        if (moduleConfig != null) {
+            moduleProducer = moduleProducers.computeIfAbsent(module.getId(), id -> {
+                LOG.info("KafkaRemoteMessageDispatcherFactory: initializing the Kafka producer of module {} with: {}", id, moduleConfig);
+                return createProducer(moduleConfig);
+            });
+        } else {
+            moduleProducer = producer;
+        }
+        final int batchSize = getBatchSize(moduleConfig != null ? moduleConfig : kafkaConfig);
+
+        final MetricRegistry metrics = getMetrics();
+        synchronized (metrics) {
+            final String batchFillRatioName = MetricRegistry.name(module.getId(), "batch-fill-ratio");
+            if (!metrics.getGauges().containsKey(batchFillRatioName)) {
+                metrics.register(batchFillRatioName, new Gauge<Double>() {
+                    @Override
+                    public Double getValue() {
+                        return getProducerMetric(moduleProducer, "batch-size-avg") / batchSize;
+                    }
+                });
+            }
+        }
+        return new ModuleMetadata(topicNameFactory.getName(), moduleProducer,
+                metrics.timer(MetricRegistry.name(module.getId(), "send-latency")),
+                metrics.histogram(MetricRegistry.name(module.getId(), "message-bytes")));
     }
 
     @Override
-    public <S extends Message, T extends Message> void dispatch(SinkModule<S, T> module, String topic, T message) {
+    public <S extends Message, T extends Message> void dispatch(SinkModule<S, T> module, ModuleMetadata metadata, T message) {
         try (MDCCloseable mdc = Logging.withPrefixCloseable(MessageConsumerManager.LOG_PREFIX)) {
+            final String topic = metadata.topic;
             LOG.trace("dispatch({}): sending message {}", topic, message);
-            final ProducerRecord<String,byte[]> record = new ProducerRecord<>(topic, module.marshal(message));
+            final byte[] bytes = module.marshal(message);
+            metadata.messageSize.update(bytes.length);
+            final ProducerRecord<String,byte[]> record = new ProducerRecord<>(topic, module.getRoutingKey(message), bytes);
             try {
                 // From KafkaProducer's JavaDoc: The producer is thread safe and should generally be shared among all threads for best performance.
-                final Future<RecordMetadata> future = producer.send(record);
+                final Timer.Context sendContext = metadata.sendLatency.time();
+                final Future<RecordMetadata> future = metadata.producer.send(record, (recordMetadata, exception) -> sendContext.stop());
                 // The call to dispatch() is synchronous, so we block until the message was sent
                 future.get();
             } catch (InterruptedException e) {
-                LOG.warn("Interrupted while sending message to topic {}.", topic, e);
+                Thread.currentThread().interrupt();
+                throw new KafkaException("Interrupted while sending message to topic " + topic, e);
             } catch (ExecutionException e) {
-                LOG.error("Error occured while sending message to topic {}.", topic, e);
+                // Let the caller retry, or spool, the message
+                throw new KafkaException("Error occured while sending message to topic " + topic, e.getCause());
             }
         }
     }
@@ -93,29 +175,79 @@ public class KafkaRemoteMessageDispatcherFactory extends AbstractMessageDispatch
 
             // Defaults
             kafkaConfig.clear();
+            moduleConfigs.clear();
             kafkaConfig.put("key.serializer", StringSerializer.class.getCanonicalName());
             kafkaConfig.put("value.serializer", ByteArraySerializer.class.getCanonicalName());
 
             // Retrieve all of the properties from org.opennms.core.ipc.sink.kafka.cfg
+            final Map<String, Map<String, Object>> moduleProperties = new HashMap<>();
             final Dictionary<String, Object> properties = configAdmin.getConfiguration(KafkaSinkConstants.KAFKA_CONFIG_PID).getProperties();
             if (properties != null) {
                 final Enumeration<String> keys = properties.keys();
                 while (keys.hasMoreElements()) {
                   final String key = keys.nextElement();
-                  kafkaConfig.put(key, properties.get(key));
+                  if (key.startsWith(KafkaSinkConstants.KAFKA_MODULE_CONFIG_PREFIX)) {
+                      // module.<module-id>.<producer property>
+                      final String moduleKey = key.substring(KafkaSinkConstants.KAFKA_MODULE_CONFIG_PREFIX.length());
+                      final int separator = moduleKey.indexOf('.');
+                      if (separator <= 0 || separator == moduleKey.length() - 1) {
+                          LOG.warn("Ignoring invalid module specific property: {}", key);
+                          continue;
+                      }
+                      moduleProperties.computeIfAbsent(moduleKey.substring(0, separator), id -> new HashMap<>())
+                              .put(moduleKey.substring(separator + 1), properties.get(key));
+                  } else {
+                      kafkaConfig.put(key, properties.get(key));
+                  }
                 }
             }
 
+            // The module specific properties override the shared ones
+            for (Map.Entry<String, Map<String, Object>> entry : moduleProperties.entrySet()) {
+                final Properties moduleConfig = new Properties();
+                moduleConfig.putAll(kafkaConfig);
+                moduleConfig.putAll(entry.getValue());
+                moduleConfigs.put(entry.getKey(), moduleConfig);
+            }
+
             LOG.info("KafkaRemoteMessageDispatcherFactory: initializing the Kafka producer with: {}", kafkaConfig);
-            final ClassLoader currentClassLoader = Thread.currentThread().getContextClassLoader();
+            producer = createProducer(kafkaConfig);
+        }
+    }
+
+    protected Producer<String,byte[]> createProducer(Properties config) {
+        final ClassLoader currentClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            // Class-loader hack for accessing the org.apache.kafka.common.serialization.ByteArraySerializer
+            Thread.currentThread().setContextClassLoader(null);
+            return new KafkaProducer<>(config);
+        } finally {
+            Thread.currentThread().setContextClassLoader(currentClassLoader);
+        }
+    }
+
+    private static int getBatchSize(Properties config) {
+        final Object batchSize = config.get(ProducerConfig.BATCH_SIZE_CONFIG);
+        if (batchSize != null) {
             try {
-                // Class-loader hack for accessing the org.apache.kafka.common.serialization.ByteArraySerializer
-                Thread.currentThread().setContextClassLoader(null);
-                producer = new KafkaProducer<>(kafkaConfig);
-            } finally {
-                Thread.currentThread().setContextClassLoader(currentClassLoader);
+                return Integer.parseInt(batchSize.toString().trim());
+            } catch (NumberFormatException e) {
+                LOG.warn("Invalid {}: {}", ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
             }
         }
+        return DEFAULT_BATCH_SIZE;
+    }
+
+    private static double getProducerMetric(Producer<String,byte[]> producer, String name) {
+        if (producer == null) {
+            return Double.NaN;
+        }
+        for (Map.Entry<MetricName, ? extends Metric> entry : producer.metrics().entrySet()) {
+            if (name.equals(entry.getKey().name()) && "producer-metrics".equals(entry.getKey().group())) {
+                return entry.getValue().value();
+            }
+        }
+        return Double.NaN;
     }
 
     private void registerJmxReporter() {
@@ -133,6 +265,11 @@ public class KafkaRemoteMessageDispatcherFactory extends AbstractMessageDispatch
             reporter = null;
         }
 
+        for (Producer<String,byte[]> moduleProducer : moduleProducers.values()) {
+            moduleProducer.close();
+        }
+        moduleProducers.clear();
+
         if (producer != null) {
             producer.close();
             producer = null;
@@ -35,4 +35,24 @@ public interface KafkaSinkConstants {
 
     static final String KAFKA_CONFIG_SYS_PROP_PREFIX = KAFKA_CONFIG_PID + ".";
 
+    /**
+     * Prefix of the producer properties overridden for a single module,
+     * i.e. 'module.Telemetry-Netflow-9.linger.ms'.
+     */
+    static final String KAFKA_MODULE_CONFIG_PREFIX = "module.";
+
+    /**
+     * Prefix of the system properties configuring the consumer manager, which are
+     * not passed on to the Kafka consumers.
+     */
+    static final String KAFKA_CONSUMER_SYS_PROP_PREFIX = KAFKA_CONFIG_SYS_PROP_PREFIX + "consumer.";
+
+    static final String KAFKA_CONSUMER_POLLERS_SYS_PROP = KAFKA_CONSUMER_SYS_PROP_PREFIX + "pollers";
+
+    static final int DEFAULT_CONSUMER_POLLERS = 1;
+
+    static final String KAFKA_CONSUMER_MAX_IN_FLIGHT_BATCHES_SYS_PROP = KAFKA_CONSUMER_SYS_PROP_PREFIX + "maxInFlightBatches";
+
+    static final int DEFAULT_CONSUMER_MAX_IN_FLIGHT_BATCHES = 4;
+
 }
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.core.ipc.sink.kafka;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed number of single threaded lanes used to process the records of a module.
+ *
+ * Tasks submitted with the same key always run on the same lane, and hence in the
+ * order in which they were submitted, while tasks with different keys run in parallel.
+ * Tasks without a key are distributed over the lanes in a round-robin fashion.
+ */
+class OrderedLanes {
+
+    private final List<ExecutorService> lanes;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    OrderedLanes(int numLanes, ThreadFactory threadFactory) {
+        if (numLanes < 1) {
+            throw new IllegalArgumentException("numLanes must be > 0");
+        }
+        lanes = new ArrayList<>(numLanes);
+        for (int i = 0; i < numLanes; i++) {
+            lanes.add(Executors.newSingleThreadExecutor(threadFactory));
+        }
+    }
+
+    void execute(Object key, Runnable task) {
+        final int lane;
+        if (key != null) {
+            lane = Math.floorMod(key.hashCode(), lanes.size());
+        } else {
+            lane = Math.floorMod(next.getAndIncrement(), lanes.size());
+        }
+        lanes.get(lane).execute(task);
+    }
+
+    int size() {
+        return lanes.size();
+    }
+
+    /**
+     * Stops the lanes after all of the submitted tasks were processed.
+     */
+    void shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ExecutorService lane : lanes) {
+            lane.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+    }
+}
@@ -167,32 +167,8 @@ public class KafkaOffsetProvider {
                                     if (realOffset > 0) {
                                         lag = realOffset - consumerOffset;
                                     }
-                                    KafkaOffset mon = new KafkaOffset(group, topic, partition, realOffset,
-                                            consumerOffset, lag);
-                                    LOGGER.debug("group : {} , topic: {}:{} , offsets : {}-{}-{}", group, topic,
-                                            partition, consumerOffset, realOffset, lag);
-
-                                    Map<Integer, KafkaOffset> map = consumerOffsetMap.get(topic);
-
-                                    if (map == null) {
-                                        map = new ConcurrentHashMap<>();
-                                        consumerOffsetMap.put(topic, map);
-                                        kafkaOffsetMetrics.register(MetricRegistry.name(topic, "Lag"), new Gauge<Long>() {
-                                            @Override
-                                            public Long getValue() {
-                                                return consumerLagMap.get(topic);
-
-                                            }
-                                        });
-                                    }
-                                    map.put(partition, mon);
-                                    long totalLag = 0;
-                                    for (KafkaOffset offset : map.values()) {
-                                        totalLag += offset.getLag();
-                                    }
-                                    LOGGER.debug(" Total lag for topic {} is {} ", topic, totalLag);
-
-                                    consumerLagMap.put(topic, totalLag);
+                                    updateOffset(new KafkaOffset(group, topic, partition, realOffset,
+                                            consumerOffset, lag));
 
                                 } catch (Exception e) {
                                     LOGGER.debug("Exception while getting offset", e);
@@ -218,6 +194,41 @@ public class KafkaOffsetProvider {
 
     }
 
+    /**
+     * Updates the offsets and lag of a partition, used for the offsets read from the
+     * offsets topic as well as the offsets committed by the sink consumers.
+     */
+    public void updateOffset(KafkaOffset offset) {
+        final String topic = offset.getTopic();
+        LOGGER.debug("group : {} , topic: {}:{} , offsets : {}-{}-{}", offset.getConsumerGroupName(), topic,
+                offset.getPartition(), offset.getConsumerOffset(), offset.getLogSize(), offset.getLag());
+
+        final Map<Integer, KafkaOffset> map = consumerOffsetMap.computeIfAbsent(topic, t -> {
+            kafkaOffsetMetrics.register(MetricRegistry.name(t, "Lag"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return consumerLagMap.get(t);
+                }
+            });
+            return new ConcurrentHashMap<>();
+        });
+        map.put(offset.getPartition(), offset);
+        long totalLag = 0;
+        for (KafkaOffset partitionOffset : map.values()) {
+            totalLag += partitionOffset.getLag();
+        }
+        LOGGER.debug(" Total lag for topic {} is {} ", topic, totalLag);
+
+        consumerLagMap.put(topic, totalLag);
+    }
+
+    /**
+     * @return the total lag of the consumers of the given topic, or null if unknown
+     */
+    public Long getConsumerLag(String topic) {
+        return consumerLagMap.get(topic);
+    }
+
     private long readOffsetMessageValue(ByteBuffer buffer) {
         buffer.getShort(); // read and ignore version
         long offset = buffer.getLong();
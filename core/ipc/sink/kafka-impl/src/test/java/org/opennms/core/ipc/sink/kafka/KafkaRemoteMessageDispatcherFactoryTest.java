@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.kafka;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.ipc.sink.kafka.KafkaRemoteMessageDispatcherFactory.ModuleMetadata;
+import org.opennms.core.ipc.sink.kafka.heartbeat.Heartbeat;
+import org.opennms.core.ipc.sink.kafka.heartbeat.HeartbeatModule;
+import org.osgi.service.cm.Configuration;
+import org.osgi.service.cm.ConfigurationAdmin;
+
+public class KafkaRemoteMessageDispatcherFactoryTest {
+
+    private final Hashtable<String, Object> properties = new Hashtable<>();
+
+    private final List<Properties> producerConfigs = new ArrayList<>();
+
+    private final List<MockProducer<String, byte[]>> producers = new ArrayList<>();
+
+    private final KafkaRemoteMessageDispatcherFactory dispatcherFactory = new KafkaRemoteMessageDispatcherFactory() {
+        @Override
+        protected Producer<String, byte[]> createProducer(Properties config) {
+            final MockProducer<String, byte[]> producer = new MockProducer<>(true, new StringSerializer(), new ByteArraySerializer());
+            producerConfigs.add(config);
+            producers.add(producer);
+            return producer;
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException {
+        final Configuration config = mock(Configuration.class);
+        when(config.getProperties()).thenReturn(properties);
+        final ConfigurationAdmin configAdmin = mock(ConfigurationAdmin.class);
+        when(configAdmin.getConfiguration(KafkaSinkConstants.KAFKA_CONFIG_PID)).thenReturn(config);
+        dispatcherFactory.setConfigAdmin(configAdmin);
+    }
+
+    @After
+    public void tearDown() {
+        dispatcherFactory.destroy();
+    }
+
+    @Test
+    public void canOverrideTheProducerPropertiesOfModules() throws IOException {
+        properties.put("bootstrap.servers", "kafka:9092");
+        properties.put("linger.ms", "5");
+        properties.put("module.Flows.linger.ms", "100");
+        properties.put("module.Flows.compression.type", "lz4");
+        properties.put("module.Invalid", "1");
+        properties.put("module.Invalid.", "1");
+        dispatcherFactory.init();
+
+        // Only the shared producer is created up front, without any of the module properties
+        assertEquals(1, producerConfigs.size());
+        final Properties sharedConfig = producerConfigs.get(0);
+        assertEquals("kafka:9092", sharedConfig.get("bootstrap.servers"));
+        assertEquals("5", sharedConfig.get("linger.ms"));
+        assertNull(sharedConfig.get("compression.type"));
+        for (Object key : sharedConfig.keySet()) {
+            assertFalse(key.toString(), key.toString().startsWith(KafkaSinkConstants.KAFKA_MODULE_CONFIG_PREFIX));
+        }
+
+        // The module gets a producer of its own, which inherits the shared properties it does not override
+        final ModuleMetadata flowsMetadata = dispatcherFactory.getModuleMetadata(new KeyedModule("Flows", null));
+        assertEquals(2, producerConfigs.size());
+        final Properties flowsConfig = producerConfigs.get(1);
+        assertEquals("kafka:9092", flowsConfig.get("bootstrap.servers"));
+        assertEquals("100", flowsConfig.get("linger.ms"));
+        assertEquals("lz4", flowsConfig.get("compression.type"));
+        assertEquals(StringSerializer.class.getCanonicalName(), flowsConfig.get("key.serializer"));
+        // without altering the shared ones
+        assertEquals("5", sharedConfig.get("linger.ms"));
+
+        // The producer of the module is reused
+        dispatcherFactory.getModuleMetadata(new KeyedModule("Flows", null));
+        assertEquals(2, producerConfigs.size());
+
+        // Other modules, including the ones with invalid properties, use the shared producer
+        final ModuleMetadata invalidMetadata = dispatcherFactory.getModuleMetadata(new KeyedModule("Invalid", null));
+        final ModuleMetadata heartbeatMetadata = dispatcherFactory.getModuleMetadata(HeartbeatModule.INSTANCE);
+        assertEquals(2, producerConfigs.size());
+
+        final Heartbeat heartbeat = new Heartbeat();
+        dispatcherFactory.dispatch(HeartbeatModule.INSTANCE, heartbeatMetadata, heartbeat);
+        dispatcherFactory.dispatch(new KeyedModule("Invalid", null), invalidMetadata, heartbeat);
+        dispatcherFactory.dispatch(new KeyedModule("Flows", null), flowsMetadata, heartbeat);
+        assertEquals(2, producers.get(0).history().size());
+        assertEquals(1, producers.get(1).history().size());
+        assertEquals(flowsMetadata.getTopic(), producers.get(1).history().get(0).topic());
+    }
+
+    @Test
+    public void canKeyTheRecordsWithTheRoutingKey() throws IOException {
+        dispatcherFactory.init();
+
+        final KeyedModule module = new KeyedModule("Heartbeat", "10.0.0.1");
+        final ModuleMetadata metadata = dispatcherFactory.getModuleMetadata(module);
+        final Heartbeat heartbeat = new Heartbeat();
+        dispatcherFactory.dispatch(module, metadata, heartbeat);
+        dispatcherFactory.dispatch(HeartbeatModule.INSTANCE, metadata, heartbeat);
+
+        final List<ProducerRecord<String, byte[]>> records = producers.get(0).history();
+        assertEquals(2, records.size());
+        assertEquals(metadata.getTopic(), records.get(0).topic());
+        assertEquals("10.0.0.1", records.get(0).key());
+        assertArrayEquals(module.marshal(heartbeat), records.get(0).value());
+        // Modules without a routing key leave the partitioning to the producer
+        assertNull(records.get(1).key());
+    }
+
+    private static class KeyedModule extends HeartbeatModule {
+        private final String id;
+        private final String routingKey;
+
+        private KeyedModule(String id, String routingKey) {
+            this.id = id;
+            this.routingKey = routingKey;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+
+        @Override
+        public String getRoutingKey(Heartbeat message) {
+            return routingKey;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.core.ipc.sink.kafka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+public class OrderedLanesTest {
+
+    private final OrderedLanes lanes = new OrderedLanes(4, new ThreadFactoryBuilder().setNameFormat("lane-test-%d").build());
+
+    @Test
+    public void canKeepOrderPerKey() throws InterruptedException {
+        final Map<String, List<Integer>> processed = new ConcurrentHashMap<>();
+        final Map<String, Set<String>> threads = new ConcurrentHashMap<>();
+        for (int i = 0; i < 10000; i++) {
+            final String key = "10.0.0." + (i % 16);
+            final int sequence = i;
+            lanes.execute(key, () -> {
+                processed.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<>())).add(sequence);
+                threads.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(Thread.currentThread().getName());
+            });
+        }
+        lanes.shutdown(10, TimeUnit.SECONDS);
+
+        assertEquals(16, processed.size());
+        for (Map.Entry<String, List<Integer>> entry : processed.entrySet()) {
+            final List<Integer> sequences = entry.getValue();
+            assertEquals(625, sequences.size());
+            for (int i = 1; i < sequences.size(); i++) {
+                assertTrue(entry.getKey() + " out of order", sequences.get(i - 1) < sequences.get(i));
+            }
+            // All of the messages of a key are processed by the same lane
+            assertEquals(1, threads.get(entry.getKey()).size());
+        }
+    }
+
+    @Test
+    public void canProcessKeysInParallel() throws InterruptedException {
+        // Blocks every lane until all of them are busy at the same time
+        final CountDownLatch allBusy = new CountDownLatch(lanes.size());
+        final CountDownLatch done = new CountDownLatch(lanes.size());
+        for (int i = 0; i < lanes.size(); i++) {
+            lanes.execute(null, () -> {
+                allBusy.countDown();
+                try {
+                    if (allBusy.await(10, TimeUnit.SECONDS)) {
+                        done.countDown();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        lanes.shutdown(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void canDistributeRecordsWithoutKey() throws InterruptedException {
+        final Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 400; i++) {
+            lanes.execute(null, () -> {
+                synchronized (counts) {
+                    counts.merge(Thread.currentThread().getName(), 1, Integer::sum);
+                }
+            });
+        }
+        lanes.shutdown(10, TimeUnit.SECONDS);
+
+        assertEquals(4, counts.size());
+        for (Integer count : counts.values()) {
+            assertEquals(100, count.intValue());
+        }
+    }
+}
@@ -29,20 +29,54 @@
 package org.opennms.core.ipc.sink.xml;
 
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
 
+import org.opennms.core.ipc.sink.api.SinkCodec;
 import org.opennms.core.ipc.sink.api.SinkModule;
 import org.opennms.core.xml.XmlHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.opennms.core.ipc.sink.api.Message;
 
+/**
+ * Marshals the messages to XML using JAXB, or using one of the module's additional
+ * {@link SinkCodec}s when configured to do so.
+ *
+ * Messages encoded with a codec are prefixed with a header that identifies the codec:
+ * a {@link #CODEC_HEADER_MAGIC} byte, followed by the length of the codec name and the name itself.
+ * Since XML documents never start with a NUL byte, both formats can be unmarshaled by the
+ * consumers, which allows producers and consumers running different versions to interoperate.
+ *
+ * The codec is selected using the {@value #CODEC_SYS_PROP} system property, which can be overridden
+ * for a specific module using {@value #CODEC_SYS_PROP}.&lt;module-id&gt;. XML is used by default.
+ */
 public abstract class AbstractXmlSinkModule<S extends Message, T extends Message> implements SinkModule<S, T> {
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractXmlSinkModule.class);
 
+    public static final String CODEC_SYS_PROP = "org.opennms.core.ipc.sink.codec";
+
+    public static final String XML_CODEC = "xml";
+
+    public static final byte CODEC_HEADER_MAGIC = 0;
+
     private final Class<T> messageClazz;
 
+    /**
+     * Codecs indexed by name, resolved on first use since the
+     * codecs are provided by the subclasses.
+     */
+    private volatile Map<String, SinkCodec<T>> codecsByName;
+
+    /**
+     * Codec used to marshal the messages, or {@code null} when using XML.
+     */
+    private volatile SinkCodec<T> codec;
+
+    private volatile boolean codecResolved = false;
+
     /**
      * Store a thread-local reference to the {@link XmlHandler} because 
      * Unmarshalers are not thread-safe.
@@ -55,12 +89,38 @@ public abstract class AbstractXmlSinkModule<S extends Message, T extends Message
 
     @Override
     public byte[] marshal(T message) {
-        return getXmlHandler().marshal(message).getBytes(StandardCharsets.UTF_8);
+        final SinkCodec<T> codec = getCodec();
+        if (codec == null) {
+            return getXmlHandler().marshal(message).getBytes(StandardCharsets.UTF_8);
+        }
+
+        final byte[] name = codec.getName().getBytes(StandardCharsets.US_ASCII);
+        final byte[] payload = codec.encode(message);
+        final byte[] bytes = new byte[2 + name.length + payload.length];
+        bytes[0] = CODEC_HEADER_MAGIC;
+        bytes[1] = (byte)name.length;
+        System.arraycopy(name, 0, bytes, 2, name.length);
+        System.arraycopy(payload, 0, bytes, 2 + name.length, payload.length);
+        return bytes;
     }
 
     @Override
     public T unmarshal(byte[] bytes) {
-        return getXmlHandler().unmarshal(new String(bytes, StandardCharsets.UTF_8));
+        if (bytes.length < 2 || bytes[0] != CODEC_HEADER_MAGIC) {
+            return getXmlHandler().unmarshal(new String(bytes, StandardCharsets.UTF_8));
+        }
+
+        final int nameLength = bytes[1];
+        if (nameLength < 1 || 2 + nameLength > bytes.length) {
+            throw new IllegalArgumentException("Invalid codec header in message for module: " + getId());
+        }
+        final String name = new String(bytes, 2, nameLength, StandardCharsets.US_ASCII);
+        final SinkCodec<T> codec = getCodecsByName().get(name);
+        if (codec == null) {
+            throw new IllegalArgumentException("Message for module " + getId() + " was encoded using unsupported codec: " + name);
+        }
+        final int offset = 2 + nameLength;
+        return codec.decode(bytes, offset, bytes.length - offset);
     }
 
     @Override
@@ -75,6 +135,34 @@ public abstract class AbstractXmlSinkModule<S extends Message, T extends Message
         return getClass() == obj.getClass();
     }
 
+    private SinkCodec<T> getCodec() {
+        if (!codecResolved) {
+            final String name = System.getProperty(CODEC_SYS_PROP + "." + getId(), System.getProperty(CODEC_SYS_PROP, XML_CODEC));
+            SinkCodec<T> selected = null;
+            if (!XML_CODEC.equalsIgnoreCase(name)) {
+                selected = getCodecsByName().get(name);
+                if (selected == null) {
+                    LOG.warn("Module {} does not support codec '{}'. Using {} instead.", getId(), name, XML_CODEC);
+                }
+            }
+            codec = selected;
+            codecResolved = true;
+        }
+        return codec;
+    }
+
+    private Map<String, SinkCodec<T>> getCodecsByName() {
+        Map<String, SinkCodec<T>> codecs = codecsByName;
+        if (codecs == null) {
+            codecs = new HashMap<>();
+            for (SinkCodec<T> codec : getCodecs()) {
+                codecs.put(codec.getName(), codec);
+            }
+            codecsByName = codecs;
+        }
+        return codecs;
+    }
+
     private XmlHandler<T> getXmlHandler() {
         XmlHandler<T> xmlHandler = messageXmlHandler.get();
         if (xmlHandler == null) {
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.eventd;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
@@ -292,6 +293,12 @@ public abstract class AbstractEventUtil implements EventUtil {
 	 */
 	protected static final int PARM_NAME_NUMBERED_PREFIX_LENGTH = 11;
 
+	/**
+	 * Pattern used to parse the '<num><separator><offset>[:[<length>]]' specification
+	 * of a numbered parm name.
+	 */
+	private static final Pattern PARM_NAME_NUMBERED_SPEC = Pattern.compile("^(\\d+)([^0-9+-]+)([+-]?\\d+)((:)([+-]?\\d+)?)?$");
+
 	/**
 	 * The string that ends the expansion of a parm
 	 */
@@ -544,68 +551,97 @@ public abstract class AbstractEventUtil implements EventUtil {
 	 * @return The name of a parameter based on its ordinal position in the event's list of parameters
 	 */
 	protected static String getNumParmName(String parm, Event event) {
-		String retParmVal = null;
-		final List<Parm> parms = event.getParmCollection();
+		return bindNumParmName(parm).getValue(event, null);
+	}
+
+	/**
+	 * Parses a 'parm[name-#...]' token once, see {@link #getNumParmName(String, Event)}.
+	 *
+	 * @param parm the token
+	 * @return a binding returning the (optionally split) name of the referenced parameter
+	 */
+	static ExpandableParameterResolver.Binding bindNumParmName(String parm) {
 		int end = parm.lastIndexOf(PARM_END_SUFFIX);
-		if (end != -1 && parms != null && parms.size() > 0) {
-			// Get the string between the '#' and ']'
-			String parmSpec = parm.substring(PARM_NAME_NUMBERED_PREFIX_LENGTH, end);
-			String eparmnum = null;
-			String eparmsep = null;
-			String eparmoffset = null;
-			String eparmrangesep = null;
-			String eparmrangelen = null;
-			if (parmSpec.matches("^\\d+$")) {
-				eparmnum = parmSpec;
-			} else {
-				Matcher m = Pattern.compile("^(\\d+)([^0-9+-]+)([+-]?\\d+)((:)([+-]?\\d+)?)?$").matcher(parmSpec);
-				if (m.matches()) {
-					eparmnum = m.group(1);
-					eparmsep = m.group(2);
-					eparmoffset = m.group(3);
-					eparmrangesep = m.group(5);
-					eparmrangelen = m.group(6);
-				}
-			}
-			int parmNum = -1;
-			try {
-				parmNum = Integer.parseInt(eparmnum);
-			} catch (NumberFormatException nfe) {
-				parmNum = -1;
-				retParmVal = null;
+		if (end == -1) {
+			return (event, eventUtil) -> null;
+		}
+
+		// Get the string between the '#' and ']'
+		String parmSpec = parm.substring(PARM_NAME_NUMBERED_PREFIX_LENGTH, end);
+		String eparmnum = null;
+		String eparmsep = null;
+		String eparmoffset = null;
+		String eparmrangesep = null;
+		String eparmrangelen = null;
+		if (isDigits(parmSpec)) {
+			eparmnum = parmSpec;
+		} else {
+			Matcher m = PARM_NAME_NUMBERED_SPEC.matcher(parmSpec);
+			if (m.matches()) {
+				eparmnum = m.group(1);
+				eparmsep = m.group(2);
+				eparmoffset = m.group(3);
+				eparmrangesep = m.group(5);
+				eparmrangelen = m.group(6);
 			}
+		}
+		final int parmNum = parseParmNum(eparmnum);
+		if (parmNum <= 0) {
+			return (event, eventUtil) -> null;
+		}
 
-			if (parmNum > 0 && parmNum <= parms.size()) {
-				final Parm evParm = parms.get(parmNum - 1);
-
-				// get parm name
-				String eparmname = evParm.getParmName();
-				
-				// If separator and offset specified, split and extract accordingly
-				if ((eparmsep != null) && (eparmoffset != null)) {
-					int parmOffset = Integer.parseInt(eparmoffset);
-					boolean doRange = ":".equals(eparmrangesep);
-					int parmRangeLen = (eparmrangelen == null) ? 0 : Integer.parseInt(eparmrangelen);
-					retParmVal = splitAndExtract(eparmname, eparmsep, parmOffset, doRange, parmRangeLen);
-				} else {
-					retParmVal = eparmname;
+		// If separator and offset specified, split and extract accordingly
+		if ((eparmsep != null) && (eparmoffset != null)) {
+			final String sep = eparmsep;
+			final String offset = eparmoffset;
+			final String rangeLen = eparmrangelen;
+			final boolean doRange = ":".equals(eparmrangesep);
+			return (event, eventUtil) -> {
+				final List<Parm> parms = event.getParmCollection();
+				if (parmNum > parms.size()) {
+					return null;
 				}
-			} else {
-				retParmVal = null;
+				// The offsets are only converted when the parameter exists, as before
+				final int parmOffset = Integer.parseInt(offset);
+				final int parmRangeLen = (rangeLen == null) ? 0 : Integer.parseInt(rangeLen);
+				return splitAndExtract(parms.get(parmNum - 1).getParmName(), sep, parmOffset, doRange, parmRangeLen);
+			};
+		} else {
+			return (event, eventUtil) -> {
+				final List<Parm> parms = event.getParmCollection();
+				return parmNum <= parms.size() ? parms.get(parmNum - 1).getParmName() : null;
+			};
+		}
+	}
+
+	private static boolean isDigits(String value) {
+		if (value.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
 			}
 		}
-		return retParmVal;
+		return true;
+	}
+
+	private static int parseParmNum(String parmNum) {
+		try {
+			return Integer.parseInt(parmNum);
+		} catch (NumberFormatException nfe) {
+			return -1;
+		}
 	}
 
 	public static String splitAndExtract(String src, String sep, int offset, boolean doRange, int rangeLen) {
-		String sepLiteral = Pattern.quote(sep);
-		
 		// If the src string starts with the separator, lose the first separator
 		if (src.startsWith(sep)) {
-			src = src.replaceFirst(sepLiteral, "");
+			src = src.substring(sep.length());
 		}
 		
-		String[] components = src.split(sepLiteral);
+		String[] components = split(src, sep);
 		int startIndex, endIndex;
 		if ((Math.abs(offset) > components.length) || (offset == 0)) {
 			return null;
@@ -639,6 +675,35 @@ public abstract class AbstractEventUtil implements EventUtil {
 		return retVal.toString();
 	}
 
+	/**
+	 * Splits the string around the literal separator with the same result as
+	 * {@link String#split(String)} with the quoted separator.
+	 */
+	private static String[] split(String src, String sep) {
+		if (sep.isEmpty()) {
+			return src.split(Pattern.quote(sep));
+		}
+
+		final List<String> components = new ArrayList<>();
+		int start = 0;
+		int index;
+		while ((index = src.indexOf(sep, start)) != -1) {
+			components.add(src.substring(start, index));
+			start = index + sep.length();
+		}
+		if (start == 0) {
+			return new String[] { src };
+		}
+		components.add(src.substring(start));
+
+		// Trailing empty strings are not included
+		int size = components.size();
+		while (size > 0 && components.get(size - 1).isEmpty()) {
+			size--;
+		}
+		return components.subList(0, size).toArray(new String[size]);
+	}
+
 	/**
 	 * Helper method.
 	 * 
@@ -647,33 +712,58 @@ public abstract class AbstractEventUtil implements EventUtil {
 	 * @return The value of a parameter based on its ordinal position in the event's list of parameters
 	 */
 	protected static String getNumParmValue(String parm, Event event) {
-		String retParmVal = null;
-		final List<Parm> parms = event.getParmCollection();
+		return bindNumParmValue(parm).getValue(event, null);
+	}
+
+	/**
+	 * Parses a 'parm[#...]' token once, see {@link #getNumParmValue(String, Event)}.
+	 *
+	 * @param parm the token
+	 * @return a binding returning the value of the referenced parameter
+	 */
+	static ExpandableParameterResolver.Binding bindNumParmValue(String parm) {
 		int end = parm.lastIndexOf(PARM_END_SUFFIX);
-		if (end != -1 && parms != null && parms.size() > 0) {
-			// Get the value between the '#' and ']'
-			String eparmname = parm.substring(PARM_NUM_PREFIX_LENGTH, end);
-			int parmNum = -1;
-			try {
-				parmNum = Integer.parseInt(eparmname);
-			} catch (NumberFormatException nfe) {
-				parmNum = -1;
-				retParmVal = null;
-			}
+		if (end < PARM_NUM_PREFIX_LENGTH) {
+			return (event, eventUtil) -> null;
+		}
 
-			if (parmNum > 0 && parmNum <= parms.size()) {
-			final Parm evParm = parms.get(parmNum - 1);
+		// Get the value between the '#' and ']'
+		final int parmNum = parseParmNum(parm.substring(PARM_NUM_PREFIX_LENGTH, end));
+		if (parmNum <= 0) {
+			return (event, eventUtil) -> null;
+		}
 
+		return (event, eventUtil) -> {
+			final List<Parm> parms = event.getParmCollection();
+			if (parmNum <= parms.size()) {
 				// get parm value
-				Value eparmval = evParm.getValue();
+				Value eparmval = parms.get(parmNum - 1).getValue();
 				if (eparmval != null) {
-					retParmVal = EventConstants.getValueAsString(eparmval);
+					return EventConstants.getValueAsString(eparmval);
 				}
-			} else {
-				retParmVal = null;
 			}
-		}
-		return retParmVal;
+			return null;
+		};
+	}
+
+	/**
+	 * Binds a 'parm[name]' token to the name of the parameter, which is looked up
+	 * with an index of the parameters of the expanded event.
+	 *
+	 * @param parmName the name of the parameter
+	 * @return a binding returning the value of the parameter
+	 */
+	static ExpandableParameterResolver.Binding bindNamedParmValue(String parmName) {
+		return (event, eventUtil) -> {
+			final Parm evParm = EventParmIndex.of(event).getParmTrim(parmName);
+			if (evParm != null) {
+				final Value eparmval = evParm.getValue();
+				if (eparmval != null) {
+					return EventConstants.getValueAsString(eparmval);
+				}
+			}
+			return null;
+		};
 	}
 
 	/**
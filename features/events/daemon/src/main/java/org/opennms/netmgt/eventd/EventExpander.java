@@ -29,6 +29,7 @@
 package org.opennms.netmgt.eventd;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -60,6 +61,9 @@ import org.springframework.util.Assert;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 
 /**
  * <P>
@@ -121,6 +125,20 @@ public final class EventExpander implements org.opennms.netmgt.dao.api.EventExpa
 
     private final Timer expandTimer;
 
+    /**
+     * The varbind decodes of the eventconf entries, keyed by identity. The
+     * entries are replaced when the configuration is reloaded, which
+     * releases the stale maps.
+     */
+    private final LoadingCache<org.opennms.netmgt.xml.eventconf.Event, Map<String, Map<String, String>>> m_decodeCache = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(new CacheLoader<org.opennms.netmgt.xml.eventconf.Event, Map<String, Map<String, String>>>() {
+                @Override
+                public Map<String, Map<String, String>> load(org.opennms.netmgt.xml.eventconf.Event econf) {
+                    return getDecodes(econf);
+                }
+            });
+
     public EventExpander(MetricRegistry registry) {
         expandTimer = Objects.requireNonNull(registry).timer("eventlogs.process.expand");
     }
@@ -755,23 +773,29 @@ public final class EventExpander implements org.opennms.netmgt.dao.api.EventExpa
             }
         }
         
-        Map<String, Map<String, String>> decode = new HashMap<String, Map<String,String>>();
-        if (econf != null && econf.getVarbindsdecodes().size() > 0) {
-           for (final Varbindsdecode element : econf.getVarbindsdecodes()) {
-               List<Decode> decodeArray = element.getDecodes();
-               Map<String, String> valueMap = new HashMap<String, String>();
-               for (final Decode element2 : decodeArray) {
-                   valueMap.put(element2.getVarbindvalue(), element2.getVarbinddecodedstring());
-               }
-               decode.put(element.getParmid(), valueMap);
-           }
-        }// end fill of event using econf
+        final Map<String, Map<String, String>> decode = econf != null ? m_decodeCache.getUnchecked(econf) : Collections.emptyMap();
 
         // do the event parm expansion
         expandParms(e, decode);
 
     } // end expandEvent()
 
+    private static Map<String, Map<String, String>> getDecodes(org.opennms.netmgt.xml.eventconf.Event econf) {
+        if (econf.getVarbindsdecodes().isEmpty()) {
+            return Collections.emptyMap();
+        }
+        final Map<String, Map<String, String>> decode = new HashMap<String, Map<String,String>>();
+        for (final Varbindsdecode element : econf.getVarbindsdecodes()) {
+            List<Decode> decodeArray = element.getDecodes();
+            Map<String, String> valueMap = new HashMap<String, String>();
+            for (final Decode element2 : decodeArray) {
+                valueMap.put(element2.getVarbindvalue(), element2.getVarbinddecodedstring());
+            }
+            decode.put(element.getParmid(), Collections.unmodifiableMap(valueMap));
+        }
+        return Collections.unmodifiableMap(decode);
+    }
+
     /**
      * Event expansion is always synchronous so this method just 
      * delegates to {@link #process(Log)}.
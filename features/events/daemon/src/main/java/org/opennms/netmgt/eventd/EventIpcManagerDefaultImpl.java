@@ -38,6 +38,8 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
@@ -63,6 +65,7 @@ import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
 
 import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 
 /**
@@ -77,6 +80,12 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     
     private static final Logger LOG = LoggerFactory.getLogger(EventIpcManagerDefaultImpl.class);
 
+    /**
+     * When set to a positive value, events are handed off to the listeners through
+     * ring buffers of (at least) this size instead of per-listener thread pools.
+     */
+    private static final String LISTENER_RING_BUFFER_SIZE_SYS_PROP = "org.opennms.eventd.listenerRingBufferSize";
+
     public static class DiscardTrapsAndSyslogEvents implements RejectedExecutionHandler {
         /**
          * Creates a <tt>DiscardOldestPolicy</tt> for the given executor.
@@ -101,19 +110,23 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     }
 
     /**
-     * Hash table of list of event listeners keyed by event UEI
+     * Hash table of list of event listeners keyed by event UEI.
+     *
+     * The map and the lists it contains are never modified once published: the
+     * (synchronized) registration methods build a new copy and swap it in, so
+     * that broadcasting can read the table without taking any locks.
      */
-    private Map<String, List<EventListener>> m_ueiListeners = new HashMap<String, List<EventListener>>();
+    private volatile Map<String, List<EventListener>> m_ueiListeners = Collections.emptyMap();
 
     /**
      * The list of event listeners interested in all events
      */
-    private List<EventListener> m_listeners = new ArrayList<EventListener>();
+    private final List<EventListener> m_listeners = new CopyOnWriteArrayList<EventListener>();
 
     /**
      * Hash table of event listener threads keyed by the listener's id
      */
-    private Map<String, EventListenerExecutor> m_listenerThreads = new HashMap<String, EventListenerExecutor>();
+    private final Map<String, EventListenerExecutor> m_listenerThreads = new ConcurrentHashMap<String, EventListenerExecutor>();
 
     /**
      * The thread pool handling the events
@@ -126,6 +139,8 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
     
     private Integer m_handlerQueueLength;
 
+    private int m_listenerRingBufferSize = Integer.getInteger(LISTENER_RING_BUFFER_SIZE_SYS_PROP, 0);
+
     private final MetricRegistry m_registry;
 
     /**
@@ -134,7 +149,7 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
      * ListenerThread reads events off of this queue and sends them to the
      * appropriate listener.
      */
-    private static class EventListenerExecutor {
+    private static class ThreadPoolEventListenerExecutor implements EventListenerExecutor {
         /**
          * Listener to which this thread is dedicated
          */
@@ -145,23 +160,43 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
          */
         private final ExecutorService m_delegateThread;
 
+        private final MetricRegistry m_registry;
+
+        private final String m_lagMetricName;
+
+        private final String m_droppedMetricName;
+
         /**
          * Constructor
          */
-        EventListenerExecutor(EventListener listener, Integer handlerQueueLength) {
+        ThreadPoolEventListenerExecutor(EventListener listener, Integer handlerQueueLength, MetricRegistry registry) {
             m_listener = listener;
+            m_registry = registry;
 
             int numThreads = 1;
             if (m_listener instanceof ThreadAwareEventListener) {
                 numThreads = ((ThreadAwareEventListener)m_listener).getNumThreads();
             }
 
+            m_lagMetricName = MetricRegistry.name("eventlisteners", m_listener.getName(), "lag");
+            m_droppedMetricName = MetricRegistry.name("eventlisteners", m_listener.getName(), "dropped");
+            final Meter dropped = m_registry.meter(m_droppedMetricName);
+
+            final LinkedBlockingQueue<Runnable> workQueue = handlerQueueLength == null ? new LinkedBlockingQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(handlerQueueLength);
+            m_registry.remove(m_lagMetricName);
+            m_registry.register(m_lagMetricName, new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return workQueue.size();
+                }
+            });
+
             m_delegateThread = new ThreadPoolExecutor(
                     numThreads,
                     numThreads,
                     0L,
                     TimeUnit.MILLISECONDS,
-                    handlerQueueLength == null ? new LinkedBlockingQueue<Runnable>() : new LinkedBlockingQueue<Runnable>(handlerQueueLength),
+                    workQueue,
                     // This ThreadFactory will ensure that the log prefix of the calling thread
                     // is used for all events that this listener handles. Therefore, if Notifd
                     // registers for an event then all logs for handling that event will end up
@@ -171,12 +206,14 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
                         @Override
                         public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
                             LOG.warn("Listener {}'s event queue is full, discarding event", m_listener.getName());
+                            dropped.mark();
                         }
                     }
             );
         }
 
-        public CompletableFuture<Void> addEvent(final Event event) {
+        @Override
+        public CompletableFuture<Void> addEvent(final Event event, final boolean synchronous) {
             return CompletableFuture.runAsync(new Runnable() {
                 @Override
                 public void run() {
@@ -197,11 +234,11 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             }, m_delegateThread);
         }
 
-        /**
-         * Stops the execution of this listener.
-         */
+        @Override
         public void stop() {
             m_delegateThread.shutdown();
+            m_registry.remove(m_lagMetricName);
+            m_registry.remove(m_droppedMetricName);
         }
     }
 
@@ -300,11 +337,11 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             LOG.debug("No listeners interested in all events");
         }
 
-        List<CompletableFuture<Void>> listenerFutures = new ArrayList<>();
+        List<CompletableFuture<Void>> listenerFutures = synchronous ? new ArrayList<>() : null;
 
         // Send to listeners interested in receiving all events
         for (EventListener listener : m_listeners) {
-            listenerFutures.add(queueEventToListener(event, listener));
+            queueEventToListener(event, listener, listenerFutures);
         }
 
         if (event.getUei() == null) {
@@ -318,13 +355,14 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
          * Send to listeners who are interested in this event UEI.
          * Loop to attempt partial wild card "directory" matches.
          */
+        final Map<String, List<EventListener>> ueiListeners = m_ueiListeners;
         Set<EventListener> sentToListeners = new HashSet<EventListener>();
         for (String uei = event.getUei(); uei.length() > 0; ) {
-            if (m_ueiListeners.containsKey(uei)) {
-                for (EventListener listener : m_ueiListeners.get(uei)) {
-                    if (!sentToListeners.contains(listener)) {
-                        listenerFutures.add(queueEventToListener(event, listener));
-                        sentToListeners.add(listener);
+            final List<EventListener> listeners = ueiListeners.get(uei);
+            if (listeners != null) {
+                for (EventListener listener : listeners) {
+                    if (sentToListeners.add(listener)) {
+                        queueEventToListener(event, listener, listenerFutures);
                     }
                 }
             }
@@ -353,8 +391,16 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         }
     }
 
-    private CompletableFuture<Void> queueEventToListener(Event event, EventListener listener) {
-        return m_listenerThreads.get(listener.getName()).addEvent(event);
+    private void queueEventToListener(Event event, EventListener listener, List<CompletableFuture<Void>> listenerFutures) {
+        final EventListenerExecutor executor = m_listenerThreads.get(listener.getName());
+        if (executor == null) {
+            // The listener was removed while we were broadcasting
+            return;
+        }
+        final CompletableFuture<Void> future = executor.addEvent(event, listenerFutures != null);
+        if (listenerFutures != null && future != null) {
+            listenerFutures.add(future);
+        }
     }
 
     /**
@@ -372,9 +418,7 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         addMatchAllForListener(listener);
 
         // Since we have a match-all listener, remove any specific UEIs
-        for (String uei : m_ueiListeners.keySet()) {
-            removeUeiForListener(uei, listener);
-        }
+        removeUeisForListener(m_ueiListeners.keySet(), listener);
     }
 
     /**
@@ -398,9 +442,7 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
         createListenerThread(listener);
 
-        for (String uei : ueis) {
-            addUeiForListener(uei, listener);
-        }
+        addUeisForListener(ueis, listener);
 
         // Since we have a UEI-specific listener, remove the match-all listener
         removeMatchAllForListener(listener);
@@ -435,9 +477,7 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.notNull(listener, "listener argument cannot be null");
         Assert.notNull(ueis, "ueilist argument cannot be null");
 
-        for (String uei : ueis) {
-            removeUeiForListener(uei, listener);
-        }
+        removeUeisForListener(ueis, listener);
     }
 
     /**
@@ -456,7 +496,7 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         Assert.notNull(listener, "listener argument cannot be null");
         Assert.notNull(uei, "uei argument cannot be null");
 
-        removeUeiForListener(uei, listener);
+        removeUeisForListener(Collections.singletonList(uei), listener);
     }
 
     /**
@@ -473,15 +513,12 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         
         removeMatchAllForListener(listener);
 
-        for (String uei : m_ueiListeners.keySet()) {
-            removeUeiForListener(uei, listener);
-        }
+        removeUeisForListener(m_ueiListeners.keySet(), listener);
 
         // stop and remove the listener thread for this listener
-        if (m_listenerThreads.containsKey(listener.getName())) {
-            m_listenerThreads.get(listener.getName()).stop();
-
-            m_listenerThreads.remove(listener.getName());
+        final EventListenerExecutor listenerThread = m_listenerThreads.remove(listener.getName());
+        if (listenerThread != null) {
+            listenerThread.stop();
         }
     }
 
@@ -494,32 +531,68 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             return;
         }
         
-        EventListenerExecutor listenerThread = new EventListenerExecutor(listener, m_handlerQueueLength);
+        final EventListenerExecutor listenerThread;
+        if (m_listenerRingBufferSize > 0) {
+            listenerThread = new RingBufferEventListenerExecutor(listener, nextPowerOfTwo(m_listenerRingBufferSize), m_registry);
+        } else {
+            listenerThread = new ThreadPoolEventListenerExecutor(listener, m_handlerQueueLength, m_registry);
+        }
         m_listenerThreads.put(listener.getName(), listenerThread);
     }
 
+    private static int nextPowerOfTwo(int value) {
+        final int highestOneBit = Integer.highestOneBit(value);
+        return highestOneBit == value ? value : highestOneBit << 1;
+    }
+
     /**
      * Add to uei listeners.
      */
-    private void addUeiForListener(String uei, EventListener listener) {
-        // Ensure there is a list for this UEI
-        if (!m_ueiListeners.containsKey(uei)) {
-            m_ueiListeners.put(uei, new ArrayList<EventListener>());
+    private void addUeisForListener(Collection<String> ueis, EventListener listener) {
+        final Map<String, List<EventListener>> ueiListeners = copyUeiListeners();
+        for (String uei : ueis) {
+            // Ensure there is a list for this UEI
+            final List<EventListener> listenersList = ueiListeners.computeIfAbsent(uei, k -> new ArrayList<EventListener>());
+            if (!listenersList.contains(listener)) {
+                listenersList.add(listener);
+            }
         }
-        
-        List<EventListener> listenersList = m_ueiListeners.get(uei);
-        if (!listenersList.contains(listener)) {
-            listenersList.add(listener);
+        publishUeiListeners(ueiListeners);
+    }
+
+    /**
+     * Remove UEIs for this listener.
+     */
+    private void removeUeisForListener(Collection<String> ueis, EventListener listener) {
+        final Map<String, List<EventListener>> ueiListeners = copyUeiListeners();
+        for (String uei : ueis) {
+            final List<EventListener> listenersList = ueiListeners.get(uei);
+            if (listenersList != null) {
+                listenersList.remove(listener);
+            }
+        }
+        publishUeiListeners(ueiListeners);
+    }
+
+    /**
+     * Creates a mutable copy of the current UEI routing table.
+     */
+    private Map<String, List<EventListener>> copyUeiListeners() {
+        final Map<String, List<EventListener>> ueiListeners = new HashMap<String, List<EventListener>>();
+        for (Map.Entry<String, List<EventListener>> entry : m_ueiListeners.entrySet()) {
+            ueiListeners.put(entry.getKey(), new ArrayList<EventListener>(entry.getValue()));
         }
+        return ueiListeners;
     }
 
     /**
-     * Remove UEI for this listener.
+     * Swaps in a new UEI routing table. The given map must not be modified afterwards.
      */
-    private void removeUeiForListener(String uei, EventListener listener) {
-        if (m_ueiListeners.containsKey(uei)) {
-            m_ueiListeners.get(uei).remove(listener);
+    private void publishUeiListeners(Map<String, List<EventListener>> ueiListeners) {
+        for (Map.Entry<String, List<EventListener>> entry : ueiListeners.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
         }
+        m_ueiListeners = Collections.unmodifiableMap(ueiListeners);
     }
 
     /**
@@ -615,6 +688,26 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         m_handlerPoolSize = handlerPoolSize;
     }
 
+    /**
+     * <p>getListenerRingBufferSize</p>
+     *
+     * @return a int.
+     */
+    public int getListenerRingBufferSize() {
+        return m_listenerRingBufferSize;
+    }
+
+    /**
+     * Sets the size of the ring buffers used to hand events off to the listeners.
+     * A value of zero (the default) uses a dedicated thread pool for each listener instead.
+     *
+     * @param size a int.
+     */
+    public void setListenerRingBufferSize(int size) {
+        Assert.state(m_listenerThreads.isEmpty(), "listenerRingBufferSize property cannot be set after listeners have been added");
+        m_listenerRingBufferSize = size;
+    }
+
     /**
      * <p>getHandlerQueueLength</p>
      *
@@ -636,10 +729,7 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
     @Override
     public boolean hasEventListener(final String uei) {
-        if (this.m_ueiListeners.containsKey(uei)) {
-            return this.m_ueiListeners.get(uei).size() > 0;
-        } else {
-            return false;
-        }
+        final List<EventListener> listeners = m_ueiListeners.get(uei);
+        return listeners != null && listeners.size() > 0;
     }
 }
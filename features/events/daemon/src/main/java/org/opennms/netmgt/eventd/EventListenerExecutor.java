@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Delivers events to a single {@link org.opennms.netmgt.events.api.EventListener}
+ * on a thread (or set of threads) dedicated to that listener.
+ */
+interface EventListenerExecutor {
+
+    /**
+     * Queues the given event for delivery to the listener.
+     *
+     * @param event the event to deliver
+     * @param synchronous when true, the returned future completes once the listener
+     *        has handled the event. When false, implementations may return
+     *        <code>null</code> instead of tracking the delivery.
+     * @return a future tracking the delivery, or <code>null</code>
+     */
+    CompletableFuture<Void> addEvent(Event event, boolean synchronous);
+
+    /**
+     * Stops the execution of this listener.
+     */
+    void stop();
+
+}
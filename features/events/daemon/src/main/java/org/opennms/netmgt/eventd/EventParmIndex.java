@@ -0,0 +1,128 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+
+/**
+ * Index of the parameters of an {@link Event} by their trimmed name, used to resolve
+ * the 'parm[name]' tokens of the templates expanded for the same event without
+ * comparing the names of all parameters for every token.
+ *
+ * The index of the last event is kept per thread, since all templates of an event
+ * are expanded by the same thread one after the other. It is rebuilt whenever
+ * parameters of the event are added, removed, replaced or renamed, or another event
+ * is expanded.
+ */
+final class EventParmIndex {
+
+    private static final ThreadLocal<EventParmIndex> LAST_INDEX = new ThreadLocal<>();
+
+    private final Event event;
+
+    private final List<Parm> parms;
+
+    // The parameters and their names when the index was built
+    private final Parm[] snapshot;
+
+    private final String[] names;
+
+    private final Map<String, Integer> positions;
+
+    // Names starting with whitespace can match more than their trimmed name, see StringUtils#equalsTrimmed
+    private final boolean leadingWhitespace;
+
+    private EventParmIndex(Event event) {
+        this.event = event;
+        this.parms = event.getParmCollection();
+        this.snapshot = parms.toArray(new Parm[parms.size()]);
+        this.names = new String[snapshot.length];
+        this.positions = new HashMap<>(snapshot.length * 2);
+
+        boolean leadingWhitespace = false;
+        for (int i = 0; i < snapshot.length; i++) {
+            final String name = snapshot[i].getParmName();
+            names[i] = name;
+            if (name == null) {
+                continue;
+            }
+            if (name.length() > 0 && name.charAt(0) <= ' ') {
+                leadingWhitespace = true;
+            }
+            positions.putIfAbsent(name.trim(), i);
+        }
+        this.leadingWhitespace = leadingWhitespace;
+    }
+
+    private boolean isCurrent(Event event) {
+        if (this.event != event || this.parms != event.getParmCollection() || snapshot.length != parms.size()) {
+            return false;
+        }
+        // Only compare references, a renamed or replaced parameter invalidates the index
+        for (int i = 0; i < snapshot.length; i++) {
+            final Parm parm = parms.get(i);
+            if (parm != snapshot[i] || parm.getParmName() != names[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the parameters of the given event
+     */
+    static EventParmIndex of(Event event) {
+        EventParmIndex index = LAST_INDEX.get();
+        if (index == null || !index.isCurrent(event)) {
+            index = new EventParmIndex(event);
+            LAST_INDEX.set(index);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the same parameter as {@link Event#getParmTrim(String)}.
+     *
+     * @param name the name of the parameter
+     * @return the first parameter whose trimmed name is equal to the given name or null
+     */
+    Parm getParmTrim(String name) {
+        if (leadingWhitespace || name.length() == 0 || name.charAt(name.length() - 1) <= ' ') {
+            return event.getParmTrim(name);
+        }
+
+        final Integer position = positions.get(name);
+        return position == null ? null : snapshot[position];
+    }
+}
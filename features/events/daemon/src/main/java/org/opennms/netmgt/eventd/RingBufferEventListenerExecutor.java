@@ -0,0 +1,258 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.ThreadAwareEventListener;
+import org.opennms.netmgt.xml.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.lmax.disruptor.BatchEventProcessor;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.EventTranslatorTwoArg;
+import com.lmax.disruptor.LiteBlockingWaitStrategy;
+import com.lmax.disruptor.RingBuffer;
+
+/**
+ * An {@link EventListenerExecutor} that hands events off to the listener through
+ * bounded, pre-allocated ring buffers instead of a {@link java.util.concurrent.ThreadPoolExecutor}.
+ *
+ * Publishing an event never takes a lock: the broadcasting thread claims a slot
+ * on the ring buffer and the listener's thread consumes all of the available slots
+ * in a single batch.
+ *
+ * Listeners that implement {@link ThreadAwareEventListener} are given one ring buffer
+ * (and one thread) per requested thread. Events are partitioned across these by
+ * node id, so that the events for any given node are always delivered in order.
+ * Events without a node id are spread across the partitions.
+ *
+ * When a ring buffer is full, the event is discarded and counted in the
+ * <code>eventlisteners.&lt;name&gt;.dropped</code> meter.
+ */
+class RingBufferEventListenerExecutor implements EventListenerExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RingBufferEventListenerExecutor.class);
+
+    private static final EventTranslatorTwoArg<ListenerEvent, Event, CompletableFuture<Void>> TRANSLATOR =
+            new EventTranslatorTwoArg<ListenerEvent, Event, CompletableFuture<Void>>() {
+                @Override
+                public void translateTo(ListenerEvent slot, long sequence, Event event, CompletableFuture<Void> future) {
+                    slot.event = event;
+                    slot.future = future;
+                }
+            };
+
+    /**
+     * Pre-allocated ring buffer entry.
+     */
+    private static class ListenerEvent {
+        private Event event;
+        private CompletableFuture<Void> future;
+
+        private void clear() {
+            event = null;
+            future = null;
+        }
+    }
+
+    private final EventListener m_listener;
+
+    private final MetricRegistry m_registry;
+
+    private final Partition[] m_partitions;
+
+    private final Meter m_dropped;
+
+    private final Histogram m_batchSize;
+
+    private final String m_lagMetricName;
+
+    private final String m_droppedMetricName;
+
+    private final String m_batchSizeMetricName;
+
+    private int m_nextPartition = 0;
+
+    /**
+     * A single ring buffer, along with the thread that consumes it.
+     */
+    private class Partition implements EventHandler<ListenerEvent> {
+        private final RingBuffer<ListenerEvent> m_ringBuffer;
+        private final BatchEventProcessor<ListenerEvent> m_processor;
+        private int m_currentBatchSize = 0;
+
+        private Partition(int ringBufferSize, ThreadFactory threadFactory) {
+            m_ringBuffer = RingBuffer.createMultiProducer(ListenerEvent::new, ringBufferSize, new LiteBlockingWaitStrategy());
+            m_processor = new BatchEventProcessor<>(m_ringBuffer, m_ringBuffer.newBarrier(), this);
+            m_ringBuffer.addGatingSequences(m_processor.getSequence());
+            threadFactory.newThread(m_processor).start();
+        }
+
+        private boolean publish(Event event, CompletableFuture<Void> future) {
+            return m_ringBuffer.tryPublishEvent(TRANSLATOR, event, future);
+        }
+
+        private long getLag() {
+            return m_ringBuffer.getBufferSize() - m_ringBuffer.remainingCapacity();
+        }
+
+        @Override
+        public void onEvent(ListenerEvent slot, long sequence, boolean endOfBatch) {
+            final Event event = slot.event;
+            final CompletableFuture<Void> future = slot.future;
+            // Release the references held by the slot, the entry will be reused
+            slot.clear();
+
+            deliver(event);
+            if (future != null) {
+                future.complete(null);
+            }
+
+            m_currentBatchSize++;
+            if (endOfBatch) {
+                m_batchSize.update(m_currentBatchSize);
+                m_currentBatchSize = 0;
+            }
+        }
+
+        private void halt() {
+            m_processor.halt();
+        }
+    }
+
+    /**
+     * @param listener the listener to deliver the events to
+     * @param ringBufferSize the size of each ring buffer, must be a power of two
+     * @param registry the registry used to expose the per-listener lag and drop metrics
+     */
+    RingBufferEventListenerExecutor(EventListener listener, int ringBufferSize, MetricRegistry registry) {
+        m_listener = Objects.requireNonNull(listener);
+        m_registry = Objects.requireNonNull(registry);
+
+        int numPartitions = 1;
+        if (m_listener instanceof ThreadAwareEventListener) {
+            numPartitions = Math.max(1, ((ThreadAwareEventListener)m_listener).getNumThreads());
+        }
+
+        m_lagMetricName = MetricRegistry.name("eventlisteners", m_listener.getName(), "lag");
+        m_droppedMetricName = MetricRegistry.name("eventlisteners", m_listener.getName(), "dropped");
+        m_batchSizeMetricName = MetricRegistry.name("eventlisteners", m_listener.getName(), "batch-size");
+
+        m_dropped = m_registry.meter(m_droppedMetricName);
+        m_batchSize = m_registry.histogram(m_batchSizeMetricName);
+
+        // This ThreadFactory will ensure that the log prefix of the calling thread
+        // is used for all events that this listener handles.
+        final ThreadFactory threadFactory = new LogPreservingThreadFactory(m_listener.getName(), numPartitions);
+        m_partitions = new Partition[numPartitions];
+        for (int i = 0; i < numPartitions; i++) {
+            m_partitions[i] = new Partition(ringBufferSize, threadFactory);
+        }
+
+        m_registry.remove(m_lagMetricName);
+        m_registry.register(m_lagMetricName, new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                long lag = 0;
+                for (Partition partition : m_partitions) {
+                    lag += partition.getLag();
+                }
+                return lag;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> addEvent(Event event, boolean synchronous) {
+        final CompletableFuture<Void> future = synchronous ? new CompletableFuture<>() : null;
+        if (!getPartition(event).publish(event, future)) {
+            LOG.warn("Listener {}'s event ring buffer is full, discarding event", m_listener.getName());
+            m_dropped.mark();
+            if (future != null) {
+                // Don't block callers waiting on an event that will never be delivered
+                future.complete(null);
+            }
+        }
+        return future;
+    }
+
+    private Partition getPartition(Event event) {
+        if (m_partitions.length == 1) {
+            return m_partitions[0];
+        }
+
+        final Long nodeId = event.getNodeid();
+        if (nodeId != null) {
+            return m_partitions[(int)(Math.abs(nodeId % m_partitions.length))];
+        }
+
+        // No node id, so ordering doesn't matter. This counter is racy, but we only
+        // use it to spread the load.
+        final int index = (m_nextPartition++ & Integer.MAX_VALUE) % m_partitions.length;
+        return m_partitions[index];
+    }
+
+    private void deliver(Event event) {
+        try {
+            if (LOG.isDebugEnabled()) LOG.debug("run: calling onEvent on {} for event {}", m_listener.getName(), event.toStringSimple());
+
+            // Make sure we restore our log4j logging prefix after onEvent is called
+            Map<String,String> mdc = Logging.getCopyOfContextMap();
+            try {
+                m_listener.onEvent(event);
+            } finally {
+                Logging.setContextMap(mdc);
+            }
+        } catch (Throwable t) {
+            LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
+        }
+    }
+
+    @Override
+    public void stop() {
+        for (Partition partition : m_partitions) {
+            partition.halt();
+        }
+        m_registry.remove(m_lagMetricName);
+        m_registry.remove(m_droppedMetricName);
+        m_registry.remove(m_batchSizeMetricName);
+    }
+}
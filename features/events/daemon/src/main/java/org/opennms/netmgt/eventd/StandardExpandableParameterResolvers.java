@@ -526,6 +526,11 @@ public enum StandardExpandableParameterResolvers implements ExpandableParameterR
         public String getValue(String parm, String parsedParm, Event event, EventUtil eventUtil) {
             return AbstractEventUtil.getNumParmValue(parm, event);
         }
+
+        @Override
+        public Binding bind(String parm) {
+            return AbstractEventUtil.bindNumParmValue(parm);
+        }
     },
 
     PARM_NAME_NUMBERED {
@@ -539,6 +544,11 @@ public enum StandardExpandableParameterResolvers implements ExpandableParameterR
         public String getValue(String parm, String parsedParm, Event event, EventUtil eventUtil) {
             return AbstractEventUtil.getNumParmName(parm, event);
         }
+
+        @Override
+        public Binding bind(String parm) {
+            return AbstractEventUtil.bindNumParmName(parm);
+        }
     },
 
     PARM {
@@ -569,6 +579,11 @@ public enum StandardExpandableParameterResolvers implements ExpandableParameterR
             }
             return null;
         }
+
+        @Override
+        public Binding bind(String parm) {
+            return AbstractEventUtil.bindNamedParmValue(parse(parm));
+        }
     },
 
     HARDWARE {
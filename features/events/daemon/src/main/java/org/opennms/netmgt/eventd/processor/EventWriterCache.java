@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd.processor;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.model.OnmsMonitoringSystem;
+import org.opennms.netmgt.model.OnmsNode;
+import org.opennms.netmgt.model.OnmsServiceType;
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Caches the node, service type and monitoring system references used when
+ * writing events in batches.
+ *
+ * Only successful lookups are cached and the cached entities are detached
+ * stubs that carry nothing but their identifier, which is all that is needed
+ * to fill in the foreign keys of the inserted rows. Entries are removed when
+ * an event indicating that the referenced entity was deleted passes through
+ * the writer, see {@link #invalidate(Event)}. Since stale entries surface as
+ * foreign key violations, the writer also calls {@link #clear()} whenever a
+ * batch fails.
+ */
+class EventWriterCache {
+
+    private final ConcurrentMap<Integer, OnmsNode> m_nodes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, OnmsServiceType> m_serviceTypes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, OnmsMonitoringSystem> m_distPollers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, OnmsMonitoringSystem> m_monitoringSystems = new ConcurrentHashMap<>();
+    private volatile OnmsMonitoringSystem m_localSystem;
+
+    private final Function<Integer, OnmsNode> m_nodeLoader;
+    private final Function<String, OnmsServiceType> m_serviceTypeLoader;
+    private final Function<String, ? extends OnmsMonitoringSystem> m_distPollerLoader;
+    private final Function<String, ? extends OnmsMonitoringSystem> m_monitoringSystemLoader;
+    private final Supplier<? extends OnmsMonitoringSystem> m_localSystemLoader;
+
+    public EventWriterCache(Function<Integer, OnmsNode> nodeLoader,
+            Function<String, OnmsServiceType> serviceTypeLoader,
+            Function<String, ? extends OnmsMonitoringSystem> distPollerLoader,
+            Function<String, ? extends OnmsMonitoringSystem> monitoringSystemLoader,
+            Supplier<? extends OnmsMonitoringSystem> localSystemLoader) {
+        m_nodeLoader = Objects.requireNonNull(nodeLoader);
+        m_serviceTypeLoader = Objects.requireNonNull(serviceTypeLoader);
+        m_distPollerLoader = Objects.requireNonNull(distPollerLoader);
+        m_monitoringSystemLoader = Objects.requireNonNull(monitoringSystemLoader);
+        m_localSystemLoader = Objects.requireNonNull(localSystemLoader);
+    }
+
+    public OnmsNode getNode(Integer nodeId) {
+        return lookup(m_nodes, nodeId, id -> {
+            final OnmsNode node = m_nodeLoader.apply(id);
+            if (node == null) {
+                return null;
+            }
+            final OnmsNode stub = new OnmsNode();
+            stub.setId(node.getId());
+            return stub;
+        });
+    }
+
+    public OnmsServiceType getServiceType(String name) {
+        return lookup(m_serviceTypes, name, n -> {
+            final OnmsServiceType serviceType = m_serviceTypeLoader.apply(n);
+            if (serviceType == null) {
+                return null;
+            }
+            final OnmsServiceType stub = new OnmsServiceType(serviceType.getName());
+            stub.setId(serviceType.getId());
+            return stub;
+        });
+    }
+
+    public OnmsMonitoringSystem getDistPoller(String id) {
+        return lookup(m_distPollers, id, i -> stub(m_distPollerLoader.apply(i)));
+    }
+
+    public OnmsMonitoringSystem getMonitoringSystem(String id) {
+        return lookup(m_monitoringSystems, id, i -> stub(m_monitoringSystemLoader.apply(i)));
+    }
+
+    public OnmsMonitoringSystem getLocalSystem() {
+        OnmsMonitoringSystem localSystem = m_localSystem;
+        if (localSystem == null) {
+            localSystem = stub(m_localSystemLoader.get());
+            m_localSystem = localSystem;
+        }
+        return localSystem;
+    }
+
+    /**
+     * Drops the entries referenced by the given event if it signals that they
+     * have been removed from the database.
+     */
+    public void invalidate(Event event) {
+        final String uei = event.getUei();
+        if (uei == null) {
+            return;
+        }
+        switch (uei) {
+        case EventConstants.NODE_DELETED_EVENT_UEI:
+        case EventConstants.DUP_NODE_DELETED_EVENT_UEI:
+            if (event.hasNodeid()) {
+                m_nodes.remove(event.getNodeid().intValue());
+            }
+            break;
+        case EventConstants.SERVICE_DELETED_EVENT_UEI:
+            if (event.getService() != null) {
+                m_serviceTypes.remove(event.getService());
+            }
+            break;
+        case EventConstants.MONITORING_SYSTEM_DELETED_UEI:
+            m_distPollers.clear();
+            m_monitoringSystems.clear();
+            break;
+        default:
+            break;
+        }
+    }
+
+    public void clear() {
+        m_nodes.clear();
+        m_serviceTypes.clear();
+        m_distPollers.clear();
+        m_monitoringSystems.clear();
+        m_localSystem = null;
+    }
+
+    private static <K, V> V lookup(ConcurrentMap<K, V> cache, K key, Function<K, V> loader) {
+        if (key == null) {
+            return null;
+        }
+        V value = cache.get(key);
+        if (value == null) {
+            // Not using computeIfAbsent() here, the loader hits the database
+            value = loader.apply(key);
+            if (value != null) {
+                cache.put(key, value);
+            }
+        }
+        return value;
+    }
+
+    private static OnmsMonitoringSystem stub(OnmsMonitoringSystem system) {
+        if (system == null) {
+            return null;
+        }
+        final OnmsMonitoringSystem stub = new OnmsMonitoringSystem(system.getId(), system.getLocation());
+        stub.setType(system.getType());
+        return stub;
+    }
+}
@@ -32,7 +32,11 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 
 import org.opennms.netmgt.dao.api.DistPollerDao;
@@ -63,6 +67,7 @@ import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.util.Assert;
 
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
@@ -86,6 +91,14 @@ import com.codahale.metrics.Timer.Context;
  * @see org.opennms.netmgt.events.api.EventDatabaseConstants#DB_ATTRIB_DELIM
  * @see org.opennms.netmgt.events.api.EventDatabaseConstants#NAME_VAL_DELIM
  *
+ * When the batch size is greater than 1, the events of the logs that are
+ * being processed concurrently are grouped and inserted with multi-row
+ * statements in a single transaction (see {@link EventDao#saveAll(List)}).
+ * The calling threads still block until their own events are stored, so
+ * the database ids are set before the events are broadcast. In this mode, the
+ * node, service type and monitoring system references are resolved through
+ * an {@link EventWriterCache}.
+ *
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Nataraj </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
  */
@@ -97,7 +110,9 @@ public class HibernateEventWriter implements EventWriter {
     public static final String LOG_MSG_DEST_LOG_AND_DISPLAY = "logndisplay";
     public static final String LOG_MSG_DEST_LOG_ONLY = "logonly";
     public static final String LOG_MSG_DEST_DISPLAY_ONLY = "displayonly";
-    
+
+    private static final String BATCH_SIZE_SYS_PROP = "org.opennms.eventd.writerBatchSize";
+
     @Autowired
     private TransactionOperations m_transactionManager;
     
@@ -121,8 +136,27 @@ public class HibernateEventWriter implements EventWriter {
 
     private final Timer writeTimer;
 
+    private final Histogram batchSizeHistogram;
+
+    private final Timer batchWriteTimer;
+
+    private int m_batchSize = Integer.getInteger(BATCH_SIZE_SYS_PROP, 0);
+
+    private final Queue<PendingWrite> m_pendingWrites = new ConcurrentLinkedQueue<>();
+
+    private final Lock m_flushLock = new ReentrantLock();
+
+    private final EventWriterCache m_cache = new EventWriterCache(
+            nodeId -> nodeDao.get(nodeId),
+            service -> serviceTypeDao.findByName(service),
+            dpName -> distPollerDao.get(dpName),
+            systemId -> monitoringSystemDao.get(systemId),
+            () -> distPollerDao.whoami());
+
     public HibernateEventWriter(MetricRegistry registry) {
         writeTimer = Objects.requireNonNull(registry).timer("eventlogs.process.write");
+        batchSizeHistogram = registry.histogram("eventlogs.process.batch.size");
+        batchWriteTimer = registry.timer("eventlogs.process.batch.write");
     }
 
     /**
@@ -169,6 +203,9 @@ public class HibernateEventWriter implements EventWriter {
                 return;
             }
 
+            // Drop any cached references to entities that these events report as deleted
+            eventsInLog.forEach(m_cache::invalidate);
+
             // Find the events in the log that need to be persisted
             final List<Event> eventsToPersist = eventsInLog.stream()
                 .filter(e -> checkEventSanityAndDoWeProcess(e, "HibernateEventWriter"))
@@ -181,24 +218,110 @@ public class HibernateEventWriter implements EventWriter {
 
             // Time the transaction and insertions
             try (Context context = writeTimer.time()) {
-                final AtomicReference<EventProcessorException> exception = new AtomicReference<>();
-
-                m_transactionManager.execute(new TransactionCallbackWithoutResult() {
-                    @Override
-                    protected void doInTransactionWithoutResult(TransactionStatus status) {
-                        for (Event eachEvent : eventsToPersist) {
-                            try {
-                                process(eventLog.getHeader(), eachEvent);
-                            } catch (EventProcessorException e) {
-                                exception.set(e);
-                                return;
-                            }
+                if (m_batchSize > 1) {
+                    processBatched(new PendingWrite(eventLog.getHeader(), eventsToPersist));
+                } else {
+                    process(eventLog.getHeader(), eventsToPersist);
+                }
+            }
+        }
+    }
+
+    private void process(final Header eventHeader, final List<Event> eventsToPersist) throws EventProcessorException {
+        final AtomicReference<EventProcessorException> exception = new AtomicReference<>();
+
+        m_transactionManager.execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                for (Event eachEvent : eventsToPersist) {
+                    try {
+                        process(eventHeader, eachEvent);
+                    } catch (EventProcessorException e) {
+                        exception.set(e);
+                        return;
+                    }
+                }
+            }
+        });
+
+        if (exception.get() != null) {
+            throw exception.get();
+        }
+    }
+
+    /**
+     * Queues the write and waits until it has been flushed. Whichever thread
+     * holds the flush lock writes out everything that was queued while the
+     * previous batch was being stored, so the batches grow with the load.
+     */
+    private void processBatched(final PendingWrite write) throws EventProcessorException {
+        m_pendingWrites.add(write);
+        while (!write.done) {
+            m_flushLock.lock();
+            try {
+                if (!write.done) {
+                    flushPendingWrites();
+                }
+            } finally {
+                m_flushLock.unlock();
+            }
+        }
+        if (write.exception != null) {
+            throw write.exception;
+        }
+    }
+
+    private void flushPendingWrites() {
+        final List<PendingWrite> batch = new ArrayList<>();
+        int eventCount = 0;
+        PendingWrite write;
+        while (eventCount < m_batchSize && (write = m_pendingWrites.poll()) != null) {
+            batch.add(write);
+            eventCount += write.events.size();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        batchSizeHistogram.update(eventCount);
+
+        try (Context context = batchWriteTimer.time()) {
+            final List<OnmsEvent> ovents = new ArrayList<>(eventCount);
+            m_transactionManager.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    for (PendingWrite eachWrite : batch) {
+                        for (Event eachEvent : eachWrite.events) {
+                            ovents.add(createOnmsEvent(eachWrite.header, eachEvent, true));
                         }
                     }
-                });
+                    eventDao.saveAll(ovents);
+                }
+            });
 
-                if (exception.get() != null) {
-                    throw exception.get();
+            // Update the events with the database IDs once the transaction has been committed
+            int i = 0;
+            for (PendingWrite eachWrite : batch) {
+                for (Event eachEvent : eachWrite.events) {
+                    eachEvent.setDbid(ovents.get(i++).getId());
+                }
+                eachWrite.done = true;
+            }
+        } catch (Throwable e) {
+            // A single bad event, or a stale cache entry, fails the whole batch: retry each log on its own
+            LOG.warn("HibernateEventWriter: failed to store a batch of {} events, storing them one log at a time.", eventCount, e);
+            m_cache.clear();
+            for (PendingWrite eachWrite : batch) {
+                if (eachWrite.done) {
+                    continue;
+                }
+                try {
+                    process(eachWrite.header, eachWrite.events);
+                } catch (EventProcessorException ex) {
+                    eachWrite.exception = ex;
+                } catch (Throwable t) {
+                    eachWrite.exception = new EventProcessorException("Unexpected exception while storing events", t);
+                } finally {
+                    eachWrite.done = true;
                 }
             }
         }
@@ -213,7 +336,7 @@ public class HibernateEventWriter implements EventWriter {
         LOG.debug("HibernateEventWriter: processing {}, nodeid: {}, ipaddr: {}, serviceid: {}, time: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
 
         try {
-            final OnmsEvent ovent = createOnmsEvent(eventHeader, event);
+            final OnmsEvent ovent = createOnmsEvent(eventHeader, event, false);
             eventDao.save(ovent);
 
             // Update the event with the database ID of the event stored in the database
@@ -228,11 +351,13 @@ public class HibernateEventWriter implements EventWriter {
     /**
      * Creates OnmsEvent to be inserted afterwards.
      * 
+     * @param cached whether to resolve the associated entities through the
+     *               {@link EventWriterCache} rather than the DAOs
      * @exception java.lang.NullPointerException
      *                Thrown if a required resource cannot be found in the
      *                properties file.
      */
-    private OnmsEvent createOnmsEvent(final Header eventHeader, final Event event) {
+    private OnmsEvent createOnmsEvent(final Header eventHeader, final Event event, final boolean cached) {
 
         OnmsEvent ovent = new OnmsEvent();
 
@@ -244,7 +369,8 @@ public class HibernateEventWriter implements EventWriter {
 
         // nodeID
         if (event.hasNodeid()) {
-            ovent.setNode(nodeDao.get(event.getNodeid().intValue()));
+            final int nodeId = event.getNodeid().intValue();
+            ovent.setNode(cached ? m_cache.getNode(nodeId) : nodeDao.get(nodeId));
         }
 
         // eventTime
@@ -272,22 +398,22 @@ public class HibernateEventWriter implements EventWriter {
         // If available, use the header's distPoller
         if (eventHeader != null && eventHeader.getDpName() != null && !"".equals(eventHeader.getDpName().trim())) {
             // TODO: Should we also try a look up the value in the MinionDao and LocationMonitorDao here?
-            ovent.setDistPoller(distPollerDao.get(eventHeader.getDpName()));
+            ovent.setDistPoller(cached ? m_cache.getDistPoller(eventHeader.getDpName()) : distPollerDao.get(eventHeader.getDpName()));
         }
         // Otherwise, use the event's distPoller
         if (ovent.getDistPoller() == null && event.getDistPoller() != null && !"".equals(event.getDistPoller().trim())) {
-            ovent.setDistPoller(monitoringSystemDao.get(event.getDistPoller()));
+            ovent.setDistPoller(cached ? m_cache.getMonitoringSystem(event.getDistPoller()) : monitoringSystemDao.get(event.getDistPoller()));
         }
         // And if both are unavailable, use the local system as the event's source system
         if (ovent.getDistPoller() == null) {
-            ovent.setDistPoller(distPollerDao.whoami());
+            ovent.setDistPoller(cached ? m_cache.getLocalSystem() : distPollerDao.whoami());
         }
 
         // eventSnmpHost
         ovent.setEventSnmpHost(EventDatabaseConstants.format(event.getSnmphost(), EVENT_SNMPHOST_FIELD_SIZE));
 
         // service
-        ovent.setServiceType(serviceTypeDao.findByName(event.getService()));
+        ovent.setServiceType(cached ? m_cache.getServiceType(event.getService()) : serviceTypeDao.findByName(event.getService()));
 
         // eventSnmp
         ovent.setEventSnmp(event.getSnmp() == null ? null : SnmpInfo.format(event.getSnmp(), EVENT_SNMP_FIELD_SIZE));
@@ -405,4 +531,28 @@ public class HibernateEventWriter implements EventWriter {
     public void setTransactionManager(TransactionOperations transactionManager) {
         m_transactionManager = transactionManager;
     }
+
+    /**
+     * Sets the maximum number of events that are written in a single batch.
+     * Values of 1 or less disable batching.
+     */
+    public void setBatchSize(int batchSize) {
+        m_batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return m_batchSize;
+    }
+
+    private static class PendingWrite {
+        private final Header header;
+        private final List<Event> events;
+        private volatile boolean done = false;
+        private volatile EventProcessorException exception;
+
+        private PendingWrite(Header header, List<Event> events) {
+            this.header = header;
+            this.events = events;
+        }
+    }
 }
@@ -32,7 +32,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 import org.opennms.netmgt.eventd.EventUtil;
 import org.opennms.netmgt.xml.event.Event;
@@ -47,6 +46,8 @@ import com.google.common.collect.Lists;
  *
  * For each placeholder in the {@link EventTemplate#input} a {@link ExpandableToken} is created.
  * The expandable state of the {@link EventTemplate} is the expanded state of all tokens ({@link EventTemplate#tokens}.
+ * The template is parsed once and each {@link ExpandableParameter} is bound to its resolver at that time,
+ * so expanding it only evaluates the bound resolvers.
  */
 public class EventTemplate implements ExpandableToken {
 
@@ -125,14 +126,48 @@ public class EventTemplate implements ExpandableToken {
         if ((index1 == -1 || index2 == -1) && (tempInp != null)) {
             tokens.add(new ExpandableConstant(tempInp));
         }
+        mergeConstants();
+    }
+
+    /**
+     * Joins consecutive {@link ExpandableConstant}s and drops empty ones, so that
+     * expanding a template without parameters does not build a new string.
+     */
+    private void mergeConstants() {
+        final List<ExpandableToken> merged = Lists.newArrayListWithCapacity(tokens.size());
+        final StringBuilder constant = new StringBuilder();
+        for (ExpandableToken token : tokens) {
+            if (token instanceof ExpandableConstant) {
+                constant.append(token.expand(null, null));
+            } else {
+                if (constant.length() > 0) {
+                    merged.add(new ExpandableConstant(constant.toString()));
+                    constant.setLength(0);
+                }
+                merged.add(token);
+            }
+        }
+        if (constant.length() > 0) {
+            merged.add(new ExpandableConstant(constant.toString()));
+        }
+        tokens.clear();
+        tokens.addAll(merged);
     }
 
     @Override
     public String expand(Event event, Map<String, Map<String, String>> decode) {
-        final String collect = tokens.stream()
-                .map(t -> t.expand(event, decode))
-                .collect(Collectors.joining());
-        return collect;
+        switch (tokens.size()) {
+        case 0:
+            return "";
+        case 1:
+            return tokens.get(0).expand(event, decode);
+        default:
+            final StringBuilder builder = new StringBuilder(input.length() + 32);
+            for (ExpandableToken token : tokens) {
+                builder.append(token.expand(event, decode));
+            }
+            return builder.toString();
+        }
     }
 
     // If we find any token which requires a transaction, the template itself requires a transaction as well
@@ -42,7 +42,7 @@ import org.slf4j.LoggerFactory;
  * An {@link ExpandableParameter} requires the {@link #ExpandableParameter#parameter} to be replaced with an appropriate value.
  *
  * Each {@link ExpandableParameter#token} may be mapped to a {@link ExpandableParameterResolver} resolving the token to a value.
- * If no resolver is found, null is returned.
+ * If no resolver is found, null is returned. The resolver is bound to the token once, when the parameter is created.
  *
  * @see ExpandableParameterResolverRegistry
  */
@@ -51,27 +51,29 @@ public class ExpandableParameter implements ExpandableToken {
     private static final Logger LOG = LoggerFactory.getLogger(ExpandableParameter.class);
 
     private final String token;
-    private final String parsedToken;
     private final ExpandableParameterResolver resolver;
+    private final ExpandableParameterResolver.Binding binding;
     private final EventUtil eventUtil;
 
 
     public ExpandableParameter(String token, EventUtil eventUtil) {
         this.token = Objects.requireNonNull(token);
         this.resolver = Objects.requireNonNull(eventUtil.getResolver(token));
-        this.parsedToken = resolver.parse(token);
+        this.binding = Objects.requireNonNull(resolver.bind(token));
         this.eventUtil = Objects.requireNonNull(eventUtil);
     }
 
     @Override
     public String expand(Event event, Map<String, Map<String, String>> decode) {
-        String value = resolver.getValue(token, parsedToken, event, eventUtil);
+        String value = binding.getValue(event, eventUtil);
         LOG.debug("Value of token {}={}", token, value);
 
         if (value != null) {
-            if (decode != null && decode.containsKey(token) && decode.get(token).containsKey(value)) {
+            final Map<String, String> decodedValues = decode == null ? null : decode.get(token);
+            final String decodedValue = decodedValues == null ? null : decodedValues.get(value);
+            if (decodedValue != null || (decodedValues != null && decodedValues.containsKey(value))) {
                 final StringBuilder ret = new StringBuilder();
-                ret.append(decode.get(token).get(value));
+                ret.append(decodedValue);
                 ret.append("(");
                 ret.append(value);
                 ret.append(")");
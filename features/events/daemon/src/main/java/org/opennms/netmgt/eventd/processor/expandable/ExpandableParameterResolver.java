@@ -39,6 +39,16 @@ import org.opennms.netmgt.xml.event.Event;
  */
 public interface ExpandableParameterResolver {
 
+    /**
+     * A resolver bound to a single parameter.
+     *
+     * @see ExpandableParameterResolver#bind(String)
+     */
+    @FunctionalInterface
+    interface Binding {
+        String getValue(Event event, EventUtil eventUtil);
+    }
+
     String getValue(String parm, String parsedParm, Event event, EventUtil eventUtil);
 
     boolean matches(String parm);
@@ -46,4 +56,17 @@ public interface ExpandableParameterResolver {
     String parse(String parm);
 
     boolean requiresTransaction();
+
+    /**
+     * Binds this resolver to the given parameter. The binding is created once per
+     * {@link EventTemplate} and evaluated for every expansion, so resolvers should
+     * parse the parameter here instead of in {@link #getValue(String, String, Event, EventUtil)}.
+     *
+     * @param parm the parameter, which must be matched by this resolver
+     * @return the binding, by default calling {@link #getValue(String, String, Event, EventUtil)}
+     */
+    default Binding bind(String parm) {
+        final String parsedParm = parse(parm);
+        return (event, eventUtil) -> getValue(parm, parsedParm, event, eventUtil);
+    }
 }
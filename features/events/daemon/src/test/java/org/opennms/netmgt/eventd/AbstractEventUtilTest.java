@@ -0,0 +1,211 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.eventd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+
+import com.google.common.collect.ImmutableMap;
+
+public class AbstractEventUtilTest {
+
+    private static final List<String> TOKENS = Arrays.asList(
+            "parm[#1]", "parm[#2]", "parm[#5]", "parm[#0]", "parm[#-1]", "parm[#x]", "parm[#99999999999]", "parm[#2",
+            "parm[name-#1]", "parm[name-#4]", "parm[name-#0]", "parm[name-#x]", "parm[name-#]", "parm[name-#1",
+            "parm[name-#1.1]", "parm[name-#1.3]", "parm[name-#1.-1]", "parm[name-#1.-4]", "parm[name-#1.9]",
+            "parm[name-#1.1:4]", "parm[name-#1.5:]", "parm[name-#1.-4:2]", "parm[name-#1.-5:]", "parm[name-#1.2:-1]",
+            "parm[name-#2..1]", "parm[name-#2..-1:]", "parm[name-#3_2]", "parm[name-#2.0]",
+            "parm[a]", "parm[b]", "parm[c]", "parm[ifIndex]", "parm[missing]", "parm[]", "parm[.1.3.6]");
+
+    public static class StubEventUtil extends AbstractEventUtil {
+        @Override
+        public String getHardwareFieldValue(String parm, long nodeId) {
+            return null;
+        }
+
+        @Override
+        public String getHostName(int nodeId, String hostip) {
+            return hostip;
+        }
+
+        @Override
+        public String getIfAlias(long nodeId, String ipAddr) {
+            return null;
+        }
+
+        @Override
+        public String getAssetFieldValue(String parm, long nodeId) {
+            return null;
+        }
+
+        @Override
+        public String getForeignId(long nodeId) {
+            return null;
+        }
+
+        @Override
+        public String getForeignSource(long nodeId) {
+            return null;
+        }
+
+        @Override
+        public String getNodeLabel(long nodeId) {
+            return null;
+        }
+
+        @Override
+        public String getNodeLocation(long nodeId) {
+            return null;
+        }
+    }
+
+    private final EventUtil eventUtil = new StubEventUtil();
+
+    private static Event createEvent(String... names) {
+        final EventBuilder builder = new EventBuilder("uei.opennms.org/test", "test");
+        for (int i = 0; i < names.length; i++) {
+            builder.addParam(names[i], "value" + i);
+        }
+        return builder.getEvent();
+    }
+
+    private void assertSameExpansion(String template, Event event, Map<String, Map<String, String>> decode) {
+        assertEquals(template, new LegacyEventTemplate(template, eventUtil).expand(event, decode), eventUtil.expandParms(template, event, decode));
+    }
+
+    @Test
+    public void testParmTokens() {
+        final Event event = createEvent(".1.3.6.1.4.1.9", "a", "b", "a", ".1.3.6");
+        for (String token : TOKENS) {
+            assertSameExpansion("%" + token + "%", event, null);
+        }
+        assertEquals("value1 6.1 9 value2", eventUtil.expandParms("%parm[a]% %parm[name-#1.3:2]% %parm[name-#1.-1]% %parm[#3]%", event));
+
+        // Without any parameter
+        final Event empty = createEvent();
+        for (String token : TOKENS) {
+            assertSameExpansion("%" + token + "%", empty, null);
+        }
+    }
+
+    @Test
+    public void testNamesWithWhitespace() {
+        final Event event = createEvent(" a", "b ", "  c  ", "", " ", "abc", "d");
+        for (String name : Arrays.asList("a", "b", "c", "", "ab", "abc", "d")) {
+            final Parm expected = event.getParmTrim(name);
+            assertEquals(name, expected == null ? "" : expected.getValue().getContent(), eventUtil.expandParms("%parm[" + name + "]%", event));
+        }
+        // StringUtils.equalsTrimmed() matches the blank name ' ' with 'd'
+        assertEquals("value0/value1/value2/value4", eventUtil.expandParms("%parm[a]%/%parm[b]%/%parm[c]%/%parm[d]%", event));
+    }
+
+    @Test
+    public void testParmsModifiedBetweenExpansions() {
+        final Event event = createEvent("a", "b");
+        assertEquals("value0:", eventUtil.expandParms("%parm[a]%:%parm[c]%", event));
+
+        event.addParm(createEvent("c").getParmCollection().get(0));
+        assertEquals("value0:value0", eventUtil.expandParms("%parm[a]%:%parm[c]%", event));
+
+        event.getParmCollection().get(0).setParmName("x");
+        assertEquals(":value0", eventUtil.expandParms("%parm[a]%:%parm[c]%", event));
+        assertEquals("value0", eventUtil.expandParms("%parm[x]%", event));
+
+        event.getParmCollection().set(1, createEvent("a").getParmCollection().get(0));
+        assertEquals("value0", eventUtil.expandParms("%parm[a]%", event));
+
+        event.setParmCollection(createEvent("y").getParmCollection());
+        assertEquals(":value0", eventUtil.expandParms("%parm[x]%:%parm[y]%", event));
+    }
+
+    @Test
+    public void testDecode() {
+        final Event event = createEvent("ifIndex", "status");
+        final Map<String, Map<String, String>> decode = ImmutableMap.of(
+                "parm[status]", ImmutableMap.of("value1", "up"),
+                "parm[#1]", Collections.singletonMap("value0", null));
+        final String template = "Interface %parm[#1]% is %parm[status]%, %parm[ifIndex]% %%";
+        assertSameExpansion(template, event, decode);
+        assertEquals("Interface null(value0) is up(value1), value0 %", eventUtil.expandParms(template, event, decode));
+    }
+
+    @Test
+    public void testTemplates() {
+        final Event event = createEvent("a", "b");
+        for (String template : Arrays.asList("", "no parameters", "%", "%%", "100%", "%uei% %parm[a]%", "%parm[a]%%parm[b]%",
+                "% parm[a]%", "%parm[a] %parm[b]%", "a%%b%%%parm[#2]%%%", "%parm[#1]%%")) {
+            assertSameExpansion(template, event, null);
+        }
+    }
+
+    @Test
+    public void testSplitAndExtract() {
+        final Random random = new Random(42);
+        final String[] separators = { ".", "..", "-", "$", "\\", "ab", "a", " " };
+        final char[] alphabet = { '.', '-', '$', '\\', 'a', 'b', '1', ' ' };
+        for (int i = 0; i < 20000; i++) {
+            final char[] chars = new char[random.nextInt(12)];
+            for (int j = 0; j < chars.length; j++) {
+                chars[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            final String src = new String(chars);
+            final String sep = separators[random.nextInt(separators.length)];
+            final int offset = random.nextInt(11) - 5;
+            final boolean doRange = random.nextBoolean();
+            final int rangeLen = random.nextInt(5) - 2;
+
+            String expected;
+            try {
+                expected = LegacyEventTemplate.splitAndExtract(src, sep, offset, doRange, rangeLen);
+            } catch (ArrayIndexOutOfBoundsException e) {
+                expected = "AIOOBE";
+            }
+            String actual;
+            try {
+                actual = AbstractEventUtil.splitAndExtract(src, sep, offset, doRange, rangeLen);
+            } catch (ArrayIndexOutOfBoundsException e) {
+                actual = "AIOOBE";
+            }
+            assertEquals(String.format("'%s' '%s' %d %b %d", src, sep, offset, doRange, rangeLen), expected, actual);
+        }
+        assertEquals("", AbstractEventUtil.splitAndExtract(".", ".", 1, false, 0));
+        assertNull(AbstractEventUtil.splitAndExtract(".", ".", 2, false, 0));
+        assertEquals("b.c", AbstractEventUtil.splitAndExtract(".a.b.c..", ".", 2, true, 0));
+    }
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.eventd;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.core.xml.JaxbUtils;
+import org.opennms.netmgt.eventd.processor.expandable.EventTemplate;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.eventconf.Decode;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.opennms.netmgt.xml.eventconf.Varbindsdecode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Measures the events/s expanded with the logmsg, descr, operinstruct and reduction-key
+ * templates of the stock eventconf.xml, using either the compiled templates or the
+ * legacy expansion which resolved every parameter from its token.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventExpansionBenchmark {
+
+    private static final int EVENTS = 1000;
+
+    @Param({"compiled", "legacy"})
+    public String expansion;
+
+    private final List<Expansion> expansions = new ArrayList<>();
+
+    private Event[] events;
+
+    private static class Expansion {
+        private final List<EventTemplate> templates = new ArrayList<>();
+        private final List<LegacyEventTemplate> legacyTemplates = new ArrayList<>();
+        private final Map<String, Map<String, String>> decode = new HashMap<>();
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        final FileSystemResource resource = new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml"));
+        final Events root = JaxbUtils.unmarshal(Events.class, resource);
+        root.loadEventFiles(resource);
+
+        final EventUtil eventUtil = new AbstractEventUtilTest.StubEventUtil();
+        root.forEachEvent(expansions, (accum, econf) -> {
+            final Expansion expansion = new Expansion();
+            final List<String> inputs = new ArrayList<>();
+            if (econf.getLogmsg() != null) {
+                inputs.add(econf.getLogmsg().getContent());
+            }
+            inputs.add(econf.getDescr());
+            inputs.add(econf.getOperinstruct());
+            if (econf.getAlarmData() != null) {
+                inputs.add(econf.getAlarmData().getReductionKey());
+            }
+            for (String input : inputs) {
+                if (input != null) {
+                    expansion.templates.add(new EventTemplate(input, eventUtil));
+                    expansion.legacyTemplates.add(new LegacyEventTemplate(input, eventUtil));
+                }
+            }
+            for (Varbindsdecode varbindsdecode : econf.getVarbindsdecodes()) {
+                final Map<String, String> values = new HashMap<>();
+                for (Decode decode : varbindsdecode.getDecodes()) {
+                    values.put(decode.getVarbindvalue(), decode.getVarbinddecodedstring());
+                }
+                expansion.decode.put(varbindsdecode.getParmid(), values);
+            }
+            accum.add(expansion);
+            return accum;
+        });
+
+        // Trap like events, with a varying number of varbinds
+        events = new Event[EVENTS];
+        for (int i = 0; i < EVENTS; i++) {
+            final EventBuilder builder = new EventBuilder("uei.opennms.org/benchmark", "benchmark");
+            builder.setInterface(InetAddressUtils.addr("192.168.1." + (i % 254 + 1)));
+            for (int j = 0; j <= i % 8; j++) {
+                builder.addParam(".1.3.6.1.2.1.2.2.1." + (j + 1) + "." + i, String.valueOf(i + j));
+            }
+            events[i] = builder.getEvent();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void expand(final Blackhole blackhole) {
+        final boolean legacy = "legacy".equals(expansion);
+        for (int i = 0; i < EVENTS; i++) {
+            final Event event = events[i];
+            final Expansion e = expansions.get(i * 7 % expansions.size());
+            if (legacy) {
+                for (LegacyEventTemplate template : e.legacyTemplates) {
+                    blackhole.consume(template.expand(event, e.decode));
+                }
+            } else {
+                for (EventTemplate template : e.templates) {
+                    blackhole.consume(template.expand(event, e.decode));
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder().include(EventExpansionBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -37,9 +37,13 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 
 import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.RejectedExecutionException;
@@ -825,4 +829,137 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         // Release
         locker.release();
     }
+
+    /**
+     * Verify that events are delivered through the ring buffers when enabled, and
+     * that synchronous broadcasts wait for the listener to complete.
+     */
+    public void testRingBufferBroadcastNowSync() throws InterruptedException {
+        final AtomicInteger counter = new AtomicInteger();
+        final EventListener slowListener = new EventListener() {
+            @Override
+            public String getName() {
+                return "testRingBufferBroadcastNowSync";
+            }
+
+            @Override
+            public void onEvent(Event event) {
+                try {
+                    Thread.sleep(SLOW_EVENT_OPERATION_DELAY);
+                } catch (InterruptedException e) {
+                }
+                counter.incrementAndGet();
+            }
+        };
+
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setHandlerPoolSize(5);
+        manager.setListenerRingBufferSize(16);
+        manager.setEventHandler(new DefaultEventHandlerImpl(m_registry));
+        manager.afterPropertiesSet();
+
+        manager.addEventListener(slowListener, "uei.opennms.org/foo");
+
+        manager.broadcastNow(new EventBuilder("uei.opennms.org/foo", "testRingBufferBroadcastNowSync").getEvent(), true);
+        assertEquals(1, counter.get());
+
+        // Events that don't match the UEI should not be delivered
+        manager.broadcastNow(new EventBuilder("uei.opennms.org/bar", "testRingBufferBroadcastNowSync").getEvent(), true);
+        assertEquals(1, counter.get());
+
+        manager.removeEventListener(slowListener);
+        assertNull(m_registry.getGauges().get("eventlisteners.testRingBufferBroadcastNowSync.lag"));
+    }
+
+    /**
+     * Verify that events for the same node are always delivered in order, and on the same
+     * thread, when a {@link ThreadAwareEventListener} is backed by the ring buffers.
+     */
+    public void testRingBufferPartitionsByNodeId() throws InterruptedException {
+        final int numNodes = 8;
+        final int eventsPerNode = 100;
+        final CountDownLatch latch = new CountDownLatch(numNodes * eventsPerNode);
+        final Map<Long, List<Integer>> receivedByNode = new ConcurrentHashMap<>();
+        final Map<Long, Set<String>> threadsByNode = new ConcurrentHashMap<>();
+
+        final class PartitionedListener implements ThreadAwareEventListener, EventListener {
+            @Override
+            public String getName() {
+                return "testRingBufferPartitionsByNodeId";
+            }
+
+            @Override
+            public void onEvent(Event e) {
+                receivedByNode.computeIfAbsent(e.getNodeid(), k -> Collections.synchronizedList(new ArrayList<>()))
+                    .add(Integer.valueOf(e.getParm("seq").getValue().getContent()));
+                threadsByNode.computeIfAbsent(e.getNodeid(), k -> ConcurrentHashMap.newKeySet())
+                    .add(Thread.currentThread().getName());
+                latch.countDown();
+            }
+
+            @Override
+            public int getNumThreads() {
+                return 4;
+            }
+        }
+
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setHandlerPoolSize(5);
+        manager.setListenerRingBufferSize(numNodes * eventsPerNode);
+        manager.setEventHandler(new DefaultEventHandlerImpl(m_registry));
+        manager.afterPropertiesSet();
+        manager.addEventListener(new PartitionedListener());
+
+        for (int k = 0; k < eventsPerNode; k++) {
+            for (long nodeId = 1; nodeId <= numNodes; nodeId++) {
+                EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "testRingBufferPartitionsByNodeId");
+                bldr.setNodeid(nodeId);
+                bldr.addParam("seq", k);
+                manager.broadcastNow(bldr.getEvent(), false);
+            }
+        }
+
+        assertTrue("not all events were delivered: " + latch.getCount(), latch.await(30, TimeUnit.SECONDS));
+        for (long nodeId = 1; nodeId <= numNodes; nodeId++) {
+            final List<Integer> received = receivedByNode.get(nodeId);
+            for (int k = 0; k < eventsPerNode; k++) {
+                assertEquals(Integer.valueOf(k), received.get(k));
+            }
+            assertEquals(1, threadsByNode.get(nodeId).size());
+        }
+        assertEquals(0, m_registry.meter("eventlisteners.testRingBufferPartitionsByNodeId.dropped").getCount());
+    }
+
+    /**
+     * Verify that events are discarded, and counted, when a listener's ring buffer is full.
+     */
+    public void testRingBufferDiscardsWhenFull() throws Exception {
+        ThreadLocker locker = new ThreadLocker();
+        MultiThreadedEventListener listener = new MultiThreadedEventListener(1, locker);
+
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setHandlerPoolSize(5);
+        manager.setListenerRingBufferSize(4);
+        manager.setEventHandler(new DefaultEventHandlerImpl(m_registry));
+        manager.afterPropertiesSet();
+        manager.addEventListener(listener);
+
+        // Block the listener on the first event
+        CompletableFuture<Integer> lockedFuture = locker.waitForThreads(1);
+        manager.broadcastNow(new EventBuilder("uei.opennms.org/foo", "testRingBufferDiscardsWhenFull").getEvent(), false);
+        lockedFuture.get();
+
+        // Fill the ring buffer, and overflow it by 2. The event that is currently being
+        // handled keeps its slot until the listener returns, so only 3 more will fit.
+        for (int k = 0; k < 5; k++) {
+            manager.broadcastNow(new EventBuilder("uei.opennms.org/foo", "testRingBufferDiscardsWhenFull").getEvent(), false);
+        }
+
+        final String prefix = "eventlisteners." + listener.getName();
+        assertEquals(2, m_registry.meter(prefix + ".dropped").getCount());
+        assertEquals(4L, m_registry.getGauges().get(prefix + ".lag").getValue());
+
+        locker.release();
+        await().atMost(10, TimeUnit.SECONDS).until(() -> (Long)m_registry.getGauges().get(prefix + ".lag").getValue(), equalTo(0L));
+    }
 }
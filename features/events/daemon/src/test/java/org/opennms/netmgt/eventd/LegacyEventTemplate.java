@@ -0,0 +1,224 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.eventd;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.opennms.netmgt.eventd.processor.expandable.ExpandableParameterResolver;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.event.Value;
+
+/**
+ * The expansion of event templates as it was done before the templates were compiled
+ * into bound parameters, used as the reference for the tests and the benchmark.
+ */
+public class LegacyEventTemplate {
+
+    private static final Pattern WHITESPACE_PATTERN = Pattern.compile(".*\\s(?s).*");
+
+    private interface Token {
+        String expand(Event event, Map<String, Map<String, String>> decode);
+    }
+
+    private final List<Token> tokens = new ArrayList<>();
+
+    public LegacyEventTemplate(String input, EventUtil eventUtil) {
+        String tempInp = input;
+        int inpLen = input.length();
+        int index1 = -1;
+        int index2 = -1;
+        while ((tempInp != null) && ((index1 = tempInp.indexOf('%')) != -1)) {
+            final String constant = tempInp.substring(0, index1);
+            tokens.add((event, decode) -> constant);
+            tempInp = tempInp.substring(index1);
+            index2 = tempInp.indexOf('%', 1);
+            if (index2 == 1) {
+                tokens.add((event, decode) -> "%");
+                tempInp = tempInp.substring(index2 + 1);
+                continue;
+            } else if (index2 != -1) {
+                final String parm = tempInp.substring(1, index2);
+                if (WHITESPACE_PATTERN.matcher(parm).matches()) {
+                    tokens.add((event, decode) -> "%");
+                    tempInp = tempInp.substring(1);
+                    continue;
+                }
+                tokens.add(parameter(parm, eventUtil));
+                if (index2 < (inpLen - 1)) {
+                    tempInp = tempInp.substring(index2 + 1);
+                } else {
+                    tempInp = null;
+                }
+            } else {
+                break;
+            }
+        }
+        if ((index1 == -1 || index2 == -1) && (tempInp != null)) {
+            final String constant = tempInp;
+            tokens.add((event, decode) -> constant);
+        }
+    }
+
+    public String expand(Event event, Map<String, Map<String, String>> decode) {
+        return tokens.stream()
+                .map(t -> t.expand(event, decode))
+                .collect(Collectors.joining());
+    }
+
+    private static Token parameter(String token, EventUtil eventUtil) {
+        final ExpandableParameterResolver resolver = eventUtil.getResolver(token);
+        final String parsedToken = resolver.parse(token);
+        return (event, decode) -> {
+            final String value;
+            if (resolver == StandardExpandableParameterResolvers.PARM_NUM) {
+                value = getNumParmValue(token, event);
+            } else if (resolver == StandardExpandableParameterResolvers.PARM_NAME_NUMBERED) {
+                value = getNumParmName(token, event);
+            } else if (resolver == StandardExpandableParameterResolvers.PARM) {
+                final Parm evParm = event.getParmTrim(parsedToken);
+                value = evParm == null || evParm.getValue() == null ? null : EventConstants.getValueAsString(evParm.getValue());
+            } else {
+                value = resolver.getValue(token, parsedToken, event, eventUtil);
+            }
+            if (value != null) {
+                if (decode != null && decode.containsKey(token) && decode.get(token).containsKey(value)) {
+                    return decode.get(token).get(value) + "(" + value + ")";
+                } else {
+                    return value;
+                }
+            }
+            return "";
+        };
+    }
+
+    public static String getNumParmName(String parm, Event event) {
+        String retParmVal = null;
+        final List<Parm> parms = event.getParmCollection();
+        int end = parm.lastIndexOf(AbstractEventUtil.PARM_END_SUFFIX);
+        if (end != -1 && parms != null && parms.size() > 0) {
+            String parmSpec = parm.substring(AbstractEventUtil.PARM_NAME_NUMBERED_PREFIX_LENGTH, end);
+            String eparmnum = null;
+            String eparmsep = null;
+            String eparmoffset = null;
+            String eparmrangesep = null;
+            String eparmrangelen = null;
+            if (parmSpec.matches("^\\d+$")) {
+                eparmnum = parmSpec;
+            } else {
+                Matcher m = Pattern.compile("^(\\d+)([^0-9+-]+)([+-]?\\d+)((:)([+-]?\\d+)?)?$").matcher(parmSpec);
+                if (m.matches()) {
+                    eparmnum = m.group(1);
+                    eparmsep = m.group(2);
+                    eparmoffset = m.group(3);
+                    eparmrangesep = m.group(5);
+                    eparmrangelen = m.group(6);
+                }
+            }
+            int parmNum = -1;
+            try {
+                parmNum = Integer.parseInt(eparmnum);
+            } catch (NumberFormatException nfe) {
+                parmNum = -1;
+            }
+            if (parmNum > 0 && parmNum <= parms.size()) {
+                String eparmname = parms.get(parmNum - 1).getParmName();
+                if ((eparmsep != null) && (eparmoffset != null)) {
+                    int parmOffset = Integer.parseInt(eparmoffset);
+                    boolean doRange = ":".equals(eparmrangesep);
+                    int parmRangeLen = (eparmrangelen == null) ? 0 : Integer.parseInt(eparmrangelen);
+                    retParmVal = splitAndExtract(eparmname, eparmsep, parmOffset, doRange, parmRangeLen);
+                } else {
+                    retParmVal = eparmname;
+                }
+            }
+        }
+        return retParmVal;
+    }
+
+    public static String splitAndExtract(String src, String sep, int offset, boolean doRange, int rangeLen) {
+        String sepLiteral = Pattern.quote(sep);
+        if (src.startsWith(sep)) {
+            src = src.replaceFirst(sepLiteral, "");
+        }
+        String[] components = src.split(sepLiteral);
+        int startIndex, endIndex;
+        if ((Math.abs(offset) > components.length) || (offset == 0)) {
+            return null;
+        } else if (offset < 0) {
+            startIndex = components.length + offset;
+        } else {
+            startIndex = offset - 1;
+        }
+        endIndex = startIndex;
+        if (! doRange) {
+            return components[startIndex];
+        } else if (rangeLen == 0) {
+            endIndex = components.length - 1;
+        } else if (rangeLen < 0) {
+            endIndex = startIndex + 1 + rangeLen;
+        } else {
+            endIndex = startIndex - 1 + rangeLen;
+        }
+        final StringBuilder retVal = new StringBuilder();
+        for (int i = startIndex; i <= endIndex; i++) {
+            retVal.append(components[i]);
+            if (i < endIndex) {
+                retVal.append(sep);
+            }
+        }
+        return retVal.toString();
+    }
+
+    public static String getNumParmValue(String parm, Event event) {
+        String retParmVal = null;
+        final List<Parm> parms = event.getParmCollection();
+        int end = parm.lastIndexOf(AbstractEventUtil.PARM_END_SUFFIX);
+        if (end != -1 && parms != null && parms.size() > 0) {
+            int parmNum = -1;
+            try {
+                parmNum = Integer.parseInt(parm.substring(AbstractEventUtil.PARM_NUM_PREFIX_LENGTH, end));
+            } catch (NumberFormatException nfe) {
+                parmNum = -1;
+            }
+            if (parmNum > 0 && parmNum <= parms.size()) {
+                Value eparmval = parms.get(parmNum - 1).getValue();
+                if (eparmval != null) {
+                    retParmVal = EventConstants.getValueAsString(eparmval);
+                }
+            }
+        }
+        return retParmVal;
+    }
+}
@@ -33,6 +33,7 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -40,6 +41,7 @@ import java.util.UUID;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.test.db.annotations.JUnitTemporaryDatabase;
 import org.opennms.netmgt.dao.api.DistPollerDao;
 import org.opennms.netmgt.dao.api.MonitoringLocationDao;
@@ -322,4 +324,51 @@ public class HibernateEventWriterIT {
         assertEquals("event count", new Integer(1), jdbcTemplate.queryForObject("select count(*) from events", Integer.class));
         assertEquals("event service ID", new Integer(serviceId), jdbcTemplate.queryForObject("select serviceID from events", Integer.class));
     }
+
+    /**
+     * Verifies that the multi-row inserts used when batching produce the
+     * same rows as the regular Hibernate mappings.
+     */
+    @Test
+    public void testBatchedWriteMatchesSingleWrite() throws Exception {
+        jdbcTemplate.update("INSERT INTO node (location, nodeId, nodeCreateTime) VALUES ('" + MonitoringLocationDao.DEFAULT_MONITORING_LOCATION_ID + "', nextVal('nodeNxtId'), now())");
+        final int nodeId = jdbcTemplate.queryForObject("SELECT nodeId FROM node LIMIT 1", Integer.class);
+        jdbcTemplate.update("insert into service (serviceId, serviceName) values (?, ?)", new Object[] { 1, "ICMP" });
+
+        final HibernateEventWriter writer = (HibernateEventWriter)m_eventWriter;
+        final int batchSize = writer.getBatchSize();
+        final Event[] events = new Event[2];
+        try {
+            for (int i = 0; i < events.length; i++) {
+                writer.setBatchSize(i == 0 ? 0 : 100);
+
+                final EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "someSource");
+                bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+                bldr.setLogMessage("abc\u0000def");
+                bldr.setNodeid(nodeId);
+                bldr.setInterface(InetAddressUtils.addr("192.168.1.1"));
+                bldr.setService("ICMP");
+                bldr.setSeverity("Major");
+                bldr.setIfIndex(3);
+                bldr.addParam("param1", "value1");
+                bldr.addParam("param2", 1337);
+                events[i] = bldr.getEvent();
+                m_eventWriter.process(bldr.getLog());
+                assertTrue(events[i].getDbid() > 0);
+            }
+        } finally {
+            writer.setBatchSize(batchSize);
+        }
+
+        final Map<String, Object> expected = jdbcTemplate.queryForMap("SELECT * FROM events WHERE eventId = ?", events[0].getDbid());
+        final Map<String, Object> actual = jdbcTemplate.queryForMap("SELECT * FROM events WHERE eventId = ?", events[1].getDbid());
+        for (final Map<String, Object> row : Arrays.asList(expected, actual)) {
+            row.remove("eventid");
+            row.remove("eventcreatetime");
+        }
+        assertEquals(expected, actual);
+
+        final String parameterQuery = "SELECT name, value, type FROM event_parameters WHERE eventID = ? ORDER BY name";
+        assertEquals(jdbcTemplate.queryForList(parameterQuery, events[0].getDbid()), jdbcTemplate.queryForList(parameterQuery, events[1].getDbid()));
+    }
 }
@@ -28,20 +28,50 @@
 
 package org.opennms.netmgt.eventd.processor;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.dao.api.MonitoringSystemDao;
+import org.opennms.netmgt.dao.api.NodeDao;
+import org.opennms.netmgt.dao.api.ServiceTypeDao;
+import org.opennms.netmgt.eventd.EventUtil;
+import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.events.api.EventProcessorException;
+import org.opennms.netmgt.model.OnmsDistPoller;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsNode;
 import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Events;
 import org.opennms.netmgt.xml.event.Log;
+import org.springframework.transaction.support.TransactionCallback;
 import org.springframework.transaction.support.TransactionOperations;
 
 import com.codahale.metrics.MetricRegistry;
@@ -56,11 +86,50 @@ public class HibernateEventWriterTest {
     private HibernateEventWriter eventWriter;
     private TransactionOperations transactionManager;
 
+    private final MetricRegistry batchRegistry = new MetricRegistry();
+
+    @InjectMocks
+    private HibernateEventWriter batchWriter = new HibernateEventWriter(batchRegistry);
+
+    @Mock
+    private TransactionOperations batchTransactionManager;
+
+    @Mock
+    private NodeDao nodeDao;
+
+    @Mock
+    private MonitoringSystemDao monitoringSystemDao;
+
+    @Mock
+    private DistPollerDao distPollerDao;
+
+    @Mock
+    private EventDao eventDao;
+
+    @Mock
+    private ServiceTypeDao serviceTypeDao;
+
+    @Mock
+    private EventUtil eventUtil;
+
+    private final AtomicInteger nextId = new AtomicInteger(1);
+
     @Before
     public void setUp() {
         eventWriter = new HibernateEventWriter(new MetricRegistry());
         transactionManager = mock(TransactionOperations.class);
         eventWriter.setTransactionManager(transactionManager);
+
+        MockitoAnnotations.initMocks(this);
+        batchWriter.setTransactionManager(batchTransactionManager);
+        batchWriter.setBatchSize(100);
+        when(batchTransactionManager.execute(any())).thenAnswer(inv -> ((TransactionCallback<?>)inv.getArguments()[0]).doInTransaction(null));
+        when(distPollerDao.whoami()).thenReturn(new OnmsDistPoller(DistPollerDao.DEFAULT_DIST_POLLER_ID));
+        when(eventDao.save(any(OnmsEvent.class))).thenAnswer(inv -> {
+            final OnmsEvent ovent = (OnmsEvent)inv.getArguments()[0];
+            ovent.setId(nextId.getAndIncrement());
+            return ovent.getId();
+        });
     }
 
     /**
@@ -116,4 +185,128 @@ public class HibernateEventWriterTest {
         eventWriter.process(log);
         verify(transactionManager, times(1)).execute(any());
     }
+
+    /**
+     * Verifies that the logs queued while a batch is being written are
+     * grouped into the next batch, and that every event gets its id before
+     * {@link HibernateEventWriter#process(Log)} returns.
+     */
+    @Test
+    public void testBatchedWritesAreGrouped() throws Exception {
+        final CountDownLatch firstBatchStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        doAnswer(inv -> {
+            @SuppressWarnings("unchecked")
+            final List<OnmsEvent> ovents = (List<OnmsEvent>)inv.getArguments()[0];
+            batchSizes.add(ovents.size());
+            if (batchSizes.size() == 1) {
+                firstBatchStarted.countDown();
+                releaseFirstBatch.await();
+            }
+            ovents.forEach(ovent -> ovent.setId(nextId.getAndIncrement()));
+            return null;
+        }).when(eventDao).saveAll(anyListOf(OnmsEvent.class));
+
+        final List<Event> events = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final EventBuilder bldr = new EventBuilder("testUei", "testSource");
+            bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+            final Log log = bldr.getLog();
+            events.add(bldr.getEvent());
+            threads.add(new Thread(() -> {
+                try {
+                    batchWriter.process(log);
+                } catch (EventProcessorException e) {
+                    throw new RuntimeException(e);
+                }
+            }));
+        }
+
+        // The first log is written on its own and blocks while the others queue up
+        threads.get(0).start();
+        assertTrue(firstBatchStarted.await(10, TimeUnit.SECONDS));
+        for (Thread thread : threads.subList(1, threads.size())) {
+            thread.start();
+        }
+        for (Thread thread : threads.subList(1, threads.size())) {
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        releaseFirstBatch.countDown();
+        for (Thread thread : threads) {
+            thread.join(10000);
+        }
+
+        assertEquals(2, batchSizes.size());
+        assertEquals(Integer.valueOf(1), batchSizes.get(0));
+        assertEquals(Integer.valueOf(9), batchSizes.get(1));
+        verify(batchTransactionManager, times(2)).execute(any());
+        verify(eventDao, never()).save(any(OnmsEvent.class));
+
+        final Set<Integer> ids = new HashSet<>();
+        for (Event event : events) {
+            assertTrue(event.getDbid() > 0);
+            ids.add(event.getDbid());
+        }
+        assertEquals(10, ids.size());
+        assertEquals(2, batchRegistry.histogram("eventlogs.process.batch.size").getCount());
+        assertEquals(2, batchRegistry.timer("eventlogs.process.batch.write").getCount());
+    }
+
+    /**
+     * Verifies that the logs of a failed batch are written individually.
+     */
+    @Test
+    public void testFailedBatchIsRetriedPerLog() throws EventProcessorException {
+        doThrow(new IllegalStateException("batch failed")).when(eventDao).saveAll(anyListOf(OnmsEvent.class));
+
+        final EventBuilder bldr = new EventBuilder("testUei", "testSource");
+        bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+        final Event e1 = bldr.getEvent();
+        final Event e2 = new EventBuilder("testUei", "testSource").setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY).getEvent();
+        final Events events = new Events();
+        events.setEvent(new Event[]{e1, e2});
+        final Log log = new Log();
+        log.setEvents(events);
+
+        batchWriter.process(log);
+
+        verify(eventDao, times(2)).save(any(OnmsEvent.class));
+        assertTrue(e1.getDbid() > 0);
+        assertTrue(e2.getDbid() > 0);
+    }
+
+    /**
+     * Verifies that node lookups are cached across batches until the
+     * node is reported as deleted.
+     */
+    @Test
+    public void testNodeLookupsAreCachedUntilNodeDeleted() throws EventProcessorException {
+        final OnmsNode node = new OnmsNode();
+        node.setId(1);
+        when(nodeDao.get(1)).thenReturn(node);
+
+        final List<OnmsEvent> saved = new ArrayList<>();
+        doAnswer(inv -> {
+            @SuppressWarnings("unchecked")
+            final List<OnmsEvent> ovents = (List<OnmsEvent>)inv.getArguments()[0];
+            saved.addAll(ovents);
+            ovents.forEach(ovent -> ovent.setId(nextId.getAndIncrement()));
+            return null;
+        }).when(eventDao).saveAll(anyListOf(OnmsEvent.class));
+
+        batchWriter.process(new EventBuilder("testUei", "testSource").setNodeid(1).setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY).getLog());
+        batchWriter.process(new EventBuilder("testUei", "testSource").setNodeid(1).setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY).getLog());
+        verify(nodeDao, times(1)).get(1);
+        assertEquals(Integer.valueOf(1), saved.get(1).getNodeId());
+
+        // The node is gone by the time the nodeDeleted event is written
+        when(nodeDao.get(1)).thenReturn(null);
+        batchWriter.process(new EventBuilder(EventConstants.NODE_DELETED_EVENT_UEI, "testSource").setNodeid(1).setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY).getLog());
+        verify(nodeDao, times(2)).get(1);
+        assertNull(saved.get(2).getNodeId());
+    }
 }
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Finds which of a fixed set of literals occur in a text with a single pass over the text.
+ *
+ * @see <a href="https://en.wikipedia.org/wiki/Aho%E2%80%93Corasick_algorithm">Aho-Corasick algorithm</a>
+ */
+class AhoCorasickMatcher {
+
+    private static final int[] NO_OUTPUTS = new int[0];
+
+    /** Sorted transition characters of each state. */
+    private final char[][] m_keys;
+
+    /** Target states of the transitions, in the order of {@link #m_keys}. */
+    private final int[][] m_targets;
+
+    private final int[] m_failures;
+
+    /** Indexes of the literals ending at each state, including the ones of its failure states. */
+    private final int[][] m_outputs;
+
+    private final int m_literalCount;
+
+    /**
+     * @param literals the literals to find, which may not be empty
+     */
+    AhoCorasickMatcher(final List<String> literals) {
+        m_literalCount = literals.size();
+
+        // Build the trie
+        final List<TreeMap<Character, Integer>> transitions = new ArrayList<>();
+        final List<List<Integer>> outputs = new ArrayList<>();
+        transitions.add(new TreeMap<>());
+        outputs.add(new ArrayList<>());
+        for (int i = 0; i < literals.size(); i++) {
+            final String literal = literals.get(i);
+            if (literal.isEmpty()) {
+                throw new IllegalArgumentException("Literals may not be empty.");
+            }
+            int state = 0;
+            for (int j = 0; j < literal.length(); j++) {
+                Integer next = transitions.get(state).get(literal.charAt(j));
+                if (next == null) {
+                    next = transitions.size();
+                    transitions.add(new TreeMap<>());
+                    outputs.add(new ArrayList<>());
+                    transitions.get(state).put(literal.charAt(j), next);
+                }
+                state = next;
+            }
+            outputs.get(state).add(i);
+        }
+
+        final int stateCount = transitions.size();
+        m_keys = new char[stateCount][];
+        m_targets = new int[stateCount][];
+        for (int state = 0; state < stateCount; state++) {
+            final TreeMap<Character, Integer> stateTransitions = transitions.get(state);
+            m_keys[state] = new char[stateTransitions.size()];
+            m_targets[state] = new int[stateTransitions.size()];
+            int i = 0;
+            for (final Map.Entry<Character, Integer> transition : stateTransitions.entrySet()) {
+                m_keys[state][i] = transition.getKey();
+                m_targets[state][i] = transition.getValue();
+                i++;
+            }
+        }
+
+        // Compute the failure links breadth first, so the ones of shorter prefixes are known
+        m_failures = new int[stateCount];
+        m_outputs = new int[stateCount][];
+        m_outputs[0] = toArray(outputs.get(0));
+        final Deque<Integer> queue = new ArrayDeque<>();
+        for (final int child : m_targets[0]) {
+            m_failures[child] = 0;
+            m_outputs[child] = toArray(outputs.get(child));
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.remove();
+            for (int i = 0; i < m_keys[state].length; i++) {
+                final char c = m_keys[state][i];
+                final int child = m_targets[state][i];
+                int failure = m_failures[state];
+                while (failure != 0 && next(failure, c) < 0) {
+                    failure = m_failures[failure];
+                }
+                final int next = next(failure, c);
+                m_failures[child] = next < 0 ? 0 : next;
+
+                final List<Integer> childOutputs = outputs.get(child);
+                for (final int output : m_outputs[m_failures[child]]) {
+                    childOutputs.add(output);
+                }
+                m_outputs[child] = toArray(childOutputs);
+                queue.add(child);
+            }
+        }
+    }
+
+    int getLiteralCount() {
+        return m_literalCount;
+    }
+
+    /**
+     * Flags the literals occurring in the given text.
+     *
+     * @param text the text to search
+     * @param found flags indexed like the literals given at construction
+     */
+    void search(final CharSequence text, final boolean[] found) {
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            int next = next(state, c);
+            while (next < 0 && state != 0) {
+                state = m_failures[state];
+                next = next(state, c);
+            }
+            state = next < 0 ? 0 : next;
+            for (final int output : m_outputs[state]) {
+                found[output] = true;
+            }
+        }
+    }
+
+    private int next(final int state, final char c) {
+        final int i = Arrays.binarySearch(m_keys[state], c);
+        return i < 0 ? -1 : m_targets[state][i];
+    }
+
+    private static int[] toArray(final List<Integer> values) {
+        if (values.isEmpty()) {
+            return NO_OUTPUTS;
+        }
+        final int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
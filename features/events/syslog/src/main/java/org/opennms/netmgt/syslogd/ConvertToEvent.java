@@ -28,26 +28,13 @@
 
 package org.opennms.netmgt.syslogd;
 
-import static org.opennms.core.utils.InetAddressUtils.str;
-
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 import org.apache.commons.lang.builder.ToStringBuilder;
 import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.config.SyslogdConfig;
-import org.opennms.netmgt.config.syslogd.HideMatch;
-import org.opennms.netmgt.config.syslogd.HostaddrMatch;
-import org.opennms.netmgt.config.syslogd.HostnameMatch;
-import org.opennms.netmgt.config.syslogd.ParameterAssignment;
-import org.opennms.netmgt.config.syslogd.ProcessMatch;
-import org.opennms.netmgt.config.syslogd.UeiMatch;
 import org.opennms.netmgt.dao.api.AbstractInterfaceToNodeCache;
 import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
 import org.opennms.netmgt.model.events.EventBuilder;
@@ -55,16 +42,15 @@ import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer.Context;
 
 /**
  * This routine does the majority of Syslogd's work.
- * Improvements are most likely to be made.
- * 
- * TODO: This class is sloooow. It needs to be sped up significantly
- * to handle increased syslog volume.
+ *
+ * The UEI and hide matches of the configuration are compiled into a
+ * {@link SyslogConversionPlan}, and the event is only built once the
+ * message is known not to be discarded.
  *
  * @author Seth
  * @author <a href="mailto:joed@opennms.org">Johan Edstrom</a>
@@ -83,18 +69,7 @@ public class ConvertToEvent {
 
     private final Event m_event;
 
-    private static final LoadingCache<String,Pattern> CACHED_PATTERNS = CacheBuilder.newBuilder().build(
-        new CacheLoader<String,Pattern>() {
-            public Pattern load(String expression) {
-                try {
-                    return Pattern.compile(expression, Pattern.MULTILINE);
-                } catch(final PatternSyntaxException e) {
-                    LOG.warn("Failed to compile regex pattern '{}'", expression, e);
-                    return null;
-                }
-            }
-        }
-    );
+    private static final SyslogConversionMetrics UNREGISTERED_METRICS = new SyslogConversionMetrics(new MetricRegistry());
 
     /**
      * Reduce the limit of the buffer to trim trailing nulls from the value.
@@ -210,6 +185,22 @@ public class ConvertToEvent {
         final ByteBuffer incoming,
         final SyslogdConfig config
     ) throws MessageDiscardedException {
+        this(systemId, location, addr, port, incoming, config, UNREGISTERED_METRICS);
+    }
+
+    /**
+     * Constructs a new event encapsulation instance, recording the throughput
+     * of each stage of the conversion in the given metrics.
+     */
+    ConvertToEvent(
+        final String systemId,
+        final String location,
+        final InetAddress addr,
+        final int port,
+        final ByteBuffer incoming,
+        final SyslogdConfig config,
+        final SyslogConversionMetrics metrics
+    ) throws MessageDiscardedException {
 
         if (config == null) {
             throw new IllegalArgumentException("Config cannot be null");
@@ -221,29 +212,14 @@ public class ConvertToEvent {
             LOG.trace("Converting to event: {}", this);
         }
 
-        SyslogParser parser = SyslogParser.getParserInstance(config, buffer);
-        if (!parser.find()) {
-            throw new MessageDiscardedException(String.format("Message does not match regex: '%s'", SyslogParser.fromByteBuffer(buffer).toString()));
-        }
-        SyslogMessage message;
-        try {
-            message = parser.parse();
-        } catch (final SyslogParserException ex) {
-            LOG.debug("Unable to parse '{}'", SyslogParser.fromByteBuffer(buffer), ex);
-            throw new MessageDiscardedException(ex);
-        }
-
-        if (message == null) {
-            throw new MessageDiscardedException(String.format("Unable to parse message: '%s'", SyslogParser.fromByteBuffer(buffer).toString()));
-        }
-
-        if (LOG.isTraceEnabled()) {
-            LOG.trace("got syslog message {}", SyslogParser.fromByteBuffer(buffer));
+        final SyslogMessage message;
+        try (Context parseCtx = metrics.parseTimer.time()) {
+            message = parse(config, buffer);
+        } catch (final MessageDiscardedException e) {
+            metrics.discardedMeter.mark();
+            throw e;
         }
 
-        final String priorityTxt = message.getSeverity().toString();
-        final String facilityTxt = message.getFacility().toString();
-
         // Post-process the message based on the SyslogdConfig
 
         // We will also here find out if, the host needs to
@@ -263,210 +239,59 @@ public class ConvertToEvent {
         * node to match against nodeId.
          */
 
-        // Time to verify UEI matching.
-
-        EventBuilder bldr = toEventBuilder(message, systemId, location);
-
-        final List<UeiMatch> ueiMatch = (config.getUeiList() == null ? Collections.emptyList() : config.getUeiList());
-        for (final UeiMatch uei : ueiMatch) {
-            final boolean messageMatchesUeiListEntry = containsIgnoreCase(uei.getFacilities(), facilityTxt) &&
-                                              containsIgnoreCase(uei.getSeverities(), priorityTxt) &&
-                                              matchProcess(uei.getProcessMatch().orElse(null), message.getProcessName()) &&
-                                              matchHostname(uei.getHostnameMatch().orElse(null), message.getHostName()) &&
-                                              matchHostAddr(uei.getHostaddrMatch().orElse(null), str(message.getHostAddress()));
-
-            if (messageMatchesUeiListEntry) {
-                if (uei.getMatch().getType().equals("substr")) {
-                    if (matchSubstring(message.getMessage(), uei, bldr, config.getDiscardUei())) {
-                        break;
-                    }
-                } else if ((uei.getMatch().getType().startsWith("regex"))) {
-                    if (matchRegex(message.getMessage(), uei, bldr, config.getDiscardUei())) {
-                        break;
-                    }
-                }
-            }
+        // Time to verify UEI matching, before building the event so that
+        // discarded messages never get that far
+        final SyslogConversionPlan plan = SyslogConversionPlan.forConfig(config);
+        final SyslogConversionPlan.UeiEntry ueiMatch;
+        final boolean doHide;
+        try (Context matchCtx = metrics.matchTimer.time()) {
+            ueiMatch = plan.findUeiMatch(message);
+            // Time to verify if we need to hide the message
+            doHide = plan.isHidden(message);
+        } catch (final MessageDiscardedException e) {
+            metrics.discardedMeter.mark();
+            throw e;
         }
 
-        // Time to verify if we need to hide the message
-        final List<HideMatch> hideMatch = (config.getHideMessages() == null ? Collections.emptyList() : config.getHideMessages());
-        boolean doHide = false;
-        if (hideMatch.size() > 0) {
-            // Match this regex against the full string of the message
-            final String fullText = message.asRfc3164Message();
-
-            for (final HideMatch hide : hideMatch) {
-                if (hide.getMatch().getType().equals("substr")) {
-                    if (fullText.contains(hide.getMatch().getExpression())) {
-                        // We should hide the message based on this match
-                        doHide = true;
-                        break;
-                    }
-                } else if (hide.getMatch().getType().equals("regex")) {
-                    try {
-                        Pattern msgPat = getPattern(hide.getMatch().getExpression());
-                        Matcher msgMat = msgPat.matcher(fullText);
-                        if (msgMat.find()) {
-                            // We should hide the message based on this match
-                            doHide = true;
-                            break;
-                        }
-                    } catch (PatternSyntaxException pse) {
-                        LOG.warn("Failed to compile hide-match regex pattern '{}'", hide.getMatch().getExpression(), pse);
-                    }
-                }
+        try (Context buildCtx = metrics.buildTimer.time()) {
+            final EventBuilder bldr = toEventBuilder(message, systemId, location);
+            if (ueiMatch != null) {
+                LOG.trace("Changed the UEI of a Syslogd event to : {}", ueiMatch.getUei());
+                ueiMatch.apply(bldr);
             }
-        }
 
-        if (doHide) {
-            LOG.debug("Hiding syslog message from Event - May contain sensitive data");
-            bldr.setLogMessage(HIDDEN_MESSAGE);
-            bldr.setParam("syslogmessage", HIDDEN_MESSAGE);
-        }
+            if (doHide) {
+                LOG.debug("Hiding syslog message from Event - May contain sensitive data");
+                metrics.hiddenMeter.mark();
+                bldr.setLogMessage(HIDDEN_MESSAGE);
+                bldr.setParam("syslogmessage", HIDDEN_MESSAGE);
+            }
 
-        m_event = bldr.getEvent();
+            m_event = bldr.getEvent();
+        }
     }
 
-    private static boolean matchFind(final String expression, final String input, final String context) {
-        if (input == null) {
-            return false;
-        }
-        final Pattern pat = getPattern(expression);
-        if (pat == null) {
-            LOG.debug("Unable to get pattern for expression '{}' in {} context", expression, context);
-            return false;
+    private static SyslogMessage parse(final SyslogdConfig config, final ByteBuffer buffer) throws MessageDiscardedException {
+        SyslogParser parser = SyslogParser.getParserInstance(config, buffer);
+        if (!parser.find()) {
+            throw new MessageDiscardedException(String.format("Message does not match regex: '%s'", SyslogParser.fromByteBuffer(buffer).toString()));
         }
-        final Matcher mat = pat.matcher(input);
-        if (mat != null && mat.find()) {
-            LOG.trace("Successful regex {} for input '{}' against expression '{}'", context, input, expression);
-            return true;
-        } else {
-           return false;
+        SyslogMessage message;
+        try {
+            message = parser.parse();
+        } catch (final SyslogParserException ex) {
+            LOG.debug("Unable to parse '{}'", SyslogParser.fromByteBuffer(buffer), ex);
+            throw new MessageDiscardedException(ex);
         }
-    }
-
-    private static boolean matchHostAddr(final HostaddrMatch hostaddrMatch, final String hostAddress) {
-        if (hostaddrMatch == null) return true;
-        return matchFind(hostaddrMatch.getExpression(), hostAddress, "hostaddr-match");
-    }
-
-    private static boolean matchHostname(final HostnameMatch hostnameMatch, final String hostName) {
-        if (hostnameMatch == null) return true;
-        return matchFind(hostnameMatch.getExpression(), hostName, "hostname-match");
-    }
-
-    private static boolean matchProcess(final ProcessMatch processMatch, final String processName) {
-        if (processMatch == null) return true;
-        return matchFind(processMatch.getExpression(), processName, "process-match");
-    }
-
-    private static boolean containsIgnoreCase(List<String> collection, String match) {
-         if (collection.size() == 0) return true;
-         for (String string : collection) {
-             if (string.equalsIgnoreCase(match)) return true;
-         }
-         return false;
-    }
 
-    private static Pattern getPattern(final String expression) {
-        return CACHED_PATTERNS.getUnchecked(expression);
-    }
-
-    /**
-     * Checks the message for substring matches to a {@link UeiMatch}. If the message
-     * matches, then the UEI is updated (or the event is discarded if the discard
-     * UEI is used). Parameter assignments are NOT performed for substring matches.
-     * 
-     * @param message
-     * @param uei
-     * @param bldr
-     * @param discardUei
-     * @return
-     * @throws MessageDiscardedException
-     */
-    private static boolean matchSubstring(String message, final UeiMatch uei, final EventBuilder bldr, final String discardUei) throws MessageDiscardedException {
-        final boolean traceEnabled = LOG.isTraceEnabled();
-        if (message.contains(uei.getMatch().getExpression())) {
-            if (discardUei.equals(uei.getUei())) {
-                if (traceEnabled) LOG.trace("Specified UEI '{}' is same as discard-uei, discarding this message.", uei.getUei());
-                throw new MessageDiscardedException();
-            } else {
-                // Update the UEI to the new value
-                if (traceEnabled) LOG.trace("Changed the UEI of a Syslogd event, based on substring match, to : {}", uei.getUei());
-                bldr.setUei(uei.getUei());
-                return true;
-            }
-        } else {
-            if (traceEnabled) LOG.trace("No substring match for text of a Syslogd event to : {}", uei.getMatch().getExpression());
-            return false;
+        if (message == null) {
+            throw new MessageDiscardedException(String.format("Unable to parse message: '%s'", SyslogParser.fromByteBuffer(buffer).toString()));
         }
-    }
 
-    /**
-     * Checks the message for matches to a {@link UeiMatch}. If the message
-     * matches, then the UEI is updated (or the event is discarded if the discard
-     * UEI is used) and parameters are added to the event.
-     * 
-     * @param message
-     * @param uei
-     * @param bldr
-     * @param discardUei
-     * @return
-     * @throws MessageDiscardedException
-     */
-    private static boolean matchRegex(final String message, final UeiMatch uei, final EventBuilder bldr, final String discardUei) throws MessageDiscardedException {
-        final boolean traceEnabled = LOG.isTraceEnabled();
-        final String expression = uei.getMatch().getExpression();
-        final Pattern msgPat = getPattern(expression);
-        if (msgPat == null) {
-            LOG.debug("Unable to create pattern for expression '{}'", expression);
-            return false;
-        } 
-
-        final Matcher msgMat = msgPat.matcher(message);
-
-        // If the message matches the regex
-        if ((msgMat != null) && (msgMat.find())) {
-            // Discard the message if the UEI is set to the discard UEI
-            if (discardUei.equals(uei.getUei())) {
-                if (traceEnabled) LOG.trace("Specified UEI '{}' is same as discard-uei, discarding this message.", uei.getUei());
-                throw new MessageDiscardedException();
-            } else {
-                // Update the UEI to the new value
-                if (traceEnabled) LOG.trace("Changed the UEI of a Syslogd event, based on regex match, to : {}", uei.getUei());
-                bldr.setUei(uei.getUei());
-            }
-
-            if (msgMat.groupCount() > 0) {
-                // Perform default parameter mapping
-                if (uei.getMatch().getDefaultParameterMapping()) {
-                    if (traceEnabled) LOG.trace("Doing default parameter mappings for this regex match.");
-                    for (int groupNum = 1; groupNum <= msgMat.groupCount(); groupNum++) {
-                        if (traceEnabled) LOG.trace("Added parm 'group{}' with value '{}' to Syslogd event based on regex match group", groupNum, msgMat.group(groupNum));
-                        bldr.addParam("group"+groupNum, msgMat.group(groupNum));
-                    }
-                }
-
-                // If there are specific parameter mappings as well, perform those mappings
-                if (uei.getParameterAssignments().size() > 0) {
-                    if (traceEnabled) LOG.trace("Doing user-specified parameter assignments for this regex match.");
-                    for (ParameterAssignment assignment : uei.getParameterAssignments()) {
-                        String parmName = assignment.getParameterName();
-                        String parmValue = msgMat.group(assignment.getMatchingGroup());
-                        parmValue = parmValue == null ? "" : parmValue;
-                        bldr.addParam(parmName, parmValue);
-                        if (traceEnabled) {
-                            LOG.trace("Added parm '{}' with value '{}' to Syslogd event based on user-specified parameter assignment", parmName, parmValue);
-                        }
-                    }
-                }
-            }
-
-            return true;
+        if (LOG.isTraceEnabled()) {
+            LOG.trace("got syslog message {}", SyslogParser.fromByteBuffer(buffer));
         }
-
-        if (traceEnabled) LOG.trace("Message portion '{}' did not regex-match pattern '{}'", message, expression);
-        return false;
+        return message;
     }
 
     /**
@@ -0,0 +1,190 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.opennms.core.collections.RadixTreeNode;
+import org.opennms.netmgt.syslogd.ParserStageSequenceBuilder.AbstractParserStage;
+import org.opennms.netmgt.syslogd.ParserStageSequenceBuilder.StageMatch;
+import org.opennms.netmgt.syslogd.RadixTreeParser.CompositeParserStage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>This parser evaluates the same tree of {@link ParserStage} sequences as a
+ * {@link RadixTreeParser} directly on the incoming {@link ByteBuffer}.</p>
+ * 
+ * <p>Instead of applying each stage to a cloned {@link ParserState}, the branches
+ * of the tree are scanned depth-first with absolute buffer indices and each stage
+ * only records the offset and length of its value in a {@link StageMatch} that is
+ * reused for every message parsed by the same thread. Shared prefixes are only
+ * scanned once and the scan stops at the first complete branch. Only then are the
+ * values of that branch converted and passed to the stage consumers to build the
+ * {@link SyslogMessage}, so stages without a consumer never produce a value.</p>
+ * 
+ * <p>The result is the same as {@link RadixTreeParser#parse(ByteBuffer)}: the first
+ * leaf of the tree (in insertion order) whose stages match the message and whose
+ * consumers accept the values wins. A branch whose consumers throw an exception
+ * is treated as not matching.</p>
+ * 
+ * <p>The tree is copied when the parser is constructed so sequences taught to the
+ * {@link RadixTreeParser} afterwards are not evaluated by this parser.</p>
+ */
+public class OffsetRadixTreeParser implements ByteBufferParser<SyslogMessage> {
+
+	private static final Logger LOG = LoggerFactory.getLogger(OffsetRadixTreeParser.class);
+
+	/**
+	 * A node of the radix tree with its {@link CompositeParserStage} members flattened.
+	 */
+	private static final class Node {
+		private final AbstractParserStage<?>[] stages;
+		private final Node[] children;
+
+		private Node(AbstractParserStage<?>[] stages, Node[] children) {
+			this.stages = stages;
+			this.children = children;
+		}
+
+		private int depth() {
+			int retval = 0;
+			for (Node child : children) {
+				retval = Math.max(retval, child.depth());
+			}
+			return retval + stages.length;
+		}
+	}
+
+	private final Node m_root;
+
+	private final ThreadLocal<StageMatch[]> m_matches;
+
+	public OffsetRadixTreeParser(RadixTreeParser parser) {
+		m_root = compile(parser.tree);
+
+		final int depth = m_root.depth();
+		m_matches = ThreadLocal.withInitial(() -> {
+			final StageMatch[] matches = new StageMatch[depth];
+			for (int i = 0; i < depth; i++) {
+				matches[i] = new StageMatch();
+			}
+			return matches;
+		});
+	}
+
+	private static Node compile(RadixTreeNode<ParserStage> node) {
+		final List<AbstractParserStage<?>> stages = new ArrayList<>();
+		// The root of the radix tree has no content
+		if (node.getContent() != null) {
+			flatten(node.getContent(), stages);
+		}
+
+		final List<Node> children = new ArrayList<>(node.getChildren().size());
+		for (RadixTreeNode<ParserStage> child : node.getChildren()) {
+			children.add(compile(child));
+		}
+
+		return new Node(stages.toArray(new AbstractParserStage<?>[stages.size()]), children.toArray(new Node[children.size()]));
+	}
+
+	private static void flatten(ParserStage stage, List<AbstractParserStage<?>> stages) {
+		if (stage instanceof CompositeParserStage) {
+			for (ParserStage member : ((CompositeParserStage)stage).members) {
+				flatten(member, stages);
+			}
+		} else if (stage instanceof AbstractParserStage) {
+			stages.add((AbstractParserStage<?>)stage);
+		} else {
+			throw new IllegalArgumentException("Unsupported parser stage: " + stage);
+		}
+	}
+
+	@Override
+	public CompletableFuture<SyslogMessage> parse(ByteBuffer incoming) {
+		return CompletableFuture.completedFuture(parseMessage(incoming));
+	}
+
+	/**
+	 * Parse the remaining content of the buffer. The position of the buffer
+	 * is left unchanged.
+	 * 
+	 * @return The parsed message or null if no branch of the tree matched
+	 */
+	public SyslogMessage parseMessage(ByteBuffer incoming) {
+		final StageMatch[] matches = m_matches.get();
+		try {
+			return scan(m_root, incoming, incoming.position(), incoming.limit(), matches, 0);
+		} finally {
+			// Do not hold on to the buffer after the parse
+			for (StageMatch match : matches) {
+				match.clear();
+			}
+		}
+	}
+
+	private static SyslogMessage scan(Node node, ByteBuffer buffer, int position, int limit, StageMatch[] matches, int depth) {
+		for (AbstractParserStage<?> stage : node.stages) {
+			position = stage.scan(buffer, position, limit, matches[depth++]);
+			if (position == AbstractParserStage.NO_MATCH) {
+				return null;
+			}
+		}
+
+		// Only leaf nodes represent a complete parse
+		if (node.children.length == 0) {
+			return materialize(buffer, matches, depth);
+		}
+
+		for (Node child : node.children) {
+			final SyslogMessage retval = scan(child, buffer, position, limit, matches, depth);
+			if (retval != null) {
+				return retval;
+			}
+		}
+		return null;
+	}
+
+	private static SyslogMessage materialize(ByteBuffer buffer, StageMatch[] matches, int depth) {
+		final ParserState state = new ParserState(buffer);
+		for (int i = 0; i < depth; i++) {
+			try {
+				matches[i].accept(state);
+			} catch (Exception e) {
+				// Conversion to value failed
+				LOG.trace("Parse failed on result consumer: {}", matches[i], e);
+				return null;
+			}
+		}
+		return state.message;
+	}
+}
@@ -37,7 +37,6 @@ import java.util.EmptyStackException;
 import java.util.List;
 import java.util.Objects;
 import java.util.Stack;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
@@ -66,11 +65,11 @@ public class ParserStageSequenceBuilder {
 	/**
 	 * The state of an individual {@link ParserStage} operation.
 	 */
-	private static class ParserStageState {
+	static class ParserStageState {
 		public final ByteBuffer buffer;
 
 		private StringBuilder accumulatedValue = null;
-		private AtomicInteger accumulatedSize = null;
+		int accumulatedSize = 0;
 
 		// Only used by MatchMonth
 		public RadixTreeNode<CharacterWithValue> currentNode = null; 
@@ -81,11 +80,22 @@ public class ParserStageSequenceBuilder {
 
 		public void accumulate(char c) {
 			accessAccumulatedValue().append(c);
-			accessAccumulatedSize().incrementAndGet();
+			accumulatedSize++;
 		}
 
 		public int getAccumulatedSize() {
-			return accessAccumulatedSize().get();
+			return accumulatedSize;
+		}
+
+		public String getAccumulatedValue() {
+			return accumulatedValue == null ? null : accumulatedValue.toString();
+		}
+
+		/**
+		 * @return The accumulated digits as an integer with their leading zeros trimmed
+		 */
+		public int getAccumulatedInteger() {
+			return MatchInteger.trimAndConvert(getAccumulatedValue());
 		}
 
 		private final StringBuilder accessAccumulatedValue() {
@@ -95,22 +105,96 @@ public class ParserStageSequenceBuilder {
 			return accumulatedValue;
 		}
 
-		private final AtomicInteger accessAccumulatedSize() {
-			if (accumulatedSize == null) {
-				accumulatedSize = new AtomicInteger();
-			}
-			return accumulatedSize;
-		}
-
 		@Override
 		public String toString() {
 			return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
-				.append("accumulatedValue", accumulatedValue == null ? "null" : accumulatedValue.toString())
-				.append("accumulatedSize", accumulatedSize == null ? 0 : accumulatedSize.get())
+				.append("accumulatedValue", getAccumulatedValue() == null ? "null" : getAccumulatedValue())
+				.append("accumulatedSize", accumulatedSize)
 				.toString();
 		}
 	}
 
+	/**
+	 * <p>The match of an individual {@link ParserStage} that was performed by
+	 * {@link AbstractParserStage#scan(ByteBuffer, int, int, StageMatch)}.</p>
+	 * 
+	 * <p>Instead of copying the accumulated characters, the match only records
+	 * the offset and length of the value inside of the scanned buffer. The value
+	 * is only converted when it is passed to the stage's consumer by
+	 * {@link #accept(ParserState)} so instances can be reused for every message.</p>
+	 */
+	static final class StageMatch extends ParserStageState {
+		private AbstractParserStage<?> stage;
+		private ByteBuffer source;
+		private int start;
+		private boolean matched;
+
+		StageMatch() {
+			super(null);
+		}
+
+		private void reset(AbstractParserStage<?> stage, ByteBuffer source, int start) {
+			this.stage = stage;
+			this.source = source;
+			this.start = start;
+			this.matched = false;
+			this.accumulatedSize = 0;
+			this.currentNode = null;
+		}
+
+		/**
+		 * Release the references to the stage and the buffer that were scanned.
+		 */
+		void clear() {
+			reset(null, null, 0);
+		}
+
+		@Override
+		public void accumulate(char c) {
+			accumulatedSize++;
+		}
+
+		@Override
+		public String getAccumulatedValue() {
+			if (accumulatedSize == 0) {
+				return null;
+			}
+			final char[] chars = new char[accumulatedSize];
+			for (int i = 0; i < accumulatedSize; i++) {
+				chars[i] = (char)source.get(start + i);
+			}
+			return new String(chars);
+		}
+
+		@Override
+		public int getAccumulatedInteger() {
+			// Skip the leading zeros and convert values that cannot overflow in place
+			int i = start;
+			final int end = start + accumulatedSize;
+			while (i < end && source.get(i) == '0') {
+				i++;
+			}
+			if (accumulatedSize == 0 || end - i > 9) {
+				return super.getAccumulatedInteger();
+			}
+			int retval = 0;
+			for (; i < end; i++) {
+				retval = retval * 10 + (source.get(i) - '0');
+			}
+			return retval;
+		}
+
+		/**
+		 * Pass the value of this match to the consumer of the stage, if any.
+		 * 
+		 * @throws RuntimeException If the value cannot be converted or is
+		 * rejected by the consumer
+		 */
+		void accept(ParserState state) {
+			stage.accept(state, this);
+		}
+	}
+
 	final List<ParserStage> m_stages = new ArrayList<>();
 
 	final Stack<Boolean> m_optional = new Stack<>();
@@ -217,7 +301,13 @@ public class ParserStageSequenceBuilder {
 	 * @param <R> Type of the value that can be emitted by this stage to the
 	 * {@link BiConsumer} consumer.
 	 */
-	private static abstract class AbstractParserStage<R> implements ParserStage {
+	static abstract class AbstractParserStage<R> implements ParserStage {
+
+		/**
+		 * Returned by {@link #scan(ByteBuffer, int, int, StageMatch)} when the
+		 * stage does not match.
+		 */
+		static final int NO_MATCH = -1;
 
 		private boolean m_optional = false;
 		private boolean m_terminal = false;
@@ -361,6 +451,55 @@ public class ParserStageSequenceBuilder {
 			}
 		}
 
+		/**
+		 * <p>Match this stage against the characters of the buffer between the
+		 * absolute indices {@code position} and {@code limit} without modifying
+		 * the buffer or converting any value. This follows the same rules as
+		 * {@link #apply(ParserState)} but the value of the stage is only recorded
+		 * in the {@link StageMatch} so that it can be passed to the consumer later
+		 * with {@link StageMatch#accept(ParserState)}.</p>
+		 * 
+		 * @return The index of the first character that was not consumed by
+		 * this stage or {@link #NO_MATCH}
+		 */
+		final int scan(final ByteBuffer buffer, int position, final int limit, final StageMatch match) {
+			match.reset(this, buffer, position);
+
+			while(true) {
+				if (position >= limit) {
+					if (m_terminal) {
+						match.matched = true;
+						return position;
+					} else if (m_optional) {
+						return position;
+					} else {
+						return NO_MATCH;
+					}
+				}
+
+				switch (acceptChar(match, (char)buffer.get(position))) {
+					case CONTINUE:
+						position++;
+						continue;
+					case COMPLETE_AFTER_CONSUMING:
+						match.matched = true;
+						return position + 1;
+					case COMPLETE_WITHOUT_CONSUMING:
+						match.matched = true;
+						return position;
+					case CANCEL:
+						// Optional stages leave the current character to the next stage
+						return m_optional ? position : NO_MATCH;
+				}
+			}
+		}
+
+		private void accept(ParserState state, StageMatch match) {
+			if (match.matched && m_resultConsumer != null) {
+				m_resultConsumer.accept(state, getValue(match));
+			}
+		}
+
 		public void reset(ParserStageState state) {
 			// Do nothing by default
 		}
@@ -374,12 +513,7 @@ public class ParserStageSequenceBuilder {
 		}
 
 		protected static String getAccumulatedValue(ParserStageState state) {
-			final StringBuilder accumulatedValue = state.accumulatedValue;
-			if (accumulatedValue == null) {
-				return null;
-			} else {
-				return accumulatedValue.toString();
-			}
+			return state.getAccumulatedValue();
 		}
 
 		protected R getValue(ParserStageState state) {
@@ -393,8 +527,8 @@ public class ParserStageSequenceBuilder {
 	static class MatchWhitespace extends AbstractParserStage<Void> {
 		@Override
 		public AcceptResult acceptChar(ParserStageState state, char c) {
-			// TODO: Make this more efficient
-			if ("".equals(String.valueOf(c).trim())) {
+			// Same characters as the ones removed by String.trim()
+			if (c <= ' ') {
 				return AcceptResult.CONTINUE;
 			} else {
 				return AcceptResult.COMPLETE_WITHOUT_CONSUMING;
@@ -686,8 +820,8 @@ public class ParserStageSequenceBuilder {
 					return AcceptResult.COMPLETE_WITHOUT_CONSUMING;
 				}
 			}
-			// TODO: Make this more efficient?
-			if (m_endOnwhitespace && "".equals(String.valueOf(c).trim())) {
+			// Same characters as the ones removed by String.trim()
+			if (m_endOnwhitespace && c <= ' ') {
 				return AcceptResult.COMPLETE_WITHOUT_CONSUMING;
 			}
 			accumulate(state, c);
@@ -798,7 +932,7 @@ public class ParserStageSequenceBuilder {
 
 		@Override
 		public Integer getValue(ParserStageState state) {
-			return trimAndConvert(getAccumulatedValue(state));
+			return state.getAccumulatedInteger();
 		}
 
 		/**
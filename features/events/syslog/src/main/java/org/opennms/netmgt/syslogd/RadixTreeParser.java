@@ -147,7 +147,7 @@ public class RadixTreeParser implements ByteBufferParser<SyslogMessage> {
 		}
 	}
 
-	private static class CompositeParserStage implements ParserStage {
+	static class CompositeParserStage implements ParserStage {
 
 		public final List<ParserStage> members = new ArrayList<>();
 
@@ -47,7 +47,8 @@ import org.slf4j.LoggerFactory;
 /**
  * This parser reads a set of grok patterns that are stored in the 
  * <i>grok-patterns.txt</i> classpath resource and uses the patterns to
- * construct a syslog message parser.
+ * construct a syslog message parser. The patterns are evaluated with an
+ * {@link OffsetRadixTreeParser}.
  * 
  * @author Seth
  */
@@ -59,6 +60,8 @@ public class RadixTreeSyslogParser extends SyslogParser {
 
 	private static RadixTreeParser radixParser = new RadixTreeParser();
 
+	private static final OffsetRadixTreeParser offsetParser;
+
 	static {
 		try {
 			File configFile = ConfigFileConstants.getFile(ConfigFileConstants.SYSLOGD_GROK_PATTERNS_FILE_NAME);
@@ -91,6 +94,8 @@ public class RadixTreeSyslogParser extends SyslogParser {
 		// After we have taught all of the patterns to the parser, perform
 		// edge compression to optimize the tree
 		radixParser.performEdgeCompression();
+
+		offsetParser = new OffsetRadixTreeParser(radixParser);
 	}
 
 	private static final void teachDefaultPatterns() {
@@ -118,7 +123,7 @@ public class RadixTreeSyslogParser extends SyslogParser {
 
 	@Override
 	public SyslogMessage parse() {
-		SyslogMessage retval = radixParser.parse(getText()).join();
+		SyslogMessage retval = offsetParser.parseMessage(getText());
 
 		// Trim off the RFC 5424 structured data to emulate the behavior of the legacy parser (for now)
 		if (retval != null) {
@@ -53,6 +53,7 @@ public final class SyslogConfigBean implements SyslogdConfig {
 	private int m_queueSize;
 	private int m_batchSize;
 	private int m_batchIntervalMs;
+	private int m_listenerSockets = 1;
 
 	@Override
 	public int getSyslogPort() {
@@ -174,4 +175,13 @@ public final class SyslogConfigBean implements SyslogdConfig {
     public void setBatchIntervalMs(int batchIntervalMs) {
         m_batchIntervalMs = batchIntervalMs;
     }
+
+    @Override
+    public int getListenerSockets() {
+        return m_listenerSockets;
+    }
+
+    public void setListenerSockets(int listenerSockets) {
+        m_listenerSockets = listenerSockets;
+    }
 }
@@ -0,0 +1,557 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.opennms.core.utils.InetAddressUtils.str;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.ParameterAssignment;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link UeiMatch} and {@link HideMatch} entries of a {@link SyslogdConfig}, compiled
+ * for converting syslog messages to events.
+ *
+ * <p>All of the expressions are compiled once, and the matchers are reused by each thread.
+ * Every entry that can only match messages containing some literal (the expression of
+ * substring matches, or a literal that any match of a regular expression must contain) is
+ * only considered when a single Aho-Corasick pass over the message found that literal,
+ * so most regular expressions never run against a given message.</p>
+ */
+class SyslogConversionPlan {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogConversionPlan.class);
+
+    private static volatile SyslogConversionPlan s_lastPlan;
+
+    private final List<UeiMatch> m_ueiList;
+    private final int m_ueiCount;
+    private final List<HideMatch> m_hideList;
+    private final int m_hideCount;
+    private final String m_discardUei;
+
+    private final UeiEntry[] m_ueiEntries;
+    private final HideEntry[] m_hideEntries;
+
+    /** Finds the literals required by the UEI entries, null if none require any. */
+    private final AhoCorasickMatcher m_literals;
+    private final ThreadLocal<boolean[]> m_found;
+
+    /**
+     * Returns the plan for the given configuration, compiling it if the UEI or hide matches have changed
+     * since the last call.
+     */
+    static SyslogConversionPlan forConfig(final SyslogdConfig config) {
+        final List<UeiMatch> ueiList = config.getUeiList() == null ? Collections.emptyList() : config.getUeiList();
+        final List<HideMatch> hideList = config.getHideMessages() == null ? Collections.emptyList() : config.getHideMessages();
+        final String discardUei = config.getDiscardUei();
+
+        SyslogConversionPlan plan = s_lastPlan;
+        if (plan == null || !plan.isCompiledFrom(ueiList, hideList, discardUei)) {
+            plan = new SyslogConversionPlan(ueiList, hideList, discardUei);
+            s_lastPlan = plan;
+        }
+        return plan;
+    }
+
+    SyslogConversionPlan(final List<UeiMatch> ueiList, final List<HideMatch> hideList, final String discardUei) {
+        m_ueiList = ueiList;
+        m_ueiCount = ueiList.size();
+        m_hideList = hideList;
+        m_hideCount = hideList.size();
+        m_discardUei = discardUei;
+
+        final Map<String, Integer> literals = new LinkedHashMap<>();
+        final List<UeiEntry> ueiEntries = new ArrayList<>(ueiList.size());
+        for (final UeiMatch ueiMatch : ueiList) {
+            final UeiEntry entry = UeiEntry.compile(ueiMatch, discardUei);
+            if (entry == null) {
+                continue;
+            }
+            if (entry.m_literal != null) {
+                Integer index = literals.get(entry.m_literal);
+                if (index == null) {
+                    index = literals.size();
+                    literals.put(entry.m_literal, index);
+                }
+                entry.m_literalIndex = index;
+            }
+            ueiEntries.add(entry);
+        }
+        m_ueiEntries = ueiEntries.toArray(new UeiEntry[ueiEntries.size()]);
+
+        final List<HideEntry> hideEntries = new ArrayList<>(hideList.size());
+        for (final HideMatch hideMatch : hideList) {
+            final HideEntry entry = HideEntry.compile(hideMatch);
+            if (entry != null) {
+                hideEntries.add(entry);
+            }
+        }
+        m_hideEntries = hideEntries.toArray(new HideEntry[hideEntries.size()]);
+
+        if (literals.isEmpty()) {
+            m_literals = null;
+            m_found = null;
+        } else {
+            m_literals = new AhoCorasickMatcher(new ArrayList<>(literals.keySet()));
+            m_found = ThreadLocal.withInitial(() -> new boolean[m_literals.getLiteralCount()]);
+        }
+        LOG.debug("Compiled {} of {} UEI matches ({} with literals) and {} of {} hide matches.",
+                m_ueiEntries.length, ueiList.size(), literals.size(), m_hideEntries.length, hideList.size());
+    }
+
+    private boolean isCompiledFrom(final List<UeiMatch> ueiList, final List<HideMatch> hideList, final String discardUei) {
+        return m_ueiList == ueiList && m_ueiCount == ueiList.size()
+                && m_hideList == hideList && m_hideCount == hideList.size()
+                && Objects.equals(m_discardUei, discardUei);
+    }
+
+    /**
+     * Finds the first UEI match entry matching the given message.
+     *
+     * <p>The returned entry must be {@link UeiEntry#apply(EventBuilder) applied} on the calling thread
+     * before the plan is used again, since it reads the groups from the thread's matcher.</p>
+     *
+     * @return the matching entry, or null if none match
+     * @throws MessageDiscardedException if the matching entry uses the discard UEI
+     */
+    UeiEntry findUeiMatch(final SyslogMessage message) throws MessageDiscardedException {
+        if (m_ueiEntries.length == 0) {
+            return null;
+        }
+
+        final String facility = message.getFacility().toString();
+        final String severity = message.getSeverity().toString();
+        final String text = message.getMessage() == null ? "" : message.getMessage();
+
+        boolean[] found = null;
+        if (m_literals != null) {
+            found = m_found.get();
+            Arrays.fill(found, false);
+            m_literals.search(text, found);
+        }
+
+        for (final UeiEntry entry : m_ueiEntries) {
+            if (entry.m_literalIndex >= 0 && !found[entry.m_literalIndex]) {
+                continue;
+            }
+            if (entry.matches(message, facility, severity, text)) {
+                if (entry.m_discard) {
+                    LOG.trace("Specified UEI '{}' is same as discard-uei, discarding this message.", entry.m_uei);
+                    throw new MessageDiscardedException();
+                }
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return whether any of the hide matches matches the full text of the given message
+     */
+    boolean isHidden(final SyslogMessage message) {
+        if (m_hideEntries.length == 0) {
+            return false;
+        }
+        final String fullText = message.asRfc3164Message();
+        for (final HideEntry entry : m_hideEntries) {
+            if (entry.matches(fullText)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a literal that any match of the given regular expression must contain, or null if none
+     * can be determined. The longest literal run outside of groups, character classes and optional
+     * atoms is used, and expressions using top-level alternations or inline flags have none.
+     */
+    static String requiredLiteral(final String regex) {
+        String longest = null;
+        final StringBuilder run = new StringBuilder();
+        int i = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            final char literal;
+            final int next;
+            switch (c) {
+            case '|':
+            case ')':
+            case '*':
+            case '+':
+            case '?':
+            case '{':
+                // Alternations, or quantifiers/parentheses without an atom
+                return null;
+            case '(':
+                if (i + 2 < regex.length() && regex.charAt(i + 1) == '?' && isFlag(regex.charAt(i + 2))) {
+                    // Inline flags, i.e. (?i), change how the literals match
+                    return null;
+                }
+                longest = longest(longest, run);
+                i = skipGroup(regex, i);
+                if (i < 0) {
+                    return null;
+                }
+                i = skipQuantifier(regex, i);
+                continue;
+            case '[':
+                longest = longest(longest, run);
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return null;
+                }
+                i = skipQuantifier(regex, i);
+                continue;
+            case '.':
+            case '^':
+            case '$':
+                longest = longest(longest, run);
+                i = skipQuantifier(regex, i + 1);
+                continue;
+            case '\\':
+                if (i + 1 >= regex.length()) {
+                    return null;
+                }
+                literal = regex.charAt(i + 1);
+                if (Character.isLetterOrDigit(literal)) {
+                    if ("dDsSwWbBAGzZhHvVRX".indexOf(literal) < 0) {
+                        // Quoting, back references and escapes with arguments
+                        return null;
+                    }
+                    longest = longest(longest, run);
+                    i = skipQuantifier(regex, i + 2);
+                    continue;
+                }
+                next = i + 2;
+                break;
+            default:
+                literal = c;
+                next = i + 1;
+                break;
+            }
+
+            final char quantifier = next < regex.length() ? regex.charAt(next) : 0;
+            if (quantifier == '?' || quantifier == '*' || quantifier == '{') {
+                // The literal is optional, or repeated a variable number of times
+                longest = longest(longest, run);
+                i = skipQuantifier(regex, next);
+            } else if (quantifier == '+') {
+                run.append(literal);
+                longest = longest(longest, run);
+                i = skipQuantifier(regex, next);
+            } else {
+                run.append(literal);
+                i = next;
+            }
+        }
+        return longest(longest, run);
+    }
+
+    private static boolean isFlag(final char c) {
+        return "idmsuxU-".indexOf(c) >= 0;
+    }
+
+    /**
+     * @return the longest of the given literal and the run, which is then cleared
+     */
+    private static String longest(final String longest, final StringBuilder run) {
+        String result = longest;
+        if (run.length() > 0 && (longest == null || run.length() > longest.length())) {
+            result = run.toString();
+        }
+        run.setLength(0);
+        return result;
+    }
+
+    private static int skipQuantifier(final String regex, int i) {
+        if (i >= regex.length()) {
+            return i;
+        }
+        final char c = regex.charAt(i);
+        if (c == '?' || c == '*' || c == '+') {
+            i++;
+        } else if (c == '{') {
+            final int end = regex.indexOf('}', i);
+            if (end < 0) {
+                return regex.length();
+            }
+            i = end + 1;
+        } else {
+            return i;
+        }
+        // Reluctant and possessive quantifiers
+        if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipGroup(final String regex, final int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+            } else {
+                if (c == '(') {
+                    depth++;
+                } else if (c == ')' && --depth == 0) {
+                    return i + 1;
+                }
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipClass(final String regex, final int start) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++;
+        }
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == '[') {
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+            } else if (c == ']') {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A regular expression along with the matcher of each thread.
+     */
+    private static class CompiledPattern {
+        private final Pattern m_pattern;
+        private final ThreadLocal<Matcher> m_matchers;
+
+        private CompiledPattern(final Pattern pattern) {
+            m_pattern = pattern;
+            m_matchers = ThreadLocal.withInitial(() -> m_pattern.matcher(""));
+        }
+
+        private static CompiledPattern compile(final String expression, final String context) {
+            try {
+                return new CompiledPattern(Pattern.compile(expression, Pattern.MULTILINE));
+            } catch (final PatternSyntaxException e) {
+                LOG.warn("Failed to compile {} regex pattern '{}'", context, expression, e);
+                return null;
+            }
+        }
+
+        private boolean find(final String input) {
+            return input != null && m_matchers.get().reset(input).find();
+        }
+
+        private Matcher lastMatcher() {
+            return m_matchers.get();
+        }
+    }
+
+    static class UeiEntry {
+        private final String m_uei;
+        private final boolean m_discard;
+        private final Set<String> m_facilities;
+        private final Set<String> m_severities;
+        private final CompiledPattern m_process;
+        private final CompiledPattern m_hostname;
+        private final CompiledPattern m_hostaddr;
+        private final String m_substring;
+        private final CompiledPattern m_regex;
+        private final boolean m_defaultParameterMapping;
+        private final List<ParameterAssignment> m_parameterAssignments;
+        private final String m_literal;
+        private int m_literalIndex = -1;
+
+        private UeiEntry(final UeiMatch ueiMatch, final String discardUei, final CompiledPattern process, final CompiledPattern hostname,
+                final CompiledPattern hostaddr, final String substring, final CompiledPattern regex, final String literal) {
+            m_uei = ueiMatch.getUei();
+            m_discard = Objects.equals(discardUei, ueiMatch.getUei());
+            m_facilities = lowerCase(ueiMatch.getFacilities());
+            m_severities = lowerCase(ueiMatch.getSeverities());
+            m_process = process;
+            m_hostname = hostname;
+            m_hostaddr = hostaddr;
+            m_substring = substring;
+            m_regex = regex;
+            m_defaultParameterMapping = ueiMatch.getMatch().getDefaultParameterMapping();
+            m_parameterAssignments = new ArrayList<>(ueiMatch.getParameterAssignments());
+            m_literal = literal;
+        }
+
+        /**
+         * @return the compiled entry, or null if it can never match
+         */
+        private static UeiEntry compile(final UeiMatch ueiMatch, final String discardUei) {
+            CompiledPattern process = null;
+            if (ueiMatch.getProcessMatch().isPresent()) {
+                process = CompiledPattern.compile(ueiMatch.getProcessMatch().get().getExpression(), "process-match");
+                if (process == null) return null;
+            }
+            CompiledPattern hostname = null;
+            if (ueiMatch.getHostnameMatch().isPresent()) {
+                hostname = CompiledPattern.compile(ueiMatch.getHostnameMatch().get().getExpression(), "hostname-match");
+                if (hostname == null) return null;
+            }
+            CompiledPattern hostaddr = null;
+            if (ueiMatch.getHostaddrMatch().isPresent()) {
+                hostaddr = CompiledPattern.compile(ueiMatch.getHostaddrMatch().get().getExpression(), "hostaddr-match");
+                if (hostaddr == null) return null;
+            }
+
+            final String type = ueiMatch.getMatch().getType();
+            final String expression = ueiMatch.getMatch().getExpression();
+            if ("substr".equals(type)) {
+                return new UeiEntry(ueiMatch, discardUei, process, hostname, hostaddr, expression, null, expression.isEmpty() ? null : expression);
+            } else if (type.startsWith("regex")) {
+                final CompiledPattern regex = CompiledPattern.compile(expression, "uei-match");
+                if (regex == null) return null;
+                return new UeiEntry(ueiMatch, discardUei, process, hostname, hostaddr, null, regex, requiredLiteral(expression));
+            }
+            return null;
+        }
+
+        private boolean matches(final SyslogMessage message, final String facility, final String severity, final String text) {
+            if (m_facilities != null && !m_facilities.contains(facility.toLowerCase(Locale.ROOT))) return false;
+            if (m_severities != null && !m_severities.contains(severity.toLowerCase(Locale.ROOT))) return false;
+            if (m_process != null && !m_process.find(message.getProcessName())) return false;
+            if (m_hostname != null && !m_hostname.find(message.getHostName())) return false;
+            if (m_hostaddr != null && !m_hostaddr.find(str(message.getHostAddress()))) return false;
+
+            if (m_substring != null) {
+                // The literal is the substring itself
+                return m_literalIndex >= 0 || text.contains(m_substring);
+            }
+            return m_regex.find(text);
+        }
+
+        String getUei() {
+            return m_uei;
+        }
+
+        /**
+         * Sets the UEI of the event and adds the parameters of the regular expression match.
+         */
+        void apply(final EventBuilder bldr) {
+            bldr.setUei(m_uei);
+            if (m_regex == null) {
+                // Parameter assignments are NOT performed for substring matches
+                return;
+            }
+
+            final Matcher msgMat = m_regex.lastMatcher();
+            if (msgMat.groupCount() > 0) {
+                if (m_defaultParameterMapping) {
+                    for (int groupNum = 1; groupNum <= msgMat.groupCount(); groupNum++) {
+                        bldr.addParam("group" + groupNum, msgMat.group(groupNum));
+                    }
+                }
+                for (final ParameterAssignment assignment : m_parameterAssignments) {
+                    final String parmValue = msgMat.group(assignment.getMatchingGroup());
+                    bldr.addParam(assignment.getParameterName(), parmValue == null ? "" : parmValue);
+                }
+            }
+        }
+
+        private static Set<String> lowerCase(final List<String> values) {
+            if (values.isEmpty()) {
+                return null;
+            }
+            final Set<String> lowerCase = new HashSet<>();
+            for (final String value : values) {
+                lowerCase.add(value.toLowerCase(Locale.ROOT));
+            }
+            return lowerCase;
+        }
+    }
+
+    private static class HideEntry {
+        private final String m_substring;
+        private final CompiledPattern m_regex;
+
+        private HideEntry(final String substring, final CompiledPattern regex) {
+            m_substring = substring;
+            m_regex = regex;
+        }
+
+        private static HideEntry compile(final HideMatch hideMatch) {
+            final String type = hideMatch.getMatch().getType();
+            final String expression = hideMatch.getMatch().getExpression();
+            if ("substr".equals(type)) {
+                return new HideEntry(expression, null);
+            } else if ("regex".equals(type)) {
+                final CompiledPattern regex = CompiledPattern.compile(expression, "hide-match");
+                return regex == null ? null : new HideEntry(null, regex);
+            }
+            return null;
+        }
+
+        private boolean matches(final String fullText) {
+            return m_substring != null ? fullText.contains(m_substring) : m_regex.find(fullText);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.syslogd;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.opennms.core.ipc.sink.api.SinkCodec;
+import org.opennms.core.xml.ByteBufferXmlAdapter;
+import org.opennms.netmgt.syslogd.api.SyslogMessageDTO;
+import org.opennms.netmgt.syslogd.api.SyslogMessageLogDTO;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Encodes the {@link SyslogMessageLogDTO} using the Protocol Buffers wire format.
+ *
+ * The schema is documented in syslog.proto. The messages are encoded and decoded
+ * field by field, which avoids maintaining generated code for these simple structures.
+ */
+public class SyslogProtobufCodec implements SinkCodec<SyslogMessageLogDTO> {
+
+    public static final String NAME = "protobuf";
+
+    private static final int LOG_SYSTEM_ID = 1;
+    private static final int LOG_LOCATION = 2;
+    private static final int LOG_SOURCE_ADDRESS = 3;
+    private static final int LOG_SOURCE_PORT = 4;
+    private static final int LOG_MESSAGES = 5;
+
+    private static final int MESSAGE_TIMESTAMP = 1;
+    private static final int MESSAGE_BYTES = 2;
+
+    /**
+     * Used to extract the same bytes from the buffers as the XML representation.
+     */
+    private static final ByteBufferXmlAdapter BYTE_BUFFER_ADAPTER = new ByteBufferXmlAdapter();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(SyslogMessageLogDTO log) {
+        final List<SyslogMessageDTO> messages = log.getMessages();
+        final byte[][] messageBytes = new byte[messages.size()][];
+        final int[] messageSizes = new int[messages.size()];
+
+        int size = 0;
+        if (log.getSystemId() != null) {
+            size += CodedOutputStream.computeStringSize(LOG_SYSTEM_ID, log.getSystemId());
+        }
+        if (log.getLocation() != null) {
+            size += CodedOutputStream.computeStringSize(LOG_LOCATION, log.getLocation());
+        }
+        final byte[] sourceAddress = log.getSourceAddress() != null ? log.getSourceAddress().getAddress() : null;
+        if (sourceAddress != null) {
+            size += CodedOutputStream.computeByteArraySize(LOG_SOURCE_ADDRESS, sourceAddress);
+        }
+        size += CodedOutputStream.computeInt32Size(LOG_SOURCE_PORT, log.getSourcePort());
+        for (int i = 0; i < messages.size(); i++) {
+            final SyslogMessageDTO message = messages.get(i);
+            int messageSize = 0;
+            if (message.getTimestamp() != null) {
+                messageSize += CodedOutputStream.computeInt64Size(MESSAGE_TIMESTAMP, message.getTimestamp().getTime());
+            }
+            if (message.getBytes() != null) {
+                messageBytes[i] = BYTE_BUFFER_ADAPTER.marshal(message.getBytes());
+                messageSize += CodedOutputStream.computeByteArraySize(MESSAGE_BYTES, messageBytes[i]);
+            }
+            messageSizes[i] = messageSize;
+            size += CodedOutputStream.computeTagSize(LOG_MESSAGES) + CodedOutputStream.computeRawVarint32Size(messageSize) + messageSize;
+        }
+
+        final byte[] bytes = new byte[size];
+        final CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        try {
+            if (log.getSystemId() != null) {
+                out.writeString(LOG_SYSTEM_ID, log.getSystemId());
+            }
+            if (log.getLocation() != null) {
+                out.writeString(LOG_LOCATION, log.getLocation());
+            }
+            if (sourceAddress != null) {
+                out.writeByteArray(LOG_SOURCE_ADDRESS, sourceAddress);
+            }
+            out.writeInt32(LOG_SOURCE_PORT, log.getSourcePort());
+            for (int i = 0; i < messages.size(); i++) {
+                final SyslogMessageDTO message = messages.get(i);
+                out.writeTag(LOG_MESSAGES, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                out.writeRawVarint32(messageSizes[i]);
+                if (message.getTimestamp() != null) {
+                    out.writeInt64(MESSAGE_TIMESTAMP, message.getTimestamp().getTime());
+                }
+                if (messageBytes[i] != null) {
+                    out.writeByteArray(MESSAGE_BYTES, messageBytes[i]);
+                }
+            }
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes;
+    }
+
+    @Override
+    public SyslogMessageLogDTO decode(byte[] bytes, int offset, int length) {
+        final SyslogMessageLogDTO log = new SyslogMessageLogDTO();
+        final List<SyslogMessageDTO> messages = new ArrayList<>();
+        final CodedInputStream in = CodedInputStream.newInstance(bytes, offset, length);
+        try {
+            int tag;
+            while ((tag = in.readTag()) != 0) {
+                switch (WireFormat.getTagFieldNumber(tag)) {
+                    case LOG_SYSTEM_ID:
+                        log.setSystemId(in.readString());
+                        break;
+                    case LOG_LOCATION:
+                        log.setLocation(in.readString());
+                        break;
+                    case LOG_SOURCE_ADDRESS:
+                        log.setSourceAddress(InetAddress.getByAddress(in.readByteArray()));
+                        break;
+                    case LOG_SOURCE_PORT:
+                        log.setSourcePort(in.readInt32());
+                        break;
+                    case LOG_MESSAGES:
+                        final int limit = in.pushLimit(in.readRawVarint32());
+                        messages.add(decodeMessage(in));
+                        in.popLimit(limit);
+                        break;
+                    default:
+                        in.skipField(tag);
+                }
+            }
+        } catch (IOException e) {
+            // Includes the UnknownHostException thrown for malformed addresses
+            throw new RuntimeException(e);
+        }
+        log.setMessages(messages);
+        return log;
+    }
+
+    private static SyslogMessageDTO decodeMessage(CodedInputStream in) throws IOException {
+        final SyslogMessageDTO message = new SyslogMessageDTO();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case MESSAGE_TIMESTAMP:
+                    message.setTimestamp(new Date(in.readInt64()));
+                    break;
+                case MESSAGE_BYTES:
+                    message.setBytes(ByteBuffer.wrap(in.readByteArray()));
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+        return message;
+    }
+}
@@ -33,6 +33,8 @@ import static org.opennms.core.utils.InetAddressUtils.addr;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.camel.AsyncCallback;
@@ -50,7 +52,21 @@ import org.opennms.netmgt.syslogd.api.SyslogConnection;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.socket.DatagramPacket;
 
 /**
  * @author Seth
@@ -69,6 +85,12 @@ public class SyslogReceiverCamelNettyImpl extends SinkDispatchingSyslogReceiver
 
     private DefaultCamelContext m_camel;
 
+    private EventLoopGroup m_group;
+
+    private final List<Channel> m_channels = new ArrayList<>();
+
+    private MetricRegistry m_metrics = new MetricRegistry();
+
     public SyslogReceiverCamelNettyImpl(final SyslogdConfig config) {
         super(config);
         m_host = addr(config.getListenAddress() == null? "0.0.0.0" : config.getListenAddress());
@@ -83,13 +105,23 @@ public class SyslogReceiverCamelNettyImpl extends SinkDispatchingSyslogReceiver
     }
 
     public boolean isStarted() {
-        if (m_camel == null) {
+        if (m_group != null) {
+            return !m_channels.isEmpty() && m_channels.stream().allMatch(Channel::isActive);
+        } else if (m_camel == null) {
             return false;
         } else {
             return m_camel.isStarted();
         }
     }
 
+    public MetricRegistry getMetricRegistry() {
+        return m_metrics;
+    }
+
+    public void setMetricRegistry(MetricRegistry metricRegistry) {
+        m_metrics = metricRegistry;
+    }
+
     /**
      * stop the current receiver
      * @throws InterruptedException
@@ -103,6 +135,13 @@ public class SyslogReceiverCamelNettyImpl extends SinkDispatchingSyslogReceiver
         } catch (Exception e) {
             LOG.warn("Exception while shutting down syslog Camel context", e);
         }
+        if (m_group != null) {
+            for (final Channel channel : m_channels) {
+                channel.close().sync();
+            }
+            m_channels.clear();
+            m_group.shutdownGracefully().sync();
+        }
         super.stop();
     }
 
@@ -114,6 +153,18 @@ public class SyslogReceiverCamelNettyImpl extends SinkDispatchingSyslogReceiver
         // Setup logging and create the dispatcher
         super.run();
 
+        // Camel can only bind a single socket to the port - multiple sockets require SO_REUSEPORT
+        if (m_config.getListenerSockets() > 1) {
+            if (Epoll.isAvailable()) {
+                runReusePort(m_config.getListenerSockets());
+                return;
+            }
+            LOG.warn("Native epoll transport is not available - falling back to a single syslog socket", Epoll.unavailabilityCause());
+        }
+
+        final Meter packetsReceived = m_metrics.meter(packetsReceivedName(0));
+        final Meter packetsDropped = m_metrics.meter(packetsDroppedName(0));
+
         SimpleRegistry registry = new SimpleRegistry();
 
         //Adding netty component to camel in order to resolve OSGi loading issues
@@ -163,6 +214,8 @@ public class SyslogReceiverCamelNettyImpl extends SinkDispatchingSyslogReceiver
 
                         @Override
                         public boolean process(Exchange exchange, AsyncCallback callback) {
+                            packetsReceived.mark();
+
                             final ByteBuf buffer = exchange.getIn().getBody(ByteBuf.class);
 
                             // NettyConstants.NETTY_REMOTE_ADDRESS is a SocketAddress type but because 
@@ -174,6 +227,7 @@ public class SyslogReceiverCamelNettyImpl extends SinkDispatchingSyslogReceiver
 
                             m_dispatcher.send(new SyslogConnection(source, bufferCopy)).whenComplete((r,e) -> {
                                 if (e != null) {
+                                    packetsDropped.mark();
                                     exchange.setException(e);
                                 }
                                 callback.done(false);
@@ -188,4 +242,59 @@ public class SyslogReceiverCamelNettyImpl extends SinkDispatchingSyslogReceiver
             LOG.error("Could not configure Camel routes for syslog receiver", e);
         }
     }
+
+    /**
+     * Binds the given number of sockets to the syslog port using SO_REUSEPORT.
+     *
+     * The kernel distributes the packets by the hash of the source address so
+     * that all messages of a sender are received by the same socket and thread.
+     */
+    private void runReusePort(final int sockets) {
+        m_group = new EpollEventLoopGroup(sockets);
+
+        try {
+            for (int i = 0; i < sockets; i++) {
+                final Meter packetsReceived = m_metrics.meter(packetsReceivedName(i));
+                final Meter packetsDropped = m_metrics.meter(packetsDroppedName(i));
+
+                m_channels.add(new Bootstrap()
+                        .group(m_group)
+                        .channel(EpollDatagramChannel.class)
+                        .option(ChannelOption.SO_REUSEADDR, true)
+                        .option(EpollChannelOption.SO_REUSEPORT, true)
+                        .option(ChannelOption.SO_RCVBUF, Integer.MAX_VALUE)
+                        .handler(new SimpleChannelInboundHandler<DatagramPacket>() {
+                            @Override
+                            protected void channelRead0(ChannelHandlerContext ctx, DatagramPacket packet) throws Exception {
+                                packetsReceived.mark();
+
+                                final ByteBuf buffer = packet.content();
+                                final ByteBuffer bufferCopy = ByteBuffer.allocate(buffer.readableBytes());
+                                buffer.getBytes(buffer.readerIndex(), bufferCopy);
+                                bufferCopy.flip();
+
+                                m_dispatcher.send(new SyslogConnection(packet.sender(), bufferCopy)).whenComplete((r,e) -> {
+                                    if (e != null) {
+                                        packetsDropped.mark();
+                                        LOG.warn("Failed to dispatch syslog message from {}", packet.sender(), e);
+                                    }
+                                });
+                            }
+                        })
+                        .bind(m_host, m_port)
+                        .sync()
+                        .channel());
+            }
+        } catch (Throwable e) {
+            LOG.error("Could not bind syslog receiver sockets", e);
+        }
+    }
+
+    private static String packetsReceivedName(final int socket) {
+        return MetricRegistry.name("listener", "socket-" + socket, "packetsReceived");
+    }
+
+    private static String packetsDroppedName(final int socket) {
+        return MetricRegistry.name("listener", "socket-" + socket, "packetsDropped");
+    }
 }
@@ -78,11 +78,13 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
     private final Timer consumerTimer;
     private final Timer toEventTimer;
     private final Timer broadcastTimer;
+    private final SyslogConversionMetrics conversionMetrics;
 
     public SyslogSinkConsumer(MetricRegistry registry) {
         consumerTimer = registry.timer("consumer");
         toEventTimer = registry.timer("consumer.toevent");
         broadcastTimer = registry.timer("consumer.broadcast");
+        conversionMetrics = new SyslogConversionMetrics(registry);
         localAddr = InetAddressUtils.getLocalHostName();
     }
 
@@ -121,7 +123,8 @@ public class SyslogSinkConsumer implements MessageConsumer<SyslogConnection, Sys
                         messageLog.getSourceAddress(),
                         messageLog.getSourcePort(),
                         message.getBytes(),
-                        syslogdConfig
+                        syslogdConfig,
+                        conversionMetrics
                     );
                 events.addEvent(re.getEvent());
             } catch (final MessageDiscardedException e) {
@@ -28,11 +28,15 @@
 
 package org.opennms.netmgt.syslogd;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
 import org.opennms.core.ipc.sink.api.AggregationPolicy;
 import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.SinkCodec;
 import org.opennms.core.ipc.sink.xml.AbstractXmlSinkModule;
+import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.config.SyslogdConfig;
 import org.opennms.netmgt.dao.api.DistPollerDao;
 import org.opennms.netmgt.syslogd.api.SyslogConnection;
@@ -99,6 +103,16 @@ public class SyslogSinkModule extends AbstractXmlSinkModule<SyslogConnection, Sy
         };
     }
 
+    @Override
+    public String getRoutingKey(SyslogMessageLogDTO message) {
+        return message.getSourceAddress() != null ? InetAddressUtils.str(message.getSourceAddress()) : null;
+    }
+
+    @Override
+    public List<SinkCodec<SyslogMessageLogDTO>> getCodecs() {
+        return Collections.singletonList(new SyslogProtobufCodec());
+    }
+
     @Override
     public AsyncPolicy getAsyncPolicy() {
         return new AsyncPolicy() {
@@ -0,0 +1,223 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opennms.core.test.ConfigurationTestUtils;
+
+public class OffsetRadixTreeParserTest {
+
+	private static final String MUTATIONS = "0123456789 :-<>[]%.abcJanMar\u0000\u00FF";
+
+	private static RadixTreeParser radixParser;
+
+	private static OffsetRadixTreeParser offsetParser;
+
+	private static List<String> messages;
+
+	@BeforeClass
+	public static void setUpClass() throws IOException {
+		radixParser = teachDefaultPatterns();
+		offsetParser = new OffsetRadixTreeParser(radixParser);
+
+		messages = readMessages();
+	}
+
+	/**
+	 * Teach the default grok-patterns.txt to a parser the same way as {@link RadixTreeSyslogParser}.
+	 */
+	static RadixTreeParser teachDefaultPatterns() throws IOException {
+		final RadixTreeParser retval = new RadixTreeParser();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(OffsetRadixTreeParserTest.class.getClassLoader().getResourceAsStream("org/opennms/netmgt/syslogd/grok-patterns.txt")))) {
+			reader.lines().filter(p -> p.trim().length() > 0 && !p.trim().startsWith("#")).forEach(pattern -> {
+				retval.teach(GrokParserStageSequenceBuilder.parseGrok(pattern).toArray(new ParserStage[0]));
+			});
+		}
+		retval.performEdgeCompression();
+		return retval;
+	}
+
+	/**
+	 * Read the syslogMessages.txt corpus the same way as {@link ConvertToEventTest}.
+	 */
+	static List<String> readMessages() throws IOException {
+		return Files.lines(ConfigurationTestUtils.getFileForResource(OffsetRadixTreeParserTest.class, "/syslogMessages.txt").toPath())
+			.filter(syslog -> syslog.trim().length() > 0 && !syslog.trim().startsWith("#"))
+			.map(syslog -> syslog.replaceAll("\\\\u0000", "\u0000").replaceAll("\\\\uFEFF", "\uFEFF"))
+			.collect(Collectors.toList());
+	}
+
+	@Test
+	public void testEmptyTree() {
+		final OffsetRadixTreeParser parser = new OffsetRadixTreeParser(new RadixTreeParser());
+		assertEquals(toString(new RadixTreeParser().parse(wrap("<1>foo")).join()), toString(parser.parseMessage(wrap("<1>foo"))));
+	}
+
+	@Test
+	public void testCorpus() {
+		for (String message : messages) {
+			final SyslogMessage parsed = assertSameResult(radixParser, offsetParser, message);
+			assertNotNull("Grok parsing failure: " + message, parsed);
+		}
+	}
+
+	@Test
+	public void testMutatedCorpus() {
+		final Random random = new Random(42);
+		for (int i = 0; i < 20000; i++) {
+			final StringBuilder message = new StringBuilder(messages.get(random.nextInt(messages.size())));
+			final int mutations = 1 + random.nextInt(3);
+			for (int j = 0; j < mutations && message.length() > 0; j++) {
+				final int index = random.nextInt(message.length());
+				switch (random.nextInt(4)) {
+				case 0:
+					message.setLength(index);
+					break;
+				case 1:
+					message.deleteCharAt(index);
+					break;
+				case 2:
+					message.insert(index, MUTATIONS.charAt(random.nextInt(MUTATIONS.length())));
+					break;
+				default:
+					message.setCharAt(index, MUTATIONS.charAt(random.nextInt(MUTATIONS.length())));
+					break;
+				}
+			}
+			assertSameResult(radixParser, offsetParser, message.toString());
+		}
+	}
+
+	@Test
+	public void testOptionalAndTerminalStages() {
+		final RadixTreeParser parser = new RadixTreeParser();
+		parser.teach(new ParserStageSequenceBuilder()
+			.intBetweenDelimiters('<', '>', (s,v) -> {
+				s.message.setFacility(SyslogFacility.getFacilityForCode(v));
+				s.message.setSeverity(SyslogSeverity.getSeverityForCode(v));
+			})
+			.monthString((s,v) -> { s.message.setMonth(v); })
+			.whitespace()
+			.integer((s,v) -> { s.message.setDayOfMonth(v); })
+			.whitespace()
+			.stringUntil("\\s[:", (s,v) -> { s.message.setProcessName(v); })
+			.optional().character('[')
+			.optional().integer((s,v) -> { s.message.setProcessId(String.valueOf(v)); })
+			.optional().character(']')
+			.optional().character(':')
+			.optional().monthString((s,v) -> { s.message.setHourOfDay(v); })
+			.whitespace()
+			.terminal().string((s,v) -> { s.message.setMessage(v); })
+			.getStages().toArray(new ParserStage[0]));
+		final OffsetRadixTreeParser offset = new OffsetRadixTreeParser(parser);
+
+		assertEquals("1234", assertSameResult(parser, offset, "<190>Mar 11 sshd[1234]: message").getProcessId());
+		assertEquals("message", assertSameResult(parser, offset, "<190>Mar 11 sshd: message").getMessage());
+		// Only the final stage may reach the end of the buffer
+		assertNull(assertSameResult(parser, offset, "<190>Mar 11 sshd:"));
+		assertEquals(Integer.valueOf(4), assertSameResult(parser, offset, "<190>Mar 11 sshd:Apr message").getHourOfDay());
+		// A partially matched optional stage still consumes the matched characters
+		assertEquals("r message", assertSameResult(parser, offset, "<190>Mar 11 sshd:Ar message").getMessage());
+		assertEquals(Integer.valueOf(0), assertSameResult(parser, offset, "<190>Mar 000 sshd: message").getDayOfMonth());
+		assertEquals(Integer.valueOf(2), assertSameResult(parser, offset, "<190>Mar 0000000000002 sshd: message").getDayOfMonth());
+		assertNull(assertSameResult(parser, offset, "<190>Mar 99999999999 sshd: message"));
+		assertNull(assertSameResult(parser, offset, "<190>Mar"));
+		assertNull(assertSameResult(parser, offset, "<a>Mar 11 sshd: message"));
+	}
+
+	@Test
+	public void testConsumerFailureFallsThroughToNextBranch() {
+		final RadixTreeParser parser = new RadixTreeParser();
+		parser.teach(new ParserStageSequenceBuilder()
+			.intBetweenDelimiters('<', '>', (s,v) -> {
+				if (v > 191) {
+					throw new IllegalArgumentException("Invalid priority: " + v);
+				}
+				s.message.setFacility(SyslogFacility.getFacilityForCode(v));
+			})
+			.terminal().string((s,v) -> { s.message.setMessage(v); })
+			.getStages().toArray(new ParserStage[0]));
+		parser.teach(new ParserStageSequenceBuilder()
+			.stringBetweenDelimiters('<', '>', (s,v) -> { s.message.setMessageID(v); })
+			.terminal().string((s,v) -> { s.message.setHostName(v); })
+			.getStages().toArray(new ParserStage[0]));
+		parser.performEdgeCompression();
+		final OffsetRadixTreeParser offset = new OffsetRadixTreeParser(parser);
+
+		assertEquals("message", assertSameResult(parser, offset, "<34>message").getMessage());
+		final SyslogMessage rejected = assertSameResult(parser, offset, "<1000>message");
+		assertEquals("1000", rejected.getMessageID());
+		assertEquals("message", rejected.getHostName());
+		assertNull(rejected.getMessage());
+	}
+
+	@Test
+	public void testBufferIsUnchanged() {
+		final ByteBuffer buffer = wrap("xx" + messages.get(0));
+		buffer.position(2);
+		final ByteBuffer slice = buffer.slice();
+
+		assertEquals(toString(radixParser.parse(slice).join()), toString(offsetParser.parseMessage(buffer)));
+		assertEquals(2, buffer.position());
+		assertEquals(buffer.capacity(), buffer.limit());
+	}
+
+	private static SyslogMessage assertSameResult(RadixTreeParser radix, OffsetRadixTreeParser offset, String message) {
+		final SyslogMessage expected = radix.parse(wrap(message)).join();
+		final SyslogMessage actual = offset.parseMessage(wrap(message));
+		assertEquals(message, toString(expected), toString(actual));
+		return actual;
+	}
+
+	/**
+	 * @return All fields of the message without its identity hash code
+	 */
+	private static String toString(SyslogMessage message) {
+		return message == null ? null : message.toString().replaceFirst("@[0-9a-f]+", "");
+	}
+
+	private static ByteBuffer wrap(String message) {
+		return ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+	}
+}
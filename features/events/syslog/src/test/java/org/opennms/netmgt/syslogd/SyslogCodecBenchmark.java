@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.syslogd;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+import org.opennms.core.ipc.sink.xml.AbstractXmlSinkModule;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.syslogd.api.SyslogMessageDTO;
+import org.opennms.netmgt.syslogd.api.SyslogMessageLogDTO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the XML and Protobuf wire formats of the {@link SyslogSinkModule}
+ * using batches built from the syslogMessages.txt corpus.
+ *
+ * The throughput is reported in batches/s, the encoded size of the batches
+ * is printed when setting up the trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SyslogCodecBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SyslogCodecBenchmark.class);
+
+    @Param({AbstractXmlSinkModule.XML_CODEC, SyslogProtobufCodec.NAME})
+    public String codec;
+
+    @Param({"100"})
+    public int batchSize;
+
+    private SyslogSinkModule m_module;
+
+    private SyslogMessageLogDTO m_log;
+
+    private byte[] m_bytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        System.setProperty(AbstractXmlSinkModule.CODEC_SYS_PROP + "." + SyslogSinkModule.MODULE_ID, codec);
+        m_module = new SyslogSinkModule(new SyslogConfigBean(), Mockito.mock(DistPollerDao.class));
+
+        final List<String> messages = OffsetRadixTreeParserTest.readMessages();
+        m_log = new SyslogMessageLogDTO("Default", "00000000-0000-0000-0000-000000000000", new InetSocketAddress("127.0.0.1", 514));
+        for (int i = 0; i < batchSize; i++) {
+            final ByteBuffer buffer = ByteBuffer.wrap(messages.get(i % messages.size()).getBytes(StandardCharsets.UTF_8));
+            m_log.getMessages().add(new SyslogMessageDTO(buffer));
+        }
+
+        m_bytes = m_module.marshal(m_log);
+        LOG.info("{}: {} bytes per batch, {} bytes per message", codec, m_bytes.length, m_bytes.length / (double)batchSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.clearProperty(AbstractXmlSinkModule.CODEC_SYS_PROP + "." + SyslogSinkModule.MODULE_ID);
+    }
+
+    @Benchmark
+    public byte[] marshal() {
+        return m_module.marshal(m_log);
+    }
+
+    @Benchmark
+    public SyslogMessageLogDTO unmarshal() {
+        return m_module.unmarshal(m_bytes);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(SyslogCodecBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
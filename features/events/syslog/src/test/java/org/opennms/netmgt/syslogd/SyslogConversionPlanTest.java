@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+import org.opennms.netmgt.config.syslogd.HideMatch;
+import org.opennms.netmgt.config.syslogd.Match;
+import org.opennms.netmgt.config.syslogd.ParameterAssignment;
+import org.opennms.netmgt.config.syslogd.UeiMatch;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.Event;
+
+public class SyslogConversionPlanTest {
+
+    private static final String DISCARD_UEI = "DISCARD-MATCHING-MESSAGES";
+
+    @Test
+    public void canFindRequiredLiterals() {
+        assertEquals("Failed password for ", SyslogConversionPlan.requiredLiteral("^Failed password for (\\S+) from (\\S+)$"));
+        assertEquals("%SEC-6-IPACCESSLOGP: list ", SyslogConversionPlan.requiredLiteral("%SEC-6-IPACCESSLOGP: list (\\S+) denied"));
+        assertEquals("Warning: DocumentRoot [", SyslogConversionPlan.requiredLiteral("^.*Warning: DocumentRoot \\[(.*)\\] does not exist.*$"));
+        assertEquals(" connection", SyslogConversionPlan.requiredLiteral("[a-z]+ connections? closed"));
+        assertEquals("ab", SyslogConversionPlan.requiredLiteral("abc{2,3}d+e"));
+        assertEquals("foo", SyslogConversionPlan.requiredLiteral("\\d+foo\\s*"));
+
+        assertNull(SyslogConversionPlan.requiredLiteral("foo|bar"));
+        assertNull(SyslogConversionPlan.requiredLiteral("(?i)foo"));
+        assertNull(SyslogConversionPlan.requiredLiteral("\\Qfoo\\E"));
+        assertNull(SyslogConversionPlan.requiredLiteral("\\x41"));
+        assertNull(SyslogConversionPlan.requiredLiteral(".*"));
+    }
+
+    @Test
+    public void requiredLiteralsAreContainedInMatches() {
+        final String[][] cases = new String[][] {
+            { "^Failed password for (\\S+) from (\\S+)$", "Failed password for root from 10.0.0.1" },
+            { "[a-z]+ connections? closed", "ssh connection closed" },
+            { "abc{2,3}d+e", "abccdddde" },
+            { "a(b|c)+d\\.e", "abcbd.e" },
+            { "x[\\]]*y", "x]]y" },
+        };
+        for (final String[] c : cases) {
+            assertTrue(c[0], Pattern.compile(c[0]).matcher(c[1]).find());
+            assertTrue(c[0], c[1].contains(SyslogConversionPlan.requiredLiteral(c[0])));
+        }
+    }
+
+    @Test
+    public void canFindOverlappingLiterals() {
+        final AhoCorasickMatcher matcher = new AhoCorasickMatcher(Arrays.asList("he", "she", "his", "hers", "xyz"));
+        final boolean[] found = new boolean[matcher.getLiteralCount()];
+        matcher.search("ushers", found);
+        assertTrue(found[0]);
+        assertTrue(found[1]);
+        assertFalse(found[2]);
+        assertTrue(found[3]);
+        assertFalse(found[4]);
+    }
+
+    @Test
+    public void canMatchInConfigurationOrder() throws Exception {
+        final SyslogConversionPlan plan = new SyslogConversionPlan(Arrays.asList(
+                ueiMatch("uei/regexOnly", "regex", "^\\d+ (\\w+)$"),
+                ueiMatch("uei/substr", "substr", "sshd"),
+                ueiMatch("uei/kernelRegex", "regex", "sshd: (\\S+) from (\\S+)", "kernel"),
+                ueiMatch("uei/regex", "regex", "sshd: (\\S+) from (\\S+)")),
+                Collections.emptyList(), DISCARD_UEI);
+
+        assertEquals("uei/regexOnly", plan.findUeiMatch(message("123 sshd")).getUei());
+        assertEquals("uei/substr", plan.findUeiMatch(message("sshd: root from 10.0.0.1")).getUei());
+        assertNull(plan.findUeiMatch(message("nothing to see here")));
+
+        final SyslogConversionPlan regexPlan = new SyslogConversionPlan(Arrays.asList(
+                ueiMatch("uei/kernelRegex", "regex", "sshd: (\\S+) from (\\S+)", "kernel"),
+                ueiMatch("uei/regex", "regex", "sshd: (\\S+) from (\\S+)")),
+                Collections.emptyList(), DISCARD_UEI);
+        final SyslogConversionPlan.UeiEntry entry = regexPlan.findUeiMatch(message("sshd: root from 10.0.0.1"));
+        assertEquals("uei/regex", entry.getUei());
+
+        final EventBuilder bldr = new EventBuilder("uei/default", "test");
+        entry.apply(bldr);
+        final Event event = bldr.getEvent();
+        assertEquals("uei/regex", event.getUei());
+        assertEquals("root", event.getParm("group1").getValue().getContent());
+        assertEquals("10.0.0.1", event.getParm("group2").getValue().getContent());
+        assertEquals("root", event.getParm("user").getValue().getContent());
+    }
+
+    @Test(expected = MessageDiscardedException.class)
+    public void canDiscardMessages() throws Exception {
+        final SyslogConversionPlan plan = new SyslogConversionPlan(Arrays.asList(
+                ueiMatch(DISCARD_UEI, "substr", "debug"),
+                ueiMatch("uei/debug", "substr", "debug")),
+                Collections.emptyList(), DISCARD_UEI);
+        plan.findUeiMatch(message("some debug output"));
+    }
+
+    @Test
+    public void canHideMessages() {
+        final SyslogConversionPlan plan = new SyslogConversionPlan(Collections.emptyList(),
+                Arrays.asList(hideMatch("substr", "password"), hideMatch("regex", "secret=\\d+")), DISCARD_UEI);
+        assertTrue(plan.isHidden(message("bad password")));
+        assertTrue(plan.isHidden(message("secret=1234")));
+        assertFalse(plan.isHidden(message("secret=none")));
+    }
+
+    @Test
+    public void canReuseCompiledPlans() {
+        final SyslogConfigBean config = new SyslogConfigBean();
+        config.setDiscardUei(DISCARD_UEI);
+        final SyslogConversionPlan plan = SyslogConversionPlan.forConfig(config);
+        assertTrue(plan == SyslogConversionPlan.forConfig(config));
+
+        config.setDiscardUei("DISCARD");
+        assertFalse(plan == SyslogConversionPlan.forConfig(config));
+    }
+
+    private static SyslogMessage message(final String text) {
+        final SyslogMessage message = new SyslogMessage();
+        message.setFacility(SyslogFacility.AUTH);
+        message.setSeverity(SyslogSeverity.NOTICE);
+        message.setHostName("localhost");
+        message.setProcessName("sshd");
+        message.setMessage(text);
+        return message;
+    }
+
+    private static UeiMatch ueiMatch(final String uei, final String type, final String expression, final String... facilities) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        final UeiMatch ueiMatch = new UeiMatch();
+        ueiMatch.setUei(uei);
+        ueiMatch.setMatch(match);
+        ueiMatch.setFacilities(Arrays.asList(facilities));
+        if ("regex".equals(type)) {
+            final ParameterAssignment assignment = new ParameterAssignment();
+            assignment.setMatchingGroup(1);
+            assignment.setParameterName("user");
+            ueiMatch.addParameterAssignment(assignment);
+        }
+        return ueiMatch;
+    }
+
+    private static HideMatch hideMatch(final String type, final String expression) {
+        final Match match = new Match();
+        match.setType(type);
+        match.setExpression(expression);
+        final HideMatch hideMatch = new HideMatch();
+        hideMatch.setMatch(match);
+        return hideMatch;
+    }
+}
@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the messages/s of the syslog parsers on the syslogMessages.txt
+ * corpus. The regex based parsers are invoked like {@link ConvertToEvent}
+ * does, the radix tree parsers are taught the default grok-patterns.txt.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SyslogParserBenchmark {
+
+	@Param({"rfc5424", "syslogng", "juniper", "radix", "offset"})
+	public String parser;
+
+	private SyslogdConfig m_config;
+
+	private RadixTreeParser m_radixParser;
+
+	private OffsetRadixTreeParser m_offsetParser;
+
+	private ByteBuffer[] m_messages;
+
+	private int m_index = 0;
+
+	@Setup
+	public void setUp() throws Exception {
+		final SyslogConfigBean config = new SyslogConfigBean();
+		switch (parser) {
+		case "rfc5424":
+			config.setParser(Rfc5424SyslogParser.class.getName());
+			break;
+		case "syslogng":
+			config.setParser(SyslogNGParser.class.getName());
+			break;
+		case "juniper":
+			config.setParser(JuniperSyslogParser.class.getName());
+			config.setForwardingRegexp("^.*\\s(19|20)\\d\\d([-/.])(0[1-9]|1[012])\\2(0[1-9]|[12][0-9]|3[01])(\\s+)(\\S+)(\\s)(\\S.+)");
+			config.setMatchingGroupHost(6);
+			config.setMatchingGroupMessage(8);
+			break;
+		default:
+			break;
+		}
+		m_config = config;
+
+		m_radixParser = OffsetRadixTreeParserTest.teachDefaultPatterns();
+		m_offsetParser = new OffsetRadixTreeParser(m_radixParser);
+
+		final List<String> messages = OffsetRadixTreeParserTest.readMessages();
+		m_messages = new ByteBuffer[messages.size()];
+		for (int i = 0; i < m_messages.length; i++) {
+			m_messages[i] = ByteBuffer.wrap(messages.get(i).getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	@Benchmark
+	public void parse(final Blackhole blackhole) throws Exception {
+		final ByteBuffer message = m_messages[m_index++ % m_messages.length].duplicate();
+		switch (parser) {
+		case "radix":
+			blackhole.consume(m_radixParser.parse(message).join());
+			break;
+		case "offset":
+			blackhole.consume(m_offsetParser.parseMessage(message));
+			break;
+		default:
+			final SyslogParser syslogParser = SyslogParser.getParserInstance(m_config, message);
+			if (syslogParser.find()) {
+				try {
+					blackhole.consume(syslogParser.parse());
+				} catch (final SyslogParserException e) {
+					blackhole.consume(e);
+				}
+			}
+			break;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+			.include(SyslogParserBenchmark.class.getSimpleName())
+			.build()).run();
+	}
+}
@@ -0,0 +1,94 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import org.junit.Test;
+import org.opennms.netmgt.syslogd.api.SyslogMessageDTO;
+import org.opennms.netmgt.syslogd.api.SyslogMessageLogDTO;
+
+public class SyslogProtobufCodecTest {
+
+    private final SyslogProtobufCodec codec = new SyslogProtobufCodec();
+
+    @Test
+    public void canEncodeAndDecodeMessages() {
+        final SyslogMessageLogDTO log = new SyslogMessageLogDTO("Default", "00000000-0000-0000-0000-000000000000",
+                new InetSocketAddress("127.0.0.1", 514));
+        log.getMessages().add(createMessage("<31>main: 2010-08-19 localhost foo0: load test 0 on tty1", 1282250000000L));
+        log.getMessages().add(createMessage("<173>Dec  7 12:02:06 10.13.110.116 mgmtd[8326]: [mgmtd.NOTICE]: Configuration saved", 1282250000001L));
+
+        final byte[] bytes = codec.encode(log);
+        assertEquals(log, codec.decode(bytes, 0, bytes.length));
+    }
+
+    @Test
+    public void canEncodeAndDecodePartialMessages() {
+        final SyslogMessageLogDTO log = new SyslogMessageLogDTO();
+        log.setSourcePort(514);
+        log.getMessages().add(new SyslogMessageDTO());
+
+        final byte[] bytes = codec.encode(log);
+        final SyslogMessageLogDTO decoded = codec.decode(bytes, 0, bytes.length);
+
+        assertEquals(log, decoded);
+        assertNull(decoded.getSourceAddress());
+        assertNull(decoded.getMessages().get(0).getTimestamp());
+    }
+
+    @Test
+    public void canEncodeDirectBuffers() {
+        final byte[] message = "<31>main: 2010-08-19 localhost foo0: load test 0 on tty1".getBytes(StandardCharsets.US_ASCII);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(message.length);
+        buffer.put(message);
+        buffer.flip();
+        final SyslogMessageLogDTO log = new SyslogMessageLogDTO("Default", "00000000-0000-0000-0000-000000000000",
+                new InetSocketAddress("::1", 514));
+        log.getMessages().add(new SyslogMessageDTO(buffer));
+
+        final byte[] bytes = codec.encode(log);
+        final SyslogMessageLogDTO decoded = codec.decode(bytes, 0, bytes.length);
+
+        assertEquals(log, decoded);
+        // The buffer was not consumed
+        assertEquals(message.length, buffer.remaining());
+    }
+
+    private static SyslogMessageDTO createMessage(String message, long timestamp) {
+        final SyslogMessageDTO dto = new SyslogMessageDTO(ByteBuffer.wrap(message.getBytes(StandardCharsets.US_ASCII)));
+        dto.setTimestamp(new Date(timestamp));
+        return dto;
+    }
+}
@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.syslogd;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.MessageDispatcherFactory;
+import org.opennms.netmgt.config.SyslogdConfig;
+import org.opennms.netmgt.dao.api.DistPollerDao;
+import org.opennms.netmgt.syslogd.api.SyslogConnection;
+
+import com.codahale.metrics.Meter;
+
+import io.netty.channel.epoll.Epoll;
+
+public class SyslogReceiverReusePortTest {
+
+    private static final int SOCKETS = 4;
+    private static final int SENDERS = 8;
+    private static final int MESSAGES_PER_SENDER = 25;
+
+    private final Map<Integer, AtomicInteger> m_received = new ConcurrentHashMap<>();
+
+    private int m_port;
+
+    private SyslogReceiverCamelNettyImpl m_syslogReceiver;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("SO_REUSEPORT requires the native epoll transport", Epoll.isAvailable());
+
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            m_port = socket.getLocalPort();
+        }
+
+        SyslogdConfig syslogdConfig = mock(SyslogdConfig.class);
+        when(syslogdConfig.getListenAddress()).thenReturn("127.0.0.1");
+        when(syslogdConfig.getSyslogPort()).thenReturn(m_port);
+        when(syslogdConfig.getListenerSockets()).thenReturn(SOCKETS);
+
+        DistPollerDao distPollerDao = mock(DistPollerDao.class, Mockito.RETURNS_DEEP_STUBS);
+        when(distPollerDao.whoami().getId()).thenReturn("");
+        when(distPollerDao.whoami().getLocation()).thenReturn("");
+
+        MessageDispatcherFactory messageDispatcherFactory = mock(MessageDispatcherFactory.class);
+        doReturn(new AsyncDispatcher<SyslogConnection>() {
+            @Override
+            public CompletableFuture<SyslogConnection> send(SyslogConnection message) {
+                m_received.computeIfAbsent(message.getSource().getPort(), k -> new AtomicInteger()).incrementAndGet();
+                return CompletableFuture.completedFuture(message);
+            }
+
+            @Override
+            public int getQueueSize() {
+                return 0;
+            }
+
+            @Override
+            public void close() {
+            }
+        }).when(messageDispatcherFactory).createAsyncDispatcher(any());
+
+        m_syslogReceiver = new SyslogReceiverCamelNettyImpl(syslogdConfig);
+        m_syslogReceiver.setMessageDispatcherFactory(messageDispatcherFactory);
+        m_syslogReceiver.setDistPollerDao(distPollerDao);
+        m_syslogReceiver.run();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (m_syslogReceiver != null) {
+            m_syslogReceiver.stop();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void canReceiveOnAllSockets() throws Exception {
+        assertEquals(true, m_syslogReceiver.isStarted());
+
+        final byte[] message = "<34>Oct 11 22:14:15 mymachine su: 'su root' failed for lonvick on /dev/pts/8".getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < SENDERS; i++) {
+            try (DatagramSocket sender = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+                for (int j = 0; j < MESSAGES_PER_SENDER; j++) {
+                    sender.send(new DatagramPacket(message, message.length, InetAddress.getLoopbackAddress(), m_port));
+                }
+            }
+        }
+
+        while (m_received.values().stream().mapToInt(AtomicInteger::get).sum() < SENDERS * MESSAGES_PER_SENDER) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+
+        assertEquals(SENDERS, m_received.size());
+        assertEquals(SOCKETS, m_syslogReceiver.getMetricRegistry().getMeters((name, metric) -> name.endsWith(".packetsReceived")).size());
+        assertEquals(SENDERS * MESSAGES_PER_SENDER, m_syslogReceiver.getMetricRegistry().getMeters((name, metric) -> name.endsWith(".packetsReceived")).values().stream()
+                .mapToLong(Meter::getCount)
+                .sum());
+    }
+}
@@ -41,11 +41,13 @@ import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
 import org.opennms.netmgt.dao.api.MonitoringLocationDao;
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.model.events.EventBuilder;
-import org.opennms.netmgt.model.events.snmp.SyntaxToEvent;
 import org.opennms.netmgt.snmp.SnmpObjId;
 import org.opennms.netmgt.snmp.SnmpResult;
 import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.trapd.TrapTemplateCache.TrapTemplate;
 import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.eventconf.LogDestType;
+import org.opennms.netmgt.xml.eventconf.Logmsg;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -55,14 +57,26 @@ class EventCreator {
 
     private final InterfaceToNodeCache cache;
     private final EventConfDao eventConfDao;
+    private final TrapTemplateCache templateCache;
 
     public EventCreator(InterfaceToNodeCache cache, EventConfDao eventConfDao) {
+        this(cache, eventConfDao, new TrapTemplateCache(eventConfDao));
+    }
+
+    public EventCreator(InterfaceToNodeCache cache, EventConfDao eventConfDao, TrapTemplateCache templateCache) {
         this.cache = Objects.requireNonNull(cache);
         this.eventConfDao = Objects.requireNonNull(eventConfDao);
+        this.templateCache = Objects.requireNonNull(templateCache);
     }
 
+    /**
+     * Creates the event for the given trap.
+     *
+     * @return the event, or null if the trap is discarded by its event definition
+     */
     public Event createEventFrom(final TrapDTO trapDTO, final String systemId, final String location, final InetAddress trapAddress) {
         LOG.debug("{} trap - trapInterface: {}", trapDTO.getVersion(), trapDTO.getAgentAddress());
+        final long start = System.nanoTime();
 
         // Set event data
         final EventBuilder eventBuilder = new EventBuilder(null, "trapd");
@@ -82,12 +96,14 @@ class EventCreator {
             eventBuilder.setSpecific(trapIdentity.getSpecific());
             eventBuilder.setEnterpriseId(trapIdentity.getEnterpriseId());
         }
+        final TrapTemplate template = templateCache.getTemplate(trapIdentity);
 
         // Handle var bindings
+        int index = 0;
         for (SnmpResult eachResult : trapDTO.getResults()) {
             final SnmpObjId name = eachResult.getBase();
             final SnmpValue value = eachResult.getValue();
-            eventBuilder.addParam(SyntaxToEvent.processSyntax(name.toString(), value));
+            eventBuilder.addParam(template.createParm(index++, name, value));
             if (EventConstants.OID_SNMP_IFINDEX.isPrefixOf(name)) {
                 eventBuilder.setIfIndex(value.toInt());
             }
@@ -103,15 +119,30 @@ class EventCreator {
         if (systemId != null) {
             eventBuilder.setDistPoller(systemId);
         }
+        final Event event = eventBuilder.getEvent();
+        final long created = System.nanoTime();
+        TrapSinkConsumer.trapdInstrumentation.addEventCreationTime(created - start);
 
         // Get event template and set uei, if unknown
-        final Event event = eventBuilder.getEvent();
-        final org.opennms.netmgt.xml.eventconf.Event econf = eventConfDao.findByEvent(event);
+        if (template.isResolved()) {
+            TrapSinkConsumer.trapdInstrumentation.incTemplateCacheHitCount();
+        } else {
+            TrapSinkConsumer.trapdInstrumentation.incTemplateCacheMissCount();
+        }
+        final org.opennms.netmgt.xml.eventconf.Event econf = template.getEventConf(event, eventConfDao);
+        TrapSinkConsumer.trapdInstrumentation.addEventConfLookupTime(System.nanoTime() - created);
         if (econf == null || econf.getUei() == null) {
             event.setUei("uei.opennms.org/default/trap");
         } else {
             event.setUei(econf.getUei());
         }
+
+        if (econf != null) {
+            final Logmsg logmsg = econf.getLogmsg();
+            if (logmsg != null && LogDestType.DISCARDTRAPS.equals(logmsg.getDest())) {
+                return null;
+            }
+        }
         return event;
     }
 
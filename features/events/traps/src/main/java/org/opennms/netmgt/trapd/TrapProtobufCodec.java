@@ -0,0 +1,421 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.trapd;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opennms.core.ipc.sink.api.SinkCodec;
+import org.opennms.netmgt.snmp.SnmpInstId;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpUtils;
+import org.opennms.netmgt.snmp.SnmpValue;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.WireFormat;
+
+/**
+ * Encodes the {@link TrapLogDTO} using the Protocol Buffers wire format.
+ *
+ * The schema is documented in trap.proto. The messages are encoded and decoded
+ * field by field, which avoids maintaining generated code for these simple structures.
+ * OIDs are encoded as packed sub-identifiers instead of strings.
+ */
+public class TrapProtobufCodec implements SinkCodec<TrapLogDTO> {
+
+    public static final String NAME = "protobuf";
+
+    private static final int LOG_SYSTEM_ID = 1;
+    private static final int LOG_LOCATION = 2;
+    private static final int LOG_TRAP_ADDRESS = 3;
+    private static final int LOG_MESSAGES = 4;
+
+    private static final int TRAP_AGENT_ADDRESS = 1;
+    private static final int TRAP_COMMUNITY = 2;
+    private static final int TRAP_VERSION = 3;
+    private static final int TRAP_TIMESTAMP = 4;
+    private static final int TRAP_PDU_LENGTH = 5;
+    private static final int TRAP_CREATION_TIME = 6;
+    private static final int TRAP_RAW_MESSAGE = 7;
+    private static final int TRAP_IDENTITY = 8;
+    private static final int TRAP_RESULTS = 9;
+
+    private static final int IDENTITY_GENERIC = 1;
+    private static final int IDENTITY_SPECIFIC = 2;
+    private static final int IDENTITY_ENTERPRISE_ID = 3;
+
+    private static final int RESULT_BASE = 1;
+    private static final int RESULT_INSTANCE = 2;
+    private static final int RESULT_VALUE = 3;
+
+    private static final int VALUE_TYPE = 1;
+    private static final int VALUE_BYTES = 2;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(TrapLogDTO log) {
+        final byte[] bytes = new byte[sizeOf(log)];
+        final CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        try {
+            if (log.getSystemId() != null) {
+                out.writeString(LOG_SYSTEM_ID, log.getSystemId());
+            }
+            if (log.getLocation() != null) {
+                out.writeString(LOG_LOCATION, log.getLocation());
+            }
+            if (log.getTrapAddress() != null) {
+                out.writeByteArray(LOG_TRAP_ADDRESS, log.getTrapAddress().getAddress());
+            }
+            for (TrapDTO trap : log.getMessages()) {
+                out.writeTag(LOG_MESSAGES, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+                out.writeRawVarint32(sizeOf(trap));
+                write(out, trap);
+            }
+            out.checkNoSpaceLeft();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes;
+    }
+
+    @Override
+    public TrapLogDTO decode(byte[] bytes, int offset, int length) {
+        final TrapLogDTO log = new TrapLogDTO();
+        final List<TrapDTO> messages = new ArrayList<>();
+        final CodedInputStream in = CodedInputStream.newInstance(bytes, offset, length);
+        try {
+            int tag;
+            while ((tag = in.readTag()) != 0) {
+                switch (WireFormat.getTagFieldNumber(tag)) {
+                    case LOG_SYSTEM_ID:
+                        log.setSystemId(in.readString());
+                        break;
+                    case LOG_LOCATION:
+                        log.setLocation(in.readString());
+                        break;
+                    case LOG_TRAP_ADDRESS:
+                        log.setTrapAddress(InetAddress.getByAddress(in.readByteArray()));
+                        break;
+                    case LOG_MESSAGES:
+                        final int limit = in.pushLimit(in.readRawVarint32());
+                        messages.add(readTrap(in));
+                        in.popLimit(limit);
+                        break;
+                    default:
+                        in.skipField(tag);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        log.setMessages(messages);
+        return log;
+    }
+
+    private static int sizeOf(TrapLogDTO log) {
+        int size = 0;
+        if (log.getSystemId() != null) {
+            size += CodedOutputStream.computeStringSize(LOG_SYSTEM_ID, log.getSystemId());
+        }
+        if (log.getLocation() != null) {
+            size += CodedOutputStream.computeStringSize(LOG_LOCATION, log.getLocation());
+        }
+        if (log.getTrapAddress() != null) {
+            size += CodedOutputStream.computeByteArraySize(LOG_TRAP_ADDRESS, log.getTrapAddress().getAddress());
+        }
+        for (TrapDTO trap : log.getMessages()) {
+            size += sizeOfMessageField(LOG_MESSAGES, sizeOf(trap));
+        }
+        return size;
+    }
+
+    private static int sizeOf(TrapDTO trap) {
+        int size = 0;
+        if (trap.getAgentAddress() != null) {
+            size += CodedOutputStream.computeByteArraySize(TRAP_AGENT_ADDRESS, trap.getAgentAddress().getAddress());
+        }
+        if (trap.getCommunity() != null) {
+            size += CodedOutputStream.computeStringSize(TRAP_COMMUNITY, trap.getCommunity());
+        }
+        if (trap.getVersion() != null) {
+            size += CodedOutputStream.computeStringSize(TRAP_VERSION, trap.getVersion());
+        }
+        size += CodedOutputStream.computeInt64Size(TRAP_TIMESTAMP, trap.getTimestamp());
+        size += CodedOutputStream.computeInt32Size(TRAP_PDU_LENGTH, trap.getPduLength());
+        size += CodedOutputStream.computeInt64Size(TRAP_CREATION_TIME, trap.getCreationTime());
+        if (trap.getRawMessage() != null) {
+            size += CodedOutputStream.computeByteArraySize(TRAP_RAW_MESSAGE, trap.getRawMessage());
+        }
+        if (trap.getTrapIdentity() != null) {
+            size += sizeOfMessageField(TRAP_IDENTITY, sizeOf(trap.getTrapIdentity()));
+        }
+        for (SnmpResult result : trap.getResults()) {
+            size += sizeOfMessageField(TRAP_RESULTS, sizeOf(result));
+        }
+        return size;
+    }
+
+    private static void write(CodedOutputStream out, TrapDTO trap) throws IOException {
+        if (trap.getAgentAddress() != null) {
+            out.writeByteArray(TRAP_AGENT_ADDRESS, trap.getAgentAddress().getAddress());
+        }
+        if (trap.getCommunity() != null) {
+            out.writeString(TRAP_COMMUNITY, trap.getCommunity());
+        }
+        if (trap.getVersion() != null) {
+            out.writeString(TRAP_VERSION, trap.getVersion());
+        }
+        out.writeInt64(TRAP_TIMESTAMP, trap.getTimestamp());
+        out.writeInt32(TRAP_PDU_LENGTH, trap.getPduLength());
+        out.writeInt64(TRAP_CREATION_TIME, trap.getCreationTime());
+        if (trap.getRawMessage() != null) {
+            out.writeByteArray(TRAP_RAW_MESSAGE, trap.getRawMessage());
+        }
+        if (trap.getTrapIdentity() != null) {
+            final TrapIdentityDTO identity = trap.getTrapIdentity();
+            out.writeTag(TRAP_IDENTITY, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeRawVarint32(sizeOf(identity));
+            out.writeInt32(IDENTITY_GENERIC, identity.getGeneric());
+            out.writeInt32(IDENTITY_SPECIFIC, identity.getSpecific());
+            if (identity.getEnterpriseId() != null) {
+                out.writeString(IDENTITY_ENTERPRISE_ID, identity.getEnterpriseId());
+            }
+        }
+        for (SnmpResult result : trap.getResults()) {
+            out.writeTag(TRAP_RESULTS, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeRawVarint32(sizeOf(result));
+            write(out, result);
+        }
+    }
+
+    private static TrapDTO readTrap(CodedInputStream in) throws IOException {
+        final TrapDTO trap = new TrapDTO();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case TRAP_AGENT_ADDRESS:
+                    trap.setAgentAddress(InetAddress.getByAddress(in.readByteArray()));
+                    break;
+                case TRAP_COMMUNITY:
+                    trap.setCommunity(in.readString());
+                    break;
+                case TRAP_VERSION:
+                    trap.setVersion(in.readString());
+                    break;
+                case TRAP_TIMESTAMP:
+                    trap.setTimestamp(in.readInt64());
+                    break;
+                case TRAP_PDU_LENGTH:
+                    trap.setPduLength(in.readInt32());
+                    break;
+                case TRAP_CREATION_TIME:
+                    trap.setCreationTime(in.readInt64());
+                    break;
+                case TRAP_RAW_MESSAGE:
+                    trap.setRawMessage(in.readByteArray());
+                    break;
+                case TRAP_IDENTITY: {
+                    final int limit = in.pushLimit(in.readRawVarint32());
+                    trap.setTrapIdentity(readTrapIdentity(in));
+                    in.popLimit(limit);
+                    break;
+                }
+                case TRAP_RESULTS: {
+                    final int limit = in.pushLimit(in.readRawVarint32());
+                    trap.getResults().add(readResult(in));
+                    in.popLimit(limit);
+                    break;
+                }
+                default:
+                    in.skipField(tag);
+            }
+        }
+        return trap;
+    }
+
+    private static int sizeOf(TrapIdentityDTO identity) {
+        int size = CodedOutputStream.computeInt32Size(IDENTITY_GENERIC, identity.getGeneric())
+                + CodedOutputStream.computeInt32Size(IDENTITY_SPECIFIC, identity.getSpecific());
+        if (identity.getEnterpriseId() != null) {
+            size += CodedOutputStream.computeStringSize(IDENTITY_ENTERPRISE_ID, identity.getEnterpriseId());
+        }
+        return size;
+    }
+
+    private static TrapIdentityDTO readTrapIdentity(CodedInputStream in) throws IOException {
+        final TrapIdentityDTO identity = new TrapIdentityDTO();
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case IDENTITY_GENERIC:
+                    identity.setGeneric(in.readInt32());
+                    break;
+                case IDENTITY_SPECIFIC:
+                    identity.setSpecific(in.readInt32());
+                    break;
+                case IDENTITY_ENTERPRISE_ID:
+                    identity.setEnterpriseId(in.readString());
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+        return identity;
+    }
+
+    private static int sizeOf(SnmpResult result) {
+        int size = 0;
+        if (result.getBase() != null) {
+            size += sizeOfMessageField(RESULT_BASE, sizeOfIds(result.getBase()));
+        }
+        if (result.getInstance() != null) {
+            size += sizeOfMessageField(RESULT_INSTANCE, sizeOfIds(result.getInstance()));
+        }
+        if (result.getValue() != null) {
+            size += sizeOfMessageField(RESULT_VALUE, sizeOf(result.getValue()));
+        }
+        return size;
+    }
+
+    private static void write(CodedOutputStream out, SnmpResult result) throws IOException {
+        if (result.getBase() != null) {
+            writeIds(out, RESULT_BASE, result.getBase());
+        }
+        if (result.getInstance() != null) {
+            writeIds(out, RESULT_INSTANCE, result.getInstance());
+        }
+        if (result.getValue() != null) {
+            final SnmpValue value = result.getValue();
+            out.writeTag(RESULT_VALUE, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+            out.writeRawVarint32(sizeOf(value));
+            out.writeInt32(VALUE_TYPE, value.getType());
+            if (value.getBytes() != null) {
+                out.writeByteArray(VALUE_BYTES, value.getBytes());
+            }
+        }
+    }
+
+    private static SnmpResult readResult(CodedInputStream in) throws IOException {
+        SnmpObjId base = null;
+        SnmpInstId instance = null;
+        SnmpValue value = null;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case RESULT_BASE:
+                    base = new SnmpObjId(readIds(in), false);
+                    break;
+                case RESULT_INSTANCE:
+                    instance = new SnmpInstId(readIds(in));
+                    break;
+                case RESULT_VALUE: {
+                    final int limit = in.pushLimit(in.readRawVarint32());
+                    value = readValue(in);
+                    in.popLimit(limit);
+                    break;
+                }
+                default:
+                    in.skipField(tag);
+            }
+        }
+        return new SnmpResult(base, instance, value);
+    }
+
+    private static int sizeOf(SnmpValue value) {
+        int size = CodedOutputStream.computeInt32Size(VALUE_TYPE, value.getType());
+        if (value.getBytes() != null) {
+            size += CodedOutputStream.computeByteArraySize(VALUE_BYTES, value.getBytes());
+        }
+        return size;
+    }
+
+    private static SnmpValue readValue(CodedInputStream in) throws IOException {
+        int type = 0;
+        byte[] bytes = null;
+        int tag;
+        while ((tag = in.readTag()) != 0) {
+            switch (WireFormat.getTagFieldNumber(tag)) {
+                case VALUE_TYPE:
+                    type = in.readInt32();
+                    break;
+                case VALUE_BYTES:
+                    bytes = in.readByteArray();
+                    break;
+                default:
+                    in.skipField(tag);
+            }
+        }
+        return SnmpUtils.getValueFactory().getValue(type, bytes);
+    }
+
+    /**
+     * Size of the packed sub-identifiers, excluding the tag and length prefix.
+     */
+    private static int sizeOfIds(SnmpObjId oid) {
+        int size = 0;
+        for (int i = 0; i < oid.length(); i++) {
+            size += CodedOutputStream.computeRawVarint32Size(oid.getSubIdAt(i));
+        }
+        return size;
+    }
+
+    private static void writeIds(CodedOutputStream out, int field, SnmpObjId oid) throws IOException {
+        out.writeTag(field, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        out.writeRawVarint32(sizeOfIds(oid));
+        for (int i = 0; i < oid.length(); i++) {
+            out.writeRawVarint32(oid.getSubIdAt(i));
+        }
+    }
+
+    private static int[] readIds(CodedInputStream in) throws IOException {
+        final int limit = in.pushLimit(in.readRawVarint32());
+        int[] ids = new int[16];
+        int count = 0;
+        while (!in.isAtEnd()) {
+            if (count == ids.length) {
+                ids = Arrays.copyOf(ids, count * 2);
+            }
+            ids[count++] = in.readRawVarint32();
+        }
+        in.popLimit(limit);
+        return count == ids.length ? ids : Arrays.copyOf(ids, count);
+    }
+
+    private static int sizeOfMessageField(int field, int size) {
+        return CodedOutputStream.computeTagSize(field) + CodedOutputStream.computeRawVarint32Size(size) + size;
+    }
+}
@@ -47,8 +47,6 @@ import org.opennms.netmgt.trapd.jmx.TrapdInstrumentation;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Events;
 import org.opennms.netmgt.xml.event.Log;
-import org.opennms.netmgt.xml.eventconf.LogDestType;
-import org.opennms.netmgt.xml.eventconf.Logmsg;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -89,7 +87,7 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 	@PostConstruct
 	public void init() throws Exception {
 		messageConsumerManager.registerConsumer(this);
-		eventCreator = new EventCreator(interfaceToNodeCache, eventConfDao);
+		eventCreator = new EventCreator(interfaceToNodeCache, eventConfDao, new TrapTemplateCache(eventConfDao));
 	}
 
 	@Override
@@ -102,7 +100,9 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 		try (Logging.MDCCloseable mdc = Logging.withPrefixCloseable(Trapd.LOG4J_CATEGORY)) {
 			final Log eventLog = toLog(messageLog);
 
+			final long start = System.nanoTime();
 			eventForwarder.sendNowSync(eventLog);
+			trapdInstrumentation.addEventForwardingTime(System.nanoTime() - start);
 
 			// If configured, also send events for new suspects
 			if (config.getNewSuspectOnTrap()) {
@@ -128,7 +128,7 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 						messageLog.getSystemId(),
 						messageLog.getLocation(),
 						messageLog.getTrapAddress());
-				if (!shouldDiscard(event)) {
+				if (event != null) {
 					if (event.getSnmp() != null) {
 						trapdInstrumentation.incTrapsReceivedCount(event.getSnmp().getVersion());
 					}
@@ -155,13 +155,4 @@ public class TrapSinkConsumer implements MessageConsumer<TrapInformationWrapper,
 		// send the event to eventd
 		eventForwarder.sendNow(bldr.getEvent());
 	}
-
-	private boolean shouldDiscard(Event event) {
-		org.opennms.netmgt.xml.eventconf.Event econf = eventConfDao.findByEvent(event);
-		if (econf != null) {
-			final Logmsg logmsg = econf.getLogmsg();
-			return logmsg != null && LogDestType.DISCARDTRAPS.equals(logmsg.getDest());
-		}
-		return false;
-	}
 }
@@ -28,11 +28,15 @@
 
 package org.opennms.netmgt.trapd;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 
 import org.opennms.core.ipc.sink.api.AggregationPolicy;
 import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.SinkCodec;
 import org.opennms.core.ipc.sink.xml.AbstractXmlSinkModule;
+import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.config.TrapdConfig;
 import org.opennms.netmgt.model.OnmsDistPoller;
 import org.opennms.netmgt.snmp.TrapInformation;
@@ -112,6 +116,16 @@ public class TrapSinkModule extends AbstractXmlSinkModule<TrapInformationWrapper
         };
     }
 
+    @Override
+    public String getRoutingKey(TrapLogDTO message) {
+        return message.getTrapAddress() != null ? InetAddressUtils.str(message.getTrapAddress()) : null;
+    }
+
+    @Override
+    public List<SinkCodec<TrapLogDTO>> getCodecs() {
+        return Collections.singletonList(new TrapProtobufCodec());
+    }
+
     @Override
     public AsyncPolicy getAsyncPolicy() {
         return new AsyncPolicy() {
@@ -0,0 +1,264 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.trapd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.opennms.netmgt.config.api.EventConfDao;
+import org.opennms.netmgt.model.events.snmp.SyntaxToEvent;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.eventconf.EventOrdering;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.opennms.netmgt.xml.eventconf.Mask;
+import org.opennms.netmgt.xml.eventconf.Maskelement;
+
+/**
+ * Caches what the {@link EventCreator} derives from the eventconf and from the varbind
+ * OIDs, per trap identity (enterprise id, generic and specific type).
+ *
+ * <p>The event definition is resolved once per trap identity when the first definition
+ * that can match traps with this identity only looks at the identity, the source or the
+ * UEI, which are the same for all of these traps. When this definition also looks at
+ * other fields, such as the varbinds, the host or the community, the definition is
+ * looked up for every trap instead.</p>
+ *
+ * <p>The cache is cleared whenever the eventconf is (re-)initialized.</p>
+ */
+class TrapTemplateCache {
+
+    public static final int DEFAULT_MAX_SIZE = Integer.getInteger("org.opennms.trapd.templateCacheSize", 10000);
+
+    /**
+     * The mask elements that have the same value for all the traps with the same identity.
+     */
+    private static final Set<String> IDENTITY_MASK_ELEMENTS = new HashSet<>(Arrays.asList(
+            Maskelement.TAG_UEI,
+            Maskelement.TAG_SOURCE,
+            Maskelement.TAG_SNMP_EID,
+            Maskelement.TAG_SNMP_GENERIC,
+            Maskelement.TAG_SNMP_SPECIFIC));
+
+    private final EventConfDao eventConfDao;
+    private final int maxSize;
+
+    private volatile Generation generation;
+
+    public TrapTemplateCache(EventConfDao eventConfDao) {
+        this(eventConfDao, DEFAULT_MAX_SIZE);
+    }
+
+    public TrapTemplateCache(EventConfDao eventConfDao, int maxSize) {
+        this.eventConfDao = Objects.requireNonNull(eventConfDao);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the template of the traps with the given identity.
+     *
+     * A template that is not shared, and that looks up the event definition of every
+     * trap with the {@link EventConfDao}, is returned when the identity is unknown, the
+     * cache is disabled or full: resolving the definition for a single trap would cost
+     * more than looking it up.
+     */
+    public TrapTemplate getTemplate(TrapIdentityDTO trapIdentity) {
+        if (trapIdentity == null || maxSize <= 0) {
+            return new TrapTemplate(null);
+        }
+
+        final Generation current = getGeneration();
+        TrapTemplate template = current.templates.get(trapIdentity);
+        if (template == null) {
+            if (current.templates.size() >= maxSize) {
+                return new TrapTemplate(null);
+            }
+            template = new TrapTemplate(current);
+            final TrapTemplate existing = current.templates.putIfAbsent(trapIdentity, template);
+            if (existing != null) {
+                template = existing;
+            }
+        }
+        return template;
+    }
+
+    public int size() {
+        final Generation current = generation;
+        return current == null ? 0 : current.templates.size();
+    }
+
+    private Generation getGeneration() {
+        final Events rootEvents = eventConfDao.getRootEvents();
+        final EventOrdering ordering = rootEvents == null ? null : rootEvents.getOrdering();
+        Generation current = generation;
+        if (current == null || current.rootEvents != rootEvents || current.ordering != ordering) {
+            current = new Generation(rootEvents, ordering);
+            generation = current;
+        }
+        return current;
+    }
+
+    /**
+     * The templates built for one initialization of the eventconf.
+     */
+    private static class Generation {
+        private final Events rootEvents;
+        private final EventOrdering ordering;
+        private final ConcurrentMap<TrapIdentityDTO, TrapTemplate> templates = new ConcurrentHashMap<>();
+        private volatile List<org.opennms.netmgt.xml.eventconf.Event> definitions;
+
+        private Generation(Events rootEvents, EventOrdering ordering) {
+            this.rootEvents = rootEvents;
+            this.ordering = ordering;
+        }
+
+        /**
+         * @return all of the event definitions, in the order they are matched
+         */
+        private List<org.opennms.netmgt.xml.eventconf.Event> getDefinitions() {
+            List<org.opennms.netmgt.xml.eventconf.Event> result = definitions;
+            if (result == null) {
+                result = rootEvents.forEachEvent(new ArrayList<>(), (accum, definition) -> {
+                    accum.add(definition);
+                    return accum;
+                });
+                definitions = result;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The event definition and the parameter names shared by the traps with the same identity.
+     */
+    static class TrapTemplate {
+        private final Generation generation;
+
+        private volatile boolean resolved;
+        private volatile boolean resolvedPerTrap;
+        private volatile org.opennms.netmgt.xml.eventconf.Event eventConf;
+        private volatile VarbindName[] varbindNames = new VarbindName[0];
+
+        private TrapTemplate(Generation generation) {
+            this.generation = generation;
+        }
+
+        /**
+         * @return true if the event definition is known without looking it up
+         */
+        public boolean isResolved() {
+            return resolved;
+        }
+
+        /**
+         * Finds the event definition of the given trap event, which must not have an UEI yet.
+         */
+        public org.opennms.netmgt.xml.eventconf.Event getEventConf(Event event, EventConfDao eventConfDao) {
+            if (resolved) {
+                return eventConf;
+            }
+            if (generation == null || resolvedPerTrap) {
+                return eventConfDao.findByEvent(event);
+            }
+
+            // Find the first definition that may match traps with this identity
+            for (final org.opennms.netmgt.xml.eventconf.Event definition : generation.getDefinitions()) {
+                final Mask mask = definition.getMask();
+                if (mask == null || mask.getMaskelements().isEmpty()) {
+                    // Only matched by UEI
+                    continue;
+                }
+
+                boolean identityOnly = mask.getVarbinds().isEmpty();
+                boolean identityMatches = true;
+                for (final Maskelement element : mask.getMaskelements()) {
+                    if (!IDENTITY_MASK_ELEMENTS.contains(element.getMename())) {
+                        identityOnly = false;
+                    } else if (!element.constructMatcher().matches(event)) {
+                        identityMatches = false;
+                        break;
+                    }
+                }
+
+                if (identityMatches) {
+                    if (identityOnly) {
+                        eventConf = definition;
+                        resolved = true;
+                        return definition;
+                    }
+                    resolvedPerTrap = true;
+                    return eventConfDao.findByEvent(event);
+                }
+            }
+
+            // No definition matches traps with this identity
+            resolved = true;
+            return null;
+        }
+
+        /**
+         * Creates the parameter for the varbind at the given position.
+         */
+        public Parm createParm(int index, SnmpObjId oid, SnmpValue value) {
+            if (generation == null) {
+                return SyntaxToEvent.processSyntax(oid.toString(), value);
+            }
+
+            final VarbindName[] names = varbindNames;
+            VarbindName name = index < names.length ? names[index] : null;
+            if (name == null || !name.oid.equals(oid)) {
+                name = new VarbindName(oid);
+                final VarbindName[] updated = Arrays.copyOf(names, Math.max(names.length, index + 1));
+                updated[index] = name;
+                varbindNames = updated;
+            }
+            return SyntaxToEvent.processSyntax(name.name, value, name.macAddress);
+        }
+    }
+
+    private static class VarbindName {
+        private final SnmpObjId oid;
+        private final String name;
+        private final boolean macAddress;
+
+        private VarbindName(SnmpObjId oid) {
+            this.oid = oid;
+            this.name = oid.toString();
+            this.macAddress = SyntaxToEvent.isMacAddressName(name);
+        }
+    }
+}
@@ -92,6 +92,42 @@ public class Trapd extends AbstractSpringContextJmxServiceDaemon<org.opennms.net
         return getTrapdInstrumentation().getTrapsErrored();
     }
     
+    /** {@inheritDoc} */
+    @Override
+    public long getTemplateCacheHits() {
+        return getTrapdInstrumentation().getTemplateCacheHits();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getTemplateCacheMisses() {
+        return getTrapdInstrumentation().getTemplateCacheMisses();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public double getTemplateCacheHitRatio() {
+        return getTrapdInstrumentation().getTemplateCacheHitRatio();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getEventCreationTime() {
+        return getTrapdInstrumentation().getEventCreationTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getEventConfLookupTime() {
+        return getTrapdInstrumentation().getEventConfLookupTime();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getEventForwardingTime() {
+        return getTrapdInstrumentation().getEventForwardingTime();
+    }
+
     private TrapdInstrumentation getTrapdInstrumentation() {
         return TrapSinkConsumer.trapdInstrumentation;
     }
@@ -31,6 +31,7 @@ package org.opennms.netmgt.trapd.jmx;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class TrapdInstrumentation {
@@ -44,6 +45,11 @@ public class TrapdInstrumentation {
     private final AtomicLong vUnknownTrapsReceived = new AtomicLong();
     private final AtomicLong trapsDiscarded = new AtomicLong();
     private final AtomicLong trapsErrored = new AtomicLong();
+    private final AtomicLong templateCacheHits = new AtomicLong();
+    private final AtomicLong templateCacheMisses = new AtomicLong();
+    private final AtomicLong eventCreationNanos = new AtomicLong();
+    private final AtomicLong eventConfLookupNanos = new AtomicLong();
+    private final AtomicLong eventForwardingNanos = new AtomicLong();
 
     public void incTrapsReceivedCount(String version) {
         trapsReceived.incrementAndGet();
@@ -67,6 +73,26 @@ public class TrapdInstrumentation {
         trapsErrored.incrementAndGet();
     }
 
+    public void incTemplateCacheHitCount() {
+        templateCacheHits.incrementAndGet();
+    }
+
+    public void incTemplateCacheMissCount() {
+        templateCacheMisses.incrementAndGet();
+    }
+
+    public void addEventCreationTime(long nanos) {
+        eventCreationNanos.addAndGet(nanos);
+    }
+
+    public void addEventConfLookupTime(long nanos) {
+        eventConfLookupNanos.addAndGet(nanos);
+    }
+
+    public void addEventForwardingTime(long nanos) {
+        eventForwardingNanos.addAndGet(nanos);
+    }
+
     public long getV1TrapsReceived() {
         return v1TrapsReceived.get();
     }
@@ -94,4 +120,30 @@ public class TrapdInstrumentation {
     public long getTrapsReceived() {
         return trapsReceived.get();
     }
+
+    public long getTemplateCacheHits() {
+        return templateCacheHits.get();
+    }
+
+    public long getTemplateCacheMisses() {
+        return templateCacheMisses.get();
+    }
+
+    public double getTemplateCacheHitRatio() {
+        final long hits = templateCacheHits.get();
+        final long total = hits + templateCacheMisses.get();
+        return total == 0 ? 0 : (double)hits / total;
+    }
+
+    public long getEventCreationTime() {
+        return TimeUnit.NANOSECONDS.toMillis(eventCreationNanos.get());
+    }
+
+    public long getEventConfLookupTime() {
+        return TimeUnit.NANOSECONDS.toMillis(eventConfLookupNanos.get());
+    }
+
+    public long getEventForwardingTime() {
+        return TimeUnit.NANOSECONDS.toMillis(eventForwardingNanos.get());
+    }
 }
@@ -57,4 +57,22 @@ public interface TrapdMBean extends BaseOnmsMBean {
     
     /** @return The number of traps not processed due to errors since Trapd was last started */
     public long getTrapsErrored();
+
+    /** @return The number of traps whose event definition was taken from the template cache since Trapd was last started */
+    public long getTemplateCacheHits();
+
+    /** @return The number of traps whose event definition was looked up in the eventconf since Trapd was last started */
+    public long getTemplateCacheMisses();
+
+    /** @return The ratio of template cache hits to the traps processed since Trapd was last started */
+    public double getTemplateCacheHitRatio();
+
+    /** @return The time, in milliseconds, spent creating events from traps since Trapd was last started */
+    public long getEventCreationTime();
+
+    /** @return The time, in milliseconds, spent finding the event definitions of traps since Trapd was last started */
+    public long getEventConfLookupTime();
+
+    /** @return The time, in milliseconds, spent forwarding trap events to eventd since Trapd was last started */
+    public long getEventForwardingTime();
 }
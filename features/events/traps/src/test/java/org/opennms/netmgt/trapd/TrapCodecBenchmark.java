@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.trapd;
+
+import java.util.concurrent.TimeUnit;
+
+import org.mockito.Mockito;
+import org.opennms.core.ipc.sink.xml.AbstractXmlSinkModule;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.model.OnmsDistPoller;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the XML and Protobuf wire formats of the {@link TrapSinkModule}.
+ *
+ * The throughput is reported in batches/s, the encoded size of the batches
+ * is printed when setting up the trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TrapCodecBenchmark {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrapCodecBenchmark.class);
+
+    @Param({AbstractXmlSinkModule.XML_CODEC, TrapProtobufCodec.NAME})
+    public String codec;
+
+    @Param({"50"})
+    public int batchSize;
+
+    private TrapSinkModule m_module;
+
+    private TrapLogDTO m_log;
+
+    private byte[] m_bytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        System.setProperty(AbstractXmlSinkModule.CODEC_SYS_PROP + ".Trap", codec);
+        m_module = new TrapSinkModule(new TrapdConfigBean(), Mockito.mock(OnmsDistPoller.class));
+
+        // Each log holds two traps
+        m_log = TrapProtobufCodecTest.createTrapLog(InetAddressUtils.ONE_TWENTY_SEVEN);
+        while (m_log.getMessages().size() < batchSize) {
+            m_log.addMessage(m_log.getMessages().get(m_log.getMessages().size() % 2));
+        }
+
+        m_bytes = m_module.marshal(m_log);
+        LOG.info("{}: {} bytes per batch, {} bytes per trap", codec, m_bytes.length, m_bytes.length / (double)batchSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.clearProperty(AbstractXmlSinkModule.CODEC_SYS_PROP + ".Trap");
+    }
+
+    @Benchmark
+    public byte[] marshal() {
+        return m_module.marshal(m_log);
+    }
+
+    @Benchmark
+    public TrapLogDTO unmarshal() {
+        return m_module.unmarshal(m_bytes);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(TrapCodecBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
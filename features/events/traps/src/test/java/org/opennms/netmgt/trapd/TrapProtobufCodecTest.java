@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.trapd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.net.InetAddress;
+
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.snmp.snmp4j.Snmp4JTrapNotifier;
+import org.snmp4j.PDU;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.IpAddress;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.VariableBinding;
+
+public class TrapProtobufCodecTest {
+
+    private final TrapProtobufCodec codec = new TrapProtobufCodec();
+
+    @Test
+    public void canEncodeAndDecodeTraps() throws Exception {
+        final TrapLogDTO log = createTrapLog(InetAddressUtils.ONE_TWENTY_SEVEN);
+        final byte[] bytes = codec.encode(log);
+        final TrapLogDTO decoded = codec.decode(bytes, 0, bytes.length);
+
+        assertEquals(log, decoded);
+        assertEquals(3, decoded.getMessages().get(0).getResults().size());
+        assertNull(decoded.getMessages().get(0).getResults().get(0).getInstance());
+    }
+
+    @Test
+    public void canEncodeAndDecodeIPv6AndRawMessages() throws Exception {
+        final TrapLogDTO log = createTrapLog(InetAddress.getByName("fe80::1"));
+        final byte[] rawMessage = new byte[] { 0x30, 0x26, 0x02, 0x01, 0x01 };
+        log.getMessages().get(0).setRawMessage(rawMessage);
+
+        final byte[] bytes = codec.encode(log);
+        final TrapLogDTO decoded = codec.decode(bytes, 0, bytes.length);
+
+        assertEquals(log.getTrapAddress(), decoded.getTrapAddress());
+        assertArrayEquals(rawMessage, decoded.getMessages().get(0).getRawMessage());
+        // Arrays are compared by reference in TrapDTO.equals()
+        decoded.getMessages().get(0).setRawMessage(rawMessage);
+        assertEquals(log, decoded);
+    }
+
+    @Test
+    public void canDecodeFromOffset() throws Exception {
+        final TrapLogDTO log = createTrapLog(InetAddressUtils.ONE_TWENTY_SEVEN);
+        final byte[] bytes = codec.encode(log);
+        final byte[] padded = new byte[bytes.length + 7];
+        System.arraycopy(bytes, 0, padded, 3, bytes.length);
+
+        assertEquals(log, codec.decode(padded, 3, bytes.length));
+    }
+
+    static TrapLogDTO createTrapLog(InetAddress trapAddress) {
+        final PDU pdu = new PDU();
+        pdu.setType(PDU.TRAP);
+        final OID oid = new OID(".1.3.6.1.4.1.5813.1.1");
+        pdu.add(new VariableBinding(SnmpConstants.sysUpTime, new TimeTicks(5000)));
+        pdu.add(new VariableBinding(SnmpConstants.snmpTrapOID, oid));
+        pdu.add(new VariableBinding(SnmpConstants.snmpTrapAddress, new IpAddress("127.0.0.1")));
+        pdu.add(new VariableBinding(new OID(".1.3.6.1.2.1.1.5.0"), new OctetString("mockhost")));
+        pdu.add(new VariableBinding(new OID(".1.3.6.1.4.1.5813.20.1.4294967295"), new Integer32(-1)));
+
+        final TrapLogDTO log = new TrapLogDTO("00000000-0000-0000-0000-000000000000", "Default", trapAddress);
+        log.addMessage(new TrapDTO(new Snmp4JTrapNotifier.Snmp4JV2TrapInformation(trapAddress, "public", pdu)));
+        log.addMessage(new TrapDTO(new Snmp4JTrapNotifier.Snmp4JV2TrapInformation(trapAddress, "private", pdu)));
+        return log;
+    }
+}
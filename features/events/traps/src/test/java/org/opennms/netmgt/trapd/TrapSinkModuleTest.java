@@ -28,9 +28,12 @@
 
 package org.opennms.netmgt.trapd;
 
+import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.opennms.core.ipc.sink.xml.AbstractXmlSinkModule;
+import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.core.ipc.sink.api.Message;
 import org.opennms.core.ipc.sink.api.SinkModule;
 import org.opennms.netmgt.config.TrapdConfig;
@@ -38,6 +41,12 @@ import org.opennms.netmgt.model.OnmsDistPoller;
 
 public class TrapSinkModuleTest {
 
+    @After
+    public void tearDown() {
+        System.clearProperty(AbstractXmlSinkModule.CODEC_SYS_PROP);
+        System.clearProperty(AbstractXmlSinkModule.CODEC_SYS_PROP + ".Trap");
+    }
+
     @Test
     public void testEqualsAndHashCode() throws Exception {
         SinkModule<Message, Message> mockModule = Mockito.mock(SinkModule.class);
@@ -57,4 +66,39 @@ public class TrapSinkModuleTest {
         Assert.assertNotEquals(module, mockModule);
         Assert.assertNotEquals(module.hashCode(), mockModule.hashCode());
     }
+
+    @Test
+    public void canUnmarshalMessagesFromProducersUsingDifferentCodecs() {
+        final OnmsDistPoller distPollerMock = Mockito.mock(OnmsDistPoller.class);
+        final TrapdConfig config = new TrapdConfigBean();
+        final TrapLogDTO log = TrapProtobufCodecTest.createTrapLog(InetAddressUtils.ONE_TWENTY_SEVEN);
+
+        // XML is used by default
+        final byte[] xml = new TrapSinkModule(config, distPollerMock).marshal(log);
+        Assert.assertEquals('<', xml[0]);
+
+        System.setProperty(AbstractXmlSinkModule.CODEC_SYS_PROP + ".Trap", TrapProtobufCodec.NAME);
+        final byte[] protobuf = new TrapSinkModule(config, distPollerMock).marshal(log);
+        Assert.assertEquals(AbstractXmlSinkModule.CODEC_HEADER_MAGIC, protobuf[0]);
+        Assert.assertTrue(protobuf.length < xml.length);
+
+        // The consumer can decode both, regardless of its own configuration
+        final TrapSinkModule consumer = new TrapSinkModule(config, distPollerMock);
+        Assert.assertEquals(log, consumer.unmarshal(xml));
+        Assert.assertEquals(log, consumer.unmarshal(protobuf));
+    }
+
+    @Test
+    public void fallsBackToXmlForUnsupportedCodecs() {
+        System.setProperty(AbstractXmlSinkModule.CODEC_SYS_PROP, "avro");
+        final TrapSinkModule module = new TrapSinkModule(new TrapdConfigBean(), Mockito.mock(OnmsDistPoller.class));
+        final byte[] bytes = module.marshal(TrapProtobufCodecTest.createTrapLog(InetAddressUtils.ONE_TWENTY_SEVEN));
+        Assert.assertEquals('<', bytes[0]);
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void cannotUnmarshalMessagesWithUnknownCodecs() {
+        final TrapSinkModule module = new TrapSinkModule(new TrapdConfigBean(), Mockito.mock(OnmsDistPoller.class));
+        module.unmarshal(new byte[] { AbstractXmlSinkModule.CODEC_HEADER_MAGIC, 4, 'a', 'v', 'r', 'o', 1, 2, 3 });
+    }
 }
@@ -0,0 +1,268 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.trapd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.util.Optional;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.config.api.EventConfDao;
+import org.opennms.netmgt.dao.api.InterfaceToNodeCache;
+import org.opennms.netmgt.model.events.snmp.SyntaxToEvent;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpResult;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.opennms.netmgt.snmp.snmp4j.Snmp4JValueFactory;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.eventconf.EnterpriseIdPartition;
+import org.opennms.netmgt.xml.eventconf.EventOrdering;
+import org.opennms.netmgt.xml.eventconf.Events;
+import org.opennms.netmgt.xml.eventconf.LogDestType;
+import org.opennms.netmgt.xml.eventconf.Logmsg;
+import org.opennms.netmgt.xml.eventconf.Mask;
+import org.opennms.netmgt.xml.eventconf.Maskelement;
+import org.opennms.netmgt.xml.eventconf.Varbind;
+
+public class TrapTemplateCacheTest {
+
+    private static final String ENTERPRISE_ID = ".1.3.6.1.4.1.5813";
+    private static final String OTHER_ENTERPRISE_ID = ".1.3.6.1.4.1.9";
+
+    private final Snmp4JValueFactory valueFactory = new Snmp4JValueFactory();
+
+    private Events events;
+    private EventConfDao eventConfDao;
+    private EventCreator eventCreator;
+
+    @Before
+    public void setUp() {
+        events = new Events();
+
+        // Depends on the host of the traps, but not for the enterprise id used below
+        final org.opennms.netmgt.xml.eventconf.Event byHost = definition("uei.opennms.org/test/byHost", OTHER_ENTERPRISE_ID, 6, 1);
+        byHost.getMask().addMaskelement(maskElement(Maskelement.TAG_HOST, "10.0.0.1"));
+        events.addEvent(byHost);
+
+        events.addEvent(definition("uei.opennms.org/test/identity", ENTERPRISE_ID, 6, 1));
+
+        final org.opennms.netmgt.xml.eventconf.Event byVarbind = definition("uei.opennms.org/test/byVarbind", ENTERPRISE_ID, 6, 2);
+        final Varbind varbind = new Varbind();
+        varbind.setVbnumber(1);
+        varbind.addVbvalue("1");
+        byVarbind.getMask().addVarbind(varbind);
+        events.addEvent(byVarbind);
+        events.addEvent(definition("uei.opennms.org/test/fallback", ENTERPRISE_ID, 6, 2));
+
+        final org.opennms.netmgt.xml.eventconf.Event discarded = definition("uei.opennms.org/test/discarded", ENTERPRISE_ID, 6, 3);
+        final Logmsg logmsg = new Logmsg();
+        logmsg.setDest(LogDestType.DISCARDTRAPS);
+        logmsg.setContent("discarded");
+        discarded.setLogmsg(logmsg);
+        events.addEvent(discarded);
+
+        events.initialize(new EnterpriseIdPartition(), new EventOrdering());
+
+        eventConfDao = mock(EventConfDao.class);
+        when(eventConfDao.getRootEvents()).thenAnswer(invocation -> events);
+        when(eventConfDao.findByEvent(any(Event.class))).thenAnswer(invocation -> events.findFirstMatchingEvent((Event)invocation.getArguments()[0]));
+
+        final InterfaceToNodeCache interfaceToNodeCache = mock(InterfaceToNodeCache.class);
+        when(interfaceToNodeCache.getFirstNodeId(anyString(), any(InetAddress.class))).thenReturn(Optional.empty());
+
+        eventCreator = new EventCreator(interfaceToNodeCache, eventConfDao, new TrapTemplateCache(eventConfDao, 100));
+    }
+
+    @Test
+    public void canResolveDefinitionsOncePerIdentity() {
+        final long hits = TrapSinkConsumer.trapdInstrumentation.getTemplateCacheHits();
+        assertEquals("uei.opennms.org/test/identity", createEvent(ENTERPRISE_ID, 6, 1, 1).getUei());
+        assertEquals("uei.opennms.org/test/identity", createEvent(ENTERPRISE_ID, 6, 1, 2).getUei());
+        assertEquals("uei.opennms.org/test/identity", createEvent(ENTERPRISE_ID, 6, 1, 3).getUei());
+
+        verify(eventConfDao, times(0)).findByEvent(any(Event.class));
+        assertEquals(hits + 2, TrapSinkConsumer.trapdInstrumentation.getTemplateCacheHits());
+    }
+
+    @Test
+    public void canLookupDefinitionsDependingOnVarbinds() {
+        assertEquals("uei.opennms.org/test/byVarbind", createEvent(ENTERPRISE_ID, 6, 2, 1).getUei());
+        assertEquals("uei.opennms.org/test/fallback", createEvent(ENTERPRISE_ID, 6, 2, 2).getUei());
+        assertEquals("uei.opennms.org/test/byVarbind", createEvent(ENTERPRISE_ID, 6, 2, 1).getUei());
+
+        verify(eventConfDao, times(3)).findByEvent(any(Event.class));
+    }
+
+    @Test
+    public void canResolveUnknownTraps() {
+        assertEquals("uei.opennms.org/default/trap", createEvent(ENTERPRISE_ID, 6, 99, 1).getUei());
+        assertEquals("uei.opennms.org/default/trap", createEvent(ENTERPRISE_ID, 6, 99, 1).getUei());
+        assertEquals("uei.opennms.org/default/trap", createEvent(OTHER_ENTERPRISE_ID, 6, 2, 1).getUei());
+
+        verify(eventConfDao, times(0)).findByEvent(any(Event.class));
+    }
+
+    @Test
+    public void canDiscardTraps() {
+        assertNull(createEvent(ENTERPRISE_ID, 6, 3, 1));
+        assertNull(createEvent(ENTERPRISE_ID, 6, 3, 1));
+    }
+
+    @Test
+    public void canResolveAgainAfterReload() {
+        assertEquals("uei.opennms.org/test/identity", createEvent(ENTERPRISE_ID, 6, 1, 1).getUei());
+
+        final Events reloaded = new Events();
+        reloaded.addEvent(definition("uei.opennms.org/test/reloaded", ENTERPRISE_ID, 6, 1));
+        reloaded.initialize(new EnterpriseIdPartition(), new EventOrdering());
+        events = reloaded;
+
+        assertEquals("uei.opennms.org/test/reloaded", createEvent(ENTERPRISE_ID, 6, 1, 1).getUei());
+    }
+
+    @Test
+    public void canEncodeVarbindsLikeSyntaxToEvent() {
+        final TrapTemplateCache cache = new TrapTemplateCache(eventConfDao, 100);
+        final TrapIdentityDTO trapIdentity = trapIdentity(ENTERPRISE_ID, 6, 1);
+
+        final SnmpObjId ifIndex = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.1");
+        final SnmpObjId macAddress = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.6");
+        final SnmpValue[] values = new SnmpValue[] {
+                valueFactory.getInt32(42),
+                valueFactory.getOctetString("text".getBytes()),
+                valueFactory.getOctetString(new byte[] { 0, 1, 2, 3, 4, 5 })
+        };
+
+        for (int i = 0; i < 2; i++) {
+            final TrapTemplateCache.TrapTemplate template = cache.getTemplate(trapIdentity);
+            assertSame(template, cache.getTemplate(trapIdentity));
+            for (final SnmpValue value : values) {
+                assertParmEquals(SyntaxToEvent.processSyntax(ifIndex.toString(), value), template.createParm(0, ifIndex, value));
+                assertParmEquals(SyntaxToEvent.processSyntax(macAddress.toString(), value), template.createParm(1, macAddress, value));
+                // Another OID at the same position
+                assertParmEquals(SyntaxToEvent.processSyntax(macAddress.toString(), value), template.createParm(0, macAddress, value));
+            }
+        }
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void canDisableCache() {
+        final TrapTemplateCache cache = new TrapTemplateCache(eventConfDao, 0);
+        final TrapIdentityDTO trapIdentity = trapIdentity(ENTERPRISE_ID, 6, 1);
+
+        final TrapTemplateCache.TrapTemplate template = cache.getTemplate(trapIdentity);
+        assertFalse(template.isResolved());
+        assertEquals("uei.opennms.org/test/identity", template.getEventConf(createEvent(ENTERPRISE_ID, 6, 1, 1), eventConfDao).getUei());
+        assertFalse(template.isResolved());
+        assertEquals(0, cache.size());
+        assertTrue(cache.getTemplate(trapIdentity) != template);
+    }
+
+    @Test
+    public void canLookupDefinitionsOnceFull() {
+        final TrapTemplateCache cache = new TrapTemplateCache(eventConfDao, 1);
+        final TrapIdentityDTO cached = trapIdentity(ENTERPRISE_ID, 6, 1);
+        final TrapTemplateCache.TrapTemplate template = cache.getTemplate(cached);
+        template.getEventConf(createEvent(ENTERPRISE_ID, 6, 1, 1), eventConfDao);
+        assertTrue(template.isResolved());
+        assertEquals(1, cache.size());
+
+        // Other identities are looked up with the DAO, rather than resolved for a single trap
+        for (int i = 0; i < 2; i++) {
+            final TrapTemplateCache.TrapTemplate uncached = cache.getTemplate(trapIdentity(ENTERPRISE_ID, 6, 99));
+            assertNull(uncached.getEventConf(createEvent(ENTERPRISE_ID, 6, 99, 1), eventConfDao));
+            assertFalse(uncached.isResolved());
+        }
+        verify(eventConfDao, times(2)).findByEvent(any(Event.class));
+
+        // The cached identity is still resolved without looking it up
+        assertSame(template, cache.getTemplate(cached));
+        assertEquals(1, cache.size());
+    }
+
+    private Event createEvent(String enterpriseId, int generic, int specific, int varbindValue) {
+        final TrapDTO trapDTO = new TrapDTO();
+        trapDTO.setAgentAddress(InetAddressUtils.addr("10.0.0.1"));
+        trapDTO.setCommunity("public");
+        trapDTO.setVersion("v1");
+        trapDTO.setCreationTime(System.currentTimeMillis());
+        trapDTO.setTrapIdentity(trapIdentity(enterpriseId, generic, specific));
+        trapDTO.getResults().add(new SnmpResult(SnmpObjId.get(".1.3.6.1.4.1.5813.1"), null, valueFactory.getInt32(varbindValue)));
+        return eventCreator.createEventFrom(trapDTO, null, null, InetAddressUtils.addr("10.0.0.1"));
+    }
+
+    private static TrapIdentityDTO trapIdentity(String enterpriseId, int generic, int specific) {
+        final TrapIdentityDTO trapIdentity = new TrapIdentityDTO();
+        trapIdentity.setEnterpriseId(enterpriseId);
+        trapIdentity.setGeneric(generic);
+        trapIdentity.setSpecific(specific);
+        return trapIdentity;
+    }
+
+    private static org.opennms.netmgt.xml.eventconf.Event definition(String uei, String enterpriseId, int generic, int specific) {
+        final Mask mask = new Mask();
+        mask.addMaskelement(maskElement(Maskelement.TAG_SNMP_EID, enterpriseId));
+        mask.addMaskelement(maskElement(Maskelement.TAG_SNMP_GENERIC, Integer.toString(generic)));
+        mask.addMaskelement(maskElement(Maskelement.TAG_SNMP_SPECIFIC, Integer.toString(specific)));
+
+        final org.opennms.netmgt.xml.eventconf.Event definition = new org.opennms.netmgt.xml.eventconf.Event();
+        definition.setUei(uei);
+        definition.setMask(mask);
+        return definition;
+    }
+
+    private static Maskelement maskElement(String name, String value) {
+        final Maskelement element = new Maskelement();
+        element.setMename(name);
+        element.addMevalue(value);
+        return element;
+    }
+
+    private static void assertParmEquals(Parm expected, Parm actual) {
+        assertEquals(expected.getParmName(), actual.getParmName());
+        assertEquals(expected.getValue().getType(), actual.getValue().getType());
+        assertEquals(expected.getValue().getEncoding(), actual.getValue().getEncoding());
+        assertEquals(expected.getValue().getContent(), actual.getValue().getContent());
+    }
+}
@@ -0,0 +1,457 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+import org.opennms.core.utils.IPLike;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.internal.matcher.DstAddressMatcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.FilterMatcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.Matcher;
+import org.opennms.netmgt.flows.classification.internal.matcher.SrcAddressMatcher;
+import org.opennms.netmgt.flows.classification.internal.value.PortValue;
+import org.opennms.netmgt.flows.classification.internal.value.StringValue;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocol;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RulePriorityComparator;
+
+/**
+ * Immutable, compiled representation of a rule set.
+ *
+ * All rules are sorted by priority once and identified by their position, so the lowest bit set in a bitmap always
+ * refers to the rule with the highest priority.
+ * For each dimension (protocol, src/dst port and src/dst address) the index holds a bitmap of the rules not
+ * constrained by that dimension and a lookup table from the concrete value to the (sparse) ids of the rules bound to it.
+ * Address patterns are compiled to bitmaps per octet value.
+ * Classifying a request intersects these per dimension, and only the surviving candidates have their remaining
+ * conditions (address patterns and exporter filters) verified, in priority order.
+ */
+public class RuleIndex {
+
+    public static final RuleIndex EMPTY = new RuleIndex(Collections.emptyList(), FilterService.NOOP);
+
+    private static final int[] NO_IDS = new int[0];
+    private static final Matcher[] NO_MATCHERS = new Matcher[0];
+
+    private final int size;
+    private final int words;
+    private final String[] names;
+    private final Matcher[][] verifiers;
+
+    private final long[] anyProtocol;
+    private final Map<Integer, long[]> protocols;
+    private final PortDimension srcPorts;
+    private final PortDimension dstPorts;
+    private final AddressDimension srcAddresses;
+    private final AddressDimension dstAddresses;
+
+    // One set of scratch bitmaps per thread to expand the sparse ids and address patterns without allocating
+    private final ThreadLocal<long[][]> scratch;
+
+    public RuleIndex(List<Rule> rules, FilterService filterService) {
+        Objects.requireNonNull(filterService);
+        final List<Rule> sortedRules = rules.stream()
+                .sorted(new RulePriorityComparator())
+                .collect(Collectors.toList());
+
+        this.size = sortedRules.size();
+        this.words = (size + Long.SIZE - 1) / Long.SIZE;
+        this.names = new String[size];
+        this.verifiers = new Matcher[size][];
+        this.anyProtocol = new long[words];
+        this.protocols = new HashMap<>();
+
+        final PortDimension.Builder srcPortBuilder = new PortDimension.Builder(words);
+        final PortDimension.Builder dstPortBuilder = new PortDimension.Builder(words);
+        final AddressDimension.Builder srcAddressBuilder = new AddressDimension.Builder(words);
+        final AddressDimension.Builder dstAddressBuilder = new AddressDimension.Builder(words);
+        final Map<Integer, List<Integer>> protocolIds = new HashMap<>();
+
+        for (int i=0; i<size; i++) {
+            final int id = i;
+            final Rule rule = sortedRules.get(id);
+            final List<Matcher> ruleVerifiers = new ArrayList<>();
+            names[id] = rule.getName();
+
+            if (rule.hasProtocolDefinition()) {
+                // Unknown protocols are ignored. If no protocol is left, the rule never matches and has no bit set
+                new StringValue(rule.getProtocol()).splitBy(",").stream()
+                        .map(p -> Protocols.getProtocol(p.getValue()))
+                        .filter(p -> p != null)
+                        .map(Protocol::getDecimal)
+                        .distinct()
+                        .forEach(decimal -> protocolIds.computeIfAbsent(decimal, key -> new ArrayList<>()).add(id));
+            } else {
+                set(anyProtocol, id);
+            }
+
+            if (rule.hasSrcPortDefinition()) {
+                srcPortBuilder.add(id, new PortValue(rule.getSrcPort()));
+            } else {
+                srcPortBuilder.addAny(id);
+            }
+            if (rule.hasDstPortDefinition()) {
+                dstPortBuilder.add(id, new PortValue(rule.getDstPort()));
+            } else {
+                dstPortBuilder.addAny(id);
+            }
+            if (srcAddressBuilder.add(id, rule.hasSrcAddressDefinition() ? rule.getSrcAddress() : null)) {
+                ruleVerifiers.add(new SrcAddressMatcher(rule.getSrcAddress()));
+            }
+            if (dstAddressBuilder.add(id, rule.hasDstAddressDefinition() ? rule.getDstAddress() : null)) {
+                ruleVerifiers.add(new DstAddressMatcher(rule.getDstAddress()));
+            }
+            if (rule.hasExportFilterDefinition()) {
+                ruleVerifiers.add(new FilterMatcher(rule.getExporterFilter(), filterService));
+            }
+            verifiers[id] = ruleVerifiers.isEmpty() ? NO_MATCHERS : ruleVerifiers.toArray(new Matcher[ruleVerifiers.size()]);
+        }
+
+        // Rules without a protocol apply to each protocol as well
+        protocolIds.forEach((decimal, ids) -> {
+            final long[] bitmap = Arrays.copyOf(anyProtocol, words);
+            ids.forEach(id -> set(bitmap, id));
+            protocols.put(decimal, bitmap);
+        });
+
+        this.srcPorts = srcPortBuilder.build();
+        this.dstPorts = dstPortBuilder.build();
+        this.srcAddresses = srcAddressBuilder.build();
+        this.dstAddresses = dstAddressBuilder.build();
+        this.scratch = ThreadLocal.withInitial(() -> new long[6][words]);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String classify(ClassificationRequest request) {
+        if (size == 0) {
+            return null;
+        }
+        final long[] protocolBitmap = request.getProtocol() == null
+                ? anyProtocol
+                : protocols.getOrDefault(request.getProtocol().getDecimal(), anyProtocol);
+        final int[] srcPortIds = srcPorts.get(request.getSrcPort());
+        final int[] dstPortIds = dstPorts.get(request.getDstPort());
+        final int[] srcAddressIds = srcAddresses.get(request.getSrcAddress());
+        final int[] dstAddressIds = dstAddresses.get(request.getDstAddress());
+
+        final long[][] bitmaps = scratch.get();
+        final long[] srcPortBitmap = bitmaps[0];
+        final long[] dstPortBitmap = bitmaps[1];
+        final long[] srcAddressBitmap = bitmaps[2];
+        final long[] dstAddressBitmap = bitmaps[3];
+        final long[] srcPatternBitmap = bitmaps[4];
+        final long[] dstPatternBitmap = bitmaps[5];
+        srcAddresses.getPatterns(request.getSrcAddress(), srcPatternBitmap);
+        dstAddresses.getPatterns(request.getDstAddress(), dstPatternBitmap);
+        setAll(srcPortBitmap, srcPortIds);
+        setAll(dstPortBitmap, dstPortIds);
+        setAll(srcAddressBitmap, srcAddressIds);
+        setAll(dstAddressBitmap, dstAddressIds);
+        try {
+            for (int i=0; i<words; i++) {
+                long candidates = protocolBitmap[i]
+                        & (srcPorts.any[i] | srcPortBitmap[i])
+                        & (dstPorts.any[i] | dstPortBitmap[i])
+                        & (srcAddresses.any[i] | srcAddressBitmap[i] | srcPatternBitmap[i])
+                        & (dstAddresses.any[i] | dstAddressBitmap[i] | dstPatternBitmap[i]);
+                while (candidates != 0) {
+                    final int id = i * Long.SIZE + Long.numberOfTrailingZeros(candidates);
+                    if (verify(id, request)) {
+                        return names[id];
+                    }
+                    candidates &= candidates - 1;
+                }
+            }
+            return null;
+        } finally {
+            // Leave the scratch bitmaps empty for the next lookup
+            clearAll(srcPortBitmap, srcPortIds);
+            clearAll(dstPortBitmap, dstPortIds);
+            clearAll(srcAddressBitmap, srcAddressIds);
+            clearAll(dstAddressBitmap, dstAddressIds);
+        }
+    }
+
+    private boolean verify(int id, ClassificationRequest request) {
+        for (Matcher matcher : verifiers[id]) {
+            if (!matcher.matches(request)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void set(long[] bitmap, int id) {
+        bitmap[id / Long.SIZE] |= 1L << id;
+    }
+
+    private static void setAll(long[] bitmap, int[] ids) {
+        for (int id : ids) {
+            bitmap[id / Long.SIZE] |= 1L << id;
+        }
+    }
+
+    // The scratch bitmaps only contain the given ids, so the affected words can be reset entirely
+    private static void clearAll(long[] bitmap, int[] ids) {
+        for (int id : ids) {
+            bitmap[id / Long.SIZE] = 0;
+        }
+    }
+
+    private static int[] toArray(List<Integer> ids) {
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Rule ids per port. Ports sharing the same rules share the same array.
+    private static class PortDimension {
+        private final long[] any;
+        private final int[][] ports;
+
+        private PortDimension(long[] any, int[][] ports) {
+            this.any = any;
+            this.ports = ports;
+        }
+
+        private int[] get(int port) {
+            if (port < Rule.MIN_PORT_VALUE || port >= Rule.MAX_PORT_VALUE) {
+                return NO_IDS;
+            }
+            return ports[port];
+        }
+
+        private static class Builder {
+            private final long[] any;
+            private final List<List<Integer>> ports = new ArrayList<>(Collections.nCopies(Rule.MAX_PORT_VALUE, null));
+
+            private Builder(int words) {
+                this.any = new long[words];
+            }
+
+            private void addAny(int id) {
+                set(any, id);
+            }
+
+            private void add(int id, PortValue portValue) {
+                for (Integer port : portValue.getPorts()) {
+                    if (ports.get(port) == null) {
+                        ports.set(port, new ArrayList<>());
+                    }
+                    ports.get(port).add(id);
+                }
+            }
+
+            private PortDimension build() {
+                final Map<List<Integer>, int[]> interned = new HashMap<>();
+                final int[][] result = new int[Rule.MAX_PORT_VALUE][];
+                for (int port = Rule.MIN_PORT_VALUE; port < Rule.MAX_PORT_VALUE; port++) {
+                    final List<Integer> ids = ports.get(port);
+                    result[port] = ids == null ? NO_IDS : interned.computeIfAbsent(ids, RuleIndex::toArray);
+                }
+                return new PortDimension(any, result);
+            }
+        }
+    }
+
+    // Rule ids per concrete address.
+    // Rules with a wildcard pattern can not be looked up directly. IPv4 patterns are compiled to a bitmap per octet
+    // and value instead, so only the patterns matching the address are considered. The remaining patterns are
+    // considered for each address and, as all patterns, verified for the remaining candidates.
+    private static class AddressDimension {
+        private static final int OCTETS = 4;
+
+        private final long[] any;
+        private final Map<String, int[]> addresses;
+        private final long[] patterns;
+        private final long[] uncompiledPatterns;
+        private final long[][][] octets;
+
+        private AddressDimension(long[] any, Map<String, int[]> addresses, long[] patterns, long[] uncompiledPatterns, long[][][] octets) {
+            this.any = any;
+            this.addresses = addresses;
+            this.patterns = patterns;
+            this.uncompiledPatterns = uncompiledPatterns;
+            this.octets = octets;
+        }
+
+        private int[] get(String address) {
+            if (address == null) {
+                return NO_IDS;
+            }
+            return addresses.getOrDefault(address, NO_IDS);
+        }
+
+        // Writes the bitmap of the patterns which may match the given address to target
+        private void getPatterns(String address, long[] target) {
+            if (address == null) {
+                Arrays.fill(target, 0);
+                return;
+            }
+            final long packed = parseIpv4(address);
+            if (packed == -1) {
+                // Not a plain IPv4 address, let the verification decide
+                System.arraycopy(patterns, 0, target, 0, target.length);
+                return;
+            }
+            final long[] first = octets[0][(int) (packed >>> 24) & 0xFF];
+            final long[] second = octets[1][(int) (packed >>> 16) & 0xFF];
+            final long[] third = octets[2][(int) (packed >>> 8) & 0xFF];
+            final long[] fourth = octets[3][(int) packed & 0xFF];
+            for (int i=0; i<target.length; i++) {
+                target[i] = (first[i] & second[i] & third[i] & fourth[i]) | uncompiledPatterns[i];
+            }
+        }
+
+        // Parses a dotted quad without allocating. Returns the octets packed into the lower 32 bits, or -1
+        private static long parseIpv4(String address) {
+            long result = 0;
+            int octet = 0;
+            int digits = 0;
+            int fields = 0;
+            for (int i=0; i<address.length(); i++) {
+                final char c = address.charAt(i);
+                if (c >= '0' && c <= '9') {
+                    octet = octet * 10 + (c - '0');
+                    if (++digits > 3 || octet > 255) {
+                        return -1;
+                    }
+                } else if (c == '.' && digits > 0 && fields < OCTETS - 1) {
+                    result = (result << 8) | octet;
+                    fields++;
+                    octet = 0;
+                    digits = 0;
+                } else {
+                    return -1;
+                }
+            }
+            if (digits == 0 || fields != OCTETS - 1) {
+                return -1;
+            }
+            return (result << 8) | octet;
+        }
+
+        private static class Builder {
+            private final int words;
+            private final long[] any;
+            private final Map<String, List<Integer>> addresses = new HashMap<>();
+            private final long[] patterns;
+            private final long[] uncompiledPatterns;
+            private final BitSet[][] octets = new BitSet[OCTETS][256];
+
+            private Builder(int words) {
+                this.words = words;
+                this.any = new long[words];
+                this.patterns = new long[words];
+                this.uncompiledPatterns = new long[words];
+                for (BitSet[] values : octets) {
+                    for (int value=0; value<values.length; value++) {
+                        values[value] = new BitSet();
+                    }
+                }
+            }
+
+            /**
+             * @return true if the address is a pattern, which must be verified for each candidate
+             */
+            private boolean add(int id, String address) {
+                final StringValue value = new StringValue(address);
+                if (value.isNullOrEmpty() || value.isWildcard()) {
+                    set(any, id);
+                    return false;
+                }
+                if (value.hasWildcard()) {
+                    set(patterns, id);
+                    if (!compile(id, address)) {
+                        set(uncompiledPatterns, id);
+                    }
+                    return true;
+                }
+                addresses.computeIfAbsent(address, key -> new ArrayList<>()).add(id);
+                return false;
+            }
+
+            private boolean compile(int id, String pattern) {
+                if (pattern.indexOf(':') != -1) {
+                    return false;
+                }
+                final String[] fields = pattern.split("\\.", 0);
+                if (fields.length != OCTETS) {
+                    return false;
+                }
+                final boolean[][] matches = new boolean[OCTETS][256];
+                try {
+                    for (int octet=0; octet<OCTETS; octet++) {
+                        for (int value=0; value<256; value++) {
+                            matches[octet][value] = IPLike.matchNumericListOrRange(Integer.toString(value), fields[octet]);
+                        }
+                    }
+                } catch (RuntimeException ex) {
+                    // Malformed pattern, leave it to the verification
+                    return false;
+                }
+                for (int octet=0; octet<OCTETS; octet++) {
+                    for (int value=0; value<256; value++) {
+                        if (matches[octet][value]) {
+                            octets[octet][value].set(id);
+                        }
+                    }
+                }
+                return true;
+            }
+
+            private AddressDimension build() {
+                final Map<String, int[]> result = new HashMap<>(addresses.size());
+                addresses.forEach((address, ids) -> result.put(address, toArray(ids)));
+
+                // Most values share the same rules, so share the bitmaps as well
+                final Map<BitSet, long[]> interned = new HashMap<>();
+                final long[][][] octetBitmaps = new long[OCTETS][256][];
+                for (int octet=0; octet<OCTETS; octet++) {
+                    for (int value=0; value<256; value++) {
+                        octetBitmaps[octet][value] = interned.computeIfAbsent(octets[octet][value], bitSet -> Arrays.copyOf(bitSet.toLongArray(), words));
+                    }
+                }
+                return new AddressDimension(any, result, patterns, uncompiledPatterns, octetBitmaps);
+            }
+        }
+    }
+}
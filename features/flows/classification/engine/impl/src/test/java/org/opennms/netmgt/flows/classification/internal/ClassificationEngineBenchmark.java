@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRequestBuilder;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocol;
+import org.opennms.netmgt.flows.classification.persistence.api.ProtocolType;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+
+/**
+ * Measures the classification of flows against a generated rule set, which mostly consists of
+ * port/protocol rules (like the pre-defined rules) mixed with address, port range and exporter filter rules.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassificationEngineBenchmark {
+
+    private static final Protocol[] PROTOCOLS = { ProtocolType.TCP, ProtocolType.UDP, ProtocolType.ICMP };
+
+    @Param({"10000"})
+    public int ruleCount;
+
+    private ClassificationEngine engine;
+
+    private ClassificationRequest[] requests;
+
+    private int index;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        final List<Rule> rules = generateRules(random, ruleCount);
+        engine = new DefaultClassificationEngine(() -> rules, FilterService.NOOP);
+        requests = generateRequests(random, 4096).toArray(new ClassificationRequest[0]);
+    }
+
+    @Benchmark
+    public void classify(Blackhole blackhole) {
+        blackhole.consume(engine.classify(requests[index++ & (requests.length - 1)]));
+    }
+
+    @Benchmark
+    public void reload() {
+        engine.reload();
+    }
+
+    public static List<Rule> generateRules(Random random, int count) {
+        final List<Rule> rules = new ArrayList<>(count);
+        for (int i=0; i<count; i++) {
+            final RuleBuilder builder = new RuleBuilder().withName("rule-" + i);
+            final int kind = random.nextInt(100);
+            if (kind < 75) {
+                builder.withDstPort(randomPort(random));
+            } else if (kind < 80) {
+                final int start = randomPort(random);
+                builder.withDstPort(start + "-" + Math.min(Rule.MAX_PORT_VALUE - 1, start + 1 + random.nextInt(100)));
+            } else if (kind < 85) {
+                builder.withDstPort(randomPort(random) + "," + randomPort(random) + "," + randomPort(random));
+            } else if (kind < 90) {
+                builder.withDstAddress(randomAddress(random)).withDstPort(randomPort(random));
+            } else if (kind < 93) {
+                builder.withDstAddress(randomAddressPattern(random));
+            } else if (kind < 96) {
+                builder.withSrcAddress(randomAddress(random)).withSrcPort(randomPort(random));
+            } else if (kind < 98) {
+                builder.withSrcPort(randomPort(random)).withDstPort(randomPort(random));
+            } else {
+                builder.withExporterFilter("categoryName == 'Routers'");
+            }
+            switch (random.nextInt(4)) {
+                case 0: builder.withProtocol("tcp"); break;
+                case 1: builder.withProtocol("udp"); break;
+                case 2: builder.withProtocol("tcp,udp"); break;
+                default: break;
+            }
+            rules.add(builder.build());
+        }
+        return rules;
+    }
+
+    public static List<ClassificationRequest> generateRequests(Random random, int count) {
+        final List<ClassificationRequest> requests = new ArrayList<>(count);
+        for (int i=0; i<count; i++) {
+            requests.add(new ClassificationRequestBuilder()
+                    .withLocation("Default")
+                    .withProtocol(PROTOCOLS[random.nextInt(PROTOCOLS.length)])
+                    .withSrcAddress(randomAddress(random))
+                    .withSrcPort(randomPort(random))
+                    .withDstAddress(randomAddress(random))
+                    .withDstPort(randomPort(random))
+                    .withExporterAddress("127.0.0.1")
+                    .build());
+        }
+        return requests;
+    }
+
+    // Use a small address and port space, to get a reasonable amount of matches
+    private static int randomPort(Random random) {
+        return random.nextInt(2) == 0 ? random.nextInt(1024) : random.nextInt(Rule.MAX_PORT_VALUE);
+    }
+
+    private static String randomAddress(Random random) {
+        return "10." + random.nextInt(8) + "." + random.nextInt(4) + "." + random.nextInt(16);
+    }
+
+    private static String randomAddressPattern(Random random) {
+        switch (random.nextInt(3)) {
+            case 0: return "10." + random.nextInt(8) + ".*.*";
+            case 1: return "10.*." + random.nextInt(4) + "." + random.nextInt(8) + "-" + (8 + random.nextInt(8));
+            default: return "10." + random.nextInt(4) + "," + (4 + random.nextInt(4)) + ".*.*";
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(ClassificationEngineBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -28,9 +28,15 @@
 
 package org.opennms.netmgt.flows.classification.internal;
 
+import static org.hamcrest.Matchers.greaterThan;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
 
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import org.junit.Test;
@@ -40,9 +46,12 @@ import org.opennms.netmgt.flows.classification.ClassificationEngine;
 import org.opennms.netmgt.flows.classification.ClassificationRequest;
 import org.opennms.netmgt.flows.classification.ClassificationRequestBuilder;
 import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.exception.InvalidFilterException;
+import org.opennms.netmgt.flows.classification.internal.classifier.CombinedClassifier;
 import org.opennms.netmgt.flows.classification.persistence.api.ProtocolType;
 import org.opennms.netmgt.flows.classification.persistence.api.Rule;
 import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+import org.opennms.netmgt.flows.classification.persistence.api.RulePriorityComparator;
 
 import com.google.common.collect.Lists;
 
@@ -167,4 +176,72 @@ public class DefaultClassificationEngineTest {
     public void verifyInitializesQuickly() {
         new DefaultClassificationEngine(() -> Lists.newArrayList(new Rule("Test", "0-10000")), FilterService.NOOP);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void verifyAddressPatterns() {
+        final ClassificationEngine engine = new DefaultClassificationEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("PATTERN").withDstAddress("10.1,3.*.1-5").build(),
+                new RuleBuilder().withName("V6").withDstAddress("2001:db8:*:*:*:*:*:1").build()
+        ), FilterService.NOOP);
+
+        assertEquals("PATTERN", engine.classify(new ClassificationRequest("Default", 80, "10.1.9.1", ProtocolType.TCP)));
+        assertEquals("PATTERN", engine.classify(new ClassificationRequest("Default", 80, "10.3.255.005", ProtocolType.TCP)));
+        assertEquals(null, engine.classify(new ClassificationRequest("Default", 80, "10.2.9.1", ProtocolType.TCP)));
+        assertEquals(null, engine.classify(new ClassificationRequest("Default", 80, "10.1.9.6", ProtocolType.TCP)));
+        assertEquals("V6", engine.classify(new ClassificationRequest("Default", 80, "2001:db8:0:0:0:0:0:1", ProtocolType.TCP)));
+        assertEquals(null, engine.classify(new ClassificationRequest("Default", 80, "2001:db8:0:0:0:0:0:2", ProtocolType.TCP)));
+    }
+
+    @Test
+    public void verifyReloadReplacesRules() {
+        final List<Rule> rules = Lists.newArrayList(new RuleBuilder().withName("HTTP").withDstPort(80).build());
+        final ClassificationEngine engine = new DefaultClassificationEngine(() -> new ArrayList<>(rules), FilterService.NOOP);
+        final ClassificationRequest request = new ClassificationRequest("Default", 80, "127.0.0.1", ProtocolType.TCP);
+        assertEquals("HTTP", engine.classify(request));
+
+        rules.clear();
+        rules.add(new RuleBuilder().withName("WWW").withDstPort(80).withProtocol("tcp").build());
+        assertEquals("HTTP", engine.classify(request));
+
+        engine.reload();
+        assertEquals("WWW", engine.classify(request));
+        assertEquals(null, engine.classify(new ClassificationRequest("Default", 80, "127.0.0.1", ProtocolType.UDP)));
+    }
+
+    // Verifies the compiled rules yield the same result as evaluating each rule in priority order
+    @Test
+    public void verifyCompiledRulesMatchRulesInPriorityOrder() {
+        final FilterService filterService = new FilterService() {
+            @Override
+            public void validate(String filterExpression) throws InvalidFilterException {
+            }
+
+            @Override
+            public boolean matches(String address, String filterExpression) {
+                return "10.0.0.1".equals(address);
+            }
+        };
+        final Random random = new Random(1337);
+        final List<Rule> rules = ClassificationEngineBenchmark.generateRules(random, 2000);
+        final ClassificationEngine engine = new DefaultClassificationEngine(() -> rules, filterService);
+        final List<CombinedClassifier> classifiers = rules.stream()
+                .sorted(new RulePriorityComparator())
+                .map(rule -> new CombinedClassifier(rule, filterService))
+                .collect(Collectors.toList());
+
+        int matches = 0;
+        for (ClassificationRequest request : ClassificationEngineBenchmark.generateRequests(random, 5000)) {
+            request.setExporterAddress(random.nextBoolean() ? "10.0.0.1" : "10.0.0.2");
+            final String expected = classifiers.stream()
+                    .map(classifier -> classifier.classify(request))
+                    .filter(Objects::nonNull)
+                    .findFirst()
+                    .orElse(null);
+            assertEquals(expected, engine.classify(request));
+            if (expected != null) {
+                matches++;
+            }
+        }
+        assertThat(matches, greaterThan(1000));
+    }
+}
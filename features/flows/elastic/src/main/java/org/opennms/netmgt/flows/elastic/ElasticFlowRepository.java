@@ -37,6 +37,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
@@ -129,8 +130,15 @@ public class ElasticFlowRepository implements FlowRepository {
      */
     private final Histogram flowsPerLog;
 
+    /**
+     * Time taken to execute a search request
+     */
+    private final Timer searchTimer;
+
     private final IndexSelector indexSelector;
 
+    private RollupCache rollupCache;
+
     public ElasticFlowRepository(MetricRegistry metricRegistry, JestClient jestClient, IndexStrategy indexStrategy,
                                  DocumentEnricher documentEnricher, ClassificationEngine classificationEngine,
                                  int bulkRetryCount, long maxFlowDurationMs) {
@@ -146,34 +154,50 @@ public class ElasticFlowRepository implements FlowRepository {
         logEnrichementTimer = metricRegistry.timer("logEnrichment");
         logPersistingTimer = metricRegistry.timer("logPersisting");
         flowsPerLog = metricRegistry.histogram("flowsPerLog");
+        searchTimer = metricRegistry.timer("search");
+    }
+
+    /**
+     * Sets the cache used to answer Top-N queries for recent time ranges. If not set or disabled, Elasticsearch is always queried.
+     */
+    public void setRollupCache(RollupCache rollupCache) {
+        this.rollupCache = rollupCache;
     }
 
     @Override
     public void persist(final Collection<Flow> flows, final FlowSource source) throws FlowException {
         LOG.debug("Converting {} flows from {} to flow documents.", flows.size(), source);
-        final List<FlowDocument> documents;
-        try (final Timer.Context ctx = logConversionTimer.time()) {
-            documents = flows.stream()
-                    .map(FlowDocument::from)
-                    .collect(Collectors.toList());
-        }
-        enrichAndPersistFlows(documents, source);
+        enrichAndPersistFlows(convert(flows), source);
     }
 
     public void enrichAndPersistFlows(final List<FlowDocument> flowDocuments, FlowSource source) throws FlowException {
-        // Track the number of flows per call
-        flowsPerLog.update(flowDocuments.size());
-
         if (flowDocuments.isEmpty()) {
             LOG.info("Received empty flows. Nothing to do.");
             return;
         }
+        enrich(flowDocuments, source);
+        index(flowDocuments);
+    }
 
+    protected List<FlowDocument> convert(final Collection<Flow> flows) {
+        // Track the number of flows per call
+        flowsPerLog.update(flows.size());
+
+        try (final Timer.Context ctx = logConversionTimer.time()) {
+            return flows.stream()
+                    .map(FlowDocument::from)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    protected void enrich(final List<FlowDocument> flowDocuments, final FlowSource source) {
         LOG.debug("Enriching {} flow documents.", flowDocuments.size());
         try (final Timer.Context ctx = logEnrichementTimer.time()) {
             documentEnricher.enrich(flowDocuments, source);
         }
+    }
 
+    protected void index(final List<FlowDocument> flowDocuments) throws FlowException {
         LOG.debug("Persisting {} flow documents.", flowDocuments.size());
         try (final Timer.Context ctx = logPersistingTimer.time()) {
             final BulkRequest<FlowDocument> bulkRequest = new BulkRequest<>(client, flowDocuments, (documents) -> {
@@ -198,6 +222,9 @@ public class ElasticFlowRepository implements FlowRepository {
             }
             flowsPersistedMeter.mark(flowDocuments.size());
         }
+        if (rollupCache != null && rollupCache.isEnabled()) {
+            rollupCache.add(flowDocuments);
+        }
     }
 
     @Override
@@ -377,6 +404,13 @@ public class ElasticFlowRepository implements FlowRepository {
     private CompletableFuture<Table<Directional<String>, Long, Double>> getSeriesFromTopN(int N, long step, String groupByTerm,
                                                                                           String keyForMissingTerm, boolean includeOther,
                                                                                           List<Filter> filters) {
+        if (rollupCache != null && rollupCache.isEnabled()) {
+            final Optional<Table<Directional<String>, Long, Double>> cached = rollupCache.getSeries(N, step, groupByTerm,
+                    keyForMissingTerm, includeOther, filters);
+            if (cached.isPresent()) {
+                return CompletableFuture.completedFuture(cached.get());
+            }
+        }
         return getTopN(N, groupByTerm, keyForMissingTerm, filters)
                 .thenCompose((topN) -> getSeriesFromTopN(topN, step, groupByTerm, keyForMissingTerm, includeOther, filters));
     }
@@ -483,6 +517,12 @@ public class ElasticFlowRepository implements FlowRepository {
     }
 
     private CompletableFuture<List<TrafficSummary<String>>> getTotalBytesFromTopN(int N, String groupByTerm, String keyForMissingTerm, boolean includeOther, List<Filter> filters) {
+        if (rollupCache != null && rollupCache.isEnabled()) {
+            final Optional<List<TrafficSummary<String>>> cached = rollupCache.getTopN(N, groupByTerm, keyForMissingTerm, includeOther, filters);
+            if (cached.isPresent()) {
+                return CompletableFuture.completedFuture(cached.get());
+            }
+        }
         return getTopN(N, groupByTerm, keyForMissingTerm, filters)
                 .thenCompose((topN) -> getTotalBytesFromTopN(topN, groupByTerm, keyForMissingTerm, includeOther, filters));
     }
@@ -540,9 +580,11 @@ public class ElasticFlowRepository implements FlowRepository {
 
     private <T extends JestResult> CompletableFuture<T> executeAsync(Action<T> action) {
         final CompletableFuture<T> future = new CompletableFuture<>();
+        final Timer.Context ctx = searchTimer.time();
         client.executeAsync(action, new JestResultHandler<T>() {
             @Override
             public void completed(T result) {
+                ctx.stop();
                 if (!result.isSucceeded()) {
                     future.completeExceptionally(new Exception(result.getErrorMessage()));
                 } else {
@@ -551,6 +593,7 @@ public class ElasticFlowRepository implements FlowRepository {
             }
             @Override
             public void failed(Exception ex) {
+                ctx.stop();
                 future.completeExceptionally(ex);
             }
         });
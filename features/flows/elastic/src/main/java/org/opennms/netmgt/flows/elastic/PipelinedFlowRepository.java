@@ -0,0 +1,385 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.flows.api.Conversation;
+import org.opennms.netmgt.flows.api.Directional;
+import org.opennms.netmgt.flows.api.Flow;
+import org.opennms.netmgt.flows.api.FlowException;
+import org.opennms.netmgt.flows.api.FlowRepository;
+import org.opennms.netmgt.flows.api.FlowSource;
+import org.opennms.netmgt.flows.api.TrafficSummary;
+import org.opennms.netmgt.flows.filter.api.Filter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Table;
+
+/**
+ * This {@link FlowRepository} wrapper decouples persisting flows from the caller.
+ *
+ * Flows pass through three stages: conversion, enrichment (which includes the classification) and indexing.
+ * Each stage has its own workers and is fed by a bounded queue. Enriched documents are collected into bulk requests,
+ * which are sent once {@link #setBulkSize(int)} documents are available or {@link #setBulkFlushMs(long)} elapsed.
+ * Up to {@link #setIndexingThreads(int)} bulk requests are in flight at a time.
+ *
+ * If a queue is full, the stage feeding it blocks. This eventually blocks the caller of
+ * {@link #persist(Collection, FlowSource)} and applies backpressure to the sink consumer.
+ *
+ * If the pipeline is disabled, flows are persisted by the delegate on the calling thread.
+ */
+public class PipelinedFlowRepository implements FlowRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedFlowRepository.class);
+
+    private final ElasticFlowRepository delegate;
+
+    private final MetricRegistry metricRegistry;
+
+    private boolean enabled = false;
+
+    private int queueSize = 1000;
+
+    private int conversionThreads = 1;
+
+    private int enrichmentThreads = 4;
+
+    private int indexingThreads = 4;
+
+    private int bulkSize = 1000;
+
+    private long bulkFlushMs = 500;
+
+    private Stage<Batch<Collection<Flow>>> conversionStage;
+
+    private Stage<Batch<List<FlowDocument>>> enrichmentStage;
+
+    private Stage<List<FlowDocument>> indexingStage;
+
+    private ScheduledExecutorService flushExecutor;
+
+    private final Object pendingLock = new Object();
+
+    private List<FlowDocument> pendingDocuments = new ArrayList<>();
+
+    /**
+     * Number of documents per bulk request
+     */
+    private final Histogram flowsPerBulk;
+
+    private volatile boolean running = false;
+
+    public PipelinedFlowRepository(MetricRegistry metricRegistry, ElasticFlowRepository delegate) {
+        this.metricRegistry = Objects.requireNonNull(metricRegistry);
+        this.delegate = Objects.requireNonNull(delegate);
+        this.flowsPerBulk = metricRegistry.histogram(MetricRegistry.name("pipeline", "flowsPerBulk"));
+    }
+
+    public synchronized void start() {
+        if (!enabled || running) {
+            return;
+        }
+        LOG.info("Starting flow pipeline with {} conversion, {} enrichment and {} indexing threads.",
+                conversionThreads, enrichmentThreads, indexingThreads);
+
+        indexingStage = new Stage<>("indexing", indexingThreads, documents -> {
+            flowsPerBulk.update(documents.size());
+            delegate.index(documents);
+        });
+        enrichmentStage = new Stage<>("enrichment", enrichmentThreads, batch -> {
+            delegate.enrich(batch.item, batch.source);
+            collect(batch.item);
+        });
+        conversionStage = new Stage<>("conversion", conversionThreads, batch -> {
+            final List<FlowDocument> documents = delegate.convert(batch.item);
+            enrichmentStage.put(new Batch<>(documents, batch.source));
+        });
+
+        flushExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> new Thread(runnable, "flow-pipeline-flush"));
+        flushExecutor.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, bulkFlushMs, bulkFlushMs, TimeUnit.MILLISECONDS);
+
+        indexingStage.start();
+        enrichmentStage.start();
+        conversionStage.start();
+        running = true;
+    }
+
+    /**
+     * Stops accepting flows and drains the stages in order, so that all flows accepted so far are persisted.
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LOG.info("Stopping flow pipeline.");
+
+        conversionStage.drain();
+        enrichmentStage.drain();
+        flushExecutor.shutdownNow();
+        flush();
+        indexingStage.drain();
+        LOG.info("Flow pipeline stopped.");
+    }
+
+    @Override
+    public void persist(Collection<Flow> flows, FlowSource source) throws FlowException {
+        if (!running || flows.isEmpty()) {
+            delegate.persist(flows, source);
+            return;
+        }
+        try {
+            conversionStage.put(new Batch<>(flows, source));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FlowException("Interrupted while waiting to enqueue flows", e);
+        }
+    }
+
+    // Adds the documents to the pending bulk and hands over all full bulks to the indexing stage
+    private void collect(List<FlowDocument> documents) throws InterruptedException {
+        final List<List<FlowDocument>> bulks = new ArrayList<>();
+        synchronized (pendingLock) {
+            pendingDocuments.addAll(documents);
+            while (pendingDocuments.size() >= bulkSize) {
+                final List<FlowDocument> bulkDocuments = pendingDocuments.subList(0, bulkSize);
+                bulks.add(new ArrayList<>(bulkDocuments));
+                bulkDocuments.clear();
+            }
+        }
+        for (List<FlowDocument> bulk : bulks) {
+            indexingStage.put(bulk);
+        }
+    }
+
+    // Hands over the pending documents to the indexing stage, regardless of their number
+    private void flush() throws InterruptedException {
+        final List<FlowDocument> bulk;
+        synchronized (pendingLock) {
+            if (pendingDocuments.isEmpty()) {
+                return;
+            }
+            bulk = pendingDocuments;
+            pendingDocuments = new ArrayList<>();
+        }
+        indexingStage.put(bulk);
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    public void setConversionThreads(int conversionThreads) {
+        this.conversionThreads = conversionThreads;
+    }
+
+    public void setEnrichmentThreads(int enrichmentThreads) {
+        this.enrichmentThreads = enrichmentThreads;
+    }
+
+    public void setIndexingThreads(int indexingThreads) {
+        this.indexingThreads = indexingThreads;
+    }
+
+    public void setBulkSize(int bulkSize) {
+        this.bulkSize = bulkSize;
+    }
+
+    public void setBulkFlushMs(long bulkFlushMs) {
+        this.bulkFlushMs = bulkFlushMs;
+    }
+
+    @Override
+    public CompletableFuture<Long> getFlowCount(List<Filter> filters) {
+        return delegate.getFlowCount(filters);
+    }
+
+    @Override
+    public CompletableFuture<Set<Integer>> getExportersWithFlows(int limit, List<Filter> filters) {
+        return delegate.getExportersWithFlows(limit, filters);
+    }
+
+    @Override
+    public CompletableFuture<Set<Integer>> getSnmpInterfaceIdsWithFlows(int limit, List<Filter> filters) {
+        return delegate.getSnmpInterfaceIdsWithFlows(limit, filters);
+    }
+
+    @Override
+    public CompletableFuture<List<TrafficSummary<String>>> getTopNApplications(int N, boolean includeOther, List<Filter> filters) {
+        return delegate.getTopNApplications(N, includeOther, filters);
+    }
+
+    @Override
+    public CompletableFuture<Table<Directional<String>, Long, Double>> getTopNApplicationsSeries(int N, long step, boolean includeOther, List<Filter> filters) {
+        return delegate.getTopNApplicationsSeries(N, step, includeOther, filters);
+    }
+
+    @Override
+    public CompletableFuture<List<TrafficSummary<Conversation>>> getTopNConversations(int N, List<Filter> filters) {
+        return delegate.getTopNConversations(N, filters);
+    }
+
+    @Override
+    public CompletableFuture<Table<Directional<Conversation>, Long, Double>> getTopNConversationsSeries(int N, long step, List<Filter> filters) {
+        return delegate.getTopNConversationsSeries(N, step, filters);
+    }
+
+    private static class Batch<T> {
+        private final T item;
+        private final FlowSource source;
+
+        private Batch(T item, FlowSource source) {
+            this.item = item;
+            this.source = source;
+        }
+    }
+
+    private interface Handler<T> {
+        void handle(T item) throws FlowException, InterruptedException;
+    }
+
+    // An item waiting in a queue, remembers when it was enqueued
+    private static class Entry<T> {
+        private final T item;
+        private final long enqueuedNanos = System.nanoTime();
+
+        private Entry(T item) {
+            this.item = item;
+        }
+    }
+
+    private class Stage<T> {
+        private final String name;
+        private final BlockingQueue<Entry<T>> queue;
+        private final List<Thread> workers = new ArrayList<>();
+        private final Handler<T> handler;
+
+        /**
+         * Time an item waited in the queue of the stage
+         */
+        private final Timer queueTimer;
+
+        /**
+         * Time taken to process an item, including handing it over to the next stage
+         */
+        private final Timer processingTimer;
+
+        /**
+         * Items which could not be processed
+         */
+        private final Meter failedMeter;
+
+        private volatile boolean draining = false;
+
+        private Stage(String name, int threads, Handler<T> handler) {
+            this.name = Objects.requireNonNull(name);
+            this.handler = Objects.requireNonNull(handler);
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            this.queueTimer = metricRegistry.timer(MetricRegistry.name("pipeline", name, "queueTime"));
+            this.processingTimer = metricRegistry.timer(MetricRegistry.name("pipeline", name, "processingTime"));
+            this.failedMeter = metricRegistry.meter(MetricRegistry.name("pipeline", name, "failed"));
+            metricRegistry.remove(MetricRegistry.name("pipeline", name, "queueSize"));
+            metricRegistry.register(MetricRegistry.name("pipeline", name, "queueSize"), (Gauge<Integer>) queue::size);
+            for (int i = 0; i < threads; i++) {
+                workers.add(new Thread(this::work, "flow-pipeline-" + name + "-" + i));
+            }
+        }
+
+        private void start() {
+            workers.forEach(Thread::start);
+        }
+
+        private void put(T item) throws InterruptedException {
+            queue.put(new Entry<>(item));
+        }
+
+        private void work() {
+            while (true) {
+                final Entry<T> entry;
+                try {
+                    entry = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (entry == null) {
+                    if (draining) {
+                        return;
+                    }
+                    continue;
+                }
+                queueTimer.update(System.nanoTime() - entry.enqueuedNanos, TimeUnit.NANOSECONDS);
+                try (final Timer.Context ctx = processingTimer.time()) {
+                    handler.handle(entry.item);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (Exception e) {
+                    failedMeter.mark();
+                    LOG.error("Failed to process flows in {} stage: {}", name, e.getMessage(), e);
+                }
+            }
+        }
+
+        // Waits until all queued items are processed and the workers have terminated
+        private void drain() throws InterruptedException {
+            draining = true;
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+    }
+}
@@ -0,0 +1,469 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.opennms.netmgt.flows.api.Directional;
+import org.opennms.netmgt.flows.api.TrafficSummary;
+import org.opennms.netmgt.flows.filter.api.ExporterNodeFilter;
+import org.opennms.netmgt.flows.filter.api.Filter;
+import org.opennms.netmgt.flows.filter.api.FilterVisitor;
+import org.opennms.netmgt.flows.filter.api.NodeCriteria;
+import org.opennms.netmgt.flows.filter.api.SnmpInterfaceIdFilter;
+import org.opennms.netmgt.flows.filter.api.TimeRangeFilter;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableTable;
+import com.google.common.collect.Table;
+
+/**
+ * Keeps per-minute traffic totals of the recently persisted flows, to answer Top-N and series queries
+ * for recent time ranges without querying Elasticsearch.
+ *
+ * The bytes of each flow are distributed proportionally over the minutes between its first and last switched time
+ * (multiplied by the sampling interval, if any), as done by the proportional_sum aggregation.
+ * The totals are kept per minute, exporter, input interface, direction and application or conversation in a ring
+ * of {@link RollupTable}s. Minutes older than the retention time are overwritten.
+ *
+ * A query can only be answered, if all minutes of the queried range are retained and have been tracked completely,
+ * i.e. no flows which ended within these minutes were persisted before the cache was created.
+ * The queried range is extended to whole minutes and series are only supported for steps of whole minutes.
+ * In all other cases, no result is returned and the caller has to fall back to Elasticsearch.
+ */
+public class RollupCache {
+
+    private static final long MINUTE_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final String APPLICATION_TERM = "netflow.application";
+
+    private static final String CONVERSATION_TERM = "netflow.convo_key";
+
+    // Used for exporters and interfaces which are not known
+    private static final int UNKNOWN = -1;
+
+    // Used for filters referring to a node which is not known, to match nothing
+    private static final int NONE = -2;
+
+    private final Clock clock;
+
+    private final int retentionMinutes;
+
+    private final Slot[] slots;
+
+    // Flows ending in earlier minutes may have been persisted before the cache existed
+    private final long firstCompleteMinute;
+
+    private final Map<String, Integer> nodeIdsByForeignId = new ConcurrentHashMap<>();
+
+    private final Meter hitsMeter;
+
+    private final Meter missesMeter;
+
+    /**
+     * Time taken to answer a query from the cache
+     */
+    private final Timer queryTimer;
+
+    private boolean enabled = true;
+
+    public RollupCache(MetricRegistry metricRegistry, int retentionMinutes, int maxRowsPerMinute) {
+        this(metricRegistry, retentionMinutes, maxRowsPerMinute, Clock.systemUTC());
+    }
+
+    protected RollupCache(MetricRegistry metricRegistry, int retentionMinutes, int maxRowsPerMinute, Clock clock) {
+        if (retentionMinutes < 1) {
+            throw new IllegalArgumentException("Retention must be at least one minute");
+        }
+        this.clock = Objects.requireNonNull(clock);
+        this.retentionMinutes = retentionMinutes;
+        // Keep some minutes ahead, as exporters' clocks may be slightly off
+        this.slots = new Slot[retentionMinutes + 5];
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(maxRowsPerMinute);
+        }
+        this.firstCompleteMinute = currentMinute() + 1;
+
+        hitsMeter = metricRegistry.meter(MetricRegistry.name("rollup", "hits"));
+        missesMeter = metricRegistry.meter(MetricRegistry.name("rollup", "misses"));
+        queryTimer = metricRegistry.timer(MetricRegistry.name("rollup", "queryTime"));
+        metricRegistry.remove(MetricRegistry.name("rollup", "hitRatio"));
+        metricRegistry.register(MetricRegistry.name("rollup", "hitRatio"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(hitsMeter.getCount(), hitsMeter.getCount() + missesMeter.getCount());
+            }
+        });
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void add(List<FlowDocument> documents) {
+        final long oldestMinute = currentMinute() - retentionMinutes;
+        for (FlowDocument document : documents) {
+            if (document.getBytes() == null || document.getFirstSwitched() == null || document.getLastSwitched() == null) {
+                continue;
+            }
+            final NodeDocument exporterNode = document.getNodeExporter();
+            final int exporter = exporterNode != null && exporterNode.getNodeId() != null ? exporterNode.getNodeId() : UNKNOWN;
+            if (exporterNode != null && exporterNode.getForeignSource() != null && exporterNode.getForeignId() != null && exporter != UNKNOWN) {
+                nodeIdsByForeignId.put(toForeignId(exporterNode.getForeignSource(), exporterNode.getForeignId()), exporter);
+            }
+            final int ifIndex = document.getInputSnmp() != null ? document.getInputSnmp() : UNKNOWN;
+            final boolean ingress = document.getDirection() != Direction.EGRESS;
+            final double multiplier = document.getSamplingInterval() != null && document.getSamplingInterval() > 0 ? document.getSamplingInterval() : 1;
+            final double bytes = document.getBytes() * multiplier;
+
+            final long firstSwitched = document.getFirstSwitched();
+            final long lastSwitched = Math.max(firstSwitched, document.getLastSwitched());
+            final long duration = lastSwitched - firstSwitched;
+            for (long minute = Math.floorDiv(firstSwitched, MINUTE_MS); minute <= Math.floorDiv(lastSwitched, MINUTE_MS); minute++) {
+                if (minute < oldestMinute) {
+                    continue;
+                }
+                final double value;
+                if (duration == 0) {
+                    value = bytes;
+                } else {
+                    final long overlap = Math.min(lastSwitched, (minute + 1) * MINUTE_MS) - Math.max(firstSwitched, minute * MINUTE_MS);
+                    value = bytes * overlap / duration;
+                }
+                final Slot slot = slots[slotIndex(minute)];
+                synchronized (slot) {
+                    if (slot.minute < minute) {
+                        slot.reset(minute);
+                    } else if (slot.minute > minute) {
+                        // Already evicted
+                        continue;
+                    }
+                    slot.applications.add(exporter, ifIndex, ingress, document.getApplication(), value);
+                    if (document.getConvoKey() != null) {
+                        slot.conversations.add(exporter, ifIndex, ingress, document.getConvoKey(), value);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the traffic of the Top N terms and, if requested, of all other terms summarized as "Other".
+     */
+    public Optional<List<TrafficSummary<String>>> getTopN(int N, String groupByTerm, String keyForMissingTerm,
+                                                          boolean includeOther, List<Filter> filters) {
+        try (Timer.Context ctx = queryTimer.time()) {
+            final Optional<Query> query = Query.from(filters, this);
+            if (!query.isPresent()) {
+                missesMeter.mark();
+                return Optional.empty();
+            }
+            final long start = query.get().start;
+            final long end = Math.max(query.get().start + 1, query.get().end);
+            final Optional<Map<String, Totals>> totals = aggregate(groupByTerm, keyForMissingTerm, query.get(), start, end, end - start);
+            if (!totals.isPresent()) {
+                missesMeter.mark();
+                return Optional.empty();
+            }
+            hitsMeter.mark();
+
+            final List<String> topN = getTopN(N, totals.get());
+            final List<TrafficSummary<String>> summaries = new ArrayList<>(topN.size() + 1);
+            for (String term : topN) {
+                final Totals termTotals = totals.get().remove(term);
+                final TrafficSummary<String> summary = new TrafficSummary<>(term);
+                summary.setBytesIn((long) termTotals.sumIn());
+                summary.setBytesOut((long) termTotals.sumOut());
+                summaries.add(summary);
+            }
+            if (includeOther) {
+                final TrafficSummary<String> other = new TrafficSummary<>(ElasticFlowRepository.OTHER_APPLICATION_NAME);
+                other.setBytesIn((long) totals.get().values().stream().mapToDouble(Totals::sumIn).sum());
+                other.setBytesOut((long) totals.get().values().stream().mapToDouble(Totals::sumOut).sum());
+                summaries.add(other);
+            }
+            return Optional.of(summaries);
+        }
+    }
+
+    /**
+     * Returns the traffic of the Top N terms per step and, if requested, of all other terms summarized as "Other".
+     */
+    public Optional<Table<Directional<String>, Long, Double>> getSeries(int N, long step, String groupByTerm, String keyForMissingTerm,
+                                                                        boolean includeOther, List<Filter> filters) {
+        try (Timer.Context ctx = queryTimer.time()) {
+            final Optional<Query> query = Query.from(filters, this);
+            if (!query.isPresent() || step < MINUTE_MS || step % MINUTE_MS != 0) {
+                missesMeter.mark();
+                return Optional.empty();
+            }
+            final Optional<Map<String, Totals>> totals = aggregate(groupByTerm, keyForMissingTerm, query.get(), query.get().start, query.get().end, step);
+            if (!totals.isPresent()) {
+                missesMeter.mark();
+                return Optional.empty();
+            }
+            hitsMeter.mark();
+
+            final long firstStep = Math.floorDiv(query.get().start, step) * step;
+            final List<String> topN = getTopN(N, totals.get());
+            final ImmutableTable.Builder<Directional<String>, Long, Double> builder = ImmutableTable.builder();
+            for (String term : topN) {
+                putSeries(builder, term, totals.get().remove(term), firstStep, step);
+            }
+            if (includeOther && !totals.get().isEmpty()) {
+                final Totals other = new Totals(totals.get().values().iterator().next().in.length);
+                totals.get().values().forEach(other::addAll);
+                putSeries(builder, ElasticFlowRepository.OTHER_APPLICATION_NAME, other, firstStep, step);
+            }
+            return Optional.of(TableUtils.sortTableByRowKeys(builder.build(), topN));
+        }
+    }
+
+    private static void putSeries(ImmutableTable.Builder<Directional<String>, Long, Double> builder, String term, Totals totals, long firstStep, long step) {
+        if (totals.hasIn) {
+            for (int i = 0; i < totals.in.length; i++) {
+                builder.put(new Directional<>(term, true), firstStep + i * step, totals.in[i]);
+            }
+        }
+        if (totals.hasOut) {
+            for (int i = 0; i < totals.out.length; i++) {
+                builder.put(new Directional<>(term, false), firstStep + i * step, totals.out[i]);
+            }
+        }
+    }
+
+    private static List<String> getTopN(int N, Map<String, Totals> totals) {
+        return totals.entrySet().stream()
+                .sorted(Comparator.comparingDouble((Map.Entry<String, Totals> e) -> e.getValue().sumIn() + e.getValue().sumOut())
+                        .reversed()
+                        .thenComparing(Map.Entry::getKey))
+                .limit(Math.max(0, N))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+
+    // Sums up the traffic of the minutes in [start, end) per term and step, or nothing if the range is not cached
+    private Optional<Map<String, Totals>> aggregate(String groupByTerm, String keyForMissingTerm, Query query, long start, long end, long step) {
+        final boolean conversations;
+        if (APPLICATION_TERM.equals(groupByTerm)) {
+            conversations = false;
+        } else if (CONVERSATION_TERM.equals(groupByTerm)) {
+            conversations = true;
+        } else {
+            return Optional.empty();
+        }
+
+        final long firstMinute = Math.floorDiv(start, MINUTE_MS);
+        final long lastMinute = Math.floorDiv(end - 1, MINUTE_MS);
+        final long currentMinute = currentMinute();
+        if (end <= start || firstMinute < firstCompleteMinute || firstMinute <= currentMinute - retentionMinutes || lastMinute > currentMinute) {
+            return Optional.empty();
+        }
+
+        final long firstStep = Math.floorDiv(start, step) * step;
+        final int steps = (int) ((Math.floorDiv(end - 1, step) * step - firstStep) / step) + 1;
+        final Map<String, Totals> totals = new HashMap<>();
+        for (long minute = firstMinute; minute <= lastMinute; minute++) {
+            final int stepIndex = (int) ((Math.floorDiv(minute * MINUTE_MS, step) * step - firstStep) / step);
+            final Slot slot = slots[slotIndex(minute)];
+            synchronized (slot) {
+                if (slot.minute > minute) {
+                    // Evicted while querying
+                    return Optional.empty();
+                } else if (slot.minute < minute) {
+                    // No traffic
+                    continue;
+                }
+                final RollupTable table = conversations ? slot.conversations : slot.applications;
+                if (table.isOverflow()) {
+                    return Optional.empty();
+                }
+                for (int row = 0; row < table.size(); row++) {
+                    if (!query.matches(table.getExporter(row), table.getIfIndex(row))) {
+                        continue;
+                    }
+                    final String term = table.getTerm(row) != null ? table.getTerm(row) : keyForMissingTerm;
+                    if (term == null) {
+                        continue;
+                    }
+                    totals.computeIfAbsent(term, key -> new Totals(steps)).add(table.isIngress(row), stepIndex, table.getBytes(row));
+                }
+            }
+        }
+        return Optional.of(totals);
+    }
+
+    private long currentMinute() {
+        return Math.floorDiv(clock.millis(), MINUTE_MS);
+    }
+
+    private int slotIndex(long minute) {
+        return (int) Math.floorMod(minute, (long) slots.length);
+    }
+
+    private static String toForeignId(String foreignSource, String foreignId) {
+        return foreignSource + ":" + foreignId;
+    }
+
+    private static class Slot {
+        private long minute = Long.MIN_VALUE;
+        private final RollupTable applications;
+        private final RollupTable conversations;
+
+        private Slot(int maxRows) {
+            applications = new RollupTable(maxRows);
+            conversations = new RollupTable(maxRows);
+        }
+
+        private void reset(long minute) {
+            this.minute = minute;
+            applications.clear();
+            conversations.clear();
+        }
+    }
+
+    private static class Totals {
+        private final double[] in;
+        private final double[] out;
+        private boolean hasIn;
+        private boolean hasOut;
+
+        private Totals(int steps) {
+            in = new double[steps];
+            out = new double[steps];
+        }
+
+        private void add(boolean ingress, int step, double bytes) {
+            if (ingress) {
+                in[step] += bytes;
+                hasIn = true;
+            } else {
+                out[step] += bytes;
+                hasOut = true;
+            }
+        }
+
+        private void addAll(Totals other) {
+            for (int i = 0; i < in.length; i++) {
+                in[i] += other.in[i];
+                out[i] += other.out[i];
+            }
+            hasIn |= other.hasIn;
+            hasOut |= other.hasOut;
+        }
+
+        private double sumIn() {
+            double sum = 0;
+            for (double value : in) {
+                sum += value;
+            }
+            return sum;
+        }
+
+        private double sumOut() {
+            double sum = 0;
+            for (double value : out) {
+                sum += value;
+            }
+            return sum;
+        }
+    }
+
+    // The supported filters, translated to the keys of the rollup tables
+    private static class Query {
+        private long start;
+        private long end;
+        private Integer exporter;
+        private Integer ifIndex;
+
+        private boolean matches(int rowExporter, int rowIfIndex) {
+            return (exporter == null || exporter == rowExporter) && (ifIndex == null || ifIndex == rowIfIndex);
+        }
+
+        private static Optional<Query> from(List<Filter> filters, RollupCache cache) {
+            final Query query = new Query();
+            boolean hasTimeRange = false;
+            for (Filter filter : filters) {
+                final boolean supported = filter.visit(new FilterVisitor<Boolean>() {
+                    @Override
+                    public Boolean visit(ExporterNodeFilter exporterNodeFilter) {
+                        if (query.exporter != null) {
+                            return false;
+                        }
+                        final NodeCriteria criteria = exporterNodeFilter.getCriteria();
+                        if (criteria.getNodeId() != null) {
+                            query.exporter = criteria.getNodeId();
+                        } else {
+                            query.exporter = cache.nodeIdsByForeignId.getOrDefault(toForeignId(criteria.getForeignSource(), criteria.getForeignId()), NONE);
+                        }
+                        return true;
+                    }
+
+                    @Override
+                    public Boolean visit(TimeRangeFilter timeRangeFilter) {
+                        query.start = timeRangeFilter.getStart();
+                        query.end = timeRangeFilter.getEnd();
+                        return true;
+                    }
+
+                    @Override
+                    public Boolean visit(SnmpInterfaceIdFilter snmpInterfaceIdFilter) {
+                        if (query.ifIndex != null) {
+                            return false;
+                        }
+                        query.ifIndex = snmpInterfaceIdFilter.getSnmpInterfaceId();
+                        return true;
+                    }
+                });
+                if (!supported) {
+                    return Optional.empty();
+                }
+                hasTimeRange |= filter instanceof TimeRangeFilter;
+            }
+            return hasTimeRange ? Optional.of(query) : Optional.empty();
+        }
+    }
+}
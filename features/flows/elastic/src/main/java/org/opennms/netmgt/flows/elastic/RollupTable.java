@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Traffic totals of a single minute, keyed by exporter, interface, direction and term (application or conversation).
+ *
+ * The rows are stored column-wise in primitive arrays and located through an open addressing hash index,
+ * so adding traffic to an existing row does not allocate.
+ */
+class RollupTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int maxRows;
+
+    private int size;
+
+    private int[] exporters = new int[INITIAL_CAPACITY];
+
+    private int[] ifIndexes = new int[INITIAL_CAPACITY];
+
+    private boolean[] ingress = new boolean[INITIAL_CAPACITY];
+
+    private String[] terms = new String[INITIAL_CAPACITY];
+
+    private double[] bytes = new double[INITIAL_CAPACITY];
+
+    // Row index + 1 of each hash slot, 0 marks an empty slot
+    private int[] index = new int[INITIAL_CAPACITY * 2];
+
+    // Set once rows had to be rejected, the totals are incomplete in that case
+    private boolean overflow;
+
+    RollupTable(int maxRows) {
+        this.maxRows = maxRows;
+    }
+
+    void add(int exporter, int ifIndex, boolean isIngress, String term, double value) {
+        final int mask = index.length - 1;
+        int slot = hash(exporter, ifIndex, isIngress, term) & mask;
+        while (index[slot] != 0) {
+            final int row = index[slot] - 1;
+            if (exporters[row] == exporter && ifIndexes[row] == ifIndex && ingress[row] == isIngress && Objects.equals(terms[row], term)) {
+                bytes[row] += value;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (size == maxRows) {
+            overflow = true;
+            return;
+        }
+        if (size == exporters.length) {
+            grow();
+            add(exporter, ifIndex, isIngress, term, value);
+            return;
+        }
+        final int row = size++;
+        exporters[row] = exporter;
+        ifIndexes[row] = ifIndex;
+        ingress[row] = isIngress;
+        terms[row] = term;
+        bytes[row] = value;
+        index[slot] = row + 1;
+    }
+
+    void clear() {
+        Arrays.fill(terms, 0, size, null);
+        Arrays.fill(index, 0);
+        size = 0;
+        overflow = false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isOverflow() {
+        return overflow;
+    }
+
+    int getExporter(int row) {
+        return exporters[row];
+    }
+
+    int getIfIndex(int row) {
+        return ifIndexes[row];
+    }
+
+    boolean isIngress(int row) {
+        return ingress[row];
+    }
+
+    String getTerm(int row) {
+        return terms[row];
+    }
+
+    double getBytes(int row) {
+        return bytes[row];
+    }
+
+    private void grow() {
+        final int capacity = exporters.length * 2;
+        exporters = Arrays.copyOf(exporters, capacity);
+        ifIndexes = Arrays.copyOf(ifIndexes, capacity);
+        ingress = Arrays.copyOf(ingress, capacity);
+        terms = Arrays.copyOf(terms, capacity);
+        bytes = Arrays.copyOf(bytes, capacity);
+
+        // Rebuild the index for the new capacity
+        index = new int[capacity * 2];
+        final int mask = index.length - 1;
+        for (int row = 0; row < size; row++) {
+            int slot = hash(exporters[row], ifIndexes[row], ingress[row], terms[row]) & mask;
+            while (index[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            index[slot] = row + 1;
+        }
+    }
+
+    private static int hash(int exporter, int ifIndex, boolean isIngress, String term) {
+        int hash = exporter;
+        hash = 31 * hash + ifIndex;
+        hash = 31 * hash + (isIngress ? 1 : 0);
+        hash = 31 * hash + (term != null ? term.hashCode() : 0);
+        // Spread the bits, as the low bits are used to select the slot
+        return hash ^ (hash >>> 16);
+    }
+}
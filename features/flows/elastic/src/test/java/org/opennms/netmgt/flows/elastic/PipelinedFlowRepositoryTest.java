@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.flows.api.Flow;
+import org.opennms.netmgt.flows.api.FlowSource;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class PipelinedFlowRepositoryTest {
+
+    private static final FlowSource SOURCE = new FlowSource("Default", "127.0.0.1");
+
+    private final MetricRegistry metricRegistry = new MetricRegistry();
+    private final List<Integer> bulkSizes = new CopyOnWriteArrayList<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private CountDownLatch indexLatch = new CountDownLatch(0);
+    private ElasticFlowRepository delegate;
+
+    @Before
+    public void setUp() throws Exception {
+        delegate = mock(ElasticFlowRepository.class);
+        doAnswer(invocation -> {
+            final Collection<?> flows = (Collection<?>) invocation.getArguments()[0];
+            return IntStream.range(0, flows.size()).mapToObj(i -> new FlowDocument()).collect(Collectors.toList());
+        }).when(delegate).convert(anyCollectionOf(Flow.class));
+        doAnswer(invocation -> {
+            final List<?> documents = (List<?>) invocation.getArguments()[0];
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                indexLatch.await();
+                bulkSizes.add(documents.size());
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return null;
+        }).when(delegate).index(any());
+    }
+
+    @Test
+    public void verifyFlowsAreIndexedInBulks() throws Exception {
+        final PipelinedFlowRepository repository = createRepository(100, 2);
+        repository.start();
+        for (int i = 0; i < 50; i++) {
+            repository.persist(flows(30), SOURCE);
+        }
+        repository.stop();
+
+        assertEquals(1500, bulkSizes.stream().mapToInt(Integer::intValue).sum());
+        assertThat(bulkSizes, everyItem(lessThanOrEqualTo(100)));
+        assertThat(bulkSizes.stream().filter(size -> size == 100).count(), greaterThan(10L));
+        verify(delegate, never()).persist(any(), any());
+
+        assertEquals(50, metricRegistry.timer("pipeline.conversion.queueTime").getCount());
+        assertEquals(50, metricRegistry.timer("pipeline.enrichment.processingTime").getCount());
+        assertEquals(bulkSizes.size(), metricRegistry.timer("pipeline.indexing.queueTime").getCount());
+        assertEquals(0, metricRegistry.meter("pipeline.indexing.failed").getCount());
+    }
+
+    @Test
+    public void verifyIncompleteBulksAreFlushed() throws Exception {
+        final PipelinedFlowRepository repository = createRepository(1000, 1);
+        repository.start();
+        try {
+            repository.persist(flows(10), SOURCE);
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (bulkSizes.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(Collections.singletonList(10), bulkSizes);
+        } finally {
+            repository.stop();
+        }
+    }
+
+    @Test
+    public void verifyBackpressure() throws Exception {
+        indexLatch = new CountDownLatch(1);
+        final PipelinedFlowRepository repository = createRepository(10, 2);
+        repository.setQueueSize(1);
+        repository.start();
+
+        // Indexing is blocked, so the queues fill up and eventually the caller is blocked
+        final AtomicInteger persisted = new AtomicInteger();
+        final Thread producer = new Thread(() -> {
+            for (int i = 0; i < 20; i++) {
+                try {
+                    repository.persist(flows(10), SOURCE);
+                    persisted.incrementAndGet();
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        producer.start();
+        producer.join(1000);
+        assertTrue(producer.isAlive());
+        assertThat(persisted.get(), lessThanOrEqualTo(10));
+        assertEquals(2, maxInFlight.get());
+
+        // Once indexing continues, all flows are persisted
+        indexLatch.countDown();
+        producer.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(producer.isAlive());
+        repository.stop();
+        assertEquals(200, bulkSizes.stream().mapToInt(Integer::intValue).sum());
+        assertThat(maxInFlight.get(), lessThanOrEqualTo(2));
+    }
+
+    @Test
+    public void verifyPersistsSynchronouslyIfDisabled() throws Exception {
+        final PipelinedFlowRepository repository = new PipelinedFlowRepository(metricRegistry, delegate);
+        repository.start();
+        final List<Flow> flows = flows(10);
+        repository.persist(flows, SOURCE);
+        verify(delegate).persist(flows, SOURCE);
+        repository.stop();
+    }
+
+    private PipelinedFlowRepository createRepository(int bulkSize, int indexingThreads) {
+        final PipelinedFlowRepository repository = new PipelinedFlowRepository(metricRegistry, delegate);
+        repository.setEnabled(true);
+        repository.setConversionThreads(2);
+        repository.setEnrichmentThreads(2);
+        repository.setIndexingThreads(indexingThreads);
+        repository.setBulkSize(bulkSize);
+        repository.setBulkFlushMs(50);
+        return repository;
+    }
+
+    private static List<Flow> flows(int count) {
+        return Collections.nCopies(count, mock(Flow.class));
+    }
+}
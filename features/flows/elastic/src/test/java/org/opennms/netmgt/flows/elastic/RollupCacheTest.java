@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.elastic;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.flows.api.Directional;
+import org.opennms.netmgt.flows.api.TrafficSummary;
+import org.opennms.netmgt.flows.filter.api.ExporterNodeFilter;
+import org.opennms.netmgt.flows.filter.api.Filter;
+import org.opennms.netmgt.flows.filter.api.NodeCriteria;
+import org.opennms.netmgt.flows.filter.api.SnmpInterfaceIdFilter;
+import org.opennms.netmgt.flows.filter.api.TimeRangeFilter;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.Table;
+
+public class RollupCacheTest {
+
+    private static final long MINUTE = 60000;
+
+    // Start in the middle of a minute, the cache covers all minutes after the current one
+    private static final long START = 1000 * MINUTE + MINUTE / 2;
+
+    private MutableClock clock;
+
+    private MetricRegistry metricRegistry;
+
+    private RollupCache cache;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock(START);
+        metricRegistry = new MetricRegistry();
+        cache = new RollupCache(metricRegistry, 10, 100, clock);
+    }
+
+    @Test
+    public void canGetTopNApplications() {
+        clock.set(1005 * MINUTE);
+        cache.add(Arrays.asList(
+                flow(1, 1, Direction.INGRESS, "http", 1001 * MINUTE, 1001 * MINUTE + 10, 100),
+                flow(1, 1, Direction.EGRESS, "http", 1001 * MINUTE, 1001 * MINUTE + 10, 50),
+                flow(1, 1, Direction.INGRESS, "https", 1002 * MINUTE, 1002 * MINUTE + 10, 200),
+                flow(1, 1, Direction.INGRESS, null, 1002 * MINUTE, 1002 * MINUTE + 10, 10),
+                flow(1, 1, Direction.INGRESS, "ssh", 1003 * MINUTE, 1003 * MINUTE + 10, 5)));
+
+        final List<TrafficSummary<String>> topN = cache.getTopN(2, "netflow.application",
+                ElasticFlowRepository.UNKNOWN_APPLICATION_NAME, true,
+                Collections.singletonList(new TimeRangeFilter(1001 * MINUTE, 1004 * MINUTE))).get();
+        assertThat(topN.stream().map(TrafficSummary::getEntity).collect(Collectors.toList()),
+                contains("https", "http", ElasticFlowRepository.OTHER_APPLICATION_NAME));
+        assertEquals(200, topN.get(0).getBytesIn());
+        assertEquals(100, topN.get(1).getBytesIn());
+        assertEquals(50, topN.get(1).getBytesOut());
+        // Unknown and ssh
+        assertEquals(15, topN.get(2).getBytesIn());
+        assertEquals(0, topN.get(2).getBytesOut());
+
+        // Without missing term, the flows without application are skipped
+        final List<TrafficSummary<String>> all = cache.getTopN(10, "netflow.application", null, false,
+                Collections.singletonList(new TimeRangeFilter(1001 * MINUTE, 1004 * MINUTE))).get();
+        assertThat(all.stream().map(TrafficSummary::getEntity).collect(Collectors.toList()), contains("https", "http", "ssh"));
+    }
+
+    @Test
+    public void canDistributeBytesOverMinutes() {
+        clock.set(1005 * MINUTE);
+        // 2 minutes long, sampled 1:10
+        final FlowDocument flow = flow(1, 1, Direction.INGRESS, "http", 1001 * MINUTE + MINUTE / 2, 1003 * MINUTE + MINUTE / 2, 40);
+        flow.setSamplingInterval(10.0);
+        cache.add(Collections.singletonList(flow));
+
+        final Table<Directional<String>, Long, Double> series = cache.getSeries(10, MINUTE, "netflow.application", null, false,
+                Collections.singletonList(new TimeRangeFilter(1001 * MINUTE, 1004 * MINUTE))).get();
+        assertEquals(1, series.rowKeySet().size());
+        final Directional<String> http = new Directional<>("http", true);
+        assertEquals(100, series.get(http, 1001 * MINUTE), 0.001);
+        assertEquals(200, series.get(http, 1002 * MINUTE), 0.001);
+        assertEquals(100, series.get(http, 1003 * MINUTE), 0.001);
+
+        // Larger steps sum up the minutes
+        final Table<Directional<String>, Long, Double> coarse = cache.getSeries(10, 2 * MINUTE, "netflow.application", null, false,
+                Collections.singletonList(new TimeRangeFilter(1002 * MINUTE, 1004 * MINUTE))).get();
+        assertEquals(300, coarse.get(http, 1002 * MINUTE), 0.001);
+        assertEquals(1, coarse.columnKeySet().size());
+    }
+
+    @Test
+    public void canGetSeriesWithOther() {
+        clock.set(1005 * MINUTE);
+        cache.add(Arrays.asList(
+                flow(1, 1, Direction.INGRESS, "http", 1001 * MINUTE, 1001 * MINUTE, 100),
+                flow(1, 1, Direction.EGRESS, "https", 1002 * MINUTE, 1002 * MINUTE, 200),
+                flow(1, 1, Direction.EGRESS, "ssh", 1002 * MINUTE, 1002 * MINUTE, 5)));
+
+        final Table<Directional<String>, Long, Double> series = cache.getSeries(2, MINUTE, "netflow.application", null, true,
+                Collections.singletonList(new TimeRangeFilter(1001 * MINUTE, 1003 * MINUTE))).get();
+        assertThat(series.rowKeySet(), contains(new Directional<>("https", false), new Directional<>("http", true),
+                new Directional<>(ElasticFlowRepository.OTHER_APPLICATION_NAME, false)));
+        assertThat(series.columnKeySet(), containsInAnyOrder(1001 * MINUTE, 1002 * MINUTE));
+        assertEquals(0, series.get(new Directional<>("https", false), 1001 * MINUTE), 0.001);
+        assertEquals(200, series.get(new Directional<>("https", false), 1002 * MINUTE), 0.001);
+        assertEquals(5, series.get(new Directional<>(ElasticFlowRepository.OTHER_APPLICATION_NAME, false), 1002 * MINUTE), 0.001);
+    }
+
+    @Test
+    public void canFilterByExporterAndInterface() {
+        clock.set(1005 * MINUTE);
+        cache.add(Arrays.asList(
+                flow(1, 1, Direction.INGRESS, "http", 1001 * MINUTE, 1001 * MINUTE, 100),
+                flow(1, 2, Direction.INGRESS, "http", 1001 * MINUTE, 1001 * MINUTE, 20),
+                flow(2, 1, Direction.INGRESS, "http", 1001 * MINUTE, 1001 * MINUTE, 3)));
+
+        assertEquals(123, topNHttpBytesIn());
+        assertEquals(120, topNHttpBytesIn(new ExporterNodeFilter(new NodeCriteria(1))));
+        assertEquals(103, topNHttpBytesIn(new SnmpInterfaceIdFilter(1)));
+        assertEquals(20, topNHttpBytesIn(new ExporterNodeFilter(new NodeCriteria(1)), new SnmpInterfaceIdFilter(2)));
+        assertEquals(3, topNHttpBytesIn(new ExporterNodeFilter(new NodeCriteria("test", "node2"))));
+        assertEquals(0, topNHttpBytesIn(new ExporterNodeFilter(new NodeCriteria("test", "unknown"))));
+    }
+
+    @Test
+    public void canAggregateConversations() {
+        clock.set(1005 * MINUTE);
+        final FlowDocument flow = flow(1, 1, Direction.INGRESS, "http", 1001 * MINUTE, 1001 * MINUTE, 100);
+        flow.setConvoKey("[\"Default\",\"10.0.0.1\",\"10.0.0.2\",6,\"http\"]");
+        cache.add(Arrays.asList(flow, flow(1, 1, Direction.INGRESS, "http", 1001 * MINUTE, 1001 * MINUTE, 100)));
+
+        final List<TrafficSummary<String>> topN = cache.getTopN(10, "netflow.convo_key", null, false,
+                Collections.singletonList(new TimeRangeFilter(1001 * MINUTE, 1002 * MINUTE))).get();
+        assertEquals(1, topN.size());
+        assertEquals(flow.getConvoKey(), topN.get(0).getEntity());
+        assertEquals(100, topN.get(0).getBytesIn());
+    }
+
+    @Test
+    public void fallsBackForUncachedRanges() {
+        clock.set(1005 * MINUTE);
+        cache.add(Collections.singletonList(flow(1, 1, Direction.INGRESS, "http", 1001 * MINUTE, 1001 * MINUTE, 100)));
+
+        // Before the cache was created
+        assertFalse(topN(new TimeRangeFilter(1000 * MINUTE, 1002 * MINUTE)).isPresent());
+        // In the future
+        assertFalse(topN(new TimeRangeFilter(1001 * MINUTE, 1007 * MINUTE)).isPresent());
+        // Unsupported term
+        assertFalse(cache.getTopN(10, "netflow.src_addr", null, false,
+                Collections.singletonList(new TimeRangeFilter(1001 * MINUTE, 1002 * MINUTE))).isPresent());
+        // Steps which are not whole minutes
+        assertFalse(cache.getSeries(10, MINUTE / 2, "netflow.application", null, false,
+                Collections.singletonList(new TimeRangeFilter(1001 * MINUTE, 1002 * MINUTE))).isPresent());
+        // Missing time range
+        assertFalse(cache.getTopN(10, "netflow.application", null, false, Collections.emptyList()).isPresent());
+        assertTrue(topN(new TimeRangeFilter(1001 * MINUTE, 1002 * MINUTE)).isPresent());
+
+        // Evicted
+        clock.set(1011 * MINUTE);
+        assertFalse(topN(new TimeRangeFilter(1001 * MINUTE, 1002 * MINUTE)).isPresent());
+        assertTrue(topN(new TimeRangeFilter(1002 * MINUTE, 1003 * MINUTE)).isPresent());
+
+        // Overwritten by later traffic
+        clock.set(1020 * MINUTE);
+        cache.add(Collections.singletonList(flow(1, 1, Direction.INGRESS, "http", 1016 * MINUTE, 1016 * MINUTE, 100)));
+        assertEquals(100, topN(new TimeRangeFilter(1016 * MINUTE, 1017 * MINUTE)).get().get(0).getBytesIn());
+    }
+
+    @Test
+    public void fallsBackOnOverflow() {
+        clock.set(1005 * MINUTE);
+        for (int i = 0; i < 101; i++) {
+            cache.add(Collections.singletonList(flow(1, i, Direction.INGRESS, "http", 1002 * MINUTE, 1002 * MINUTE, 1)));
+        }
+        cache.add(Collections.singletonList(flow(1, 1, Direction.INGRESS, "http", 1001 * MINUTE, 1001 * MINUTE, 1)));
+
+        assertTrue(topN(new TimeRangeFilter(1001 * MINUTE, 1002 * MINUTE)).isPresent());
+        assertFalse(topN(new TimeRangeFilter(1001 * MINUTE, 1003 * MINUTE)).isPresent());
+    }
+
+    @Test
+    public void canTrackHitRatio() {
+        clock.set(1005 * MINUTE);
+        topN(new TimeRangeFilter(1001 * MINUTE, 1002 * MINUTE));
+        topN(new TimeRangeFilter(1001 * MINUTE, 1002 * MINUTE));
+        topN(new TimeRangeFilter(1001 * MINUTE, 1002 * MINUTE));
+        topN(new TimeRangeFilter(900 * MINUTE, 1002 * MINUTE));
+
+        assertEquals(3, metricRegistry.meter("rollup.hits").getCount());
+        assertEquals(1, metricRegistry.meter("rollup.misses").getCount());
+        assertEquals(4, metricRegistry.timer("rollup.queryTime").getCount());
+        assertEquals(0.75, (Double) metricRegistry.getGauges().get("rollup.hitRatio").getValue(), 0.001);
+    }
+
+    private long topNHttpBytesIn(Filter... filters) {
+        final List<Filter> allFilters = new ArrayList<>(Arrays.asList(filters));
+        allFilters.add(new TimeRangeFilter(1001 * MINUTE, 1002 * MINUTE));
+        return cache.getTopN(10, "netflow.application", null, false, allFilters).get().stream()
+                .filter(summary -> "http".equals(summary.getEntity()))
+                .mapToLong(TrafficSummary::getBytesIn)
+                .sum();
+    }
+
+    private Optional<List<TrafficSummary<String>>> topN(TimeRangeFilter timeRangeFilter) {
+        return cache.getTopN(10, "netflow.application", null, false, Collections.singletonList(timeRangeFilter));
+    }
+
+    private static FlowDocument flow(int nodeId, int ifIndex, Direction direction, String application,
+                                     long firstSwitched, long lastSwitched, long bytes) {
+        final NodeDocument exporter = new NodeDocument();
+        exporter.setNodeId(nodeId);
+        exporter.setForeignSource("test");
+        exporter.setForeignId("node" + nodeId);
+
+        final FlowDocument flow = new FlowDocument();
+        flow.setNodeExporter(exporter);
+        flow.setInputSnmp(ifIndex);
+        flow.setDirection(direction);
+        flow.setApplication(application);
+        flow.setFirstSwitched(firstSwitched);
+        flow.setLastSwitched(lastSwitched);
+        flow.setBytes(bytes);
+        return flow;
+    }
+
+    private static class MutableClock extends Clock {
+        private long millis;
+
+        private MutableClock(long millis) {
+            this.millis = millis;
+        }
+
+        private void set(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+}
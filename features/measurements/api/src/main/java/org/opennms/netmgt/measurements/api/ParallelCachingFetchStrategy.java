@@ -0,0 +1,599 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.opennms.netmgt.measurements.model.Source;
+import org.opennms.netmgt.measurements.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Fetches the sources of a query in batches, in parallel, and caches the
+ * measurements fetched for every source.
+ *
+ * The sources that are not cached are fetched with a call to the delegate
+ * per resource. Queries missing the same sources concurrently share the
+ * fetches that are in flight.
+ *
+ * Unless a maximum number of rows is requested (in which case the resolution
+ * depends on the length of the window), the sources are fetched over windows
+ * aligned on time buckets, and the requested window is sliced from the cached
+ * measurements, so that the queries of dashboards refreshing the same sources
+ * over sliding windows share their fetches. Queries requesting a maximum number
+ * of rows only share the fetches of the exact same window.
+ *
+ * The measurements of windows reaching the present are cached until new
+ * samples can have been written, i.e. for a step at most, and no longer than
+ * the live TTL. Other windows are cached for the historical TTL.
+ *
+ * When the sources fetched in batches do not share the same timestamps (i.e.
+ * when they are stored with different steps), the query falls back to a
+ * single fetch of all the sources, as they would otherwise be consolidated
+ * differently.
+ */
+public class ParallelCachingFetchStrategy implements MeasurementFetchStrategy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelCachingFetchStrategy.class);
+
+    /**
+     * The number of threads fetching the sources, shared by all the queries. 0 fetches the sources on the calling thread.
+     */
+    public static final String THREADS_SYS_PROP = "org.opennms.netmgt.measurements.fetch.threads";
+
+    /**
+     * The maximum number of sources whose measurements are cached. 0 disables the cache.
+     */
+    public static final String CACHE_MAX_ENTRIES_SYS_PROP = "org.opennms.netmgt.measurements.cache.maxEntries";
+
+    /**
+     * The width of the time buckets on which the cached windows are aligned, in milliseconds.
+     */
+    public static final String CACHE_BUCKET_SYS_PROP = "org.opennms.netmgt.measurements.cache.bucket";
+
+    /**
+     * The maximum time the measurements of windows reaching the present are cached, in milliseconds.
+     */
+    public static final String CACHE_LIVE_TTL_SYS_PROP = "org.opennms.netmgt.measurements.cache.liveTtl";
+
+    /**
+     * The time the measurements of past windows are cached, in milliseconds.
+     */
+    public static final String CACHE_HISTORICAL_TTL_SYS_PROP = "org.opennms.netmgt.measurements.cache.historicalTtl";
+
+    private static final int DEFAULT_THREADS = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    private static final long DEFAULT_CACHE_MAX_ENTRIES = 10000;
+
+    private static final long DEFAULT_CACHE_BUCKET_MS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long DEFAULT_CACHE_LIVE_TTL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final long DEFAULT_CACHE_HISTORICAL_TTL_MS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * The JMX domain the metrics are exposed in.
+     */
+    public static final String JMX_DOMAIN = "org.opennms.netmgt.measurements";
+
+    /**
+     * Measurements metrics, shared by all the strategies, and exposed over JMX while
+     * at least one strategy is started.
+     */
+    private static final MetricRegistry METRICS = new MetricRegistry();
+
+    private static final Meter CACHE_HITS = METRICS.meter("cache.hits");
+
+    private static final Meter CACHE_MISSES = METRICS.meter("cache.misses");
+
+    private static final Timer FETCH_TIMER = METRICS.timer("fetch");
+
+    private static final Timer SOURCE_FETCH_TIMER = METRICS.timer("fetch.source");
+
+    private static final Object REPORTER_LOCK = new Object();
+
+    private static JmxReporter s_reporter;
+
+    private static int s_reporterUsers;
+
+    /**
+     * The executor is shared by all the strategies, as a service is created for every query by some callers.
+     */
+    private static final class ExecutorHolder {
+        private static final ExecutorService EXECUTOR = createExecutor(Integer.getInteger(THREADS_SYS_PROP, DEFAULT_THREADS));
+    }
+
+    private final MeasurementFetchStrategy m_delegate;
+
+    private final ExecutorService m_executor;
+
+    private final Cache<CacheKey, CachedResults> m_cache;
+
+    private final long m_bucket;
+
+    private final long m_liveTtl;
+
+    private final long m_historicalTtl;
+
+    private final LongSupplier m_clock;
+
+    private boolean m_started;
+
+    /**
+     * Creates a strategy configured from the system properties.
+     *
+     * @param delegate the strategy used to fetch the measurements
+     */
+    public ParallelCachingFetchStrategy(MeasurementFetchStrategy delegate) {
+        this(delegate,
+                Integer.getInteger(THREADS_SYS_PROP, DEFAULT_THREADS) > 0 ? ExecutorHolder.EXECUTOR : null,
+                Long.getLong(CACHE_MAX_ENTRIES_SYS_PROP, DEFAULT_CACHE_MAX_ENTRIES),
+                Long.getLong(CACHE_BUCKET_SYS_PROP, DEFAULT_CACHE_BUCKET_MS),
+                Long.getLong(CACHE_LIVE_TTL_SYS_PROP, DEFAULT_CACHE_LIVE_TTL_MS),
+                Long.getLong(CACHE_HISTORICAL_TTL_SYS_PROP, DEFAULT_CACHE_HISTORICAL_TTL_MS),
+                System::currentTimeMillis);
+    }
+
+    /**
+     * @param delegate the strategy used to fetch the measurements
+     * @param executor the executor fetching the sources, or null to fetch them on the calling thread
+     * @param maxEntries the maximum number of cached sources, 0 to disable the cache
+     * @param bucket the width of the time buckets, in milliseconds
+     * @param liveTtl the maximum time windows reaching the present are cached, in milliseconds
+     * @param historicalTtl the time past windows are cached, in milliseconds
+     * @param clock the current time, in milliseconds
+     */
+    ParallelCachingFetchStrategy(MeasurementFetchStrategy delegate, ExecutorService executor, long maxEntries,
+            long bucket, long liveTtl, long historicalTtl, LongSupplier clock) {
+        m_delegate = Preconditions.checkNotNull(delegate, "delegate argument");
+        m_executor = executor;
+        m_cache = maxEntries > 0 ? CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(Math.max(Math.max(liveTtl, historicalTtl), 1), TimeUnit.MILLISECONDS)
+                .build() : null;
+        m_bucket = Math.max(bucket, 1);
+        m_liveTtl = liveTtl;
+        m_historicalTtl = historicalTtl;
+        m_clock = Preconditions.checkNotNull(clock, "clock argument");
+    }
+
+    private static ExecutorService createExecutor(int threads) {
+        // Idle threads are stopped, so that they don't outlive the bundle when it is refreshed
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(Math.max(threads, 1), Math.max(threads, 1),
+                1, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), new ThreadFactoryBuilder()
+                .setNameFormat("measurements-fetch-%d")
+                .setDaemon(true)
+                .build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Exposes the metrics over JMX, until this strategy is stopped.
+     */
+    public void start() {
+        synchronized (REPORTER_LOCK) {
+            if (m_started) {
+                return;
+            }
+            m_started = true;
+            if (s_reporterUsers++ == 0) {
+                s_reporter = JmxReporter.forRegistry(METRICS).inDomain(JMX_DOMAIN).build();
+                s_reporter.start();
+            }
+        }
+    }
+
+    /**
+     * Stops exposing the metrics over JMX, once all the started strategies are stopped.
+     */
+    public void stop() {
+        synchronized (REPORTER_LOCK) {
+            if (!m_started) {
+                return;
+            }
+            m_started = false;
+            if (--s_reporterUsers == 0) {
+                s_reporter.stop();
+                s_reporter = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the measurements metrics.
+     *
+     * @return the registry holding the cache hits and misses, and the fetch timers
+     */
+    public static MetricRegistry getMetrics() {
+        return METRICS;
+    }
+
+    /**
+     * Removes all the cached measurements.
+     */
+    public void invalidateAll() {
+        if (m_cache != null) {
+            m_cache.invalidateAll();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public FetchResults fetch(long start, long end, long step, int maxrows, Long interval, Long heartbeat,
+            List<Source> sources, boolean relaxed) throws Exception {
+        if (m_cache == null && (m_executor == null || sources.size() < 2)) {
+            return m_delegate.fetch(start, end, step, maxrows, interval, heartbeat, sources, relaxed);
+        }
+
+        try (Timer.Context ctx = FETCH_TIMER.time()) {
+            // Group the sources that are not cached by resource
+            final long now = m_clock.getAsLong();
+            final CacheKey[] keys = new CacheKey[sources.size()];
+            final CachedResults[] fetched = new CachedResults[sources.size()];
+            final Map<String, Batch> batches = new LinkedHashMap<>();
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = new CacheKey(sources.get(i), start, end, step, maxrows, interval, heartbeat, relaxed, m_bucket);
+                fetched[i] = getCached(keys[i], now);
+                if (fetched[i] == null) {
+                    batches.computeIfAbsent(sources.get(i).getResourceId(), resourceId -> new Batch(now))
+                            .add(keys[i], sources.get(i));
+                }
+            }
+
+            // Fetch the batches in parallel
+            final List<Future<Map<CacheKey, CachedResults>>> futures = new ArrayList<>(batches.size());
+            final List<Map<CacheKey, CachedResults>> loaded = new ArrayList<>(batches.size());
+            for (Batch batch : batches.values()) {
+                if (m_executor != null && batches.size() > 1) {
+                    futures.add(m_executor.submit(batch::load));
+                } else {
+                    loaded.add(batch.load());
+                }
+            }
+            for (Future<Map<CacheKey, CachedResults>> future : futures) {
+                try {
+                    loaded.add(future.get());
+                } catch (ExecutionException e) {
+                    futures.forEach(f -> f.cancel(true));
+                    throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+                }
+            }
+            for (int i = 0; i < keys.length; i++) {
+                for (int k = 0; fetched[i] == null && k < loaded.size(); k++) {
+                    fetched[i] = loaded.get(k).get(keys[i]);
+                }
+            }
+
+            // A missing source fails the whole query, unless relaxed
+            for (CachedResults cached : fetched) {
+                if (cached.results == null) {
+                    return null;
+                }
+            }
+
+            // Merge the measurements of the sources
+            final FetchResults results = merge(start, end, step, sources, relaxed, fetched);
+            if (results == null) {
+                LOG.debug("The sources do not share the same timestamps, fetching them at once.");
+                return m_delegate.fetch(start, end, step, maxrows, interval, heartbeat, sources, relaxed);
+            }
+            return results;
+        }
+    }
+
+    private CachedResults getCached(CacheKey key, long now) {
+        if (m_cache == null) {
+            return null;
+        }
+        final CachedResults cached = m_cache.getIfPresent(key);
+        if (cached != null && cached.expires > now) {
+            CACHE_HITS.mark();
+            return cached;
+        }
+        if (cached != null) {
+            m_cache.asMap().remove(key, cached);
+        }
+        CACHE_MISSES.mark();
+        return null;
+    }
+
+    /**
+     * The sources of a resource that are fetched with a single call to the delegate.
+     */
+    private final class Batch {
+        private final long now;
+        private final Map<CacheKey, Source> sources = new LinkedHashMap<>();
+        private Map<CacheKey, CachedResults> fetched;
+
+        private Batch(long now) {
+            this.now = now;
+        }
+
+        private void add(CacheKey key, Source source) {
+            sources.putIfAbsent(key, source);
+        }
+
+        /**
+         * Loads the sources through the cache, so that concurrent queries missing
+         * the same sources wait for the fetch that is in flight.
+         */
+        private Map<CacheKey, CachedResults> load() throws Exception {
+            if (m_cache == null) {
+                return fetch();
+            }
+            final Map<CacheKey, CachedResults> loaded = new LinkedHashMap<>();
+            for (CacheKey key : sources.keySet()) {
+                final CachedResults cached;
+                try {
+                    cached = m_cache.get(key, () -> fetch().get(key));
+                } catch (ExecutionException | UncheckedExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+                }
+                if (cached.expires <= now) {
+                    // Not to be cached
+                    m_cache.asMap().remove(key, cached);
+                }
+                loaded.put(key, cached);
+            }
+            return loaded;
+        }
+
+        /**
+         * Fetches all the sources of the batch, once.
+         */
+        private synchronized Map<CacheKey, CachedResults> fetch() throws Exception {
+            if (fetched == null) {
+                fetched = fetchSources(new ArrayList<>(sources.keySet()), new ArrayList<>(sources.values()), now);
+            }
+            return fetched;
+        }
+    }
+
+    private Map<CacheKey, CachedResults> fetchSources(List<CacheKey> keys, List<Source> sources, long now) throws Exception {
+        // All the keys of a query share the same window
+        final CacheKey window = keys.get(0);
+        final FetchResults results;
+        try (Timer.Context ctx = SOURCE_FETCH_TIMER.time()) {
+            results = m_delegate.fetch(window.start, window.end, window.step, window.maxrows, window.interval,
+                    window.heartbeat, sources, window.relaxed);
+        }
+        // Windows reaching the present are updated as soon as the next samples are written
+        final long step = results != null ? results.getStep() : window.step;
+        final long ttl = window.end >= now - step ? Math.min(Math.max(step, 1), m_liveTtl) : m_historicalTtl;
+        final Map<CacheKey, CachedResults> fetched = Maps.newHashMap();
+        for (int i = 0; i < keys.size(); i++) {
+            final String label = sources.get(i).getLabel();
+            fetched.put(keys.get(i), new CachedResults(label, results != null ? split(results, label, sources) : null, now + ttl));
+        }
+        return fetched;
+    }
+
+    /**
+     * Extracts the measurements and constants of a source from the measurements fetched for a batch.
+     */
+    private static FetchResults split(FetchResults results, String label, List<Source> sources) {
+        final Map<String, double[]> columns = Maps.newHashMap();
+        final double[] values = results.getColumns().get(label);
+        if (values != null) {
+            columns.put(label, values);
+        }
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants: for (Map.Entry<String, Object> constant : results.getConstants().entrySet()) {
+            for (Source source : sources) {
+                if (!source.getLabel().equals(label) && constant.getKey().startsWith(source.getLabel() + ".")) {
+                    // A constant of another source
+                    continue constants;
+                }
+            }
+            constants.put(constant.getKey(), constant.getValue());
+        }
+        return new FetchResults(results.getTimestamps(), columns, results.getStep(), constants);
+    }
+
+    /**
+     * Merges the measurements of the sources, sliced to the requested window.
+     *
+     * @return the merged measurements, or null if the sources do not share the same timestamps
+     */
+    private static FetchResults merge(long start, long end, long step, List<Source> sources, boolean relaxed,
+            CachedResults[] fetched) {
+        final Map<String, Object> constants = Maps.newHashMap();
+        final Map<String, double[]> columns = Maps.newHashMap();
+        long[] timestamps = null;
+        long resultStep = step;
+        for (int i = 0; i < fetched.length; i++) {
+            final String label = sources.get(i).getLabel();
+            final FetchResults results = fetched[i].results;
+            fetched[i].copyConstants(label, constants);
+            final double[] values = results.getColumns().get(fetched[i].label);
+            if (values == null) {
+                continue;
+            }
+            // Slice the requested window from the aligned window
+            final long[] sourceTimestamps = results.getTimestamps();
+            final long sourceStep = Math.max(results.getStep(), 1);
+            final long from = Math.floorDiv(start, sourceStep) * sourceStep;
+            final long to = -Math.floorDiv(-end, sourceStep) * sourceStep;
+            int first = 0;
+            while (first < sourceTimestamps.length && sourceTimestamps[first] < from) {
+                first++;
+            }
+            int last = first;
+            while (last < sourceTimestamps.length && sourceTimestamps[last] <= to) {
+                last++;
+            }
+            final long[] sliced = Arrays.copyOfRange(sourceTimestamps, first, last);
+            if (timestamps == null) {
+                timestamps = sliced;
+                resultStep = results.getStep();
+            } else if (resultStep != results.getStep() || !Arrays.equals(timestamps, sliced)) {
+                return null;
+            }
+            columns.put(label, Arrays.copyOfRange(values, first, last));
+        }
+
+        if (timestamps == null) {
+            return Utils.createEmtpyFetchResults(step, constants);
+        }
+        final FetchResults results = new FetchResults(timestamps, columns, resultStep, constants);
+        if (relaxed) {
+            Utils.fillMissingValues(results, sources);
+        }
+        return results;
+    }
+
+    /**
+     * The measurements fetched for a source.
+     */
+    private static final class CachedResults {
+        private final String label;
+        private final FetchResults results;
+        private final long expires;
+
+        private CachedResults(String label, FetchResults results, long expires) {
+            this.label = label;
+            this.results = results;
+            this.expires = expires;
+        }
+
+        /**
+         * Copies the constants of the source, prefixed with the given label rather than the label it was fetched with.
+         */
+        private void copyConstants(String targetLabel, Map<String, Object> constants) {
+            final String prefix = label + ".";
+            for (Map.Entry<String, Object> constant : results.getConstants().entrySet()) {
+                if (constant.getKey().startsWith(prefix)) {
+                    constants.put(targetLabel + "." + constant.getKey().substring(prefix.length()), constant.getValue());
+                } else {
+                    constants.put(constant.getKey(), constant.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Identifies the measurements of a source over an aligned window.
+     */
+    private static final class CacheKey {
+        private final String resourceId;
+        private final String attribute;
+        private final String fallbackAttribute;
+        private final String datasource;
+        private final String aggregation;
+        private final long start;
+        private final long end;
+        private final long step;
+        private final int maxrows;
+        private final Long interval;
+        private final Long heartbeat;
+        private final boolean relaxed;
+
+        private CacheKey(Source source, long start, long end, long step, int maxrows, Long interval, Long heartbeat,
+                boolean relaxed, long bucket) {
+            this.resourceId = source.getResourceId();
+            this.attribute = source.getAttribute();
+            this.fallbackAttribute = source.getFallbackAttribute();
+            this.datasource = source.getDataSource();
+            this.aggregation = source.getAggregation();
+            if (maxrows > 0) {
+                // The resolution depends on the length of the window, which must be kept as is:
+                // such windows are only reused by queries over the exact same window, so sliding
+                // windows (i.e. refreshed dashboards) requesting a maximum number of rows don't
+                // benefit from the cache
+                this.start = start;
+                this.end = end;
+            } else {
+                final long width = step > 0 ? Math.max(1, (bucket + step - 1) / step) * step : bucket;
+                this.start = Math.floorDiv(start, width) * width;
+                this.end = -Math.floorDiv(-end, width) * width;
+            }
+            this.step = step;
+            this.maxrows = maxrows;
+            this.interval = interval;
+            this.heartbeat = heartbeat;
+            this.relaxed = relaxed;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            final CacheKey other = (CacheKey)obj;
+            return start == other.start
+                    && end == other.end
+                    && step == other.step
+                    && maxrows == other.maxrows
+                    && relaxed == other.relaxed
+                    && Objects.equals(resourceId, other.resourceId)
+                    && Objects.equals(attribute, other.attribute)
+                    && Objects.equals(fallbackAttribute, other.fallbackAttribute)
+                    && Objects.equals(datasource, other.datasource)
+                    && Objects.equals(aggregation, other.aggregation)
+                    && Objects.equals(interval, other.interval)
+                    && Objects.equals(heartbeat, other.heartbeat);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(resourceId, attribute, fallbackAttribute, datasource, aggregation, start, end, step,
+                    maxrows, interval, heartbeat, relaxed);
+        }
+    }
+}
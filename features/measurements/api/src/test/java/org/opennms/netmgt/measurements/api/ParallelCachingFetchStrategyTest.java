@@ -0,0 +1,263 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.measurements.model.Source;
+
+import com.google.common.collect.Maps;
+
+public class ParallelCachingFetchStrategyTest {
+
+    private static final long STEP = 1000;
+
+    private static final long NOW = 3600 * 1000;
+
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    private final AtomicLong clock = new AtomicLong(NOW);
+
+    private ExecutorService executor;
+
+    private ParallelCachingFetchStrategy strategy;
+
+    private long misses;
+
+    @Before
+    public void setUp() {
+        misses = ParallelCachingFetchStrategy.getMetrics().meter("cache.misses").getCount();
+        executor = Executors.newFixedThreadPool(2);
+        strategy = new ParallelCachingFetchStrategy(new SeriesFetchStrategy(), executor, 100, 10 * STEP, 60 * STEP, 600 * STEP, clock::get);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void canMergeSourcesFetchedInParallel() throws Exception {
+        final FetchResults results = strategy.fetch(NOW - 600 * STEP, NOW - 595 * STEP, STEP, 0, null, null,
+                Arrays.asList(new Source("a", "node[1]", "x", "x", false), new Source("b", "node[2]", "y", "y", false)), false);
+
+        assertEquals(2, fetches.get());
+        assertEquals(STEP, results.getStep());
+        assertArrayEquals(timestamps(NOW - 600 * STEP, NOW - 595 * STEP), results.getTimestamps());
+        assertArrayEquals(new double[] { 3000, 3001, 3002, 3003, 3004, 3005 }, results.getColumns().get("a"), 0);
+        assertArrayEquals(new double[] { 6000, 6002, 6004, 6006, 6008, 6010 }, results.getColumns().get("b"), 0);
+        assertEquals("node[1]", results.getConstants().get("a.resource"));
+        assertEquals("node[2]", results.getConstants().get("b.resource"));
+    }
+
+    @Test
+    public void canReuseOverlappingWindows() throws Exception {
+        final List<Source> sources = Arrays.asList(new Source("a", "node[1]", "x", "x", false));
+        strategy.fetch(NOW - 600 * STEP, NOW - 595 * STEP, STEP, 0, null, null, sources, false);
+        assertEquals(1, fetches.get());
+
+        // Sliding the window within the same bucket doesn't fetch again, even with another label
+        final FetchResults results = strategy.fetch(NOW - 598 * STEP, NOW - 592 * STEP, STEP, 0, null, null,
+                Arrays.asList(new Source("c", "node[1]", "x", "x", false)), false);
+        assertEquals(1, fetches.get());
+        assertArrayEquals(timestamps(NOW - 598 * STEP, NOW - 592 * STEP), results.getTimestamps());
+        assertArrayEquals(new double[] { 3002, 3003, 3004, 3005, 3006, 3007, 3008 }, results.getColumns().get("c"), 0);
+        assertEquals("node[1]", results.getConstants().get("c.resource"));
+        assertNull(results.getConstants().get("a.resource"));
+
+        // Another step is fetched separately
+        strategy.fetch(NOW - 600 * STEP, NOW - 595 * STEP, 2 * STEP, 0, null, null, sources, false);
+        assertEquals(2, fetches.get());
+
+        // Past windows expire after the historical TTL
+        clock.addAndGet(601 * STEP);
+        strategy.fetch(NOW - 600 * STEP, NOW - 595 * STEP, STEP, 0, null, null, sources, false);
+        assertEquals(3, fetches.get());
+
+        strategy.invalidateAll();
+        strategy.fetch(NOW - 600 * STEP, NOW - 595 * STEP, STEP, 0, null, null, sources, false);
+        assertEquals(4, fetches.get());
+    }
+
+    @Test
+    public void canExpireWindowsReachingThePresent() throws Exception {
+        final List<Source> sources = Arrays.asList(new Source("a", "node[1]", "x", "x", false));
+        strategy.fetch(NOW - 60 * STEP, NOW, STEP, 0, null, null, sources, false);
+        strategy.fetch(NOW - 60 * STEP, NOW, STEP, 0, null, null, sources, false);
+        assertEquals(1, fetches.get());
+
+        // Expires after a step, once new samples can have been written
+        clock.addAndGet(STEP);
+        strategy.fetch(NOW - 60 * STEP, NOW, STEP, 0, null, null, sources, false);
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void canBatchTheSourcesOfAResource() throws Exception {
+        final FetchResults results = strategy.fetch(NOW - 600 * STEP, NOW - 595 * STEP, STEP, 0, null, null,
+                Arrays.asList(new Source("a", "node[1]", "x", "x", false), new Source("b", "node[1]", "y", "y", false),
+                        new Source("c", "node[2]", "x", "x", false)), false);
+        assertEquals(2, fetches.get());
+        assertEquals(3, results.getColumns().size());
+        assertEquals("node[1]", results.getConstants().get("b.resource"));
+
+        // The sources fetched in a batch are cached separately
+        final FetchResults cached = strategy.fetch(NOW - 600 * STEP, NOW - 595 * STEP, STEP, 0, null, null,
+                Arrays.asList(new Source("d", "node[1]", "y", "y", false)), false);
+        assertEquals(2, fetches.get());
+        assertEquals(1, cached.getColumns().size());
+        assertArrayEquals(results.getColumns().get("b"), cached.getColumns().get("d"), 0);
+        assertEquals("node[1]", cached.getConstants().get("d.resource"));
+        assertNull(cached.getConstants().get("a.resource"));
+    }
+
+    @Test
+    public void canShareFetchesInFlight() throws Exception {
+        final CountDownLatch fetching = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final ParallelCachingFetchStrategy blocking = new ParallelCachingFetchStrategy((start, end, step, maxrows, interval, heartbeat, sources, relaxed) -> {
+            fetching.countDown();
+            release.await();
+            return new SeriesFetchStrategy().fetch(start, end, step, maxrows, interval, heartbeat, sources, relaxed);
+        }, null, 100, 10 * STEP, 60 * STEP, 600 * STEP, clock::get);
+
+        final List<Source> sources = Arrays.asList(new Source("a", "node[1]", "x", "x", false));
+        final Future<FetchResults> first = executor.submit(() -> blocking.fetch(NOW - 600 * STEP, NOW - 595 * STEP, STEP, 0, null, null, sources, false));
+        fetching.await();
+        final Future<FetchResults> second = executor.submit(() -> blocking.fetch(NOW - 598 * STEP, NOW - 595 * STEP, STEP, 0, null, null, sources, false));
+
+        // Wait for the second query to miss the cache, and to wait on the fetch in flight
+        while (ParallelCachingFetchStrategy.getMetrics().meter("cache.misses").getCount() < misses + 2) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        assertEquals(6, first.get().getTimestamps().length);
+        assertEquals(4, second.get().getTimestamps().length);
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void canFailOnMissingSources() throws Exception {
+        assertNull(strategy.fetch(NOW - 600 * STEP, NOW - 595 * STEP, STEP, 0, null, null,
+                Arrays.asList(new Source("a", "node[1]", "x", "x", false), new Source("b", "missing", "y", "y", false)), false));
+    }
+
+    @Test
+    public void canFallBackOnDifferentSteps() throws Exception {
+        // Sources with different steps are fetched at once, to be consolidated together
+        final FetchResults results = strategy.fetch(NOW - 600 * STEP, NOW - 595 * STEP, STEP, 0, null, null,
+                Arrays.asList(new Source("a", "node[1]", "x", "x", false), new Source("b", "node[2]", "slow", "slow", false)), false);
+        assertEquals(3, fetches.get());
+        assertEquals(2 * STEP, results.getStep());
+        assertEquals(2, results.getColumns().size());
+    }
+
+    @Test
+    public void canExposeMetricsWhileStarted() throws Exception {
+        final ObjectName hits = new ObjectName(ParallelCachingFetchStrategy.JMX_DOMAIN + ":name=cache.hits");
+        final ParallelCachingFetchStrategy other = new ParallelCachingFetchStrategy(new SeriesFetchStrategy(), null, 0, STEP, STEP, STEP, clock::get);
+        strategy.start();
+        other.start();
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(hits));
+
+        // Exposed until all the strategies are stopped
+        other.stop();
+        other.stop();
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(hits));
+        strategy.stop();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(hits));
+    }
+
+    private static long[] timestamps(long start, long end) {
+        final long[] timestamps = new long[(int)((end - start) / STEP) + 1];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = start + i * STEP;
+        }
+        return timestamps;
+    }
+
+    /**
+     * Fetches series with a value of (timestamp in seconds) * (node id), stored with a
+     * step of 2 seconds for the "slow" attribute, and of 1 second otherwise.
+     */
+    private class SeriesFetchStrategy implements MeasurementFetchStrategy {
+        @Override
+        public FetchResults fetch(long start, long end, long step, int maxrows, Long interval, Long heartbeat,
+                List<Source> sources, boolean relaxed) {
+            fetches.incrementAndGet();
+            long resultStep = step;
+            for (Source source : sources) {
+                if ("missing".equals(source.getResourceId())) {
+                    return null;
+                }
+                if ("slow".equals(source.getAttribute())) {
+                    resultStep = Math.max(resultStep, 2 * STEP);
+                }
+            }
+
+            final long first = (start / resultStep) * resultStep;
+            final long[] timestamps = new long[(int)((end - first) / resultStep) + 1];
+            final Map<String, double[]> columns = Maps.newHashMap();
+            final Map<String, Object> constants = Maps.newHashMap();
+            for (int i = 0; i < timestamps.length; i++) {
+                timestamps[i] = first + i * resultStep;
+            }
+            for (Source source : sources) {
+                final int factor = Integer.parseInt(source.getResourceId().replaceAll("\\D", ""));
+                final double[] values = new double[timestamps.length];
+                for (int i = 0; i < timestamps.length; i++) {
+                    values[i] = timestamps[i] / STEP * factor;
+                }
+                columns.put(source.getLabel(), values);
+                constants.put(source.getLabel() + ".resource", source.getResourceId());
+            }
+            return new FetchResults(timestamps, columns, resultStep, constants);
+        }
+    }
+}
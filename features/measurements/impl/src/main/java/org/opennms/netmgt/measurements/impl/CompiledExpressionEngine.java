@@ -0,0 +1,1137 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.impl.ExpressionParser.BinaryNode;
+import org.opennms.netmgt.measurements.impl.ExpressionParser.BooleanNode;
+import org.opennms.netmgt.measurements.impl.ExpressionParser.ConditionalNode;
+import org.opennms.netmgt.measurements.impl.ExpressionParser.FunctionNode;
+import org.opennms.netmgt.measurements.impl.ExpressionParser.Node;
+import org.opennms.netmgt.measurements.impl.ExpressionParser.NumberNode;
+import org.opennms.netmgt.measurements.impl.ExpressionParser.Operator;
+import org.opennms.netmgt.measurements.impl.ExpressionParser.StringNode;
+import org.opennms.netmgt.measurements.impl.ExpressionParser.UnaryNode;
+import org.opennms.netmgt.measurements.impl.ExpressionParser.UnsupportedExpressionException;
+import org.opennms.netmgt.measurements.impl.ExpressionParser.VariableNode;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * An expression engine that compiles the expressions into column-at-a-time
+ * evaluators over the fetched double arrays.
+ *
+ * The {@link JEXLExpressionEngine} evaluates every expression once per row,
+ * against a context of boxed values. Instead, the expressions are parsed once,
+ * bound to the columns, constants and results of the previous expressions of
+ * the query, and each operator is then applied to whole columns.
+ *
+ * The compiled expressions follow the JEXL semantics (integer arithmetic for
+ * integer operands, division by zero evaluating to 0, NaN being equal to
+ * NaN...). Queries using anything outside of the supported subset, such as
+ * the jexl:evaluate() function or string constants, are evaluated by the
+ * {@link JEXLExpressionEngine}.
+ */
+public class CompiledExpressionEngine implements ExpressionEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledExpressionEngine.class);
+
+    /**
+     * Set this property to false to evaluate all the expressions with JEXL.
+     */
+    public static final String COMPILE_SYS_PROP = "org.opennms.netmgt.measurements.expressions.compile";
+
+    private static final int MAX_PARSED_EXPRESSIONS = 1000;
+
+    /**
+     * The types of the values, as seen by JEXL.
+     */
+    enum Type {
+        /** Integer or Long values, evaluated with integer arithmetic. */
+        INTEGRAL,
+        /** Float values, i.e. float literals. */
+        FLOAT,
+        /** Double values. */
+        DOUBLE,
+        /** Integral or double values, depending on the row. */
+        MIXED,
+        BOOLEAN;
+
+        private boolean isNumeric() {
+            return this != BOOLEAN;
+        }
+    }
+
+    private final ExpressionEngine m_fallback;
+
+    private final boolean m_compile;
+
+    private final Cache<String, Optional<Node>> m_parsedExpressions = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PARSED_EXPRESSIONS)
+            .build();
+
+    public CompiledExpressionEngine() {
+        this(new JEXLExpressionEngine(), Boolean.parseBoolean(System.getProperty(COMPILE_SYS_PROP, "true")));
+    }
+
+    /**
+     * @param fallback the engine used to evaluate the queries that cannot be compiled
+     * @param compile false to always use the fallback engine
+     */
+    public CompiledExpressionEngine(ExpressionEngine fallback, boolean compile) {
+        m_fallback = Preconditions.checkNotNull(fallback, "fallback argument");
+        m_compile = compile;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void applyExpressions(final QueryRequest request, final FetchResults results) throws ExpressionException {
+        Preconditions.checkNotNull(request, "request argument");
+        Preconditions.checkNotNull(results, "results argument");
+
+        final List<Expression> expressions = request.getExpressions();
+
+        // Don't do anything if there are no expressions
+        if (expressions.isEmpty()) {
+            return;
+        }
+
+        final Evaluator[] evaluators;
+        try {
+            if (!m_compile) {
+                throw new UnsupportedExpressionException("Compilation is disabled");
+            }
+            evaluators = compile(expressions, results);
+        } catch (UnsupportedExpressionException e) {
+            LOG.debug("Evaluating the expressions with JEXL: {}", e.getMessage());
+            m_fallback.applyExpressions(request, results);
+            return;
+        }
+
+        // Evaluate every expression, in the same order as which they appeared in the query
+        final Frame frame = new Frame(results.getTimestamps(), results.getColumns(), expressions.size());
+        for (int k = 0; k < evaluators.length; k++) {
+            final Evaluator evaluator = evaluators[k];
+            double[] values = evaluator.values(frame);
+            if (evaluator.isShared()) {
+                values = values.clone();
+            }
+            if (evaluator.getType() == Type.FLOAT) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = toDecimal(values[i]);
+                }
+            }
+            frame.results[k] = values;
+        }
+
+        // Store the results
+        for (int k = 0; k < evaluators.length; k++) {
+            final Expression expression = expressions.get(k);
+            if (!expression.getTransient()) {
+                results.getColumns().put(expression.getLabel(), frame.results[k]);
+            }
+        }
+    }
+
+    private Evaluator[] compile(final List<Expression> expressions, final FetchResults results) throws UnsupportedExpressionException {
+        final Scope scope = new Scope(results);
+        final Evaluator[] evaluators = new Evaluator[expressions.size()];
+        for (int k = 0; k < evaluators.length; k++) {
+            final Expression expression = expressions.get(k);
+            if (scope.labels.put(expression.getLabel(), k) != null) {
+                throw new UnsupportedExpressionException("Duplicate expression label '" + expression.getLabel() + "'");
+            }
+        }
+        for (int k = 0; k < evaluators.length; k++) {
+            scope.current = k;
+            final Evaluator evaluator = bind(parse(expressions.get(k).getExpression()), scope);
+            if (!evaluator.getType().isNumeric()) {
+                throw new UnsupportedExpressionException("Expression with label '" + expressions.get(k).getLabel() + "' is not numeric");
+            }
+            evaluators[k] = evaluator;
+        }
+        return evaluators;
+    }
+
+    private Node parse(final String expression) throws UnsupportedExpressionException {
+        final Optional<Node> node;
+        try {
+            node = m_parsedExpressions.get(expression, () -> {
+                try {
+                    return Optional.of(ExpressionParser.parse(expression));
+                } catch (UnsupportedExpressionException e) {
+                    LOG.debug("Expression '{}' cannot be compiled: {}", expression, e.getMessage());
+                    return Optional.empty();
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new UnsupportedExpressionException(e.getMessage());
+        }
+        if (!node.isPresent()) {
+            throw new UnsupportedExpressionException("Expression '" + expression + "' cannot be compiled");
+        }
+        return node.get();
+    }
+
+    /**
+     * The names visible to the expression being bound.
+     */
+    private static final class Scope {
+        private final Map<String, Integer> labels = new HashMap<>();
+        private final Map<String, double[]> columns;
+        private final Map<String, Object> constants;
+        private final int rows;
+        private final long[] timestamps;
+        private int current;
+
+        private Scope(FetchResults results) {
+            columns = results.getColumns();
+            constants = results.getConstants();
+            timestamps = results.getTimestamps();
+            rows = timestamps.length;
+        }
+    }
+
+    private static Evaluator bind(final Node node, final Scope scope) throws UnsupportedExpressionException {
+        if (node instanceof NumberNode) {
+            final NumberNode number = (NumberNode)node;
+            return new Scalar(number.integral ? Type.INTEGRAL : number.single ? Type.FLOAT : Type.DOUBLE, number.value);
+        } else if (node instanceof BooleanNode) {
+            return new Scalar(Type.BOOLEAN, ((BooleanNode)node).value ? 1 : 0);
+        } else if (node instanceof VariableNode) {
+            return bindVariable(((VariableNode)node).name, scope);
+        } else if (node instanceof UnaryNode) {
+            final UnaryNode unary = (UnaryNode)node;
+            final Evaluator operand = bind(unary.operand, scope);
+            if (unary.operator == Operator.NOT) {
+                return fold(new Not(checkBoolean(operand)));
+            }
+            return fold(new Negate(checkNumeric(operand)));
+        } else if (node instanceof BinaryNode) {
+            final BinaryNode binary = (BinaryNode)node;
+            final Evaluator left = bind(binary.left, scope);
+            final Evaluator right = bind(binary.right, scope);
+            switch (binary.operator) {
+                case AND:
+                case OR:
+                    return fold(new Logical(binary.operator, checkBoolean(left), checkBoolean(right)));
+                case EQUAL:
+                case NOT_EQUAL:
+                case LESS:
+                case LESS_OR_EQUAL:
+                case GREATER:
+                case GREATER_OR_EQUAL:
+                    return fold(new Comparison(binary.operator, decimal(checkNumeric(left)), decimal(checkNumeric(right))));
+                default:
+                    return fold(new Arithmetic(binary.operator, decimal(checkNumeric(left)), decimal(checkNumeric(right))));
+            }
+        } else if (node instanceof ConditionalNode) {
+            final ConditionalNode conditional = (ConditionalNode)node;
+            return fold(new Conditional(checkBoolean(bind(conditional.condition, scope)),
+                    checkNumeric(bind(conditional.ifTrue, scope)), checkNumeric(bind(conditional.ifFalse, scope))));
+        } else if (node instanceof FunctionNode) {
+            return bindFunction((FunctionNode)node, scope);
+        }
+        throw new UnsupportedExpressionException("Unsupported string literal");
+    }
+
+    /**
+     * Resolves the variables the same way as the {@link JEXLExpressionEngine} populates
+     * its context: the values of the columns take precedence over the timestamp and the
+     * row index, followed by the results of the previous expressions, the built-in
+     * constants and the constants of the fetch results.
+     */
+    private static Evaluator bindVariable(final String name, final Scope scope) throws UnsupportedExpressionException {
+        if (scope.columns.containsKey(name)) {
+            if (name.startsWith("__") && scope.columns.containsKey(name.substring(2))) {
+                throw new UnsupportedExpressionException("Ambiguous variable '" + name + "'");
+            }
+            return new Column(name);
+        }
+        if (name.startsWith("__") && scope.columns.containsKey(name.substring(2))) {
+            throw new UnsupportedExpressionException("Unsupported reference to samples of '" + name.substring(2) + "'");
+        }
+        switch (name) {
+            case "timestamp":
+                return new Timestamp();
+            case "__i":
+                return new RowIndex();
+            default:
+                break;
+        }
+        final Integer label = scope.labels.get(name);
+        if (label != null) {
+            if (label >= scope.current) {
+                throw new UnsupportedExpressionException("Reference to the previous row of '" + name + "'");
+            }
+            return new Result(label);
+        }
+        switch (name) {
+            case "__inf":
+                return new Scalar(Type.DOUBLE, Double.POSITIVE_INFINITY);
+            case "__neg_inf":
+                return new Scalar(Type.DOUBLE, Double.NEGATIVE_INFINITY);
+            case "NaN":
+                return new Scalar(Type.DOUBLE, Double.NaN);
+            case "__E":
+                return new Scalar(Type.DOUBLE, Math.E);
+            case "__PI":
+                return new Scalar(Type.DOUBLE, Math.PI);
+            case "__diff_time":
+                return new Scalar(Type.DOUBLE, scope.rows < 1 ? 0d : scope.timestamps[scope.rows - 1] - scope.timestamps[0]);
+            default:
+                break;
+        }
+        final Object constant = scope.constants.get(name);
+        if (constant instanceof Double) {
+            return new Scalar(Type.DOUBLE, (Double)constant);
+        } else if (constant instanceof Float) {
+            return new Scalar(Type.FLOAT, (Float)constant);
+        } else if (constant instanceof Integer || constant instanceof Long || constant instanceof Short || constant instanceof Byte) {
+            return new Scalar(Type.INTEGRAL, ((Number)constant).longValue());
+        }
+        throw new UnsupportedExpressionException("Unsupported variable '" + name + "'");
+    }
+
+    private static Evaluator bindFunction(final FunctionNode function, final Scope scope) throws UnsupportedExpressionException {
+        final String qualifiedName = function.namespace + ":" + function.name;
+        final int arity = function.arguments.size();
+        if ("fn".equals(function.namespace)) {
+            return bindSampleArrayFunction(function, scope);
+        }
+        final boolean strict;
+        if ("math".equals(function.namespace)) {
+            strict = false;
+        } else if ("strictmath".equals(function.namespace)) {
+            strict = true;
+        } else {
+            throw new UnsupportedExpressionException("Unsupported function '" + qualifiedName + "'");
+        }
+
+        final Evaluator[] arguments = new Evaluator[arity];
+        for (int i = 0; i < arity; i++) {
+            arguments[i] = checkNumeric(bind(function.arguments.get(i), scope));
+        }
+        if (arity == 1) {
+            final DoubleUnaryOperator operator = strict ? STRICT_MATH_UNARY.get(function.name) : MATH_UNARY.get(function.name);
+            if (operator != null) {
+                return fold(new UnaryFunction(Type.DOUBLE, operator, arguments[0]));
+            }
+            switch (function.name) {
+                case "abs":
+                    return fold(new UnaryFunction(overloadType(arguments), Math::abs, arguments[0]));
+                case "round":
+                    return fold(new UnaryFunction(Type.INTEGRAL, Math::round, arguments[0]));
+                default:
+                    break;
+            }
+        } else if (arity == 2) {
+            final DoubleBinaryOperator operator = strict ? STRICT_MATH_BINARY.get(function.name) : MATH_BINARY.get(function.name);
+            if (operator != null) {
+                return fold(new BinaryFunction(Type.DOUBLE, operator, arguments[0], arguments[1]));
+            }
+            switch (function.name) {
+                case "min":
+                    return fold(new BinaryFunction(overloadType(arguments), Math::min, arguments[0], arguments[1]));
+                case "max":
+                    return fold(new BinaryFunction(overloadType(arguments), Math::max, arguments[0], arguments[1]));
+                default:
+                    break;
+            }
+        }
+        throw new UnsupportedExpressionException("Unsupported function '" + qualifiedName + "' with " + arity + " arguments");
+    }
+
+    /**
+     * Returns the type of the result of the overloaded Math functions (abs, min and max),
+     * whose variant is selected from the types of the arguments.
+     */
+    private static Type overloadType(final Evaluator[] arguments) throws UnsupportedExpressionException {
+        Type type = Type.INTEGRAL;
+        for (Evaluator argument : arguments) {
+            switch (argument.getType()) {
+                case DOUBLE:
+                    return Type.DOUBLE;
+                case MIXED:
+                    throw new UnsupportedExpressionException("Ambiguous function arguments");
+                case FLOAT:
+                    type = Type.FLOAT;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return type;
+    }
+
+    private static Evaluator bindSampleArrayFunction(final FunctionNode function, final Scope scope) throws UnsupportedExpressionException {
+        final SampleArray.Mode mode;
+        switch (function.name) {
+            case "arrayZero":
+                mode = SampleArray.Mode.ZERO;
+                break;
+            case "arrayFirst":
+                mode = SampleArray.Mode.FIRST;
+                break;
+            case "arrayNaN":
+                mode = SampleArray.Mode.NAN;
+                break;
+            case "arrayStart":
+                mode = SampleArray.Mode.START;
+                break;
+            default:
+                throw new UnsupportedExpressionException("Unsupported function 'fn:" + function.name + "'");
+        }
+        if (function.arguments.size() != (mode == SampleArray.Mode.START ? 3 : 2)
+                || !(function.arguments.get(0) instanceof StringNode)) {
+            throw new UnsupportedExpressionException("Unsupported arguments for function 'fn:" + function.name + "'");
+        }
+        final String sampleName = ((StringNode)function.arguments.get(0)).value;
+        if (!scope.columns.containsKey(sampleName) || scope.columns.containsKey("__" + sampleName)) {
+            throw new UnsupportedExpressionException("Unsupported sample name '" + sampleName + "'");
+        }
+        final Evaluator offset = bind(function.arguments.get(1), scope);
+        if (!(offset instanceof Scalar) || offset.getType() != Type.INTEGRAL
+                || ((Scalar)offset).value != (int)((Scalar)offset).value) {
+            throw new UnsupportedExpressionException("Unsupported sample offset for function 'fn:" + function.name + "'");
+        }
+        final Evaluator start = mode == SampleArray.Mode.START ? checkNumeric(bind(function.arguments.get(2), scope)) : null;
+        return new SampleArray(mode, sampleName, (int)((Scalar)offset).value, start);
+    }
+
+    private static Evaluator checkNumeric(final Evaluator evaluator) throws UnsupportedExpressionException {
+        if (!evaluator.getType().isNumeric()) {
+            throw new UnsupportedExpressionException("Unsupported boolean operand");
+        }
+        return evaluator;
+    }
+
+    private static Evaluator checkBoolean(final Evaluator evaluator) throws UnsupportedExpressionException {
+        if (evaluator.getType() != Type.BOOLEAN) {
+            throw new UnsupportedExpressionException("Unsupported numeric condition");
+        }
+        return evaluator;
+    }
+
+    /**
+     * JEXL converts the Floats to doubles using their string representation, so that
+     * 0.1 stands for 0.1 and not for 0.10000000149011612, when they are used in arithmetic
+     * and comparisons, and when they are returned. Only the functions, which are invoked
+     * by reflection, are given the widened float value.
+     */
+    private static Evaluator decimal(final Evaluator evaluator) {
+        if (evaluator.getType() != Type.FLOAT) {
+            return evaluator;
+        }
+        return fold(new Decimal(evaluator));
+    }
+
+    private static double toDecimal(final double value) {
+        return Double.parseDouble(Float.toString((float)value));
+    }
+
+    /**
+     * Replaces the evaluators whose operands are all constant by their value.
+     */
+    private static Evaluator fold(final Evaluator evaluator) {
+        if (!evaluator.isConstant()) {
+            return evaluator;
+        }
+        final Frame frame = new Frame(new long[1], new HashMap<>(), 0);
+        if (evaluator.getType() == Type.BOOLEAN) {
+            return new Scalar(Type.BOOLEAN, evaluator.conditions(frame)[0] ? 1 : 0);
+        }
+        return new Scalar(evaluator.getType(), evaluator.values(frame)[0]);
+    }
+
+    private static Type arithmeticType(final Type left, final Type right) {
+        if (left == Type.INTEGRAL && right == Type.INTEGRAL) {
+            return Type.INTEGRAL;
+        } else if (left == Type.MIXED || right == Type.MIXED) {
+            // Double arithmetic is used as soon as one of the operands is a float or a double
+            return left == Type.DOUBLE || left == Type.FLOAT || right == Type.DOUBLE || right == Type.FLOAT ? Type.DOUBLE : Type.MIXED;
+        }
+        return Type.DOUBLE;
+    }
+
+    private static final Map<String, DoubleUnaryOperator> MATH_UNARY = new HashMap<>();
+    private static final Map<String, DoubleUnaryOperator> STRICT_MATH_UNARY = new HashMap<>();
+    private static final Map<String, DoubleBinaryOperator> MATH_BINARY = new HashMap<>();
+    private static final Map<String, DoubleBinaryOperator> STRICT_MATH_BINARY = new HashMap<>();
+
+    static {
+        MATH_UNARY.put("sin", Math::sin);
+        MATH_UNARY.put("cos", Math::cos);
+        MATH_UNARY.put("tan", Math::tan);
+        MATH_UNARY.put("asin", Math::asin);
+        MATH_UNARY.put("acos", Math::acos);
+        MATH_UNARY.put("atan", Math::atan);
+        MATH_UNARY.put("sinh", Math::sinh);
+        MATH_UNARY.put("cosh", Math::cosh);
+        MATH_UNARY.put("tanh", Math::tanh);
+        MATH_UNARY.put("exp", Math::exp);
+        MATH_UNARY.put("expm1", Math::expm1);
+        MATH_UNARY.put("log", Math::log);
+        MATH_UNARY.put("log10", Math::log10);
+        MATH_UNARY.put("log1p", Math::log1p);
+        MATH_UNARY.put("sqrt", Math::sqrt);
+        MATH_UNARY.put("cbrt", Math::cbrt);
+        MATH_UNARY.put("floor", Math::floor);
+        MATH_UNARY.put("ceil", Math::ceil);
+        MATH_UNARY.put("rint", Math::rint);
+        MATH_UNARY.put("toDegrees", Math::toDegrees);
+        MATH_UNARY.put("toRadians", Math::toRadians);
+        MATH_BINARY.put("atan2", Math::atan2);
+        MATH_BINARY.put("pow", Math::pow);
+        MATH_BINARY.put("hypot", Math::hypot);
+        MATH_BINARY.put("IEEEremainder", Math::IEEEremainder);
+
+        STRICT_MATH_UNARY.put("sin", StrictMath::sin);
+        STRICT_MATH_UNARY.put("cos", StrictMath::cos);
+        STRICT_MATH_UNARY.put("tan", StrictMath::tan);
+        STRICT_MATH_UNARY.put("asin", StrictMath::asin);
+        STRICT_MATH_UNARY.put("acos", StrictMath::acos);
+        STRICT_MATH_UNARY.put("atan", StrictMath::atan);
+        STRICT_MATH_UNARY.put("sinh", StrictMath::sinh);
+        STRICT_MATH_UNARY.put("cosh", StrictMath::cosh);
+        STRICT_MATH_UNARY.put("tanh", StrictMath::tanh);
+        STRICT_MATH_UNARY.put("exp", StrictMath::exp);
+        STRICT_MATH_UNARY.put("expm1", StrictMath::expm1);
+        STRICT_MATH_UNARY.put("log", StrictMath::log);
+        STRICT_MATH_UNARY.put("log10", StrictMath::log10);
+        STRICT_MATH_UNARY.put("log1p", StrictMath::log1p);
+        STRICT_MATH_UNARY.put("sqrt", StrictMath::sqrt);
+        STRICT_MATH_UNARY.put("cbrt", StrictMath::cbrt);
+        STRICT_MATH_UNARY.put("floor", StrictMath::floor);
+        STRICT_MATH_UNARY.put("ceil", StrictMath::ceil);
+        STRICT_MATH_UNARY.put("rint", StrictMath::rint);
+        STRICT_MATH_UNARY.put("toDegrees", StrictMath::toDegrees);
+        STRICT_MATH_UNARY.put("toRadians", StrictMath::toRadians);
+        STRICT_MATH_BINARY.put("atan2", StrictMath::atan2);
+        STRICT_MATH_BINARY.put("pow", StrictMath::pow);
+        STRICT_MATH_BINARY.put("hypot", StrictMath::hypot);
+        STRICT_MATH_BINARY.put("IEEEremainder", StrictMath::IEEEremainder);
+    }
+
+    /**
+     * The columns being evaluated.
+     */
+    private static final class Frame {
+        private final int rows;
+        private final long[] timestamps;
+        private final Map<String, double[]> columns;
+        private final double[][] results;
+
+        private Frame(long[] timestamps, Map<String, double[]> columns, int numExpressions) {
+            this.rows = timestamps.length;
+            this.timestamps = timestamps;
+            this.columns = columns;
+            this.results = new double[numExpressions][];
+        }
+    }
+
+    /**
+     * Evaluates a node of an expression for all the rows at once.
+     */
+    private abstract static class Evaluator {
+        private final Type m_type;
+
+        private Evaluator(Type type) {
+            m_type = type;
+        }
+
+        Type getType() {
+            return m_type;
+        }
+
+        /**
+         * Returns the values of a numeric node.
+         */
+        double[] values(Frame frame) {
+            throw new IllegalStateException("Not a numeric expression");
+        }
+
+        /**
+         * Returns the values of a boolean node.
+         */
+        boolean[] conditions(Frame frame) {
+            throw new IllegalStateException("Not a boolean expression");
+        }
+
+        /**
+         * Whether the values are the same for all the rows.
+         */
+        boolean isConstant() {
+            return false;
+        }
+
+        /**
+         * Whether the returned values are shared, and must not be modified.
+         */
+        boolean isShared() {
+            return false;
+        }
+    }
+
+    private static final class Scalar extends Evaluator {
+        private final double value;
+
+        private Scalar(Type type, double value) {
+            super(type);
+            this.value = value;
+        }
+
+        @Override
+        double[] values(Frame frame) {
+            final double[] values = new double[frame.rows];
+            Arrays.fill(values, value);
+            return values;
+        }
+
+        @Override
+        boolean[] conditions(Frame frame) {
+            final boolean[] conditions = new boolean[frame.rows];
+            Arrays.fill(conditions, value != 0);
+            return conditions;
+        }
+
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+    }
+
+    private static final class Column extends Evaluator {
+        private final String name;
+
+        private Column(String name) {
+            super(Type.DOUBLE);
+            this.name = name;
+        }
+
+        @Override
+        double[] values(Frame frame) {
+            return frame.columns.get(name);
+        }
+
+        @Override
+        boolean isShared() {
+            return true;
+        }
+    }
+
+    private static final class Result extends Evaluator {
+        private final int index;
+
+        private Result(int index) {
+            super(Type.DOUBLE);
+            this.index = index;
+        }
+
+        @Override
+        double[] values(Frame frame) {
+            return frame.results[index];
+        }
+
+        @Override
+        boolean isShared() {
+            return true;
+        }
+    }
+
+    private static final class Timestamp extends Evaluator {
+        private Timestamp() {
+            super(Type.INTEGRAL);
+        }
+
+        @Override
+        double[] values(Frame frame) {
+            final double[] values = new double[frame.rows];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = frame.timestamps[i];
+            }
+            return values;
+        }
+    }
+
+    private static final class RowIndex extends Evaluator {
+        private RowIndex() {
+            super(Type.INTEGRAL);
+        }
+
+        @Override
+        double[] values(Frame frame) {
+            final double[] values = new double[frame.rows];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = i;
+            }
+            return values;
+        }
+    }
+
+    private static final class Negate extends Evaluator {
+        private final Evaluator operand;
+
+        private Negate(Evaluator operand) {
+            super(operand.getType());
+            this.operand = operand;
+        }
+
+        @Override
+        double[] values(Frame frame) {
+            final double[] a = operand.values(frame);
+            final double[] values = new double[a.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = -a[i];
+            }
+            return values;
+        }
+
+        @Override
+        boolean isConstant() {
+            return operand.isConstant();
+        }
+    }
+
+    private static final class Decimal extends Evaluator {
+        private final Evaluator operand;
+
+        private Decimal(Evaluator operand) {
+            super(Type.DOUBLE);
+            this.operand = operand;
+        }
+
+        @Override
+        double[] values(Frame frame) {
+            final double[] a = operand.values(frame);
+            final double[] values = new double[a.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = toDecimal(a[i]);
+            }
+            return values;
+        }
+
+        @Override
+        boolean isConstant() {
+            return operand.isConstant();
+        }
+    }
+
+    private static final class Arithmetic extends Evaluator {
+        private final Operator operator;
+        private final Evaluator left;
+        private final Evaluator right;
+
+        private Arithmetic(Operator operator, Evaluator left, Evaluator right) throws UnsupportedExpressionException {
+            super(arithmeticType(left.getType(), right.getType()));
+            if (operator == Operator.DIVIDE && getType() == Type.MIXED) {
+                throw new UnsupportedExpressionException("Division of operands that may be integral");
+            }
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double[] values(Frame frame) {
+            final double[] a = left.values(frame);
+            final double[] values = new double[frame.rows];
+            if (right instanceof Scalar) {
+                apply(a, ((Scalar)right).value, values);
+            } else {
+                apply(a, right.values(frame), values);
+            }
+            return values;
+        }
+
+        private void apply(final double[] a, final double[] b, final double[] values) {
+            switch (operator) {
+                case ADD:
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = a[i] + b[i];
+                    }
+                    break;
+                case SUBTRACT:
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = a[i] - b[i];
+                    }
+                    break;
+                case MULTIPLY:
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = a[i] * b[i];
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = divide(a[i], b[i]);
+                    }
+                    break;
+            }
+        }
+
+        private void apply(final double[] a, final double b, final double[] values) {
+            switch (operator) {
+                case ADD:
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = a[i] + b;
+                    }
+                    break;
+                case SUBTRACT:
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = a[i] - b;
+                    }
+                    break;
+                case MULTIPLY:
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = a[i] * b;
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = divide(a[i], b);
+                    }
+                    break;
+            }
+        }
+
+        /**
+         * Divisions and modulos by zero evaluate to 0, as with JEXL in lenient mode.
+         */
+        private double divide(final double a, final double b) {
+            if (b == 0) {
+                return 0d;
+            }
+            if (operator == Operator.DIVIDE) {
+                return getType() == Type.INTEGRAL ? (double)((long)a / (long)b) : a / b;
+            }
+            return a % b;
+        }
+
+        @Override
+        boolean isConstant() {
+            return left.isConstant() && right.isConstant();
+        }
+    }
+
+    private static final class Comparison extends Evaluator {
+        private final Operator operator;
+        private final Evaluator left;
+        private final Evaluator right;
+
+        private Comparison(Operator operator, Evaluator left, Evaluator right) {
+            super(Type.BOOLEAN);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean[] conditions(Frame frame) {
+            final double[] a = left.values(frame);
+            final double[] b = right.values(frame);
+            final boolean[] conditions = new boolean[frame.rows];
+            switch (operator) {
+                case EQUAL:
+                    for (int i = 0; i < conditions.length; i++) {
+                        conditions[i] = equal(a[i], b[i]);
+                    }
+                    break;
+                case NOT_EQUAL:
+                    for (int i = 0; i < conditions.length; i++) {
+                        conditions[i] = !equal(a[i], b[i]);
+                    }
+                    break;
+                case LESS:
+                    for (int i = 0; i < conditions.length; i++) {
+                        conditions[i] = a[i] < b[i];
+                    }
+                    break;
+                case LESS_OR_EQUAL:
+                    for (int i = 0; i < conditions.length; i++) {
+                        conditions[i] = a[i] <= b[i];
+                    }
+                    break;
+                case GREATER:
+                    for (int i = 0; i < conditions.length; i++) {
+                        conditions[i] = a[i] > b[i];
+                    }
+                    break;
+                default:
+                    for (int i = 0; i < conditions.length; i++) {
+                        conditions[i] = a[i] >= b[i];
+                    }
+                    break;
+            }
+            return conditions;
+        }
+
+        /**
+         * JEXL compares Doubles with {@link Double#equals(Object)}, so that NaN is equal to NaN.
+         */
+        private static boolean equal(final double a, final double b) {
+            return a == b || (a != a && b != b);
+        }
+
+        @Override
+        boolean isConstant() {
+            return left.isConstant() && right.isConstant();
+        }
+    }
+
+    private static final class Logical extends Evaluator {
+        private final Operator operator;
+        private final Evaluator left;
+        private final Evaluator right;
+
+        private Logical(Operator operator, Evaluator left, Evaluator right) {
+            super(Type.BOOLEAN);
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        boolean[] conditions(Frame frame) {
+            final boolean[] a = left.conditions(frame);
+            final boolean[] b = right.conditions(frame);
+            if (operator == Operator.AND) {
+                for (int i = 0; i < a.length; i++) {
+                    a[i] &= b[i];
+                }
+            } else {
+                for (int i = 0; i < a.length; i++) {
+                    a[i] |= b[i];
+                }
+            }
+            return a;
+        }
+
+        @Override
+        boolean isConstant() {
+            return left.isConstant() && right.isConstant();
+        }
+    }
+
+    private static final class Not extends Evaluator {
+        private final Evaluator operand;
+
+        private Not(Evaluator operand) {
+            super(Type.BOOLEAN);
+            this.operand = operand;
+        }
+
+        @Override
+        boolean[] conditions(Frame frame) {
+            final boolean[] a = operand.conditions(frame);
+            for (int i = 0; i < a.length; i++) {
+                a[i] = !a[i];
+            }
+            return a;
+        }
+
+        @Override
+        boolean isConstant() {
+            return operand.isConstant();
+        }
+    }
+
+    private static final class Conditional extends Evaluator {
+        private final Evaluator condition;
+        private final Evaluator ifTrue;
+        private final Evaluator ifFalse;
+
+        private Conditional(Evaluator condition, Evaluator ifTrue, Evaluator ifFalse) throws UnsupportedExpressionException {
+            super(conditionalType(ifTrue.getType(), ifFalse.getType()));
+            this.condition = condition;
+            this.ifTrue = ifTrue;
+            this.ifFalse = ifFalse;
+        }
+
+        private static Type conditionalType(Type a, Type b) throws UnsupportedExpressionException {
+            if (a == b) {
+                return a;
+            } else if (a == Type.FLOAT || b == Type.FLOAT) {
+                throw new UnsupportedExpressionException("Conditional mixing floats with other types");
+            }
+            return Type.MIXED;
+        }
+
+        @Override
+        double[] values(Frame frame) {
+            final boolean[] c = condition.conditions(frame);
+            final double[] a = ifTrue.values(frame);
+            final double[] b = ifFalse.values(frame);
+            final double[] values = new double[frame.rows];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = c[i] ? a[i] : b[i];
+            }
+            return values;
+        }
+
+        @Override
+        boolean isConstant() {
+            return condition.isConstant() && ifTrue.isConstant() && ifFalse.isConstant();
+        }
+    }
+
+    private static final class UnaryFunction extends Evaluator {
+        private final DoubleUnaryOperator function;
+        private final Evaluator argument;
+
+        private UnaryFunction(Type type, DoubleUnaryOperator function, Evaluator argument) {
+            super(type);
+            this.function = function;
+            this.argument = argument;
+        }
+
+        @Override
+        double[] values(Frame frame) {
+            final double[] a = argument.values(frame);
+            final double[] values = new double[frame.rows];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = function.applyAsDouble(a[i]);
+            }
+            if (getType() == Type.FLOAT) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = (float)values[i];
+                }
+            }
+            return values;
+        }
+
+        @Override
+        boolean isConstant() {
+            return argument.isConstant();
+        }
+    }
+
+    private static final class BinaryFunction extends Evaluator {
+        private final DoubleBinaryOperator function;
+        private final Evaluator left;
+        private final Evaluator right;
+
+        private BinaryFunction(Type type, DoubleBinaryOperator function, Evaluator left, Evaluator right) {
+            super(type);
+            this.function = function;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double[] values(Frame frame) {
+            final double[] a = left.values(frame);
+            final double[] b = right.values(frame);
+            final double[] values = new double[frame.rows];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = function.applyAsDouble(a[i], b[i]);
+            }
+            if (getType() == Type.FLOAT) {
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = (float)values[i];
+                }
+            }
+            return values;
+        }
+
+        @Override
+        boolean isConstant() {
+            return left.isConstant() && right.isConstant();
+        }
+    }
+
+    /**
+     * Implements the {@link SampleArrayFunctions}, which return prior samples of a column.
+     */
+    private static final class SampleArray extends Evaluator {
+        private enum Mode {
+            ZERO, FIRST, NAN, START
+        }
+
+        private final Mode mode;
+        private final String name;
+        private final int offset;
+        private final Evaluator start;
+
+        private SampleArray(Mode mode, String name, int offset, Evaluator start) {
+            super(Type.DOUBLE);
+            this.mode = mode;
+            this.name = name;
+            this.offset = offset;
+            this.start = start;
+        }
+
+        @Override
+        double[] values(Frame frame) {
+            final double[] samples = frame.columns.get(name);
+            final double[] starts = start != null ? start.values(frame) : null;
+            final double[] values = new double[frame.rows];
+            for (int i = 0; i < values.length; i++) {
+                final int j = i - offset;
+                if (j < 0) {
+                    switch (mode) {
+                        case ZERO:
+                            values[i] = 0d;
+                            break;
+                        case FIRST:
+                            values[i] = samples[0];
+                            break;
+                        case NAN:
+                            values[i] = Double.NaN;
+                            break;
+                        default:
+                            values[i] = starts[i];
+                            break;
+                    }
+                } else {
+                    values[i] = j < samples.length ? samples[j] : Double.NaN;
+                }
+            }
+            return values;
+        }
+    }
+}
@@ -0,0 +1,492 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Parses the subset of the JEXL syntax that can be compiled by the
+ * {@link CompiledExpressionEngine}: numeric and boolean literals, variables,
+ * arithmetic, comparison and logical operators, the ternary operator and
+ * namespaced function calls.
+ *
+ * Anything else (assignments, method calls, string operations...) is rejected
+ * with an {@link UnsupportedExpressionException}, so that the expression can be
+ * evaluated by JEXL instead.
+ */
+final class ExpressionParser {
+
+    /**
+     * Thrown when an expression cannot be compiled, either because its syntax
+     * is invalid or because it uses features outside of the supported subset.
+     */
+    static final class UnsupportedExpressionException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedExpressionException(String message) {
+            super(message);
+        }
+    }
+
+    enum Operator {
+        ADD, SUBTRACT, MULTIPLY, DIVIDE, MODULO,
+        EQUAL, NOT_EQUAL, LESS, LESS_OR_EQUAL, GREATER, GREATER_OR_EQUAL,
+        AND, OR, NOT, NEGATE
+    }
+
+    abstract static class Node {
+    }
+
+    static final class NumberNode extends Node {
+        final double value;
+        /** True for integer literals, which JEXL evaluates with integer arithmetic. */
+        final boolean integral;
+        /** True for float literals without a 'd' suffix, which JEXL parses as Floats. */
+        final boolean single;
+
+        NumberNode(double value, boolean integral, boolean single) {
+            this.value = value;
+            this.integral = integral;
+            this.single = single;
+        }
+    }
+
+    static final class BooleanNode extends Node {
+        final boolean value;
+
+        BooleanNode(boolean value) {
+            this.value = value;
+        }
+    }
+
+    static final class StringNode extends Node {
+        final String value;
+
+        StringNode(String value) {
+            this.value = value;
+        }
+    }
+
+    static final class VariableNode extends Node {
+        final String name;
+
+        VariableNode(String name) {
+            this.name = name;
+        }
+    }
+
+    static final class UnaryNode extends Node {
+        final Operator operator;
+        final Node operand;
+
+        UnaryNode(Operator operator, Node operand) {
+            this.operator = operator;
+            this.operand = operand;
+        }
+    }
+
+    static final class BinaryNode extends Node {
+        final Operator operator;
+        final Node left;
+        final Node right;
+
+        BinaryNode(Operator operator, Node left, Node right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    static final class ConditionalNode extends Node {
+        final Node condition;
+        final Node ifTrue;
+        final Node ifFalse;
+
+        ConditionalNode(Node condition, Node ifTrue, Node ifFalse) {
+            this.condition = condition;
+            this.ifTrue = ifTrue;
+            this.ifFalse = ifFalse;
+        }
+    }
+
+    static final class FunctionNode extends Node {
+        final String namespace;
+        final String name;
+        final List<Node> arguments;
+
+        FunctionNode(String namespace, String name, List<Node> arguments) {
+            this.namespace = namespace;
+            this.name = name;
+            this.arguments = Collections.unmodifiableList(arguments);
+        }
+    }
+
+    private enum TokenType {
+        NUMBER, STRING, IDENTIFIER, SYMBOL, END
+    }
+
+    private static final class Token {
+        private final TokenType type;
+        private final String text;
+
+        private Token(TokenType type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+
+        private boolean is(String symbol) {
+            return (type == TokenType.SYMBOL || type == TokenType.IDENTIFIER) && text.equals(symbol);
+        }
+    }
+
+    private static final String[] SYMBOLS = {
+        "==", "!=", "<=", ">=", "&&", "||", "+", "-", "*", "/", "%", "<", ">", "!", "?", ":", "(", ")", ",", "."
+    };
+
+    // Symbols starting with the ones above that JEXL parses as different operators
+    private static final String[] UNSUPPORTED_SYMBOLS = { "=~", "!~", "?:" };
+
+    private final List<Token> m_tokens;
+    private int m_position = 0;
+
+    private ExpressionParser(List<Token> tokens) {
+        m_tokens = tokens;
+    }
+
+    /**
+     * Parses the given expression.
+     *
+     * @param expression the JEXL expression
+     * @return the root of the syntax tree
+     * @throws UnsupportedExpressionException if the expression cannot be compiled
+     */
+    static Node parse(String expression) throws UnsupportedExpressionException {
+        final ExpressionParser parser = new ExpressionParser(tokenize(expression));
+        final Node node = parser.parseConditional();
+        if (parser.peek().type != TokenType.END) {
+            throw new UnsupportedExpressionException("Unexpected '" + parser.peek().text + "'");
+        }
+        return node;
+    }
+
+    private static List<Token> tokenize(String expression) throws UnsupportedExpressionException {
+        final List<Token> tokens = new ArrayList<>();
+        final int length = expression.length();
+        int i = 0;
+        outer:
+        while (i < length) {
+            final char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c >= '0' && c <= '9') {
+                int end = i;
+                while (end < length && isIdentifierPart(expression.charAt(end))) {
+                    end++;
+                }
+                // Include the fraction and the exponent of float literals
+                if (end < length - 1 && expression.charAt(end) == '.' && Character.isDigit(expression.charAt(end + 1))) {
+                    end++;
+                    while (end < length && (isIdentifierPart(expression.charAt(end))
+                            || ((expression.charAt(end) == '+' || expression.charAt(end) == '-')
+                                && (expression.charAt(end - 1) == 'e' || expression.charAt(end - 1) == 'E')))) {
+                        end++;
+                    }
+                }
+                tokens.add(new Token(TokenType.NUMBER, expression.substring(i, end)));
+                i = end;
+            } else if (c == '"' || c == '\'') {
+                final StringBuilder sb = new StringBuilder();
+                int end = i + 1;
+                while (end < length && expression.charAt(end) != c) {
+                    if (expression.charAt(end) == '\\' && end < length - 1) {
+                        end++;
+                    }
+                    sb.append(expression.charAt(end++));
+                }
+                if (end >= length) {
+                    throw new UnsupportedExpressionException("Unterminated string literal");
+                }
+                tokens.add(new Token(TokenType.STRING, sb.toString()));
+                i = end + 1;
+            } else if (isIdentifierStart(c)) {
+                int end = i + 1;
+                while (end < length && isIdentifierPart(expression.charAt(end))) {
+                    end++;
+                }
+                tokens.add(new Token(TokenType.IDENTIFIER, expression.substring(i, end)));
+                i = end;
+            } else {
+                for (String symbol : UNSUPPORTED_SYMBOLS) {
+                    if (expression.startsWith(symbol, i)) {
+                        throw new UnsupportedExpressionException("Unsupported operator '" + symbol + "'");
+                    }
+                }
+                for (String symbol : SYMBOLS) {
+                    if (expression.startsWith(symbol, i)) {
+                        tokens.add(new Token(TokenType.SYMBOL, symbol));
+                        i += symbol.length();
+                        continue outer;
+                    }
+                }
+                throw new UnsupportedExpressionException("Unsupported character '" + c + "'");
+            }
+        }
+        tokens.add(new Token(TokenType.END, "<end>"));
+        return tokens;
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == '$';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || (c >= '0' && c <= '9');
+    }
+
+    private Token peek() {
+        return m_tokens.get(m_position);
+    }
+
+    private Token peek(int offset) {
+        return m_tokens.get(Math.min(m_position + offset, m_tokens.size() - 1));
+    }
+
+    private Token next() {
+        final Token token = peek();
+        if (token.type != TokenType.END) {
+            m_position++;
+        }
+        return token;
+    }
+
+    private void expect(String symbol) throws UnsupportedExpressionException {
+        final Token token = next();
+        if (!(token.type == TokenType.SYMBOL && token.text.equals(symbol))) {
+            throw new UnsupportedExpressionException("Expected '" + symbol + "' but found '" + token.text + "'");
+        }
+    }
+
+    private boolean accept(String symbol) {
+        if (peek().is(symbol)) {
+            m_position++;
+            return true;
+        }
+        return false;
+    }
+
+    private Node parseConditional() throws UnsupportedExpressionException {
+        final Node condition = parseOr();
+        if (accept("?")) {
+            final Node ifTrue = parseConditional();
+            expect(":");
+            final Node ifFalse = parseConditional();
+            return new ConditionalNode(condition, ifTrue, ifFalse);
+        }
+        return condition;
+    }
+
+    private Node parseOr() throws UnsupportedExpressionException {
+        Node node = parseAnd();
+        while (accept("||") || accept("or")) {
+            node = new BinaryNode(Operator.OR, node, parseAnd());
+        }
+        return node;
+    }
+
+    private Node parseAnd() throws UnsupportedExpressionException {
+        Node node = parseEquality();
+        while (accept("&&") || accept("and")) {
+            node = new BinaryNode(Operator.AND, node, parseEquality());
+        }
+        return node;
+    }
+
+    private Node parseEquality() throws UnsupportedExpressionException {
+        Node node = parseRelational();
+        while (true) {
+            if (accept("==") || accept("eq")) {
+                node = new BinaryNode(Operator.EQUAL, node, parseRelational());
+            } else if (accept("!=") || accept("ne")) {
+                node = new BinaryNode(Operator.NOT_EQUAL, node, parseRelational());
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private Node parseRelational() throws UnsupportedExpressionException {
+        Node node = parseAdditive();
+        while (true) {
+            if (accept("<=") || accept("le")) {
+                node = new BinaryNode(Operator.LESS_OR_EQUAL, node, parseAdditive());
+            } else if (accept(">=") || accept("ge")) {
+                node = new BinaryNode(Operator.GREATER_OR_EQUAL, node, parseAdditive());
+            } else if (accept("<") || accept("lt")) {
+                node = new BinaryNode(Operator.LESS, node, parseAdditive());
+            } else if (accept(">") || accept("gt")) {
+                node = new BinaryNode(Operator.GREATER, node, parseAdditive());
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private Node parseAdditive() throws UnsupportedExpressionException {
+        Node node = parseMultiplicative();
+        while (true) {
+            if (accept("+")) {
+                node = new BinaryNode(Operator.ADD, node, parseMultiplicative());
+            } else if (accept("-")) {
+                node = new BinaryNode(Operator.SUBTRACT, node, parseMultiplicative());
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private Node parseMultiplicative() throws UnsupportedExpressionException {
+        Node node = parseUnary();
+        while (true) {
+            if (accept("*")) {
+                node = new BinaryNode(Operator.MULTIPLY, node, parseUnary());
+            } else if (accept("/") || accept("div")) {
+                node = new BinaryNode(Operator.DIVIDE, node, parseUnary());
+            } else if (accept("%") || accept("mod")) {
+                node = new BinaryNode(Operator.MODULO, node, parseUnary());
+            } else {
+                return node;
+            }
+        }
+    }
+
+    private Node parseUnary() throws UnsupportedExpressionException {
+        if (accept("-")) {
+            return new UnaryNode(Operator.NEGATE, parseUnary());
+        } else if (accept("!") || accept("not")) {
+            return new UnaryNode(Operator.NOT, parseUnary());
+        }
+        return parsePrimary();
+    }
+
+    private Node parsePrimary() throws UnsupportedExpressionException {
+        final Token token = next();
+        switch (token.type) {
+            case NUMBER:
+                return parseNumber(token.text);
+            case STRING:
+                return new StringNode(token.text);
+            case SYMBOL:
+                if (token.text.equals("(")) {
+                    final Node node = parseConditional();
+                    expect(")");
+                    return node;
+                }
+                throw new UnsupportedExpressionException("Unexpected '" + token.text + "'");
+            case IDENTIFIER:
+                return parseIdentifier(token.text);
+            default:
+                throw new UnsupportedExpressionException("Unexpected end of expression");
+        }
+    }
+
+    private Node parseIdentifier(String identifier) throws UnsupportedExpressionException {
+        switch (identifier) {
+            case "true":
+                return new BooleanNode(true);
+            case "false":
+                return new BooleanNode(false);
+            case "null": case "new": case "empty": case "size": case "if": case "else": case "for":
+            case "foreach": case "while": case "function": case "return": case "var":
+            case "or": case "and": case "not": case "eq": case "ne": case "lt": case "gt": case "le":
+            case "ge": case "div": case "mod":
+                throw new UnsupportedExpressionException("Unsupported keyword '" + identifier + "'");
+            default:
+                break;
+        }
+        // Function call, i.e. namespace:function(arguments)
+        if (peek().is(":") && peek(1).type == TokenType.IDENTIFIER && peek(2).is("(")) {
+            next();
+            final String name = next().text;
+            next();
+            final List<Node> arguments = new ArrayList<>();
+            if (!accept(")")) {
+                do {
+                    arguments.add(parseConditional());
+                } while (accept(","));
+                expect(")");
+            }
+            return new FunctionNode(identifier, name, arguments);
+        }
+        // Variables with dots in their names, i.e. constants from strings.properties
+        final StringBuilder name = new StringBuilder(identifier);
+        while (peek().is(".") && peek(1).type == TokenType.IDENTIFIER) {
+            next();
+            name.append('.').append(next().text);
+        }
+        if (peek().is("(") || peek().is(".")) {
+            throw new UnsupportedExpressionException("Unsupported method or property access on '" + name + "'");
+        }
+        return new VariableNode(name.toString());
+    }
+
+    private static Node parseNumber(String text) throws UnsupportedExpressionException {
+        try {
+            if (text.indexOf('.') >= 0) {
+                // JEXL parses float literals as Floats, unless they are suffixed with 'd'
+                final char suffix = text.charAt(text.length() - 1);
+                if (suffix == 'd' || suffix == 'D') {
+                    return new NumberNode(Double.parseDouble(text.substring(0, text.length() - 1)), false, false);
+                } else if (suffix == 'f' || suffix == 'F') {
+                    return new NumberNode(Float.parseFloat(text.substring(0, text.length() - 1)), false, true);
+                } else if (Character.isDigit(suffix)) {
+                    return new NumberNode(Float.parseFloat(text), false, true);
+                }
+            } else {
+                String digits = text;
+                if (digits.endsWith("l") || digits.endsWith("L")) {
+                    digits = digits.substring(0, digits.length() - 1);
+                }
+                final long value;
+                if (digits.startsWith("0x") || digits.startsWith("0X")) {
+                    value = Long.parseLong(digits.substring(2), 16);
+                } else if (digits.length() > 1 && digits.startsWith("0")) {
+                    value = Long.parseLong(digits.substring(1), 8);
+                } else {
+                    value = Long.parseLong(digits);
+                }
+                return new NumberNode(value, true, false);
+            }
+        } catch (NumberFormatException e) {
+            // Unsupported suffix or format
+        }
+        throw new UnsupportedExpressionException("Unsupported number literal '" + text + "'");
+    }
+}
@@ -0,0 +1,331 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.opennms.netmgt.measurements.model.Source;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class CompiledExpressionEngineTest {
+
+    private static final double DELTA = 0.0001;
+
+    private final AtomicInteger fallbacks = new AtomicInteger();
+
+    private final ExpressionEngine compiledExpressionEngine = new CompiledExpressionEngine((request, results) -> {
+        fallbacks.incrementAndGet();
+    }, true);
+
+    @Test
+    public void canPerformLinearCombination() throws ExpressionException {
+        double results[] = performExpression("x * 5 + 7");
+        assertEquals(12, results[1], DELTA);
+        assertEquals(502, results[99], DELTA);
+    }
+
+    @Test
+    public void canPerformMathFunctions() throws ExpressionException {
+        assertEquals(Math.sin(1.0d), performExpression("math:sin(x)")[1], DELTA);
+        assertEquals(StrictMath.atan2(90, 15), performExpression("strictmath:atan2(90, 15)")[0], DELTA);
+        assertEquals(3, performExpression("math:max(x, 3)")[1], DELTA);
+        assertEquals(4, performExpression("math:round(math:sqrt(x))")[17], DELTA);
+        assertEquals(Double.NaN, performExpression("math:min(x, NaN)")[1], DELTA);
+    }
+
+    @Test
+    public void canPerformLimit() throws ExpressionException {
+        final String limitExpression = "( ( (A == __inf) || (A == __neg_inf) || (B == __inf) || (B == __neg_inf) || (x < A) || (x > B) ) ? NaN : x )";
+        final Map<String,Object> constants = Maps.newHashMap();
+        constants.put("A", 10.0);
+        constants.put("B", 20.0);
+
+        double results[] = performExpression(limitExpression, constants);
+        assertEquals(Double.NaN, results[9], DELTA);
+        assertEquals(10, results[10], DELTA);
+        assertEquals(20, results[20], DELTA);
+        assertEquals(Double.NaN, results[21], DELTA);
+
+        constants.put("B", Double.POSITIVE_INFINITY);
+        results = performExpression(limitExpression, constants);
+        assertEquals(Double.NaN, results[15], DELTA);
+    }
+
+    @Test
+    public void canCompareNaN() throws ExpressionException {
+        final Map<String,Object> constants = Maps.newHashMap();
+        constants.put("A", Double.NaN);
+
+        double results[] = performExpression("( ( A == NaN ) ? x : ( ( x == NaN ) ? A : math:min(A,x) ) )", constants);
+        assertEquals(5, results[5], DELTA);
+        results = performExpression("A != NaN ? 1 : 0", constants);
+        assertEquals(0, results[5], DELTA);
+        results = performExpression("A < 1 or not (A >= 1) ? 1 : 0", constants);
+        assertEquals(1, results[5], DELTA);
+    }
+
+    @Test
+    public void usesIntegerArithmeticForIntegers() throws ExpressionException {
+        assertEquals(0, performExpression("1 / 2")[0], DELTA);
+        assertEquals(0.5, performExpression("1 / 2.0")[0], DELTA);
+        assertEquals(1, performExpression("timestamp / 1000 / 2")[3], DELTA);
+        assertEquals(1.5, performExpression("timestamp / 1000.0d / 2")[3], DELTA);
+        assertEquals(400.0, performExpression("timestamp / 125.0d")[50], DELTA);
+        assertEquals(2, performExpression("__i % 3")[5], DELTA);
+    }
+
+    @Test
+    public void dividesByZeroAsJexl() throws ExpressionException {
+        assertEquals(0, performExpression("x / 0")[5], DELTA);
+        assertEquals(0, performExpression("x / (x - 5)")[5], DELTA);
+        assertEquals(0, performExpression("x % 0")[5], DELTA);
+        assertEquals(2, performExpression("x / (x - 5)")[10], DELTA);
+    }
+
+    @Test
+    public void parsesFloatLiteralsAsJexl() throws ExpressionException {
+        final Map<String,Object> constants = Maps.newHashMap();
+        constants.put("speed", 65);
+
+        // JEXL parses 0.62137 as a Float, but converts it to a double using its decimal value
+        double results[] = performExpression("speed / 0.62137", constants);
+        assertEquals(104.60756071261889, results[0], 0);
+        results = performExpression("0.1");
+        assertEquals(0.1, results[0], 0);
+
+        constants.put("A", 0.1d);
+        results = performExpression("A == 0.1 ? 1 : 0", constants);
+        assertEquals(1, results[0], 0);
+        results = performExpression("x / 10 < 0.3 ? 1 : 0", constants);
+        assertEquals(0, results[3], 0);
+
+        // The functions are given the widened float
+        results = performExpression("math:max(A, 0.3)", constants);
+        assertEquals(0.30000001192092896, results[0], 0);
+    }
+
+    /**
+     * Evaluates the expressions of the {@link JEXLExpressionEngineTest} with both engines.
+     */
+    @Test
+    public void evaluatesTheJexlExpressionsIdentically() throws ExpressionException {
+        final String limit = "( ( (A == __inf) || (A == __neg_inf) || (B == __inf) || (B == __neg_inf) || (C == __inf) || (C == __neg_inf) || (C < A) || (C > B) ) ? NaN : C )";
+        final double b = 0.14290626;
+        for (Object c : new Object[] { 0.01, 0.0, -1.0, b, b + 1.0, Double.NEGATIVE_INFINITY }) {
+            assertSameAsJexl(limit, "A", 0.0, "B", b, "C", c);
+        }
+        for (Object a : new Object[] { Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY }) {
+            assertSameAsJexl(limit, "A", a, "B", b, "C", 0.1);
+        }
+        for (Object max : new Object[] { Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY }) {
+            assertSameAsJexl(limit, "A", 0.0, "B", max, "C", 0.1);
+        }
+
+        final Object[][] pairs = new Object[][] {
+            { 1.0, 100.0 }, { 100.0, 1.0 }, { 1.0, 1.0 }, { 100.0, 100.0 }, { 1.0, Double.NaN }, { Double.NaN, 1.0 }, { Double.NaN, Double.NaN }
+        };
+        for (Object[] pair : pairs) {
+            assertSameAsJexl("math:min(A,B)", "A", pair[0], "B", pair[1]);
+            assertSameAsJexl("math:max(A,B)", "A", pair[0], "B", pair[1]);
+            assertSameAsJexl("( ( A == NaN ) ? B : ( ( B == NaN ) ? A : math:min(A,B) ) )", "A", pair[0], "B", pair[1]);
+            assertSameAsJexl("( ( A == NaN ) ? B : ( ( B == NaN ) ? A : math:max(A,B) ) )", "A", pair[0], "B", pair[1]);
+            assertSameAsJexl("( ( ( A == NaN ) && ( B == NaN ) ) ? NaN : ( ( A == NaN ) ? B : ( ( B == NaN ) ? A : ( A + B ) ) ) )", "A", pair[0], "B", pair[1]);
+        }
+
+        assertSameAsJexl("x * 5 + 7");
+        assertSameAsJexl("math:sin(x)");
+        assertSameAsJexl("math:sin(A)", "A", 1);
+        assertSameAsJexl("math:cos(A)", "A", 1);
+        assertSameAsJexl("math:log(A)", "A", Math.E);
+        assertSameAsJexl("math:exp(A)", "A", 1);
+        assertSameAsJexl("math:sqrt(A)", "A", 4);
+        assertSameAsJexl("math:atan(A)", "A", 1);
+        assertSameAsJexl("math:atan2(Y,X)", "Y", 90, "X", 15);
+        assertSameAsJexl("timestamp / 125.0d");
+        assertSameAsJexl("speed / 0.62137", "speed", 65);
+        assertSameAsJexl("1 * __diff_time");
+
+        // Float literals
+        assertSameAsJexl("x / 10 == 0.3 ? 1 : 0");
+        assertSameAsJexl("x / 10 < 0.3 ? 1 : 0");
+        assertSameAsJexl("x * 0.1 + 0.2f");
+        assertSameAsJexl("math:max(x / 10, 0.3)");
+        assertSameAsJexl("math:abs(-0.3) * x");
+    }
+
+    private void assertSameAsJexl(String expression, Object... constants) throws ExpressionException {
+        final Map<String,Object> entries = Maps.newHashMap();
+        for (int i = 0; i < constants.length; i += 2) {
+            entries.put((String)constants[i], constants[i + 1]);
+        }
+        final FetchResults expected = createResults(entries);
+        new JEXLExpressionEngine().applyExpressions(createRequest(createExpression("y", expression, false)), expected);
+
+        assertArrayEquals(expression + " with " + entries, expected.getColumns().get("y"), performExpression(expression, entries), 0);
+    }
+
+    @Test
+    public void canReferenceConstants() throws ExpressionException {
+        final Map<String,Object> constants = Maps.newHashMap();
+        constants.put("x.ifSpeed", 100.0);
+
+        double results[] = performExpression("x * 8 / x.ifSpeed", constants);
+        assertEquals(0.8, results[10], DELTA);
+        results = performExpression("1 * __diff_time");
+        assertEquals(99000.0, results[0], DELTA);
+    }
+
+    @Test
+    public void canReferencePriorSamples() throws ExpressionException {
+        double results[] = performExpression("fn:arrayNaN(\"x\", 5)");
+        assertEquals(Double.NaN, results[4], DELTA);
+        assertEquals(0, results[5], DELTA);
+        results = performExpression("fn:arrayZero('x', 5)");
+        assertEquals(0, results[4], DELTA);
+        assertEquals(1, results[6], DELTA);
+        results = performExpression("fn:arrayFirst(\"x\", 5)");
+        assertEquals(0, results[4], DELTA);
+        assertEquals(2, results[7], DELTA);
+        results = performExpression("fn:arrayStart(\"x\", 5, 10)");
+        assertEquals(10, results[4], DELTA);
+        assertEquals(3, results[8], DELTA);
+        results = performExpression("x - fn:arrayNaN(\"x\", -1)");
+        assertEquals(-1, results[98], DELTA);
+        assertEquals(Double.NaN, results[99], DELTA);
+    }
+
+    @Test
+    public void canReferencePreviousExpressions() throws ExpressionException {
+        final QueryRequest request = createRequest(
+                createExpression("a", "x * 2", true),
+                createExpression("b", "a + x", false),
+                createExpression("c", "b", false));
+        final FetchResults results = createResults(Maps.newHashMap());
+        compiledExpressionEngine.applyExpressions(request, results);
+
+        assertEquals(0, fallbacks.get());
+        assertFalse(results.getColumns().containsKey("a"));
+        assertEquals(30, results.getColumns().get("b")[10], DELTA);
+        assertArrayEquals(results.getColumns().get("b"), results.getColumns().get("c"), 0);
+        assertTrue(results.getColumns().get("b") != results.getColumns().get("c"));
+    }
+
+    @Test
+    public void fallsBackToJexl() throws ExpressionException {
+        final Map<String,Object> constants = Maps.newHashMap();
+        constants.put("__formula", "x * 2");
+        constants.put("label", "eth0");
+
+        performExpression("/", constants, 1);
+        performExpression("!(!true)", constants, 2);
+        performExpression("jexl:evaluate(__formula)", constants, 3);
+        performExpression("label == 'eth0' ? 1 : 0", constants, 4);
+        performExpression("x > 0 ? 0.5 : x", constants, 5);
+        performExpression("undefined * 2", constants, 6);
+        performExpression("x.length()", constants, 7);
+
+        // References to the result of the same, or a later, expression
+        compiledExpressionEngine.applyExpressions(createRequest(
+                createExpression("a", "x + b", false),
+                createExpression("b", "x", false)), createResults(constants));
+        assertEquals(8, fallbacks.get());
+    }
+
+    @Test
+    public void canBeDisabled() throws ExpressionException {
+        final ExpressionEngine engine = new CompiledExpressionEngine((request, results) -> {
+            fallbacks.incrementAndGet();
+        }, false);
+        engine.applyExpressions(createRequest(createExpression("y", "x * 2", false)), createResults(Maps.newHashMap()));
+        assertEquals(1, fallbacks.get());
+    }
+
+    private double[] performExpression(String expression) throws ExpressionException {
+        return performExpression(expression, Maps.newHashMap());
+    }
+
+    private double[] performExpression(String expression, Map<String, Object> constants) throws ExpressionException {
+        final double[] results = performExpression(expression, constants, fallbacks.get());
+        assertEquals(100, results.length);
+        return results;
+    }
+
+    private double[] performExpression(String expression, Map<String, Object> constants, int expectedFallbacks) throws ExpressionException {
+        final FetchResults results = createResults(constants);
+        compiledExpressionEngine.applyExpressions(createRequest(createExpression("y", expression, false)), results);
+        assertEquals("Fallbacks after evaluating " + expression, expectedFallbacks, fallbacks.get());
+        return results.getColumns().get("y");
+    }
+
+    private static Expression createExpression(String label, String expression, boolean transientFlag) {
+        Expression exp = new Expression();
+        exp.setLabel(label);
+        exp.setExpression(expression);
+        exp.setTransient(transientFlag);
+        return exp;
+    }
+
+    private static QueryRequest createRequest(Expression... expressions) {
+        QueryRequest request = new QueryRequest();
+        Source source = new Source();
+        source.setLabel("x");
+        request.setSources(Lists.newArrayList(source));
+        request.setExpressions(Lists.newArrayList(expressions));
+        return request;
+    }
+
+    private static FetchResults createResults(Map<String, Object> constants) {
+        // Build the fetch results with known values
+        final int N = 100;
+        long timestamps[] = new long[N];
+        double xValues[] = new double[N];
+        for (int i = 0; i < N; i++) {
+            timestamps[i] = i * 1000;
+            xValues[i] = Double.valueOf(i);
+        }
+        Map<String, double[]> values = Maps.newHashMap();
+        values.put("x", xValues);
+        return new FetchResults(timestamps, values, 1, constants);
+    }
+}
@@ -0,0 +1,156 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the {@link JEXLExpressionEngine} with the {@link CompiledExpressionEngine},
+ * applying 20 expressions, typical of the graph definitions, to 30 days of samples
+ * collected every 5 minutes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ExpressionEngineBenchmark {
+
+    private static final String[] EXPRESSIONS = {
+        "octIn * 8",
+        "octOut * 8",
+        "-1 * bitsOut",
+        "octIn * 8 / 1000000 / octIn.ifSpeed * 100",
+        "octOut * 8 / 1000000 / octIn.ifSpeed * 100",
+        "( ( octIn == NaN ) ? 0 : octIn )",
+        "( ( ( octIn == NaN ) && ( octOut == NaN ) ) ? NaN : ( ( octIn == NaN ) ? octOut : ( ( octOut == NaN ) ? octIn : ( octIn + octOut ) ) ) )",
+        "( ( (octIn == __inf) || (octIn == __neg_inf) || (octIn < 0) || (octIn > 125000000) ) ? NaN : octIn )",
+        "math:max(octIn, octOut)",
+        "math:min(octIn, octOut)",
+        "octIn - fn:arrayNaN(\"octIn\", 1)",
+        "errIn + errOut",
+        "total / 300",
+        "( errIn / ( octIn + 1 ) ) * 100",
+        "bitsIn / 1000",
+        "bitsOut / 1000",
+        "math:sqrt(bitsIn)",
+        "( bitsIn > bitsOut ) ? bitsIn : bitsOut",
+        "timestamp / 1000",
+        "( octIn + octOut ) * 8 / __diff_time",
+    };
+
+    private static final String[] LABELS = {
+        "bitsIn", "bitsOut", "bitsOutNeg", "pctIn", "pctOut", "octInOrZero", "total", "octInLimited", "max", "min",
+        "delta", "errors", "totalRate", "errorRatio", "kbitsIn", "kbitsOut", "sqrtBitsIn", "peak", "seconds", "rate"
+    };
+
+    private static final int ROWS = 30 * 24 * 12;
+
+    @Param({"jexl", "compiled"})
+    public String engine;
+
+    private ExpressionEngine m_engine;
+
+    private QueryRequest m_request;
+
+    private long[] m_timestamps;
+
+    private Map<String, double[]> m_columns;
+
+    private Map<String, Object> m_constants;
+
+    @Setup
+    public void setUp() {
+        m_engine = "jexl".equals(engine) ? new JEXLExpressionEngine() : new CompiledExpressionEngine(new JEXLExpressionEngine(), true);
+
+        final List<Expression> expressions = new ArrayList<>(EXPRESSIONS.length);
+        for (int i = 0; i < EXPRESSIONS.length; i++) {
+            final Expression expression = new Expression();
+            expression.setLabel(LABELS[i]);
+            expression.setExpression(EXPRESSIONS[i]);
+            expressions.add(expression);
+        }
+        m_request = new QueryRequest();
+        m_request.setExpressions(expressions);
+
+        final Random random = new Random(42);
+        m_timestamps = new long[ROWS];
+        m_columns = new HashMap<>();
+        for (String source : new String[] { "octIn", "octOut", "errIn", "errOut" }) {
+            final double[] values = new double[ROWS];
+            for (int i = 0; i < ROWS; i++) {
+                values[i] = random.nextInt(100) == 0 ? Double.NaN : random.nextDouble() * 1000000;
+            }
+            m_columns.put(source, values);
+        }
+        for (int i = 0; i < ROWS; i++) {
+            m_timestamps[i] = TimeUnit.MINUTES.toMillis(5 * i);
+        }
+        m_constants = new HashMap<>();
+        m_constants.put("octIn.ifSpeed", 1000000000d);
+    }
+
+    @Benchmark
+    public FetchResults applyExpressions() throws ExpressionException {
+        final FetchResults results = new FetchResults(m_timestamps, new HashMap<>(m_columns), 300, m_constants);
+        m_engine.applyExpressions(m_request, results);
+        return results;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(ExpressionEngineBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
@@ -129,6 +129,12 @@ public class TelemetrySinkModule implements SinkModule<TelemetryMessage, Telemet
         };
     }
 
+    @Override
+    public String getRoutingKey(TelemetryProtos.TelemetryMessageLog message) {
+        // Keep the messages of an exporter together, i.e. for templates
+        return message.getSourceAddress();
+    }
+
     @Override
     public AsyncPolicy getAsyncPolicy() {
         return new AsyncPolicy() {
@@ -57,6 +57,13 @@ public class BufferUtils {
     }
 
     public static UnsignedLong uint(final ByteBuffer buffer, final int octets) {
+        return UnsignedLong.fromLongBits(ulong(buffer, octets));
+    }
+
+    /**
+     * Reads an unsigned integer of the given width and returns its raw bits without boxing.
+     */
+    public static long ulong(final ByteBuffer buffer, final int octets) {
         Preconditions.checkArgument(0 <= octets && octets <= 8);
 
         long result = 0;
@@ -65,10 +72,17 @@ public class BufferUtils {
             result = (result << 8L) | (buffer.get() & 0xFFL);
         }
 
-        return UnsignedLong.fromLongBits(result);
+        return result;
     }
 
     public static Long sint(final ByteBuffer buffer, final int octets) {
+        return slong(buffer, octets);
+    }
+
+    /**
+     * Reads a signed integer of the given width without boxing.
+     */
+    public static long slong(final ByteBuffer buffer, final int octets) {
         Preconditions.checkArgument(0 <= octets && octets <= 8);
 
         long result = buffer.get() & 0xFFL;
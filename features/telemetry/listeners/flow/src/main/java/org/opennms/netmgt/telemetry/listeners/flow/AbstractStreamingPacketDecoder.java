@@ -0,0 +1,218 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.telemetry.listeners.flow;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Objects;
+
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonWriter;
+import org.bson.io.BasicOutputBuffer;
+import org.opennms.netmgt.telemetry.listeners.api.TelemetryMessage;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.RecordProvider;
+import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
+import org.opennms.netmgt.telemetry.listeners.flow.session.Template;
+import org.opennms.netmgt.telemetry.listeners.flow.session.UdpSessionManager;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.handler.codec.MessageToMessageDecoder;
+
+/**
+ * Decodes flow packets directly into serialized messages.
+ *
+ * Data sets are walked against the cached templates using a single {@link FlowRecordView} and each record is
+ * written to a reused BSON output buffer without building the intermediate packet, set, record and value objects.
+ * Packets containing template, options template or options data sets are rare and update the session. These are
+ * handed to the regular decoder which yields the same output.
+ *
+ * Instances are bound to a single channel and must not be shared.
+ */
+public abstract class AbstractStreamingPacketDecoder extends MessageToMessageDecoder<DatagramPacket> {
+
+    @FunctionalInterface
+    protected interface RecordWriter {
+        void write(final FlowRecordView record, final BsonWriter writer) throws InvalidPacketException;
+    }
+
+    private final Protocol protocol;
+
+    private final UdpSessionManager sessionManager;
+
+    private final boolean variableSized;
+
+    private final FlowRecordView record;
+
+    private final BasicOutputBuffer output = new BasicOutputBuffer();
+
+    protected AbstractStreamingPacketDecoder(final Protocol protocol,
+                                             final UdpSessionManager sessionManager,
+                                             final boolean variableSized) {
+        this.protocol = Objects.requireNonNull(protocol);
+        this.sessionManager = Objects.requireNonNull(sessionManager);
+        this.variableSized = variableSized;
+        this.record = new FlowRecordView(variableSized);
+    }
+
+    @Override
+    protected void decode(final ChannelHandlerContext ctx, final DatagramPacket msg, final List<Object> out) throws Exception {
+        final Session session = this.sessionManager.getSession(msg.sender(), msg.recipient());
+        this.decode(session, msg.sender(), msg.content(), out);
+    }
+
+    /**
+     * Decodes the packet contained in the buffer and adds a {@link TelemetryMessage} per flow record to the given
+     * list.
+     */
+    public abstract void decode(final Session session,
+                                final InetSocketAddress sender,
+                                final ByteBuf buf,
+                                final List<Object> out) throws Exception;
+
+    /**
+     * Counts the data records contained in the sets of the given payload.
+     *
+     * @return the number of records or {@code -1} if the packet must be handled by the regular decoder
+     */
+    protected int countRecords(final Session.Resolver resolver, final ByteBuffer payload) throws InvalidPacketException {
+        final int start = payload.position();
+        final int end = payload.limit();
+        try {
+            int count = 0;
+            while (payload.hasRemaining()) {
+                final int setStart = payload.position();
+                if (end - setStart < 4) {
+                    return -1;
+                }
+
+                final int setId = payload.getShort(setStart) & 0xFFFF;
+                final int setLength = payload.getShort(setStart + 2) & 0xFFFF;
+                if (setId < 256 || setLength < 4 || setStart + setLength > end) {
+                    return -1;
+                }
+
+                final Template template = resolver.lookupTemplate(setId).orElse(null);
+                if (template == null || template.type != Template.Type.TEMPLATE) {
+                    return -1;
+                }
+
+                // Leave degenerated templates to the regular decoder
+                if (FlowRecordView.minimumRecordLength(template, this.variableSized) == 0) {
+                    return -1;
+                }
+
+                final int setCount = this.forEachRecord(template, payload, setStart + 4, setStart + setLength, null);
+                if (setCount == 0) {
+                    return -1;
+                }
+
+                count += setCount;
+                payload.limit(end);
+                payload.position(setStart + setLength);
+            }
+
+            return count;
+        } finally {
+            payload.limit(end);
+            payload.position(start);
+        }
+    }
+
+    /**
+     * Serializes all data records contained in the given payload. Must only be called if
+     * {@link #countRecords(Session.Resolver, ByteBuffer)} succeeded for the payload.
+     */
+    protected void writeRecords(final Session.Resolver resolver,
+                                final InetSocketAddress sender,
+                                final ByteBuffer payload,
+                                final List<Object> out,
+                                final RecordWriter recordWriter) throws InvalidPacketException {
+        final int end = payload.limit();
+        while (payload.hasRemaining()) {
+            final int setStart = payload.position();
+            final int setId = payload.getShort(setStart) & 0xFFFF;
+            final int setLength = payload.getShort(setStart + 2) & 0xFFFF;
+
+            final Template template = resolver.lookupTemplate(setId).get();
+            this.forEachRecord(template, payload, setStart + 4, setStart + setLength, (record) -> {
+                this.output.truncateToPosition(0);
+                try (final BsonBinaryWriter writer = new BsonBinaryWriter(this.output)) {
+                    writer.writeStartDocument();
+                    writer.writeInt32("@version", this.protocol.magic);
+                    recordWriter.write(record, writer);
+                    writer.writeEndDocument();
+                }
+
+                out.add(new TelemetryMessage(sender, ByteBuffer.wrap(this.output.toByteArray())));
+            });
+
+            payload.limit(end);
+            payload.position(setStart + setLength);
+        }
+    }
+
+    /**
+     * Serializes the records of a packet decoded by the regular decoder.
+     */
+    protected void writeRecords(final RecordProvider packet,
+                                final InetSocketAddress sender,
+                                final List<Object> out) {
+        packet.getRecords().forEach(record -> out.add(new TelemetryMessage(sender, PacketHandler.serialize(this.protocol, record))));
+    }
+
+    @FunctionalInterface
+    private interface RecordCallback {
+        void accept(final FlowRecordView record) throws InvalidPacketException;
+    }
+
+    private int forEachRecord(final Template template,
+                              final ByteBuffer payload,
+                              final int start,
+                              final int end,
+                              final RecordCallback callback) throws InvalidPacketException {
+        final int minimumRecordLength = FlowRecordView.minimumRecordLength(template, this.variableSized);
+
+        payload.limit(end);
+        payload.position(start);
+
+        int count = 0;
+        while (payload.remaining() >= minimumRecordLength) {
+            this.record.read(template, payload);
+            count++;
+
+            if (callback != null) {
+                callback.accept(this.record);
+            }
+        }
+
+        return count;
+    }
+}
@@ -29,18 +29,29 @@
 package org.opennms.netmgt.telemetry.listeners.flow;
 
 import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 import org.opennms.core.ipc.sink.api.AsyncDispatcher;
 import org.opennms.netmgt.telemetry.listeners.api.Listener;
 import org.opennms.netmgt.telemetry.listeners.api.TelemetryMessage;
+import org.opennms.netmgt.telemetry.listeners.flow.session.TemplateStore;
 import org.opennms.netmgt.telemetry.listeners.flow.session.UdpSessionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Throwables;
+
 import io.netty.bootstrap.Bootstrap;
-import io.netty.channel.ChannelFuture;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
@@ -48,8 +59,13 @@ import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.FixedRecvByteBufAllocator;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.DatagramChannel;
+import io.netty.channel.socket.DatagramPacket;
 import io.netty.channel.socket.nio.NioDatagramChannel;
 import io.netty.util.concurrent.ScheduledFuture;
 import io.netty.util.internal.SocketUtils;
@@ -67,67 +83,139 @@ public abstract class AbstractUdpListener implements Listener {
     private int port = 4738;
 
     private Duration templateTimeout = Duration.ofMinutes(30);
+    private String templateCache = null;
 
     private AsyncDispatcher<TelemetryMessage> dispatcher;
 
     private EventLoopGroup bossGroup;
-    private ChannelFuture socketFuture;
+    private final List<Channel> channels = new ArrayList<>();
+
+    private final MetricRegistry metrics = new MetricRegistry();
+    private JmxReporter reporter;
 
     private UdpSessionManager sessionManager;
     private ScheduledFuture<?> housekeepingFuture;
     private int maxPacketSize = 8096;
+    private boolean streamingDecoder = false;
+    private int sockets = 1;
 
     protected abstract ChannelHandler buildDecoder(final UdpSessionManager sessionManager);
 
+    protected abstract ChannelHandler buildStreamingDecoder(final UdpSessionManager sessionManager);
+
+    protected abstract TemplateStore buildTemplateStore(final Path path);
+
     protected AbstractUdpListener(final Protocol protocol) {
         this.protocol = protocol;
     }
 
     public void start() throws InterruptedException {
-        this.sessionManager = new UdpSessionManager(this.templateTimeout);
-
-        this.bossGroup = new NioEventLoopGroup();
-
-        this.housekeepingFuture = this.bossGroup.scheduleAtFixedRate(this.sessionManager::doHousekeeping, HOUSEKEEPING_INTERVAL, HOUSEKEEPING_INTERVAL, TimeUnit.MILLISECONDS);
+        this.sessionManager = new UdpSessionManager(this.templateTimeout, this.templateCache != null
+                ? this.buildTemplateStore(Paths.get(this.templateCache))
+                : null);
+        this.sessionManager.restore();
+
+        // Multiple sockets can only share the port using SO_REUSEPORT which is not available using NIO
+        final boolean reusePort = this.sockets > 1 && Epoll.isAvailable();
+        if (this.sockets > 1 && !reusePort) {
+            LOG.warn("Native epoll transport is not available - listener {} falls back to a single socket", this.name, Epoll.unavailabilityCause());
+        }
+        final int sockets = reusePort ? this.sockets : 1;
+
+        // Every socket is bound to its own event loop and therefore decoded by its own thread
+        this.bossGroup = reusePort
+                ? new EpollEventLoopGroup(sockets)
+                : new NioEventLoopGroup();
+
+        this.housekeepingFuture = this.bossGroup.scheduleAtFixedRate(() -> {
+            this.sessionManager.doHousekeeping();
+            this.sessionManager.checkpoint();
+        }, HOUSEKEEPING_INTERVAL, HOUSEKEEPING_INTERVAL, TimeUnit.MILLISECONDS);
 
         final InetSocketAddress address = this.host != null
                 ? SocketUtils.socketAddress(this.host, this.port)
                 : new InetSocketAddress(this.port);
 
-        this.socketFuture = new Bootstrap()
-                .group(this.bossGroup)
-                .channel(NioDatagramChannel.class)
-                .option(ChannelOption.SO_REUSEADDR, true)
-                .option(ChannelOption.SO_RCVBUF, Integer.MAX_VALUE)
-                .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(this.maxPacketSize))
-                .handler(new ChannelInitializer<DatagramChannel>() {
-                    @Override
-                    protected void initChannel(final DatagramChannel ch) throws Exception {
-                        ch.pipeline()
-                                .addLast(AbstractUdpListener.this.buildDecoder(AbstractUdpListener.this.sessionManager))
-                                .addLast(new PacketHandler(AbstractUdpListener.this.protocol, AbstractUdpListener.this.dispatcher))
-                                .addLast(new ChannelInboundHandlerAdapter() {
-                                    @Override
-                                    public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) throws Exception {
-                                        LOG.warn("Invalid packet: {}", cause.getMessage());
-                                        LOG.debug("", cause);
-                                        AbstractUdpListener.this.sessionManager.drop(ch.remoteAddress(), ch.localAddress());
-                                    }
-                                });
-                    }
-                })
-                .bind(address)
-                .sync();
+        this.metrics.removeMatching(MetricFilter.ALL);
+        this.reporter = JmxReporter.forRegistry(this.metrics)
+                .inDomain(AbstractUdpListener.class.getPackage().getName())
+                .build();
+        this.reporter.start();
+
+        final Meter dataSetsMissingTemplate = this.metrics.meter(MetricRegistry.name(this.name, "dataSetsMissingTemplate"));
+
+        for (int i = 0; i < sockets; i++) {
+            final Meter packetsReceived = this.metrics.meter(MetricRegistry.name(this.name, "socket-" + i, "packetsReceived"));
+            final Meter packetsDropped = this.metrics.meter(MetricRegistry.name(this.name, "socket-" + i, "packetsDropped"));
+
+            final Bootstrap bootstrap = new Bootstrap()
+                    .group(this.bossGroup)
+                    .channel(reusePort ? EpollDatagramChannel.class : NioDatagramChannel.class)
+                    .option(ChannelOption.SO_REUSEADDR, true)
+                    .option(ChannelOption.SO_RCVBUF, Integer.MAX_VALUE)
+                    .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(this.maxPacketSize))
+                    .handler(new ChannelInitializer<DatagramChannel>() {
+                        @Override
+                        protected void initChannel(final DatagramChannel ch) throws Exception {
+                            ch.pipeline()
+                                    .addLast(new ChannelInboundHandlerAdapter() {
+                                        @Override
+                                        public void channelRead(final ChannelHandlerContext ctx, final Object msg) throws Exception {
+                                            if (msg instanceof DatagramPacket) {
+                                                packetsReceived.mark();
+                                            }
+                                            ctx.fireChannelRead(msg);
+                                        }
+                                    });
+
+                            if (AbstractUdpListener.this.streamingDecoder) {
+                                ch.pipeline()
+                                        .addLast(AbstractUdpListener.this.buildStreamingDecoder(AbstractUdpListener.this.sessionManager))
+                                        .addLast(new TelemetryMessageHandler(AbstractUdpListener.this.dispatcher));
+                            } else {
+                                ch.pipeline()
+                                        .addLast(AbstractUdpListener.this.buildDecoder(AbstractUdpListener.this.sessionManager))
+                                        .addLast(new PacketHandler(AbstractUdpListener.this.protocol, AbstractUdpListener.this.dispatcher));
+                            }
+
+                            ch.pipeline()
+                                    .addLast(new ChannelInboundHandlerAdapter() {
+                                        @Override
+                                        public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) throws Exception {
+                                            LOG.warn("Invalid packet: {}", cause.getMessage());
+                                            LOG.debug("", cause);
+                                            packetsDropped.mark();
+                                            if (Throwables.getCausalChain(cause).stream().anyMatch(MissingTemplateException.class::isInstance)) {
+                                                dataSetsMissingTemplate.mark();
+                                            }
+                                            AbstractUdpListener.this.sessionManager.drop(ch.remoteAddress(), ch.localAddress());
+                                        }
+                                    });
+                        }
+                    });
+
+            if (reusePort) {
+                bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+            }
+
+            this.channels.add(bootstrap.bind(address).sync().channel());
+        }
     }
 
     public void stop() throws InterruptedException {
-        LOG.info("Closing channel...");
-        socketFuture.channel().close().sync();
+        LOG.info("Closing channels...");
+        for (final Channel channel : this.channels) {
+            channel.close().sync();
+        }
+        this.channels.clear();
 
         this.housekeepingFuture.cancel(false);
+        this.sessionManager.checkpoint();
 
         LOG.info("Closing boss group...");
         bossGroup.shutdownGracefully().sync();
+
+        this.reporter.stop();
     }
 
     @Override
@@ -164,6 +252,34 @@ public abstract class AbstractUdpListener implements Listener {
         this.maxPacketSize = maxPacketSize;
     }
 
+    public boolean isStreamingDecoder() {
+        return this.streamingDecoder;
+    }
+
+    public void setStreamingDecoder(final boolean streamingDecoder) {
+        this.streamingDecoder = streamingDecoder;
+    }
+
+    public int getSockets() {
+        return this.sockets;
+    }
+
+    public void setSockets(final int sockets) {
+        this.sockets = sockets;
+    }
+
+    public MetricRegistry getMetrics() {
+        return this.metrics;
+    }
+
+    public String getTemplateCache() {
+        return this.templateCache;
+    }
+
+    public void setTemplateCache(final String templateCache) {
+        this.templateCache = templateCache;
+    }
+
     public Duration getTemplateTimeout() {
         return this.templateTimeout;
     }
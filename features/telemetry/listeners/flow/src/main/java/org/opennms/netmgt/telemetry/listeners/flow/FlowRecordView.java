@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.telemetry.listeners.flow;
+
+import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.uint16;
+import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.uint8;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.bson.BsonWriter;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
+import org.opennms.netmgt.telemetry.listeners.flow.session.Field;
+import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
+import org.opennms.netmgt.telemetry.listeners.flow.session.Template;
+
+/**
+ * A reusable view on a single data record inside of a packet buffer.
+ *
+ * The view only remembers where the fields of the current record are located and is re-bound to the next record by
+ * calling {@link #read(Template, ByteBuffer)}. Values are either written directly to a BSON document or parsed on
+ * demand. Only templates of type {@link Template.Type#TEMPLATE} are supported, as records of options templates are
+ * never exported.
+ */
+public final class FlowRecordView {
+    public static final int VARIABLE_SIZED = 0xFFFF;
+    public static final int VARIABLE_SIZED_EXTENDED = 0xFF;
+
+    private final boolean variableSized;
+
+    private Template template;
+    private Field[] fields = new Field[0];
+
+    private ByteBuffer source;
+    private ByteBuffer buffer;
+
+    private int[] offsets = new int[0];
+    private int[] lengths = new int[0];
+
+    /**
+     * @param variableSized whether fields with a length of {@link #VARIABLE_SIZED} are prefixed by their actual
+     *                      length as defined by IPFIX
+     */
+    public FlowRecordView(final boolean variableSized) {
+        this.variableSized = variableSized;
+    }
+
+    /**
+     * Returns the length a record of the given template has at least - this is the same value the regular
+     * decoders use to detect padding at the end of a set.
+     */
+    public static int minimumRecordLength(final Template template, final boolean variableSized) {
+        int length = 0;
+        for (final Field field : template.fields) {
+            // For variable length fields we assume at least the length value (1 byte) to be present
+            length += variableSized && field.length() == VARIABLE_SIZED ? 1 : field.length();
+        }
+        return length;
+    }
+
+    /**
+     * Binds the view to the record starting at the current position of the given buffer and advances the buffer
+     * to the end of the record.
+     */
+    public void read(final Template template, final ByteBuffer data) throws InvalidPacketException {
+        if (this.template != template) {
+            this.template = Objects.requireNonNull(template);
+            this.fields = template.fields.toArray(new Field[template.fields.size()]);
+
+            if (this.offsets.length < this.fields.length) {
+                this.offsets = new int[this.fields.length];
+                this.lengths = new int[this.fields.length];
+            }
+        }
+
+        if (this.source != data) {
+            this.source = data;
+            this.buffer = data.duplicate();
+        }
+
+        for (int i = 0; i < this.fields.length; i++) {
+            int length = this.fields[i].length();
+            if (this.variableSized && length == VARIABLE_SIZED) {
+                length = uint8(data);
+                if (length == VARIABLE_SIZED_EXTENDED) {
+                    length = uint16(data);
+                }
+            }
+
+            if (length > data.remaining()) {
+                throw new InvalidPacketException(data, "Field length exceeds record: %d", length);
+            }
+
+            this.offsets[i] = data.position();
+            this.lengths[i] = length;
+
+            data.position(data.position() + length);
+        }
+    }
+
+    public Template getTemplate() {
+        return this.template;
+    }
+
+    public int size() {
+        return this.fields.length;
+    }
+
+    public Field getField(final int i) {
+        return this.fields[i];
+    }
+
+    /**
+     * Returns a buffer limited to the value of the given field. The returned buffer is shared and only valid until
+     * the next call to this method.
+     */
+    public ByteBuffer getValue(final int i) {
+        this.buffer.clear();
+        this.buffer.limit(this.offsets[i] + this.lengths[i]);
+        this.buffer.position(this.offsets[i]);
+        return this.buffer;
+    }
+
+    public void write(final Session.Resolver resolver, final BsonWriter writer) throws InvalidPacketException {
+        for (int i = 0; i < this.fields.length; i++) {
+            this.fields[i].write(resolver, this.getValue(i), writer);
+        }
+    }
+
+    public List<Value<?>> parse(final Session.Resolver resolver) throws InvalidPacketException {
+        final List<Value<?>> values = new ArrayList<>(this.fields.length);
+        for (int i = 0; i < this.fields.length; i++) {
+            values.add(this.fields[i].parse(resolver, this.getValue(i)));
+        }
+        return values;
+    }
+}
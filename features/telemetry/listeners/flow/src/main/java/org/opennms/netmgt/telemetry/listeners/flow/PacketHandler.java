@@ -31,29 +31,13 @@ package org.opennms.netmgt.telemetry.listeners.flow;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.Objects;
-import java.util.concurrent.CompletableFuture;
 
-import org.bson.BsonBinary;
 import org.bson.BsonBinaryWriter;
-import org.bson.BsonWriter;
 import org.bson.io.BasicOutputBuffer;
 import org.opennms.core.ipc.sink.api.AsyncDispatcher;
 import org.opennms.netmgt.telemetry.listeners.api.TelemetryMessage;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.RecordProvider;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
-import org.opennms.netmgt.telemetry.listeners.flow.ie.values.BooleanValue;
-import org.opennms.netmgt.telemetry.listeners.flow.ie.values.DateTimeValue;
-import org.opennms.netmgt.telemetry.listeners.flow.ie.values.FloatValue;
-import org.opennms.netmgt.telemetry.listeners.flow.ie.values.IPv4AddressValue;
-import org.opennms.netmgt.telemetry.listeners.flow.ie.values.IPv6AddressValue;
-import org.opennms.netmgt.telemetry.listeners.flow.ie.values.ListValue;
-import org.opennms.netmgt.telemetry.listeners.flow.ie.values.MacAddressValue;
-import org.opennms.netmgt.telemetry.listeners.flow.ie.values.NullValue;
-import org.opennms.netmgt.telemetry.listeners.flow.ie.values.OctetArrayValue;
-import org.opennms.netmgt.telemetry.listeners.flow.ie.values.SignedValue;
-import org.opennms.netmgt.telemetry.listeners.flow.ie.values.StringValue;
-import org.opennms.netmgt.telemetry.listeners.flow.ie.values.UndeclaredValue;
-import org.opennms.netmgt.telemetry.listeners.flow.ie.values.UnsignedValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -86,15 +70,7 @@ public class PacketHandler extends SimpleChannelInboundHandler<DefaultAddressedE
 
             // Dispatch and retain a reference to the packet
             // in the case that we are sharing the underlying byte array
-            final CompletableFuture<TelemetryMessage> future = dispatcher.send(msg);
-
-            // Pass exception if dispatching fails
-            future.handle((result, ex) -> {
-                if (ex != null) {
-                    ctx.fireExceptionCaught(ex);
-                }
-                return result;
-            });
+            TelemetryMessageHandler.dispatch(ctx, dispatcher, msg);
         });
     }
 
@@ -115,103 +91,4 @@ public class PacketHandler extends SimpleChannelInboundHandler<DefaultAddressedE
 
         return output.getByteBuffers().get(0).asNIO();
     }
-
-    private static class FlowBuilderVisitor implements Value.Visitor {
-        // TODO: Really use ordinal for enums?
-
-        private final BsonWriter writer;
-
-        public FlowBuilderVisitor(final BsonWriter writer) {
-            this.writer = writer;
-        }
-
-        @Override
-        public void accept(final NullValue value) {
-            this.writer.writeNull(value.getName());
-        }
-
-        @Override
-        public void accept(final BooleanValue value) {
-            this.writer.writeBoolean(value.getName(), value.getValue());
-        }
-
-        @Override
-        public void accept(final DateTimeValue value) {
-            this.writer.writeStartDocument(value.getName());
-            this.writer.writeInt64("epoch", value.getValue().getEpochSecond());
-            if (value.getValue().getNano() != 0) {
-                this.writer.writeInt64("nanos", value.getValue().getNano());
-            }
-            this.writer.writeEndDocument();
-        }
-
-        @Override
-        public void accept(final FloatValue value) {
-            this.writer.writeDouble(value.getName(), value.getValue());
-        }
-
-        @Override
-        public void accept(final IPv4AddressValue value) {
-            // TODO: Transport as binary?
-            this.writer.writeString(value.getName(), value.getValue().getHostAddress());
-        }
-
-        @Override
-        public void accept(final IPv6AddressValue value) {
-            // TODO: Transport as binary?
-            this.writer.writeString(value.getName(), value.getValue().getHostAddress());
-        }
-
-        @Override
-        public void accept(final MacAddressValue value) {
-            this.writer.writeStartDocument(value.getName());
-            value.getSemantics().ifPresent(semantics -> {
-                this.writer.writeInt32("s", semantics.ordinal());
-            });
-            this.writer.writeBinaryData("v", new BsonBinary(value.getValue()));
-            this.writer.writeEndDocument();
-        }
-
-        @Override
-        public void accept(final OctetArrayValue value) {
-            this.writer.writeBinaryData(value.getName(), new BsonBinary(value.getValue()));
-        }
-
-        @Override
-        public void accept(final SignedValue value) {
-            this.writer.writeInt64(value.getName(), value.getValue());
-        }
-
-        @Override
-        public void accept(final StringValue value) {
-            this.writer.writeString(value.getName(), value.getValue());
-        }
-
-        @Override
-        public void accept(final ListValue value) {
-            this.writer.writeStartDocument(value.getName());
-            this.writer.writeInt32("semantic", value.getSemantic().ordinal());
-            this.writer.writeStartArray("values");
-            for (int i = 0; i < value.getValue().size(); i++) {
-                this.writer.writeStartDocument();
-                for (int j = 0; j < value.getValue().get(i).size(); j++) {
-                    value.getValue().get(i).get(j).visit(this);
-                }
-                this.writer.writeEndDocument();
-            }
-            this.writer.writeEndArray();
-            this.writer.writeEndDocument();
-        }
-
-        @Override
-        public void accept(final UnsignedValue value) {
-            // TODO: Mark this as unsigned?
-            this.writer.writeInt64(value.getName(), value.getValue().longValue());
-        }
-
-        @Override
-        public void accept(final UndeclaredValue value) {
-            this.writer.writeBinaryData(value.getName(), new BsonBinary(value.getValue()));
-        }
-    }
 }
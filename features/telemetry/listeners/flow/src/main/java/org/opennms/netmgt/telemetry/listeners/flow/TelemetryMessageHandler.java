@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.telemetry.listeners.flow;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.netmgt.telemetry.listeners.api.TelemetryMessage;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+
+/**
+ * Dispatches the messages produced by the streaming decoders.
+ */
+public class TelemetryMessageHandler extends SimpleChannelInboundHandler<TelemetryMessage> {
+
+    private final AsyncDispatcher<TelemetryMessage> dispatcher;
+
+    public TelemetryMessageHandler(final AsyncDispatcher<TelemetryMessage> dispatcher) {
+        this.dispatcher = Objects.requireNonNull(dispatcher);
+    }
+
+    @Override
+    protected void channelRead0(final ChannelHandlerContext ctx, final TelemetryMessage msg) throws Exception {
+        dispatch(ctx, this.dispatcher, msg);
+    }
+
+    public static void dispatch(final ChannelHandlerContext ctx,
+                                final AsyncDispatcher<TelemetryMessage> dispatcher,
+                                final TelemetryMessage msg) {
+        final CompletableFuture<TelemetryMessage> future = dispatcher.send(msg);
+
+        // Pass exception if dispatching fails
+        future.handle((result, ex) -> {
+            if (ex != null) {
+                ctx.fireExceptionCaught(ex);
+            }
+            return result;
+        });
+    }
+}
@@ -30,6 +30,8 @@ package org.opennms.netmgt.telemetry.listeners.flow.ie;
 
 import java.nio.ByteBuffer;
 
+import org.bson.BsonWriter;
+import org.opennms.netmgt.telemetry.listeners.flow.FlowBuilderVisitor;
 import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
 import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
 
@@ -38,6 +40,18 @@ public interface InformationElement {
     Value<?> parse(final Session.Resolver resolver,
                    final ByteBuffer buffer) throws InvalidPacketException;
 
+    /**
+     * Writes the element contained in the buffer directly to the given BSON writer.
+     *
+     * The default implementation parses the value and serializes the result. Parsers for the frequently used types
+     * override this to avoid the intermediate value object.
+     */
+    default void write(final Session.Resolver resolver,
+                       final ByteBuffer buffer,
+                       final BsonWriter writer) throws InvalidPacketException {
+        this.parse(resolver, buffer).visit(new FlowBuilderVisitor(writer));
+    }
+
     String getName();
 
     int getMinimumFieldLength();
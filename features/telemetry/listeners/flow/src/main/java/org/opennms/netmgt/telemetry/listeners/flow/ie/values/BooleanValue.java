@@ -33,6 +33,7 @@ import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.uint8
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.InformationElement;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Semantics;
@@ -72,6 +73,16 @@ public class BooleanValue extends Value<Boolean> {
                 return new BooleanValue(name, semantics, value == 1);
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) throws InvalidPacketException {
+                final int value = uint8(buffer);
+                if (value < 1 || value > 2) {
+                    throw new InvalidPacketException(buffer, "Illegal value '%d' for boolean type (only 1/true and 2/false allowed)", value);
+                }
+
+                writer.writeBoolean(name, value == 1);
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -30,11 +30,14 @@ package org.opennms.netmgt.telemetry.listeners.flow.ie.values;
 
 import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.uint32;
 import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.uint64;
+import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.ulong;
 
 import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
+import org.opennms.netmgt.telemetry.listeners.flow.FlowBuilderVisitor;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.InformationElement;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Semantics;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
@@ -73,6 +76,11 @@ public class DateTimeValue extends Value<Instant> {
                 return new DateTimeValue(name, semantics, Instant.ofEpochSecond(uint32(buffer)));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                FlowBuilderVisitor.writeDateTime(writer, name, uint32(buffer), 0);
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -97,6 +105,12 @@ public class DateTimeValue extends Value<Instant> {
                 return new DateTimeValue(name, semantics, Instant.ofEpochMilli(uint64(buffer).longValue()));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                final long millis = ulong(buffer, 8);
+                FlowBuilderVisitor.writeDateTime(writer, name, Math.floorDiv(millis, 1000L), (int) Math.floorMod(millis, 1000L) * 1_000_000);
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -126,6 +140,14 @@ public class DateTimeValue extends Value<Instant> {
                 return new DateTimeValue(name, semantics, value);
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                final long seconds = uint32(buffer);
+                final long fraction = uint32(buffer) & (0xFFFFFFFF << 11);
+
+                FlowBuilderVisitor.writeDateTime(writer, name, seconds - SECONDS_TO_EPOCH, (int) (fraction * 1_000_000_000L / (1L << 32)));
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -155,6 +177,14 @@ public class DateTimeValue extends Value<Instant> {
                 return new DateTimeValue(name, semantics, value);
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                final long seconds = uint32(buffer);
+                final long fraction = uint32(buffer);
+
+                FlowBuilderVisitor.writeDateTime(writer, name, seconds - SECONDS_TO_EPOCH, (int) (fraction * 1_000_000_000L / (1L << 32)));
+            }
+
             @Override
             public String getName() {
                 return name;
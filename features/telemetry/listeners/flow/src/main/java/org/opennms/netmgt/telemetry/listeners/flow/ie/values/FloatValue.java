@@ -29,10 +29,12 @@
 package org.opennms.netmgt.telemetry.listeners.flow.ie.values;
 
 import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.uint;
+import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.ulong;
 
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.InformationElement;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Semantics;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
@@ -65,6 +67,11 @@ public class FloatValue extends Value<Double> {
                 return new FloatValue(name, semantics, Float.intBitsToFloat(uint(buffer, buffer.remaining()).intValue()));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                writer.writeDouble(name, Float.intBitsToFloat((int) ulong(buffer, buffer.remaining())));
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -89,6 +96,11 @@ public class FloatValue extends Value<Double> {
                 return new FloatValue(name, semantics, Double.longBitsToDouble(uint(buffer, buffer.remaining()).longValue()));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                writer.writeDouble(name, Double.longBitsToDouble(ulong(buffer, buffer.remaining())));
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -35,6 +35,7 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.InformationElement;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Semantics;
@@ -72,6 +73,19 @@ public class IPv4AddressValue extends Value<Inet4Address> {
                 }
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                final StringBuilder address = new StringBuilder(15);
+                for (int i = 0; i < 4; i++) {
+                    if (i > 0) {
+                        address.append('.');
+                    }
+                    address.append(buffer.get() & 0xFF);
+                }
+
+                writer.writeString(name, address.toString());
+            }
+
             @Override
             public String getName() {
                 return name;
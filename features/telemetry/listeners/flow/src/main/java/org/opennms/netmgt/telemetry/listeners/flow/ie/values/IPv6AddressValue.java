@@ -29,6 +29,7 @@
 package org.opennms.netmgt.telemetry.listeners.flow.ie.values;
 
 import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.bytes;
+import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.uint16;
 
 import java.net.Inet4Address;
 import java.net.Inet6Address;
@@ -36,6 +37,8 @@ import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
+import org.opennms.netmgt.telemetry.listeners.flow.FlowBuilderVisitor;
 import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.InformationElement;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Semantics;
@@ -73,6 +76,26 @@ public class IPv6AddressValue extends Value<Inet6Address> {
                 }
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) throws InvalidPacketException {
+                if (isIPv4Mapped(buffer)) {
+                    // Let the regular parser deal with addresses which are mapped to IPv4
+                    this.parse(resolver, buffer).visit(new FlowBuilderVisitor(writer));
+                    return;
+                }
+
+                // Same format as Inet6Address.getHostAddress() without zero compression
+                final StringBuilder address = new StringBuilder(39);
+                for (int i = 0; i < 8; i++) {
+                    if (i > 0) {
+                        address.append(':');
+                    }
+                    address.append(Integer.toHexString(uint16(buffer)));
+                }
+
+                writer.writeString(name, address.toString());
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -90,6 +113,16 @@ public class IPv6AddressValue extends Value<Inet6Address> {
         };
     }
 
+    private static boolean isIPv4Mapped(final ByteBuffer buffer) {
+        final int offset = buffer.position();
+        for (int i = 0; i < 10; i++) {
+            if (buffer.get(offset + i) != 0) {
+                return false;
+            }
+        }
+        return buffer.get(offset + 10) == (byte) 0xFF && buffer.get(offset + 11) == (byte) 0xFF;
+    }
+
     @Override
     public Inet6Address getValue() {
         return this.value;
@@ -31,6 +31,7 @@ package org.opennms.netmgt.telemetry.listeners.flow.ie.values;
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.InformationElement;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Semantics;
@@ -61,6 +62,11 @@ public class NullValue extends Value<Void> {
                 return new NullValue(name, semantics);
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                writer.writeNull(name);
+            }
+
             @Override
             public String getName() {
                 return name;
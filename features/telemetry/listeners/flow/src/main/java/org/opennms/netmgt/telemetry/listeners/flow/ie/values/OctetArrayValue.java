@@ -33,6 +33,8 @@ import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.bytes
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import org.bson.BsonBinary;
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.InformationElement;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.InformationElementDatabase;
@@ -71,6 +73,11 @@ public class OctetArrayValue extends Value<byte[]> {
                 return new OctetArrayValue(name, semantics, bytes(buffer, buffer.remaining()));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                writer.writeBinaryData(name, new BsonBinary(bytes(buffer, buffer.remaining())));
+            }
+
             @Override
             public String getName() {
                 return name;
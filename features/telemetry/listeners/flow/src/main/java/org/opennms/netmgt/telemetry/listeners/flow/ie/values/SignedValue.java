@@ -29,10 +29,12 @@
 package org.opennms.netmgt.telemetry.listeners.flow.ie.values;
 
 import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.sint;
+import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.slong;
 
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.InformationElement;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Semantics;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
@@ -65,6 +67,11 @@ public class SignedValue extends Value<Long> {
                 return new SignedValue(name, semantics, sint(buffer, 1));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                writer.writeInt64(name, slong(buffer, 1));
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -89,6 +96,11 @@ public class SignedValue extends Value<Long> {
                 return new SignedValue(name, semantics, sint(buffer, buffer.remaining()));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                writer.writeInt64(name, slong(buffer, buffer.remaining()));
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -113,6 +125,11 @@ public class SignedValue extends Value<Long> {
                 return new SignedValue(name, semantics, sint(buffer, buffer.remaining()));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                writer.writeInt64(name, slong(buffer, buffer.remaining()));
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -137,6 +154,11 @@ public class SignedValue extends Value<Long> {
                 return new SignedValue(name, semantics, sint(buffer, buffer.remaining()));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                writer.writeInt64(name, slong(buffer, buffer.remaining()));
+            }
+
             @Override
             public String getName() {
                 return name;
@@ -34,6 +34,7 @@ import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.InformationElement;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Semantics;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
@@ -68,6 +69,16 @@ public class StringValue extends Value<String> {
                 return new StringValue(name, semantics, new String(bytes(buffer, buffer.remaining()), UTF8_CHARSET));
             }
 
+            @Override
+            public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) {
+                if (buffer.hasArray()) {
+                    writer.writeString(name, new String(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), UTF8_CHARSET));
+                    buffer.position(buffer.limit());
+                } else {
+                    writer.writeString(name, new String(bytes(buffer, buffer.remaining()), UTF8_CHARSET));
+                }
+            }
+
             @Override
             public String getName() {
                 return name;
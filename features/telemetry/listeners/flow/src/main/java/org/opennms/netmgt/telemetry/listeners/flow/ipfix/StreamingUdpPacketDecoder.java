@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.telemetry.listeners.flow.ipfix;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.opennms.netmgt.telemetry.listeners.flow.AbstractStreamingPacketDecoder;
+import org.opennms.netmgt.telemetry.listeners.flow.FlowBuilderVisitor;
+import org.opennms.netmgt.telemetry.listeners.flow.Protocol;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
+import org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header;
+import org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Packet;
+import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
+import org.opennms.netmgt.telemetry.listeners.flow.session.UdpSessionManager;
+
+import io.netty.buffer.ByteBuf;
+
+public class StreamingUdpPacketDecoder extends AbstractStreamingPacketDecoder {
+
+    public StreamingUdpPacketDecoder(final UdpSessionManager sessionManager) {
+        super(Protocol.IPFIX, sessionManager, true);
+    }
+
+    @Override
+    public void decode(final Session session, final InetSocketAddress sender, final ByteBuf buf, final List<Object> out) throws Exception {
+        final ByteBuffer headerBuffer = buf.readSlice(Header.SIZE).nioBuffer();
+        final Header header = new Header(headerBuffer);
+
+        final ByteBuffer payloadBuffer = buf.readSlice(header.length - Header.SIZE).nioBuffer();
+
+        final Session.Resolver resolver = session.getResolver(header.observationDomainId);
+
+        final int recordCount = this.countRecords(resolver, payloadBuffer);
+        if (recordCount < 0) {
+            this.writeRecords(new Packet(session, sender, header, payloadBuffer), sender, out);
+            return;
+        }
+
+        // Options are looked up by the values of the scoped fields - only parse the record if there is any option
+        final boolean options = resolver.hasOptions();
+
+        this.writeRecords(resolver, sender, payloadBuffer, out, (record, writer) -> {
+            writer.writeInt64("@recordCount", recordCount);
+            writer.writeInt64("@sequenceNumber", header.sequenceNumber);
+            writer.writeInt64("@exportTime", header.exportTime);
+            writer.writeInt64("@observationDomainId", header.observationDomainId);
+
+            record.write(resolver, writer);
+
+            if (options) {
+                final FlowBuilderVisitor visitor = new FlowBuilderVisitor(writer);
+                for (final Value<?> value : resolver.lookupOptions(record.parse(resolver))) {
+                    value.visit(visitor);
+                }
+            }
+        });
+    }
+}
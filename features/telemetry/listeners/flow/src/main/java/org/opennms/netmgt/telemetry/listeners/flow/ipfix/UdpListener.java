@@ -28,8 +28,12 @@
 
 package org.opennms.netmgt.telemetry.listeners.flow.ipfix;
 
+import java.nio.file.Path;
+
 import org.opennms.netmgt.telemetry.listeners.flow.AbstractUdpListener;
 import org.opennms.netmgt.telemetry.listeners.flow.Protocol;
+import org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.FieldSpecifier;
+import org.opennms.netmgt.telemetry.listeners.flow.session.TemplateStore;
 import org.opennms.netmgt.telemetry.listeners.flow.session.UdpSessionManager;
 
 import io.netty.channel.ChannelHandler;
@@ -44,4 +48,14 @@ public class UdpListener extends AbstractUdpListener {
     protected ChannelHandler buildDecoder(UdpSessionManager sessionManager) {
         return new UdpPacketDecoder(sessionManager);
     }
+
+    @Override
+    protected ChannelHandler buildStreamingDecoder(final UdpSessionManager sessionManager) {
+        return new StreamingUdpPacketDecoder(sessionManager);
+    }
+
+    @Override
+    protected TemplateStore buildTemplateStore(final Path path) {
+        return new TemplateStore(path, Protocol.IPFIX, FieldSpecifier::new, FieldSpecifier::new);
+    }
 }
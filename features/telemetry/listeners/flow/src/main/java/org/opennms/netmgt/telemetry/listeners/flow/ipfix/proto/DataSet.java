@@ -36,6 +36,7 @@ import java.util.List;
 import java.util.Objects;
 
 import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
+import org.opennms.netmgt.telemetry.listeners.flow.MissingTemplateException;
 import org.opennms.netmgt.telemetry.listeners.flow.session.Template;
 import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
 
@@ -56,7 +57,7 @@ public class DataSet extends FlowSet<DataRecord> {
 
         this.resolver = Objects.requireNonNull(resolver);
         this.template = this.resolver.lookupTemplate(this.header.setId)
-                .orElseThrow(() -> new InvalidPacketException(buffer, "Unknown Template ID: %d", this.header.setId));
+                .orElseThrow(() -> new MissingTemplateException(buffer, this.header.setId));
 
         // For variable length fields we assume at least the length value (1 byte) to be present
         final int minimumRecordLength = this.template.stream()
@@ -34,6 +34,7 @@ import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.uint3
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
 import org.opennms.netmgt.telemetry.listeners.flow.Protocol;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.InformationElement;
@@ -101,6 +102,18 @@ public final class FieldSpecifier implements Field, Scope {
         return this.informationElement.parse(resolver, buffer);
     }
 
+    @Override
+    public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) throws InvalidPacketException {
+        this.informationElement.write(resolver, buffer, writer);
+    }
+
+    @Override
+    public void encode(final ByteBuffer buffer) {
+        buffer.putShort((short) (this.enterpriseNumber.isPresent() ? this.informationElementId | 0x8000 : this.informationElementId));
+        buffer.putShort((short) this.fieldLength);
+        this.enterpriseNumber.ifPresent(enterpriseNumber -> buffer.putInt(enterpriseNumber.intValue()));
+    }
+
     @Override
     public int length() {
         return this.fieldLength;
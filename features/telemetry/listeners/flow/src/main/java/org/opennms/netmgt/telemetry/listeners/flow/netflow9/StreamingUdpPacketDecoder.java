@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.telemetry.listeners.flow.netflow9;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opennms.netmgt.telemetry.listeners.flow.AbstractStreamingPacketDecoder;
+import org.opennms.netmgt.telemetry.listeners.flow.FlowBuilderVisitor;
+import org.opennms.netmgt.telemetry.listeners.flow.Protocol;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
+import org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Header;
+import org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Packet;
+import org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.ScopeFieldSpecifier;
+import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
+import org.opennms.netmgt.telemetry.listeners.flow.session.Template;
+import org.opennms.netmgt.telemetry.listeners.flow.session.UdpSessionManager;
+
+import io.netty.buffer.ByteBuf;
+
+public class StreamingUdpPacketDecoder extends AbstractStreamingPacketDecoder {
+
+    public StreamingUdpPacketDecoder(final UdpSessionManager sessionManager) {
+        super(Protocol.NETFLOW9, sessionManager, false);
+    }
+
+    @Override
+    public void decode(final Session session, final InetSocketAddress sender, final ByteBuf buf, final List<Object> out) throws Exception {
+        final ByteBuffer headerBuffer = buf.readSlice(Header.SIZE).nioBuffer();
+        final Header header = new Header(headerBuffer);
+
+        final ByteBuffer payloadBuffer = buf.nioBuffer();
+
+        final Session.Resolver resolver = session.getResolver(header.sourceId);
+
+        final int recordCount = this.countRecords(resolver, payloadBuffer);
+        if (recordCount < 0) {
+            this.writeRecords(new Packet(session, header, payloadBuffer), sender, out);
+            return;
+        }
+
+        // Options are scoped by source and template only and therefore the same for all records of a set
+        final Map<Template, List<Value<?>>> options = resolver.hasOptions() ? new HashMap<>() : null;
+
+        this.writeRecords(resolver, sender, payloadBuffer, out, (record, writer) -> {
+            writer.writeInt64("@recordCount", recordCount);
+            writer.writeInt64("@sequenceNumber", header.sequenceNumber);
+            writer.writeInt64("@sysUpTime", header.sysUpTime);
+            writer.writeInt64("@unixSecs", header.unixSecs);
+            writer.writeInt64("@sourceId", header.sourceId);
+
+            record.write(resolver, writer);
+
+            if (options != null) {
+                final FlowBuilderVisitor visitor = new FlowBuilderVisitor(writer);
+                for (final Value<?> value : options.computeIfAbsent(record.getTemplate(), template -> resolver.lookupOptions(ScopeFieldSpecifier.buildScopeValues(header.sourceId, template.id)))) {
+                    value.visit(visitor);
+                }
+            }
+        });
+    }
+}
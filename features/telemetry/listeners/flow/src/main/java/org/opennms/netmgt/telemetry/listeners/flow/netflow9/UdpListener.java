@@ -28,8 +28,13 @@
 
 package org.opennms.netmgt.telemetry.listeners.flow.netflow9;
 
+import java.nio.file.Path;
+
 import org.opennms.netmgt.telemetry.listeners.flow.AbstractUdpListener;
 import org.opennms.netmgt.telemetry.listeners.flow.Protocol;
+import org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.FieldSpecifier;
+import org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.ScopeFieldSpecifier;
+import org.opennms.netmgt.telemetry.listeners.flow.session.TemplateStore;
 import org.opennms.netmgt.telemetry.listeners.flow.session.UdpSessionManager;
 
 import io.netty.channel.ChannelHandler;
@@ -44,4 +49,14 @@ public class UdpListener extends AbstractUdpListener {
     protected ChannelHandler buildDecoder(UdpSessionManager sessionManager) {
         return new UdpPacketDecoder(sessionManager);
     }
+
+    @Override
+    protected ChannelHandler buildStreamingDecoder(final UdpSessionManager sessionManager) {
+        return new StreamingUdpPacketDecoder(sessionManager);
+    }
+
+    @Override
+    protected TemplateStore buildTemplateStore(final Path path) {
+        return new TemplateStore(path, Protocol.NETFLOW9, ScopeFieldSpecifier::new, FieldSpecifier::new);
+    }
 }
@@ -33,6 +33,7 @@ import static org.opennms.netmgt.telemetry.listeners.api.utils.BufferUtils.uint1
 import java.nio.ByteBuffer;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
 import org.opennms.netmgt.telemetry.listeners.flow.Protocol;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.InformationElement;
@@ -88,6 +89,17 @@ public final class FieldSpecifier implements Field {
         return this.informationElement.parse(resolver, buffer);
     }
 
+    @Override
+    public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) throws InvalidPacketException {
+        this.informationElement.write(resolver, buffer, writer);
+    }
+
+    @Override
+    public void encode(final ByteBuffer buffer) {
+        buffer.putShort((short) this.fieldType);
+        buffer.putShort((short) this.fieldLength);
+    }
+
     @Override
     public int length() {
         return this.fieldLength;
@@ -34,6 +34,7 @@ import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Optional;
 
+import org.bson.BsonWriter;
 import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.InformationElement;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
@@ -121,6 +122,17 @@ public final class ScopeFieldSpecifier implements Field, Scope {
         return this.field.parse(resolver, buffer);
     }
 
+    @Override
+    public void write(final Session.Resolver resolver, final ByteBuffer buffer, final BsonWriter writer) throws InvalidPacketException {
+        this.field.write(resolver, buffer, writer);
+    }
+
+    @Override
+    public void encode(final ByteBuffer buffer) {
+        buffer.putShort((short) this.fieldType);
+        buffer.putShort((short) this.fieldLength);
+    }
+
     @Override
     public int length() {
         return this.fieldLength;
@@ -157,10 +169,14 @@ public final class ScopeFieldSpecifier implements Field, Scope {
     }
 
     public static List<Value<?>> buildScopeValues(final DataRecord record) {
+        return buildScopeValues(record.set.packet.header.sourceId, record.set.template.id);
+    }
+
+    public static List<Value<?>> buildScopeValues(final long sourceId, final int templateId) {
         final ImmutableList.Builder<Value<?>> values = ImmutableList.builder();
 
-        values.add(new UnsignedValue(ScopeFieldSpecifier.SCOPE_SYSTEM, record.set.packet.header.sourceId));
-        values.add(new UnsignedValue(ScopeFieldSpecifier.SCOPE_TEMPLATE, record.set.template.id));
+        values.add(new UnsignedValue(ScopeFieldSpecifier.SCOPE_SYSTEM, sourceId));
+        values.add(new UnsignedValue(ScopeFieldSpecifier.SCOPE_TEMPLATE, templateId));
 
         return values.build();
     }
@@ -30,12 +30,30 @@ package org.opennms.netmgt.telemetry.listeners.flow.session;
 
 import java.nio.ByteBuffer;
 
+import org.bson.BsonWriter;
+import org.opennms.netmgt.telemetry.listeners.flow.FlowBuilderVisitor;
 import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
 
 public interface Field {
+    /**
+     * The maximum number of bytes written by {@link #encode(ByteBuffer)}.
+     */
+    int MAXIMUM_ENCODED_LENGTH = 8;
+
     int length();
 
+    /**
+     * Writes the field specifier in the wire format it was parsed from.
+     */
+    void encode(final ByteBuffer buffer);
+
     Value<?> parse(final Session.Resolver resolver,
                    final ByteBuffer buffer) throws InvalidPacketException;
+
+    default void write(final Session.Resolver resolver,
+                       final ByteBuffer buffer,
+                       final BsonWriter writer) throws InvalidPacketException {
+        this.parse(resolver, buffer).visit(new FlowBuilderVisitor(writer));
+    }
 }
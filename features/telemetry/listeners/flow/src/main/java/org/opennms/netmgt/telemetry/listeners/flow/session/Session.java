@@ -39,6 +39,14 @@ public interface Session {
     interface Resolver {
         Optional<Template> lookupTemplate(final int templateId);
         List<Value<?>> lookupOptions(final List<Value<?>> values);
+
+        /**
+         * Returns {@code false} if {@link #lookupOptions(List)} will not yield any values for this observation
+         * domain. Allows callers to skip building the lookup values for each record.
+         */
+        default boolean hasOptions() {
+            return true;
+        }
     }
 
     void addTemplate(final long observationDomainId, final Template template);
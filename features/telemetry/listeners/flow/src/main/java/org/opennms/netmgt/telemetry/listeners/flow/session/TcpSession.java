@@ -87,6 +87,12 @@ public class TcpSession implements Session {
 
             return new ArrayList(options.values());
         }
+
+        @Override
+        public boolean hasOptions() {
+            return TcpSession.this.options.keySet().stream()
+                    .anyMatch(k -> k.observationDomainId == this.observationDomainId);
+        }
     }
 
     private final static class Key {
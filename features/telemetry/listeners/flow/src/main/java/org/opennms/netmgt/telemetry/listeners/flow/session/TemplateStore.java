@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.flow.session;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.opennms.netmgt.telemetry.listeners.flow.InvalidPacketException;
+import org.opennms.netmgt.telemetry.listeners.flow.Protocol;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persists the templates of a {@link UdpSessionManager} to a local file.
+ *
+ * The field specifiers are stored in their wire format and parsed again on load, so the store does not depend on
+ * the information element database at the time of writing.
+ */
+public class TemplateStore {
+    private static final Logger LOG = LoggerFactory.getLogger(TemplateStore.class);
+
+    private static final int MAGIC = 0x464C5754; // "FLWT"
+    private static final int VERSION = 1;
+
+    @FunctionalInterface
+    public interface FieldParser {
+        Field parse(final ByteBuffer buffer) throws InvalidPacketException;
+    }
+
+    private final Path path;
+    private final Protocol protocol;
+
+    private final FieldParser scopeParser;
+    private final FieldParser fieldParser;
+
+    public TemplateStore(final Path path,
+                         final Protocol protocol,
+                         final FieldParser scopeParser,
+                         final FieldParser fieldParser) {
+        this.path = Objects.requireNonNull(path);
+        this.protocol = Objects.requireNonNull(protocol);
+        this.scopeParser = Objects.requireNonNull(scopeParser);
+        this.fieldParser = Objects.requireNonNull(fieldParser);
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    void save(final Map<UdpSessionManager.Key, UdpSessionManager.TemplateWrapper> templates) throws IOException {
+        final List<Map.Entry<UdpSessionManager.Key, UdpSessionManager.TemplateWrapper>> entries = new ArrayList<>(templates.entrySet());
+
+        if (this.path.getParent() != null) {
+            Files.createDirectories(this.path.getParent());
+        }
+
+        // Write to a temporary file first to never leave a truncated store behind
+        final Path temp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(this.protocol.magic);
+            out.writeInt(entries.size());
+
+            for (final Map.Entry<UdpSessionManager.Key, UdpSessionManager.TemplateWrapper> entry : entries) {
+                final UdpSessionManager.Key key = entry.getKey();
+                final Template template = entry.getValue().template;
+
+                writeAddress(out, key.remoteAddress);
+                writeAddress(out, key.localAddress);
+                out.writeInt((int) key.observationDomainId);
+                out.writeShort(key.templateId);
+                out.writeByte(template.type.ordinal());
+                out.writeLong(entry.getValue().insertionTime.toEpochMilli());
+                out.writeShort(template.scopes.size());
+                out.writeShort(template.fields.size());
+
+                final ByteBuffer buffer = ByteBuffer.allocate(Field.MAXIMUM_ENCODED_LENGTH * template.count());
+                for (final Scope scope : template.scopes) {
+                    scope.encode(buffer);
+                }
+                for (final Field field : template.fields) {
+                    field.encode(buffer);
+                }
+                out.writeShort(buffer.position());
+                out.write(buffer.array(), 0, buffer.position());
+            }
+        }
+
+        Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    Map<UdpSessionManager.Key, UdpSessionManager.TemplateWrapper> load(final Instant notBefore) {
+        final Map<UdpSessionManager.Key, UdpSessionManager.TemplateWrapper> templates = new HashMap<>();
+
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                LOG.warn("Ignoring template store {} with unknown format", this.path);
+                return templates;
+            }
+
+            if (in.readInt() != this.protocol.magic) {
+                LOG.warn("Ignoring template store {} written for another protocol", this.path);
+                return templates;
+            }
+
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final InetSocketAddress remoteAddress = readAddress(in);
+                final InetSocketAddress localAddress = readAddress(in);
+                final long observationDomainId = in.readInt() & 0xFFFFFFFFL;
+                final int templateId = in.readUnsignedShort();
+                final Template.Type type = Template.Type.values()[in.readUnsignedByte()];
+                final Instant insertionTime = Instant.ofEpochMilli(in.readLong());
+                final int scopeCount = in.readUnsignedShort();
+                final int fieldCount = in.readUnsignedShort();
+
+                final byte[] specifiers = new byte[in.readUnsignedShort()];
+                in.readFully(specifiers);
+
+                if (insertionTime.isBefore(notBefore)) {
+                    continue;
+                }
+
+                final ByteBuffer buffer = ByteBuffer.wrap(specifiers);
+                try {
+                    final List<Scope> scopes = new ArrayList<>(scopeCount);
+                    for (int j = 0; j < scopeCount; j++) {
+                        scopes.add((Scope) this.scopeParser.parse(buffer));
+                    }
+
+                    final List<Field> fields = new ArrayList<>(fieldCount);
+                    for (int j = 0; j < fieldCount; j++) {
+                        fields.add(this.fieldParser.parse(buffer));
+                    }
+
+                    final Template.Builder template = Template.builder(templateId, type).withFields(fields);
+                    if (type == Template.Type.OPTIONS_TEMPLATE) {
+                        template.withScopes(scopes);
+                    }
+
+                    templates.put(new UdpSessionManager.Key(remoteAddress, localAddress, observationDomainId, templateId),
+                                  new UdpSessionManager.TemplateWrapper(insertionTime, template.build()));
+                } catch (final InvalidPacketException e) {
+                    LOG.warn("Ignoring stored template {} of {}: {}", templateId, remoteAddress, e.getMessage());
+                }
+            }
+        } catch (final NoSuchFileException e) {
+            LOG.debug("No template store found at {}", this.path);
+        } catch (final EOFException e) {
+            LOG.warn("Template store {} is truncated", this.path);
+        } catch (final IOException e) {
+            LOG.warn("Failed to read template store {}", this.path, e);
+        }
+
+        return templates;
+    }
+
+    private static void writeAddress(final DataOutputStream out, final InetSocketAddress address) throws IOException {
+        if (address.isUnresolved()) {
+            out.writeByte(0);
+            out.writeUTF(address.getHostString());
+        } else {
+            final byte[] bytes = address.getAddress().getAddress();
+            out.writeByte(bytes.length);
+            out.write(bytes);
+        }
+        out.writeShort(address.getPort());
+    }
+
+    private static InetSocketAddress readAddress(final DataInputStream in) throws IOException {
+        final int length = in.readUnsignedByte();
+        if (length == 0) {
+            final String host = in.readUTF();
+            return InetSocketAddress.createUnresolved(host, in.readUnsignedShort());
+        } else {
+            final byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new InetSocketAddress(InetAddress.getByAddress(bytes), in.readUnsignedShort());
+        }
+    }
+}
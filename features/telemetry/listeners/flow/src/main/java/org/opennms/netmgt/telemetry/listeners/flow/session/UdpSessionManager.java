@@ -28,13 +28,13 @@
 
 package org.opennms.netmgt.telemetry.listeners.flow.session;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -42,14 +42,19 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import org.opennms.netmgt.telemetry.listeners.flow.ie.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
 
 public class UdpSessionManager {
+    private static final Logger LOG = LoggerFactory.getLogger(UdpSessionManager.class);
+
     private final class UdpSession implements Session {
         private final class Resolver implements Session.Resolver {
             private final long observationDomainId;
@@ -77,7 +82,12 @@ public class UdpSessionManager {
                                                                                                    e -> Objects.equals(e.getKey().localAddress, UdpSession.this.localAddress) &&
                                                                                                         Objects.equals(e.getKey().remoteAddress, UdpSession.this.remoteAddress) &&
                                                                                                         Objects.equals(e.getKey().observationDomainId, this.observationDomainId))) {
-                    final Template template = UdpSessionManager.this.templates.get(e.getKey()).template;
+                    final TemplateWrapper wrapper = UdpSessionManager.this.templates.get(e.getKey());
+                    if (wrapper == null) {
+                        // Template has been expired or withdrawn concurrently
+                        continue;
+                    }
+                    final Template template = wrapper.template;
 
                     final Set<String> scopes = template.scopes.stream().map(Scope::getName).collect(Collectors.toSet());
 
@@ -96,6 +106,14 @@ public class UdpSessionManager {
 
                 return new ArrayList(options.values());
             }
+
+            @Override
+            public boolean hasOptions() {
+                return UdpSessionManager.this.options.keySet().stream()
+                        .anyMatch(k -> Objects.equals(k.localAddress, UdpSession.this.localAddress) &&
+                                       Objects.equals(k.remoteAddress, UdpSession.this.remoteAddress) &&
+                                       k.observationDomainId == this.observationDomainId);
+            }
         }
 
         private final InetSocketAddress remoteAddress;
@@ -110,17 +128,22 @@ public class UdpSessionManager {
         public void addTemplate(final long observationDomainId, final Template template) {
             final Key key = new Key(this.remoteAddress, this.localAddress, observationDomainId, template.id);
             UdpSessionManager.this.templates.put(key, new TemplateWrapper(template));
+            UdpSessionManager.this.modified.set(true);
         }
 
         @Override
         public void removeTemplate(final long observationDomainId, final int templateId) {
             final Key key = new Key(this.remoteAddress, this.localAddress, observationDomainId, templateId);
-            UdpSessionManager.this.templates.remove(key);
+            if (UdpSessionManager.this.templates.remove(key) != null) {
+                UdpSessionManager.this.modified.set(true);
+            }
         }
 
         @Override
         public void removeAllTemplate(final long observationDomainId, final Template.Type type) {
-            UdpSessionManager.this.templates.entrySet().removeIf(e -> e.getKey().observationDomainId == observationDomainId && e.getValue().template.type == type);
+            if (UdpSessionManager.this.templates.entrySet().removeIf(e -> e.getKey().observationDomainId == observationDomainId && e.getValue().template.type == type)) {
+                UdpSessionManager.this.modified.set(true);
+            }
         }
 
         @Override
@@ -133,7 +156,7 @@ public class UdpSessionManager {
             }
 
             final Key key = new Key(this.remoteAddress, this.localAddress, observationDomainId, templateId);
-            UdpSessionManager.this.options.computeIfAbsent(key, (k) -> new HashMap()).put(new HashSet(scopes), values);
+            UdpSessionManager.this.options.computeIfAbsent(key, (k) -> new ConcurrentHashMap()).put(new HashSet(scopes), values);
         }
 
         @Override
@@ -142,7 +165,7 @@ public class UdpSessionManager {
         }
     }
 
-    private final static class Key {
+    final static class Key {
         public final InetSocketAddress remoteAddress;
         public final InetSocketAddress localAddress;
         public final long observationDomainId;
@@ -176,28 +199,72 @@ public class UdpSessionManager {
         }
     }
 
-    private final static class TemplateWrapper {
+    final static class TemplateWrapper {
         public final Instant insertionTime;
         public final Template template;
 
-        private TemplateWrapper(final Template template) {
-            this.insertionTime = Instant.now();
-            this.template = template;
+        TemplateWrapper(final Template template) {
+            this(Instant.now(), template);
+        }
+
+        TemplateWrapper(final Instant insertionTime, final Template template) {
+            this.insertionTime = Objects.requireNonNull(insertionTime);
+            this.template = Objects.requireNonNull(template);
         }
     }
 
-    private final Map<Key, TemplateWrapper> templates = Maps.newHashMap();
-    private final Map<Key, Map<Set<Value<?>>, List<Value<?>>>> options = Maps.newHashMap();
+    // Sessions are shared by all sockets of a listener and the housekeeping which are driven by different threads
+    private final Map<Key, TemplateWrapper> templates = new ConcurrentHashMap<>();
+    private final Map<Key, Map<Set<Value<?>>, List<Value<?>>>> options = new ConcurrentHashMap<>();
 
     private final Duration timeout;
 
+    private final TemplateStore store;
+    private final AtomicBoolean modified = new AtomicBoolean(false);
+
     public UdpSessionManager(final Duration timeout) {
+        this(timeout, null);
+    }
+
+    public UdpSessionManager(final Duration timeout, final TemplateStore store) {
         this.timeout = timeout;
+        this.store = store;
     }
 
     public void doHousekeeping() {
         final Instant timeout = Instant.now().minus(this.timeout);
-        UdpSessionManager.this.templates.entrySet().removeIf(e -> e.getValue().insertionTime.isBefore(timeout));
+        if (UdpSessionManager.this.templates.entrySet().removeIf(e -> e.getValue().insertionTime.isBefore(timeout))) {
+            this.modified.set(true);
+        }
+    }
+
+    /**
+     * Loads the templates which have not yet timed out from the store, if any.
+     */
+    public void restore() {
+        if (this.store == null) {
+            return;
+        }
+
+        final Map<Key, TemplateWrapper> templates = this.store.load(Instant.now().minus(this.timeout));
+        templates.forEach(this.templates::putIfAbsent);
+        LOG.info("Restored {} templates from {}", templates.size(), this.store.getPath());
+    }
+
+    /**
+     * Writes the templates to the store, if any, and they have been modified since the last checkpoint.
+     */
+    public void checkpoint() {
+        if (this.store == null || !this.modified.getAndSet(false)) {
+            return;
+        }
+
+        try {
+            this.store.save(this.templates);
+        } catch (final IOException e) {
+            LOG.warn("Failed to write templates to {}", this.store.getPath(), e);
+            this.modified.set(true);
+        }
     }
 
     public Session getSession(final InetSocketAddress remoteAddress, final InetSocketAddress localAddress) {
@@ -205,6 +272,8 @@ public class UdpSessionManager {
     }
 
     public void drop(final InetSocketAddress remoteAddress, final InetSocketAddress localAddress) {
-        this.templates.entrySet().removeIf(e -> Objects.equals(e.getKey().remoteAddress, remoteAddress) && Objects.equals(e.getKey().localAddress, localAddress));
+        if (this.templates.entrySet().removeIf(e -> Objects.equals(e.getKey().remoteAddress, remoteAddress) && Objects.equals(e.getKey().localAddress, localAddress))) {
+            this.modified.set(true);
+        }
     }
 }
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.telemetry.listeners.flow;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.RecordProvider;
+import org.opennms.netmgt.telemetry.listeners.flow.session.Session;
+import org.opennms.netmgt.telemetry.listeners.flow.session.UdpSessionManager;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Compares the regular decoders (including serialization as done by the {@link PacketHandler}) with the streaming
+ * decoders on captured data packets.
+ *
+ * Run with {@code -prof gc} to compare the allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlowDecoderBenchmark {
+    private final static InetSocketAddress SENDER = InetSocketAddress.createUnresolved("localhost", 4711);
+    private final static InetSocketAddress RECIPIENT = InetSocketAddress.createUnresolved("localhost", 4738);
+
+    @Param({"IPFIX", "NETFLOW9"})
+    public Protocol protocol;
+
+    private List<byte[]> datagrams;
+
+    private Session regularSession;
+    private Session streamingSession;
+
+    private AbstractStreamingPacketDecoder streamingDecoder;
+
+    private final List<Object> out = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws Exception {
+        final List<byte[]> templates;
+        if (this.protocol == Protocol.IPFIX) {
+            templates = StreamingPacketDecoderTest.datagrams(this.protocol, Arrays.asList("ipfix_test_vmware_vds_tpl.dat"));
+            this.datagrams = StreamingPacketDecoderTest.datagrams(this.protocol, Arrays.asList("ipfix_test_vmware_vds_data264.dat", "ipfix_test_vmware_vds_data266.dat"));
+        } else {
+            templates = StreamingPacketDecoderTest.datagrams(this.protocol, Arrays.asList("netflow9_test_ubnt_edgerouter_tpl.dat"));
+            this.datagrams = StreamingPacketDecoderTest.datagrams(this.protocol, Arrays.asList("netflow9_test_ubnt_edgerouter_data1024.dat", "netflow9_test_ubnt_edgerouter_data1025.dat"));
+        }
+
+        final UdpSessionManager regularSessionManager = new UdpSessionManager(Duration.ofMinutes(30));
+        this.regularSession = regularSessionManager.getSession(SENDER, RECIPIENT);
+
+        final UdpSessionManager streamingSessionManager = new UdpSessionManager(Duration.ofMinutes(30));
+        this.streamingSession = streamingSessionManager.getSession(SENDER, RECIPIENT);
+
+        this.streamingDecoder = this.protocol == Protocol.IPFIX
+                ? new org.opennms.netmgt.telemetry.listeners.flow.ipfix.StreamingUdpPacketDecoder(streamingSessionManager)
+                : new org.opennms.netmgt.telemetry.listeners.flow.netflow9.StreamingUdpPacketDecoder(streamingSessionManager);
+
+        // Learn the templates
+        for (final byte[] template : templates) {
+            this.regular(template, this.out::add);
+            this.streamingDecoder.decode(this.streamingSession, SENDER, Unpooled.wrappedBuffer(template), this.out);
+        }
+        this.out.clear();
+    }
+
+    @Benchmark
+    public void regularDecoder(final Blackhole blackhole) throws Exception {
+        for (final byte[] datagram : this.datagrams) {
+            this.regular(datagram, blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    public void streamingDecoder(final Blackhole blackhole) throws Exception {
+        for (final byte[] datagram : this.datagrams) {
+            this.streamingDecoder.decode(this.streamingSession, SENDER, Unpooled.wrappedBuffer(datagram), this.out);
+            for (int i = 0; i < this.out.size(); i++) {
+                blackhole.consume(this.out.get(i));
+            }
+            this.out.clear();
+        }
+    }
+
+    private void regular(final byte[] datagram, final Consumer<Object> sink) throws Exception {
+        final ByteBuf buf = Unpooled.wrappedBuffer(datagram);
+
+        final RecordProvider packet;
+        if (this.protocol == Protocol.IPFIX) {
+            final org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header header = new org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header(
+                    buf.readSlice(org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header.SIZE).nioBuffer());
+            final ByteBuffer payload = buf.readSlice(header.length - org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Header.SIZE).nioBuffer();
+            packet = new org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.Packet(this.regularSession, SENDER, header, payload);
+        } else {
+            final org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Header header = new org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Header(
+                    buf.readSlice(org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Header.SIZE).nioBuffer());
+            packet = new org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.Packet(this.regularSession, header, buf.nioBuffer());
+        }
+
+        packet.getRecords().forEach(record -> sink.accept(PacketHandler.serialize(this.protocol, record)));
+    }
+
+    public static void main(final String... args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(FlowDecoderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.flow;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.netmgt.telemetry.listeners.api.TelemetryMessage;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import io.netty.channel.epoll.Epoll;
+
+/**
+ * Verifies that a listener bound to multiple sockets keeps the template state of every exporter.
+ */
+public class MultiSocketListenerTest {
+    private final static int SOCKETS = 4;
+    private final static int EXPORTERS = 16;
+
+    private final Map<InetSocketAddress, AtomicInteger> received = new ConcurrentHashMap<>();
+
+    private org.opennms.netmgt.telemetry.listeners.flow.netflow9.UdpListener listener;
+
+    @Before
+    public void setUp() throws Exception {
+        final int port;
+        try (final DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+
+        this.listener = new org.opennms.netmgt.telemetry.listeners.flow.netflow9.UdpListener();
+        this.listener.setName("test");
+        this.listener.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+        this.listener.setPort(port);
+        this.listener.setSockets(SOCKETS);
+        this.listener.setDispatcher(new AsyncDispatcher<TelemetryMessage>() {
+            @Override
+            public CompletableFuture<TelemetryMessage> send(final TelemetryMessage message) {
+                MultiSocketListenerTest.this.received.computeIfAbsent(message.getSource(), k -> new AtomicInteger()).incrementAndGet();
+                return CompletableFuture.completedFuture(message);
+            }
+
+            @Override
+            public int getQueueSize() {
+                return 0;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        this.listener.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (this.listener != null) {
+            this.listener.stop();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testTemplatesPerExporter() throws Exception {
+        final List<byte[]> datagrams = StreamingPacketDecoderTest.datagrams(Protocol.NETFLOW9,
+                Arrays.asList("netflow9_test_cisco_asa_1_tpl.dat", "netflow9_test_cisco_asa_1_data.dat"));
+
+        // Every exporter uses its own source port and is therefore hashed to a fixed socket by the kernel
+        final InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(), this.listener.getPort());
+        for (int i = 0; i < EXPORTERS; i++) {
+            try (final DatagramSocket exporter = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+                for (final byte[] datagram : datagrams) {
+                    exporter.send(new DatagramPacket(datagram, datagram.length, target));
+                }
+            }
+        }
+
+        // Wait for all packets to be processed
+        while (packetsReceived() < EXPORTERS * datagrams.size()) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+
+        // Closing the sockets waits for the packets in flight to be decoded
+        this.listener.stop();
+        final MetricRegistry metrics = this.listener.getMetrics();
+        this.listener = null;
+
+        // Every exporter must have its data records decoded using its own templates
+        assertThat(this.received.size(), is(EXPORTERS));
+        final int expected = this.received.values().iterator().next().get();
+        assertTrue(expected > 0);
+        for (final AtomicInteger count : this.received.values()) {
+            assertThat(count.get(), is(expected));
+        }
+
+        assertThat(metrics.getMeters((name, metric) -> name.endsWith(".packetsReceived")).size(),
+                is(Epoll.isAvailable() ? SOCKETS : 1));
+        assertThat(metrics.getMeters((name, metric) -> name.endsWith(".packetsDropped")).values().stream()
+                .mapToLong(Meter::getCount)
+                .sum(), is(0L));
+    }
+
+    private long packetsReceived() {
+        return this.listener.getMetrics().getMeters((name, metric) -> name.endsWith(".packetsReceived")).values().stream()
+                .mapToLong(Meter::getCount)
+                .sum();
+    }
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.telemetry.listeners.flow;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.opennms.netmgt.telemetry.listeners.api.TelemetryMessage;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.RecordProvider;
+import org.opennms.netmgt.telemetry.listeners.flow.session.UdpSessionManager;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.DefaultAddressedEnvelope;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+
+/**
+ * Verifies that the streaming decoders produce exactly the same messages as the regular decoders.
+ */
+@RunWith(Parameterized.class)
+public class StreamingPacketDecoderTest {
+    private final static Path FOLDER = Paths.get("src/test/resources/flows");
+
+    private final static InetSocketAddress SENDER = InetSocketAddress.createUnresolved("localhost", 4711);
+    private final static InetSocketAddress RECIPIENT = InetSocketAddress.createUnresolved("localhost", 4738);
+
+    @Parameterized.Parameters(name = "{0}: {1}")
+    public static Iterable<Object[]> data() throws IOException {
+        final List<Object[]> data = new ArrayList<>();
+        for (final Object[] files : org.opennms.netmgt.telemetry.listeners.flow.ipfix.BlackboxTest.data()) {
+            data.add(new Object[]{Protocol.IPFIX, files[0]});
+        }
+        for (final Object[] files : org.opennms.netmgt.telemetry.listeners.flow.netflow9.BlackboxTest.data()) {
+            data.add(new Object[]{Protocol.NETFLOW9, files[0]});
+        }
+        return data;
+    }
+
+    private final Protocol protocol;
+    private final List<String> files;
+
+    public StreamingPacketDecoderTest(final Protocol protocol, final List<String> files) {
+        this.protocol = protocol;
+        this.files = files;
+    }
+
+    @Test
+    public void testSameOutput() throws Exception {
+        final List<byte[]> datagrams = datagrams(this.protocol, this.files);
+
+        final List<ByteBuffer> expected = decode(datagrams, this.regularDecoder(), this.protocol);
+        final List<ByteBuffer> actual = decode(datagrams, this.streamingDecoder(), this.protocol);
+
+        assertThat(actual.size(), is(expected.size()));
+        for (int i = 0; i < expected.size(); i++) {
+            assertThat("Record " + i, actual.get(i), is(expected.get(i)));
+        }
+    }
+
+    private Function<UdpSessionManager, ChannelHandler> regularDecoder() {
+        return this.protocol == Protocol.IPFIX
+                ? org.opennms.netmgt.telemetry.listeners.flow.ipfix.UdpPacketDecoder::new
+                : org.opennms.netmgt.telemetry.listeners.flow.netflow9.UdpPacketDecoder::new;
+    }
+
+    private Function<UdpSessionManager, ChannelHandler> streamingDecoder() {
+        return this.protocol == Protocol.IPFIX
+                ? org.opennms.netmgt.telemetry.listeners.flow.ipfix.StreamingUdpPacketDecoder::new
+                : org.opennms.netmgt.telemetry.listeners.flow.netflow9.StreamingUdpPacketDecoder::new;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<ByteBuffer> decode(final List<byte[]> datagrams,
+                                           final Function<UdpSessionManager, ChannelHandler> decoder,
+                                           final Protocol protocol) {
+        final UdpSessionManager sessionManager = new UdpSessionManager(java.time.Duration.ofMinutes(30));
+        final EmbeddedChannel channel = new EmbeddedChannel(decoder.apply(sessionManager));
+
+        final List<ByteBuffer> messages = new ArrayList<>();
+        for (final byte[] datagram : datagrams) {
+            channel.writeInbound(new DatagramPacket(Unpooled.wrappedBuffer(datagram), RECIPIENT, SENDER));
+
+            Object msg;
+            while ((msg = channel.readInbound()) != null) {
+                if (msg instanceof TelemetryMessage) {
+                    messages.add(((TelemetryMessage) msg).getBuffer());
+                } else {
+                    ((DefaultAddressedEnvelope<RecordProvider, InetSocketAddress>) msg).content().getRecords()
+                            .forEach(record -> messages.add(PacketHandler.serialize(protocol, record)));
+                }
+            }
+        }
+
+        channel.finish();
+        return messages;
+    }
+
+    /**
+     * Splits the captured files into datagrams as received by the listeners.
+     */
+    public static List<byte[]> datagrams(final Protocol protocol, final List<String> files) throws IOException {
+        final List<byte[]> datagrams = new ArrayList<>();
+        for (final String file : files) {
+            final byte[] content = Files.readAllBytes(FOLDER.resolve(file));
+            if (protocol == Protocol.IPFIX) {
+                // IPFIX messages carry their length in the header
+                final ByteBuffer buffer = ByteBuffer.wrap(content);
+                while (buffer.hasRemaining()) {
+                    final byte[] datagram = new byte[buffer.getShort(buffer.position() + 2) & 0xFFFF];
+                    buffer.get(datagram);
+                    datagrams.add(datagram);
+                }
+            } else {
+                datagrams.add(content);
+            }
+        }
+        return datagrams;
+    }
+}
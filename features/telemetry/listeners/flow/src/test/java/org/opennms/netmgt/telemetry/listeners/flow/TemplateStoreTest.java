@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.telemetry.listeners.flow;
+
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.opennms.netmgt.telemetry.listeners.flow.ie.RecordProvider;
+import org.opennms.netmgt.telemetry.listeners.flow.session.TemplateStore;
+import org.opennms.netmgt.telemetry.listeners.flow.session.UdpSessionManager;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.DefaultAddressedEnvelope;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.channel.socket.DatagramPacket;
+import io.netty.handler.codec.DecoderException;
+
+/**
+ * Verifies that data sets can be decoded using templates restored from the store.
+ */
+@RunWith(Parameterized.class)
+public class TemplateStoreTest {
+    private final static InetSocketAddress SENDER = new InetSocketAddress(InetAddress.getLoopbackAddress(), 4711);
+    private final static InetSocketAddress RECIPIENT = new InetSocketAddress(InetAddress.getLoopbackAddress(), 4738);
+
+    @Parameterized.Parameters(name = "{0}: {1}")
+    public static Iterable<Object[]> data() {
+        return Arrays.asList(
+                new Object[]{Protocol.IPFIX, "ipfix_test_mikrotik_tpl.dat", "ipfix_test_mikrotik_data258.dat"},
+                new Object[]{Protocol.IPFIX, "ipfix_test_vmware_vds_tpl.dat", "ipfix_test_vmware_vds_data264.dat"},
+                new Object[]{Protocol.NETFLOW9, "netflow9_test_cisco_asa_1_tpl.dat", "netflow9_test_cisco_asa_1_data.dat"},
+                new Object[]{Protocol.NETFLOW9, "netflow9_test_cisco_asr9k_opttpl256.dat", "netflow9_test_cisco_asr9k_data256.dat"}
+        );
+    }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Protocol protocol;
+    private final String templates;
+    private final String data;
+
+    public TemplateStoreTest(final Protocol protocol, final String templates, final String data) {
+        this.protocol = protocol;
+        this.templates = templates;
+        this.data = data;
+    }
+
+    @Test
+    public void testRestore() throws Exception {
+        final Path path = this.folder.getRoot().toPath().resolve("templates.dat");
+
+        final UdpSessionManager original = new UdpSessionManager(Duration.ofMinutes(30), this.store(path));
+        decode(original, this.templates);
+        original.checkpoint();
+        assertTrue(Files.exists(path));
+
+        final List<ByteBuffer> expected = decode(original, this.data);
+
+        final UdpSessionManager restored = new UdpSessionManager(Duration.ofMinutes(30), this.store(path));
+        restored.restore();
+        final List<ByteBuffer> actual = decode(restored, this.data);
+
+        assertThat(actual, is(expected));
+    }
+
+    @Test
+    public void testExpired() throws Exception {
+        final Path path = this.folder.getRoot().toPath().resolve("templates.dat");
+
+        final UdpSessionManager original = new UdpSessionManager(Duration.ofMinutes(30), this.store(path));
+        decode(original, this.templates);
+        original.checkpoint();
+        Thread.sleep(10);
+
+        final UdpSessionManager restored = new UdpSessionManager(Duration.ZERO, this.store(path));
+        restored.restore();
+        try {
+            decode(restored, this.data);
+            fail("Templates must have expired");
+        } catch (final DecoderException e) {
+            assertThat(e.getCause(), instanceOf(MissingTemplateException.class));
+        }
+    }
+
+    private TemplateStore store(final Path path) {
+        return this.protocol == Protocol.IPFIX
+                ? new TemplateStore(path, this.protocol,
+                        org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.FieldSpecifier::new,
+                        org.opennms.netmgt.telemetry.listeners.flow.ipfix.proto.FieldSpecifier::new)
+                : new TemplateStore(path, this.protocol,
+                        org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.ScopeFieldSpecifier::new,
+                        org.opennms.netmgt.telemetry.listeners.flow.netflow9.proto.FieldSpecifier::new);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<ByteBuffer> decode(final UdpSessionManager sessionManager, final String file) throws Exception {
+        final EmbeddedChannel channel = new EmbeddedChannel(this.protocol == Protocol.IPFIX
+                ? new org.opennms.netmgt.telemetry.listeners.flow.ipfix.UdpPacketDecoder(sessionManager)
+                : new org.opennms.netmgt.telemetry.listeners.flow.netflow9.UdpPacketDecoder(sessionManager));
+
+        final List<ByteBuffer> messages = new ArrayList<>();
+        for (final byte[] datagram : StreamingPacketDecoderTest.datagrams(this.protocol, Arrays.asList(file))) {
+            channel.writeInbound(new DatagramPacket(Unpooled.wrappedBuffer(datagram), RECIPIENT, SENDER));
+
+            Object msg;
+            while ((msg = channel.readInbound()) != null) {
+                ((DefaultAddressedEnvelope<RecordProvider, InetSocketAddress>) msg).content().getRecords()
+                        .forEach(record -> messages.add(PacketHandler.serialize(this.protocol, record)));
+            }
+        }
+
+        channel.finish();
+        return messages;
+    }
+}
@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.alarmd;
 
+import java.util.function.Consumer;
+
 import org.opennms.netmgt.model.OnmsAlarm;
 import org.opennms.netmgt.xml.event.Event;
 
@@ -48,4 +50,21 @@ public interface AlarmPersister {
      */
     OnmsAlarm persist(Event event, boolean eagerlyLoadAlarm);
 
+    /**
+     * Persists the alarm for the given event and hands the resulting alarm
+     * to the callback once it has been stored. Implementations that store
+     * alarms asynchronously may invoke the callback from another thread,
+     * after this method has returned.
+     *
+     * @param event a {@link org.opennms.netmgt.xml.event.Event} object.
+     * @param eagerlyLoadAlarm <code>true</code> if all fields on the alarm should be early loaded, <code>false</code> otherwise
+     * @param callback invoked with the alarm, if one was created or updated
+     */
+    default void persist(Event event, boolean eagerlyLoadAlarm, Consumer<OnmsAlarm> callback) {
+        final OnmsAlarm alarm = persist(event, eagerlyLoadAlarm);
+        if (alarm != null) {
+            callback.accept(alarm);
+        }
+    }
+
 }
@@ -34,6 +34,7 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
 
 import org.hibernate.Hibernate;
 import org.opennms.netmgt.dao.api.AlarmDao;
@@ -49,6 +50,8 @@ import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.UpdateField;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.util.Assert;
 
@@ -57,22 +60,35 @@ import com.google.common.util.concurrent.Striped;
 /**
  * Singleton to persist OnmsAlarms.
  *
+ * When the number of partitions is greater than 0, the alarms are reduced by
+ * a {@link PartitionedAlarmEngine} instead: events are queued by reduction key
+ * and stored asynchronously, in batches, and the callers of
+ * {@link #persist(Event, boolean)} get <code>null</code> back.
+ *
  * @author <a href="mailto:david@opennms.org">David Hustace</a>
  * @version $Id: $
  */
-public class AlarmPersisterImpl implements AlarmPersister {
+public class AlarmPersisterImpl implements AlarmPersister, InitializingBean, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(AlarmPersisterImpl.class);
 
     protected static final Integer NUM_STRIPE_LOCKS = Integer.getInteger("org.opennms.alarmd.stripe.locks", Alarmd.THREADS * 4);
 
+    protected static final Integer NUM_PARTITIONS = Integer.getInteger("org.opennms.alarmd.partitions", 0);
+
+    protected static final Integer PARTITION_BATCH_SIZE = Integer.getInteger("org.opennms.alarmd.partition.batchSize", 100);
+
+    protected static final Integer PARTITION_RING_BUFFER_SIZE = Integer.getInteger("org.opennms.alarmd.partition.ringBufferSize", 8192);
+
     private AlarmDao m_alarmDao;
     private EventDao m_eventDao;
     private EventForwarder m_eventForwarder;
     private EventUtil m_eventUtil;
     private TransactionOperations m_transactionOperations;
     private Striped<Lock> lockStripes = StripedExt.fairLock(NUM_STRIPE_LOCKS);
+    private int m_partitions = NUM_PARTITIONS;
+    private PartitionedAlarmEngine m_engine;
 
-    private static class OnmsAlarmAndLifecycleEvent {
+    static class OnmsAlarmAndLifecycleEvent {
         private final OnmsAlarm m_alarm;
         private final Event m_event;
 
@@ -90,10 +106,31 @@ public class AlarmPersisterImpl implements AlarmPersister {
         }
     }
 
+    @Override
+    public void afterPropertiesSet() {
+        if (m_partitions > 0) {
+            m_engine = new PartitionedAlarmEngine(this, m_partitions, PARTITION_RING_BUFFER_SIZE, PARTITION_BATCH_SIZE);
+            m_engine.start();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (m_engine != null) {
+            m_engine.stop();
+            m_engine = null;
+        }
+    }
+
     /** {@inheritDoc} 
      * @return */
     @Override
     public OnmsAlarm persist(Event event, boolean eagerlyLoadAlarm) {
+        if (m_engine != null) {
+            m_engine.submit(event, eagerlyLoadAlarm, null);
+            return null;
+        }
+
         if (!checkEventSanityAndDoWeProcess(event)) {
             return null;
         }
@@ -121,7 +158,16 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return alarmAndEvent.getAlarm();
     }
 
-    private OnmsAlarmAndLifecycleEvent addOrReduceEventAsAlarm(Event event, boolean eagerlyLoadAlarm) {
+    @Override
+    public void persist(Event event, boolean eagerlyLoadAlarm, Consumer<OnmsAlarm> callback) {
+        if (m_engine != null) {
+            m_engine.submit(event, eagerlyLoadAlarm, callback);
+        } else {
+            AlarmPersister.super.persist(event, eagerlyLoadAlarm, callback);
+        }
+    }
+
+    OnmsAlarmAndLifecycleEvent addOrReduceEventAsAlarm(Event event, boolean eagerlyLoadAlarm) {
         // 2012-03-11 pbrane: for some reason when we get here the event from the DB doesn't have the LogMsg (in my tests anyway)
         OnmsEvent e = m_eventDao.get(event.getDbid());
         Assert.notNull(e, "Event was deleted before we could retrieve it and create an alarm.");
@@ -130,6 +176,16 @@ public class AlarmPersisterImpl implements AlarmPersister {
         LOG.debug("addOrReduceEventAsAlarm: looking for existing reduction key: {}", reductionKey);
         OnmsAlarm alarm = m_alarmDao.findByReductionKey(reductionKey);
 
+        return addOrReduceEventAsAlarm(e, alarm, event, eagerlyLoadAlarm);
+    }
+
+    /**
+     * Creates a new alarm from the given event, or reduces the event into
+     * the given alarm when it is not <code>null</code>. Must be called
+     * within a transaction.
+     */
+    OnmsAlarmAndLifecycleEvent addOrReduceEventAsAlarm(OnmsEvent e, OnmsAlarm alarm, Event event, boolean eagerlyLoadAlarm) {
+        final String reductionKey = event.getAlarmData().getReductionKey();
         final EventBuilder ebldr;
         if (alarm == null) {
             if (LOG.isDebugEnabled()) {
@@ -294,7 +350,7 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return alarm;
     }
     
-    private static boolean checkEventSanityAndDoWeProcess(final Event event) {
+    static boolean checkEventSanityAndDoWeProcess(final Event event) {
         // 2009-01-07 pbrane: TODO: Understand why we use Assert
         Assert.notNull(event, "Incoming event was null, aborting"); 
 
@@ -334,6 +390,19 @@ public class AlarmPersisterImpl implements AlarmPersister {
         m_transactionOperations = transactionOperations;
     }
 
+    /**
+     * Sets the number of partitions used to reduce alarms asynchronously.
+     * A value of 0 reduces the alarms synchronously, in the calling thread.
+     * Must be set before {@link #afterPropertiesSet()} is called.
+     */
+    public void setPartitions(int partitions) {
+        m_partitions = partitions;
+    }
+
+    public int getPartitions() {
+        return m_partitions;
+    }
+
     /**
      * <p>setAlarmDao</p>
      *
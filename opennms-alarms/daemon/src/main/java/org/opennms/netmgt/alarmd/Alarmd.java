@@ -104,11 +104,12 @@ public class Alarmd implements SpringServiceDaemon, ThreadAwareEventListener {
         // object that is returned is eagerly loaded (and avoid any
         // LazyInitializationExceptions). Otherwise, we can save resources
         // by not having to load these fields.
-        final OnmsAlarm alarm = m_persister.persist(e, m_hasActiveAlarmNbis);
-
-        if (alarm != null && m_hasActiveAlarmNbis) {
-            forwardAlarmToNbis(alarm);
-        }
+        final boolean hasActiveAlarmNbis = m_hasActiveAlarmNbis;
+        m_persister.persist(e, hasActiveAlarmNbis, alarm -> {
+            if (hasActiveAlarmNbis) {
+                forwardAlarmToNbis(alarm);
+            }
+        });
     }
 
     /**
@@ -0,0 +1,350 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.criteria.CriteriaBuilder;
+import org.opennms.netmgt.alarmd.AlarmPersisterImpl.OnmsAlarmAndLifecycleEvent;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.lmax.disruptor.BatchEventProcessor;
+import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.EventTranslatorThreeArg;
+import com.lmax.disruptor.LiteBlockingWaitStrategy;
+import com.lmax.disruptor.RingBuffer;
+
+/**
+ * Reduces events into alarms using an in-memory index of the alarm ids,
+ * keyed by reduction key.
+ *
+ * Events are routed to a fixed number of partitions by hashing their clear
+ * key, or their reduction key when they have no clear key, so that a trigger
+ * and the events that clear it are always handled in order, by the same
+ * thread. Since every key belongs to a single partition, no locks are taken.
+ *
+ * Each partition consumes its ring buffer in batches and stores a whole batch
+ * in a single transaction: the events are loaded with one query, and so are
+ * the alarms, looked up by id through the index rather than by reduction key.
+ * The alarms are not kept across transactions, since they are also updated
+ * outside of Alarmd (i.e. acknowledged, or by automations).
+ * The lifecycle events and callbacks are only fired once the batch has been
+ * committed. If the batch fails, its events are reduced again one at a time,
+ * using {@link AlarmPersisterImpl#addOrReduceEventAsAlarm(Event, boolean)},
+ * which also resynchronizes the index with the database.
+ *
+ * The index is loaded from the database on {@link #start()}. Alarms that are
+ * deleted while Alarmd is running are dropped from the index when the
+ * corresponding <code>alarmDeleted</code> event is received, and those that
+ * disappear without an event are detected when the next event for their
+ * reduction key is stored.
+ */
+class PartitionedAlarmEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PartitionedAlarmEngine.class);
+
+    private static final long STOP_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final EventTranslatorThreeArg<PendingEvent, Event, Boolean, Consumer<OnmsAlarm>> TRANSLATOR =
+            new EventTranslatorThreeArg<PendingEvent, Event, Boolean, Consumer<OnmsAlarm>>() {
+                @Override
+                public void translateTo(PendingEvent slot, long sequence, Event event, Boolean eagerlyLoadAlarm, Consumer<OnmsAlarm> callback) {
+                    slot.event = event;
+                    slot.eagerlyLoadAlarm = eagerlyLoadAlarm;
+                    slot.callback = callback;
+                }
+            };
+
+    /**
+     * Ring buffer entry, also used to hold the events of the current batch.
+     */
+    private static class PendingEvent {
+        private Event event;
+        private boolean eagerlyLoadAlarm;
+        private Consumer<OnmsAlarm> callback;
+
+        private PendingEvent copy() {
+            final PendingEvent copy = new PendingEvent();
+            copy.event = event;
+            copy.eagerlyLoadAlarm = eagerlyLoadAlarm;
+            copy.callback = callback;
+            return copy;
+        }
+
+        private String getReductionKey() {
+            return event.getAlarmData().getReductionKey();
+        }
+    }
+
+    private final AlarmPersisterImpl m_persister;
+
+    private final int m_ringBufferSize;
+
+    private final int m_batchSize;
+
+    private final Partition[] m_partitions;
+
+    private final ConcurrentMap<String, Integer> m_alarmIdsByReductionKey = new ConcurrentHashMap<>();
+
+    private class Partition implements EventHandler<PendingEvent> {
+        private final RingBuffer<PendingEvent> m_ringBuffer;
+        private final BatchEventProcessor<PendingEvent> m_processor;
+        private final List<PendingEvent> m_batch = new ArrayList<>();
+
+        private Partition() {
+            m_ringBuffer = RingBuffer.createMultiProducer(PendingEvent::new, m_ringBufferSize, new LiteBlockingWaitStrategy());
+            m_processor = new BatchEventProcessor<>(m_ringBuffer, m_ringBuffer.newBarrier(), this);
+            m_ringBuffer.addGatingSequences(m_processor.getSequence());
+        }
+
+        @Override
+        public void onEvent(PendingEvent slot, long sequence, boolean endOfBatch) {
+            m_batch.add(slot.copy());
+            // Release the references held by the slot, the entry will be reused
+            slot.event = null;
+            slot.callback = null;
+
+            if (endOfBatch || m_batch.size() >= m_batchSize) {
+                try {
+                    process(m_batch);
+                } catch (Throwable t) {
+                    LOG.error("Unexpected error while reducing a batch of {} events.", m_batch.size(), t);
+                } finally {
+                    m_batch.clear();
+                }
+            }
+        }
+
+        private void awaitIdle(long deadline) throws InterruptedException {
+            while (m_processor.getSequence().get() < m_ringBuffer.getCursor() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    /**
+     * @param persister used to access the DAOs and to reduce the individual events
+     * @param numPartitions the number of partitions, and threads
+     * @param ringBufferSize the size of the ring buffer of each partition, rounded up to the next power of two
+     * @param batchSize the maximum number of events stored in a single transaction
+     */
+    PartitionedAlarmEngine(AlarmPersisterImpl persister, int numPartitions, int ringBufferSize, int batchSize) {
+        m_persister = Objects.requireNonNull(persister);
+        m_ringBufferSize = Integer.highestOneBit(Math.max(2, ringBufferSize) * 2 - 1);
+        m_batchSize = Math.max(1, batchSize);
+        m_partitions = new Partition[Math.max(1, numPartitions)];
+    }
+
+    void start() {
+        final Map<String, Integer> alarmIds = m_persister.getTransactionOperations().execute(status -> m_persister.getAlarmDao().getAlarmIdsByReductionKey());
+        m_alarmIdsByReductionKey.putAll(alarmIds);
+        LOG.info("Loaded {} alarms, reducing events across {} partitions.", alarmIds.size(), m_partitions.length);
+
+        final ThreadFactory threadFactory = new LogPreservingThreadFactory(Alarmd.NAME + "-partition", m_partitions.length);
+        for (int i = 0; i < m_partitions.length; i++) {
+            m_partitions[i] = new Partition();
+            threadFactory.newThread(m_partitions[i].m_processor).start();
+        }
+    }
+
+    /**
+     * Waits for the events that were already submitted to be stored, and
+     * stops the partitions.
+     */
+    void stop() {
+        final long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MS;
+        for (Partition partition : m_partitions) {
+            if (partition == null) {
+                continue;
+            }
+            try {
+                partition.awaitIdle(deadline);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            partition.m_processor.halt();
+        }
+    }
+
+    /**
+     * Queues the event on its partition. Blocks while the partition's ring
+     * buffer is full.
+     */
+    void submit(Event event, boolean eagerlyLoadAlarm, Consumer<OnmsAlarm> callback) {
+        if (EventConstants.ALARM_DELETED_EVENT_UEI.equals(event.getUei())) {
+            onAlarmDeleted(event);
+            return;
+        }
+        if (!AlarmPersisterImpl.checkEventSanityAndDoWeProcess(event)) {
+            return;
+        }
+        getPartition(event).m_ringBuffer.publishEvent(TRANSLATOR, event, eagerlyLoadAlarm, callback);
+    }
+
+    int getIndexSize() {
+        return m_alarmIdsByReductionKey.size();
+    }
+
+    Integer getAlarmId(String reductionKey) {
+        return m_alarmIdsByReductionKey.get(reductionKey);
+    }
+
+    private Partition getPartition(Event event) {
+        final String clearKey = event.getAlarmData().getClearKey();
+        final String key = clearKey != null ? clearKey : event.getAlarmData().getReductionKey();
+        return m_partitions[(key == null ? 0 : key.hashCode() & Integer.MAX_VALUE) % m_partitions.length];
+    }
+
+    private void onAlarmDeleted(Event event) {
+        final Parm alarmIdParm = event.getParm(EventConstants.PARM_ALARM_ID);
+        final Parm reductionKeyParm = event.getParm(EventConstants.PARM_ALARM_REDUCTION_KEY);
+        if (alarmIdParm == null || alarmIdParm.getValue() == null || reductionKeyParm == null || reductionKeyParm.getValue() == null) {
+            return;
+        }
+        try {
+            // Only remove the entry if it still points to the deleted alarm
+            m_alarmIdsByReductionKey.remove(reductionKeyParm.getValue().getContent(), Integer.valueOf(alarmIdParm.getValue().getContent()));
+        } catch (NumberFormatException e) {
+            LOG.warn("Failed to retrieve the alarmId for event with uei: {}. Ignoring.", event.getUei(), e);
+        }
+    }
+
+    private void process(List<PendingEvent> batch) {
+        final List<OnmsAlarmAndLifecycleEvent> results = new ArrayList<>(batch.size());
+        // The index is only updated once the transaction has been committed
+        final Map<String, Integer> alarmIds = new HashMap<>();
+        try {
+            m_persister.getTransactionOperations().execute(status -> {
+                final Map<Integer, OnmsEvent> events = m_persister.getEventDao().findMatching(new CriteriaBuilder(OnmsEvent.class)
+                        .in("id", batch.stream().map(p -> p.event.getDbid()).collect(Collectors.toSet()))
+                        .toCriteria()).stream()
+                        .collect(Collectors.toMap(OnmsEvent::getId, e -> e));
+                final Map<String, OnmsAlarm> alarms = findAlarms(batch);
+
+                for (PendingEvent pending : batch) {
+                    final OnmsEvent e = events.get(pending.event.getDbid());
+                    if (e == null) {
+                        LOG.warn("Event with id {} was deleted before we could retrieve it and create an alarm.", pending.event.getDbid());
+                        results.add(null);
+                        continue;
+                    }
+                    final String reductionKey = pending.getReductionKey();
+                    // The alarm may have been deleted without us being notified, in which case a new one is created
+                    final OnmsAlarm alarm = alarms.get(reductionKey);
+
+                    final OnmsAlarmAndLifecycleEvent result = m_persister.addOrReduceEventAsAlarm(e, alarm, pending.event, pending.eagerlyLoadAlarm);
+                    alarms.put(reductionKey, result.getAlarm());
+                    alarmIds.put(reductionKey, result.getAlarm().getId());
+                    results.add(result);
+                }
+                return null;
+            });
+        } catch (Throwable t) {
+            LOG.warn("Failed to reduce a batch of {} events, reducing them one at a time.", batch.size(), t);
+            for (PendingEvent pending : batch) {
+                processIndividually(pending);
+            }
+            return;
+        }
+
+        m_alarmIdsByReductionKey.putAll(alarmIds);
+        for (int i = 0; i < batch.size(); i++) {
+            if (results.get(i) != null) {
+                onPersisted(batch.get(i), results.get(i));
+            }
+        }
+    }
+
+    /**
+     * Loads the indexed alarms of the given events with a single query.
+     *
+     * @return the alarms that still exist, by reduction key
+     */
+    private Map<String, OnmsAlarm> findAlarms(List<PendingEvent> batch) {
+        final Map<String, OnmsAlarm> alarms = new HashMap<>();
+        final Set<Integer> alarmIds = batch.stream()
+                .map(p -> m_alarmIdsByReductionKey.get(p.getReductionKey()))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        if (!alarmIds.isEmpty()) {
+            for (OnmsAlarm alarm : m_persister.getAlarmDao().findMatching(new CriteriaBuilder(OnmsAlarm.class).in("id", alarmIds).toCriteria())) {
+                // Only use the alarm if it is still the one indexed for its reduction key
+                if (alarm.getId().equals(m_alarmIdsByReductionKey.get(alarm.getReductionKey()))) {
+                    alarms.put(alarm.getReductionKey(), alarm);
+                }
+            }
+        }
+        return alarms;
+    }
+
+    private void processIndividually(PendingEvent pending) {
+        final String reductionKey = pending.getReductionKey();
+        final OnmsAlarmAndLifecycleEvent result;
+        try {
+            result = m_persister.getTransactionOperations().execute(status -> m_persister.addOrReduceEventAsAlarm(pending.event, pending.eagerlyLoadAlarm));
+        } catch (Throwable t) {
+            LOG.error("Failed to reduce event with id {} and reduction key {}.", pending.event.getDbid(), reductionKey, t);
+            // Look the alarm up by reduction key the next time around
+            m_alarmIdsByReductionKey.remove(reductionKey);
+            return;
+        }
+        m_alarmIdsByReductionKey.put(reductionKey, result.getAlarm().getId());
+        onPersisted(pending, result);
+    }
+
+    private void onPersisted(PendingEvent pending, OnmsAlarmAndLifecycleEvent result) {
+        // Send the event outside of the database transaction
+        m_persister.getEventForwarder().sendNow(result.getEvent());
+        if (pending.callback != null) {
+            try {
+                pending.callback.accept(result.getAlarm());
+            } catch (Throwable t) {
+                LOG.warn("Alarm callback failed for alarm with id {}.", result.getAlarm().getId(), t);
+            }
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.alarmd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.opennms.core.test.MockLogAppender;
+import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
+import org.opennms.netmgt.dao.api.AlarmDao;
+import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.eventd.EventUtil;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.events.api.EventForwarder;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.xml.event.AlarmData;
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Log;
+import org.opennms.test.JUnitConfigurationEnvironment;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+@RunWith(OpenNMSJUnit4ClassRunner.class)
+@ContextConfiguration(locations={
+        "classpath:/META-INF/opennms/applicationContext-soa.xml",
+        "classpath:/META-INF/opennms/applicationContext-mockDao.xml"
+})
+@JUnitConfigurationEnvironment
+public class PartitionedAlarmEngineTest {
+
+    private static final String UEI = "uei.opennms.org/test/trigger";
+
+    @Autowired
+    private AlarmDao alarmDao;
+
+    @Autowired
+    private EventDao eventDao;
+
+    @Autowired
+    private TransactionOperations transactionOperations;
+
+    private AlarmPersisterImpl persister;
+    private PartitionedAlarmEngine engine;
+
+    private final List<Event> lifecycleEvents = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        MockLogAppender.setupLogging();
+
+        persister = new AlarmPersisterImpl();
+        persister.setAlarmDao(alarmDao);
+        persister.setEventDao(eventDao);
+        persister.setEventUtil(mock(EventUtil.class));
+        persister.setTransactionOperations(transactionOperations);
+        persister.setEventForwarder(new EventForwarder() {
+            @Override
+            public void sendNow(Event event) {
+                lifecycleEvents.add(event);
+            }
+
+            @Override
+            public void sendNow(Log eventLog) {
+                eventLog.getEvents().getEventCollection().forEach(this::sendNow);
+            }
+
+            @Override
+            public void sendNowSync(Event event) {
+                sendNow(event);
+            }
+
+            @Override
+            public void sendNowSync(Log eventLog) {
+                sendNow(eventLog);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        if (engine != null) {
+            engine.stop();
+        }
+        alarmDao.findAll().forEach(alarmDao::delete);
+    }
+
+    @Test
+    public void canReduceEventsIntoIndexedAlarms() throws InterruptedException {
+        final OnmsAlarm existing = createAlarm("existing");
+        startEngine();
+        assertEquals(1, engine.getIndexSize());
+
+        submitAndWait("existing", "existing", "new1", "existing", "new1", "new2");
+
+        assertEquals(3, alarmDao.countAll());
+        assertEquals(Integer.valueOf(4), alarmDao.get(existing.getId()).getCounter());
+        final OnmsAlarm new1 = alarmDao.findByReductionKey("new1");
+        assertEquals(Integer.valueOf(2), new1.getCounter());
+        assertEquals(Integer.valueOf(1), alarmDao.findByReductionKey("new2").getCounter());
+        assertEquals(new1.getId(), engine.getAlarmId("new1"));
+
+        assertEquals(2, lifecycleEvents.stream().filter(e -> EventConstants.ALARM_CREATED_UEI.equals(e.getUei())).count());
+        assertEquals(4, lifecycleEvents.stream().filter(e -> EventConstants.ALARM_UPDATED_WITH_REDUCED_EVENT_UEI.equals(e.getUei())).count());
+    }
+
+    @Test
+    public void canLoadTheAlarmsOfBatchesAtOnce() throws InterruptedException {
+        final OnmsAlarm first = createAlarm("first");
+        final OnmsAlarm second = createAlarm("second");
+        engine = new PartitionedAlarmEngine(persister, 1, 64, 4);
+        engine.start();
+
+        // Hold the first transaction until all events were submitted, so they are stored in two batches
+        final CountDownLatch submitted = new CountDownLatch(1);
+        persister.setTransactionOperations(new TransactionOperations() {
+            @Override
+            public <T> T execute(TransactionCallback<T> action) {
+                try {
+                    submitted.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return transactionOperations.execute(action);
+            }
+        });
+        final Map<String, AtomicInteger> queries = new ConcurrentHashMap<>();
+        persister.setAlarmDao(countingQueries(alarmDao, queries));
+
+        final String[] reductionKeys = { "first", "second", "third", "first", "third" };
+        final List<OnmsAlarm> alarms = new CopyOnWriteArrayList<>();
+        final CountDownLatch stored = new CountDownLatch(reductionKeys.length);
+        for (String reductionKey : reductionKeys) {
+            engine.submit(createEvent(reductionKey), false, alarm -> {
+                alarms.add(alarm);
+                stored.countDown();
+            });
+        }
+        submitted.countDown();
+        assertTrue(stored.await(10, TimeUnit.SECONDS));
+
+        // The callbacks of a single partition are invoked in order
+        final OnmsAlarm third = alarmDao.findByReductionKey("third");
+        assertEquals(first.getId(), alarms.get(0).getId());
+        assertEquals(second.getId(), alarms.get(1).getId());
+        assertEquals(third.getId(), alarms.get(2).getId());
+        assertEquals(first.getId(), alarms.get(3).getId());
+        assertEquals(third.getId(), alarms.get(4).getId());
+        assertEquals(Integer.valueOf(3), alarmDao.get(first.getId()).getCounter());
+        assertEquals(Integer.valueOf(2), alarmDao.get(second.getId()).getCounter());
+        assertEquals(Integer.valueOf(2), third.getCounter());
+
+        // One query per batch, rather than one per event
+        assertEquals(2, queries.getOrDefault("findMatching", new AtomicInteger()).get());
+        assertNull(queries.get("get"));
+        assertNull(queries.get("findByReductionKey"));
+    }
+
+    @Test
+    public void canRecreateAlarmsDeletedWithoutNotification() throws InterruptedException {
+        final OnmsAlarm existing = createAlarm("existing");
+        startEngine();
+
+        alarmDao.delete(existing);
+        submitAndWait("existing");
+
+        final OnmsAlarm recreated = alarmDao.findByReductionKey("existing");
+        assertNotNull(recreated);
+        assertNotEquals(existing.getId(), recreated.getId());
+        assertEquals(Integer.valueOf(1), recreated.getCounter());
+        assertEquals(recreated.getId(), engine.getAlarmId("existing"));
+    }
+
+    @Test
+    public void canEvictDeletedAlarms() {
+        final OnmsAlarm existing = createAlarm("existing");
+        startEngine();
+
+        // Deleted events for other alarms with the same key are ignored
+        engine.submit(alarmDeleted(existing.getId() + 1, "existing"), false, null);
+        assertEquals(existing.getId(), engine.getAlarmId("existing"));
+
+        engine.submit(alarmDeleted(existing.getId(), "existing"), false, null);
+        assertNull(engine.getAlarmId("existing"));
+    }
+
+    private void startEngine() {
+        engine = new PartitionedAlarmEngine(persister, 2, 64, 4);
+        engine.start();
+    }
+
+    private void submitAndWait(String... reductionKeys) throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(reductionKeys.length);
+        for (String reductionKey : reductionKeys) {
+            engine.submit(createEvent(reductionKey), false, alarm -> latch.countDown());
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * Counts the calls made to the DAO, by method name.
+     */
+    private static AlarmDao countingQueries(AlarmDao alarmDao, Map<String, AtomicInteger> queries) {
+        return (AlarmDao) Proxy.newProxyInstance(AlarmDao.class.getClassLoader(), new Class<?>[] { AlarmDao.class }, (proxy, method, args) -> {
+            queries.computeIfAbsent(method.getName(), name -> new AtomicInteger()).incrementAndGet();
+            try {
+                return method.invoke(alarmDao, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    private OnmsAlarm createAlarm(String reductionKey) {
+        final OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setUei(UEI);
+        alarm.setReductionKey(reductionKey);
+        alarm.setCounter(1);
+        alarm.setSeverity(OnmsSeverity.MAJOR);
+        alarm.setAlarmType(1);
+        alarmDao.save(alarm);
+        return alarm;
+    }
+
+    private Event createEvent(String reductionKey) {
+        final OnmsEvent ovent = new OnmsEvent();
+        ovent.setEventUei(UEI);
+        ovent.setEventTime(new Date());
+        ovent.setEventSeverity(OnmsSeverity.MAJOR.getId());
+        ovent.setEventLogMsg("test");
+        eventDao.save(ovent);
+
+        final AlarmData alarmData = new AlarmData();
+        alarmData.setReductionKey(reductionKey);
+        alarmData.setAlarmType(1);
+
+        final Event event = new EventBuilder(UEI, "test").getEvent();
+        event.setDbid(ovent.getId());
+        event.setAlarmData(alarmData);
+        return event;
+    }
+
+    private static Event alarmDeleted(int alarmId, String reductionKey) {
+        return new EventBuilder(EventConstants.ALARM_DELETED_EVENT_UEI, "test")
+                .addParam(EventConstants.PARM_ALARM_ID, alarmId)
+                .addParam(EventConstants.PARM_ALARM_REDUCTION_KEY, reductionKey)
+                .getEvent();
+    }
+}
@@ -145,6 +145,13 @@ public class Configuration implements Serializable {
     @XmlAttribute(name = "batch-interval")
     private Integer m_batchInterval;
 
+    /**
+     * Number of sockets bound to the syslog port using SO_REUSEPORT,
+     *  each one received by its own thread.
+     */
+    @XmlAttribute(name = "listener-sockets")
+    private Integer m_listenerSockets;
+
     public Optional<String> getListenAddress() {
         return Optional.ofNullable(m_listenAddress);
     }
@@ -241,6 +248,14 @@ public class Configuration implements Serializable {
         m_batchInterval = ConfigUtils.assertMinimumInclusive(batchInterval, 1, "batch-interval");
     }
 
+    public Integer getListenerSockets() {
+        return m_listenerSockets != null ? m_listenerSockets : 1;
+    }
+
+    public void setListenerSockets(final Integer listenerSockets) {
+        m_listenerSockets = ConfigUtils.assertMinimumInclusive(listenerSockets, 1, "listener-sockets");
+    }
+
     @Override
     public int hashCode() {
         return Objects.hash(m_listenAddress, 
@@ -254,7 +269,8 @@ public class Configuration implements Serializable {
                             m_threads, 
                             m_queueSize, 
                             m_batchSize, 
-                            m_batchInterval);
+                            m_batchInterval, 
+                            m_listenerSockets);
     }
 
     /**
@@ -282,7 +298,8 @@ public class Configuration implements Serializable {
                     && Objects.equals(this.m_threads, that.m_threads)
                     && Objects.equals(this.m_queueSize, that.m_queueSize)
                     && Objects.equals(this.m_batchSize, that.m_batchSize)
-                    && Objects.equals(this.m_batchInterval, that.m_batchInterval);
+                    && Objects.equals(this.m_batchInterval, that.m_batchInterval)
+                    && Objects.equals(this.m_listenerSockets, that.m_listenerSockets);
         }
         return false;
     }
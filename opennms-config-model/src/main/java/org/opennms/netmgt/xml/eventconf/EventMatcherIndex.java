@@ -0,0 +1,617 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A compiled index over all of the event definitions in an {@link Events} tree.
+ *
+ * <p>Each definition is filed under the combination of the literal values of its mask
+ * elements and varbinds (i.e. the enterprise id, generic and specific type of most traps),
+ * or under the prefix of a wildcard mask element when it has no literal ones. Definitions
+ * that only use regular expressions are kept aside and considered for every event.</p>
+ *
+ * <p>A lookup reads each indexed field of the event at most once, gathers the few candidate
+ * definitions from the matching buckets and evaluates their matchers in eventconf order,
+ * so it returns the same definition as {@link Events#findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)}.</p>
+ *
+ * <p>Events that already carry a UEI are first looked up by their UEI in the root {@link Events}.
+ * Each loaded event file also looks up the UEI among its own definitions before its masks are
+ * evaluated, so these definitions are only returned when none of the definitions that come before
+ * the file in eventconf order match.</p>
+ *
+ * <p>The index is immutable and must be rebuilt whenever the events are (re-)initialized.</p>
+ */
+public class EventMatcherIndex {
+
+    /**
+     * Limits the number of keys a single definition is filed under when many of its
+     * elements have several values. Elements are left to the matcher beyond this.
+     */
+    private static final int MAX_KEYS_PER_EVENT = 256;
+
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    private static final String VARBIND_PREFIX = "varbind#";
+
+    private final Events m_events;
+
+    /** The fields read from the events, shared by all of the tables. */
+    private final Field[] m_fields;
+
+    private final LiteralTable[] m_literalTables;
+
+    private final PrefixTable[] m_prefixTables;
+
+    private final Candidates m_unindexed;
+
+    /** The definitions the loaded event files return by UEI, with the rank at which they are looked up. */
+    private final Map<String, Shortcut> m_shortcuts;
+
+    /** Upper bound on the number of buckets a single lookup can hit. */
+    private final int m_maxHits;
+
+    private final int m_indexedCount;
+
+    public EventMatcherIndex(final Events events) {
+        m_events = events;
+
+        final List<Event> definitions = new ArrayList<>();
+        final Map<String, Shortcut> shortcuts = new HashMap<>();
+        collect(events, definitions, shortcuts, true);
+        m_shortcuts = shortcuts;
+
+        final Builder builder = new Builder();
+        for (int rank = 0; rank < definitions.size(); rank++) {
+            builder.add(rank, definitions.get(rank));
+        }
+
+        m_fields = builder.fields.toArray(new Field[builder.fields.size()]);
+        m_literalTables = new LiteralTable[builder.literalTables.size()];
+        int i = 0;
+        for (final LiteralTableBuilder table : builder.literalTables.values()) {
+            m_literalTables[i++] = table.build();
+        }
+        m_prefixTables = new PrefixTable[builder.prefixTables.size()];
+        int maxHits = m_literalTables.length + 1;
+        i = 0;
+        for (final PrefixTableBuilder table : builder.prefixTables.values()) {
+            m_prefixTables[i] = table.build();
+            maxHits += m_prefixTables[i].m_lengths.length;
+            i++;
+        }
+        m_maxHits = maxHits;
+        m_unindexed = builder.unindexed.build();
+        m_indexedCount = definitions.size() - m_unindexed.size();
+    }
+
+    /**
+     * Gathers the definitions in the order in which {@link Events} searches them, along
+     * with the definitions the loaded event files return by UEI.
+     */
+    private static void collect(final Events events, final List<Event> definitions, final Map<String, Shortcut> shortcuts, final boolean root) {
+        final int start = definitions.size();
+        definitions.addAll(events.getEvents());
+        for (final Events loadedEvents : events.getLoadedEventFiles()) {
+            collect(loadedEvents, definitions, shortcuts, false);
+        }
+        if (root) {
+            // The root is looked up by UEI before anything else
+            return;
+        }
+
+        // The file indexes its own definitions, and those of the files it loads, by UEI
+        for (int rank = start; rank < definitions.size(); rank++) {
+            final String uei = definitions.get(rank).getUei();
+            if (uei == null) {
+                continue;
+            }
+            final Event event = events.getEventByUei(uei);
+            final Shortcut shortcut = shortcuts.get(uei);
+            // The first file to be searched wins
+            if (event != null && (shortcut == null || shortcut.rank > start)) {
+                shortcuts.put(uei, new Shortcut(start, event));
+            }
+        }
+    }
+
+    /**
+     * Finds the first event definition matching the given event.
+     *
+     * @return the matching definition, or null if none match
+     */
+    public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        // Events that already carry a UEI use the definition indexed by it, see Events
+        final String ueiToMatch = matchingEvent.getUei();
+        Shortcut shortcut = null;
+        if (ueiToMatch != null) {
+            final Event matchedEvent = m_events.getEventByUei(ueiToMatch);
+            if (matchedEvent != null) {
+                return matchedEvent;
+            }
+            shortcut = m_shortcuts.get(ueiToMatch);
+        }
+
+        final FieldValues values = new FieldValues(matchingEvent);
+        final Candidates[] hits = new Candidates[m_maxHits];
+        int hitCount = 0;
+
+        for (final LiteralTable table : m_literalTables) {
+            final Candidates candidates = table.get(values);
+            if (candidates != null) {
+                hits[hitCount++] = candidates;
+            }
+        }
+        for (final PrefixTable table : m_prefixTables) {
+            hitCount = table.get(values, hits, hitCount);
+        }
+        if (m_unindexed.size() > 0) {
+            hits[hitCount++] = m_unindexed;
+        }
+
+        if (shortcut == null) {
+            return firstMatch(matchingEvent, hits, hitCount, Integer.MAX_VALUE);
+        }
+        // Only the definitions searched before the file are evaluated
+        final Event event = firstMatch(matchingEvent, hits, hitCount, shortcut.rank);
+        return event != null ? event : shortcut.event;
+    }
+
+    /**
+     * Evaluates the candidates of all the buckets merged in eventconf order,
+     * up to the given rank (exclusive).
+     */
+    private static Event firstMatch(final org.opennms.netmgt.xml.event.Event matchingEvent, final Candidates[] hits, final int hitCount, final int endRank) {
+        if (hitCount == 1) {
+            final Candidates candidates = hits[0];
+            for (int i = 0; i < candidates.size() && candidates.ranks[i] < endRank; i++) {
+                if (candidates.events[i].matches(matchingEvent)) {
+                    return candidates.events[i];
+                }
+            }
+            return null;
+        }
+
+        final int[] positions = new int[hitCount];
+        int lastRank = -1;
+        while (true) {
+            int next = -1;
+            int nextRank = Integer.MAX_VALUE;
+            for (int i = 0; i < hitCount; i++) {
+                if (positions[i] < hits[i].size() && hits[i].ranks[positions[i]] < nextRank) {
+                    next = i;
+                    nextRank = hits[i].ranks[positions[i]];
+                }
+            }
+            if (next < 0 || nextRank >= endRank) {
+                return null;
+            }
+
+            final Event event = hits[next].events[positions[next]++];
+            // The same definition can be filed under several matching prefixes
+            if (nextRank != lastRank && event.matches(matchingEvent)) {
+                return event;
+            }
+            lastRank = nextRank;
+        }
+    }
+
+    /**
+     * @return the number of definitions that are looked up through the index rather than tested for every event
+     */
+    public int getIndexedCount() {
+        return m_indexedCount;
+    }
+
+    /**
+     * @return the number of definitions that are tested for every event
+     */
+    public int getUnindexedCount() {
+        return m_unindexed.size();
+    }
+
+    @Override
+    public String toString() {
+        return "EventMatcherIndex[fields=" + m_fields.length
+                + ", literalTables=" + m_literalTables.length
+                + ", prefixTables=" + m_prefixTables.length
+                + ", indexed=" + m_indexedCount
+                + ", unindexed=" + m_unindexed.size() + "]";
+    }
+
+    private static boolean isRegex(final String value) {
+        return value.startsWith("~");
+    }
+
+    private static boolean isPrefix(final String value) {
+        return !isRegex(value) && value.endsWith("%");
+    }
+
+    private static boolean isLiteral(final String value) {
+        return !isRegex(value) && !isPrefix(value);
+    }
+
+    /**
+     * The values of the fields of an event, read on demand.
+     */
+    private class FieldValues {
+        private final org.opennms.netmgt.xml.event.Event m_event;
+        private final String[] m_values = new String[m_fields.length];
+        private final boolean[] m_read = new boolean[m_fields.length];
+
+        private FieldValues(final org.opennms.netmgt.xml.event.Event event) {
+            m_event = event;
+        }
+
+        private String get(final int field) {
+            if (!m_read[field]) {
+                m_values[field] = m_fields[field].get(m_event);
+                m_read[field] = true;
+            }
+            return m_values[field];
+        }
+    }
+
+    /**
+     * A definition returned by UEI once the search reaches the given rank.
+     */
+    private static class Shortcut {
+        private final int rank;
+        private final Event event;
+
+        private Shortcut(final int rank, final Event event) {
+            this.rank = rank;
+            this.event = event;
+        }
+    }
+
+    /**
+     * Definitions sorted in eventconf order.
+     */
+    private static class Candidates {
+        private final Event[] events;
+        private final int[] ranks;
+
+        private Candidates(final Event[] events, final int[] ranks) {
+            this.events = events;
+            this.ranks = ranks;
+        }
+
+        private int size() {
+            return events.length;
+        }
+    }
+
+    private static class CandidatesBuilder {
+        private final List<Event> events = new ArrayList<>();
+        private final List<Integer> ranks = new ArrayList<>();
+
+        private void add(final int rank, final Event event) {
+            // Definitions are added in eventconf order, only skip repeated keys of the same definition
+            if (!ranks.isEmpty() && ranks.get(ranks.size() - 1) == rank) {
+                return;
+            }
+            events.add(event);
+            ranks.add(rank);
+        }
+
+        private Candidates build() {
+            final int[] ranks = new int[this.ranks.size()];
+            for (int i = 0; i < ranks.length; i++) {
+                ranks[i] = this.ranks.get(i);
+            }
+            return new Candidates(events.toArray(new Event[events.size()]), ranks);
+        }
+    }
+
+    /**
+     * Definitions keyed by the exact values of a combination of fields.
+     */
+    private static class LiteralTable {
+        private final int[] m_fields;
+        private final Map<String, Candidates> m_candidates;
+
+        private LiteralTable(final int[] fields, final Map<String, Candidates> candidates) {
+            m_fields = fields;
+            m_candidates = candidates;
+        }
+
+        private Candidates get(final FieldValues values) {
+            if (m_fields.length == 1) {
+                final String value = values.get(m_fields[0]);
+                return value == null ? null : m_candidates.get(value);
+            }
+
+            final StringBuilder key = new StringBuilder();
+            for (int i = 0; i < m_fields.length; i++) {
+                final String value = values.get(m_fields[i]);
+                if (value == null) {
+                    return null;
+                }
+                if (i > 0) {
+                    key.append(KEY_SEPARATOR);
+                }
+                key.append(value);
+            }
+            return m_candidates.get(key.toString());
+        }
+    }
+
+    private static class LiteralTableBuilder {
+        private final int[] fields;
+        private final Map<String, CandidatesBuilder> candidates = new HashMap<>();
+
+        private LiteralTableBuilder(final int[] fields) {
+            this.fields = fields;
+        }
+
+        private LiteralTable build() {
+            final Map<String, Candidates> built = new HashMap<>();
+            for (final Map.Entry<String, CandidatesBuilder> entry : candidates.entrySet()) {
+                built.put(entry.getKey(), entry.getValue().build());
+            }
+            return new LiteralTable(fields, built);
+        }
+    }
+
+    /**
+     * Definitions keyed by the prefixes of a single field.
+     */
+    private static class PrefixTable {
+        private final int m_field;
+        private final int[] m_lengths;
+        private final Map<String, Candidates> m_candidates;
+
+        private PrefixTable(final int field, final int[] lengths, final Map<String, Candidates> candidates) {
+            m_field = field;
+            m_lengths = lengths;
+            m_candidates = candidates;
+        }
+
+        private int get(final FieldValues values, final Candidates[] hits, int hitCount) {
+            final String value = values.get(m_field);
+            if (value == null) {
+                return hitCount;
+            }
+            for (final int length : m_lengths) {
+                if (length > value.length()) {
+                    break;
+                }
+                final Candidates candidates = m_candidates.get(value.substring(0, length));
+                if (candidates != null) {
+                    hits[hitCount++] = candidates;
+                }
+            }
+            return hitCount;
+        }
+    }
+
+    private static class PrefixTableBuilder {
+        private final int field;
+        private final Map<String, CandidatesBuilder> candidates = new HashMap<>();
+
+        private PrefixTableBuilder(final int field) {
+            this.field = field;
+        }
+
+        private PrefixTable build() {
+            final TreeSet<Integer> lengths = new TreeSet<>();
+            final Map<String, Candidates> built = new HashMap<>();
+            for (final Map.Entry<String, CandidatesBuilder> entry : candidates.entrySet()) {
+                lengths.add(entry.getKey().length());
+                built.put(entry.getKey(), entry.getValue().build());
+            }
+            final int[] sortedLengths = new int[lengths.size()];
+            int i = 0;
+            for (final Integer length : lengths) {
+                sortedLengths[i++] = length;
+            }
+            return new PrefixTable(field, sortedLengths, built);
+        }
+    }
+
+    /**
+     * A mask element or varbind of a definition with the values it accepts.
+     */
+    private static class Element {
+        private final String name;
+        private final List<String> values;
+
+        private Element(final String name, final List<String> values) {
+            this.name = name;
+            this.values = values;
+        }
+    }
+
+    private static class Builder {
+        private final List<Field> fields = new ArrayList<>();
+        private final Map<String, Integer> fieldIndexes = new HashMap<>();
+        private final Map<String, LiteralTableBuilder> literalTables = new LinkedHashMap<>();
+        private final Map<String, PrefixTableBuilder> prefixTables = new LinkedHashMap<>();
+        private final CandidatesBuilder unindexed = new CandidatesBuilder();
+
+        private void add(final int rank, final Event event) {
+            final Mask mask = event.getMask();
+            if (mask == null || mask.getMaskelements().isEmpty()) {
+                // Matched on the UEI alone, definitions without a UEI never match
+                if (event.getUei() != null) {
+                    addLiteral(rank, event, Collections.singletonList(new Element(Maskelement.TAG_UEI, Collections.singletonList(event.getUei()))));
+                }
+                return;
+            }
+
+            final List<Element> literals = new ArrayList<>();
+            final List<Element> prefixes = new ArrayList<>();
+            for (final Maskelement element : mask.getMaskelements()) {
+                classify(new Element(element.getMename(), values(element.getMevalues())), literals, prefixes);
+            }
+            for (final Varbind varbind : mask.getVarbinds()) {
+                if (varbind.getVbnumber() != null) {
+                    classify(new Element(VARBIND_PREFIX + varbind.getVbnumber(), values(varbind.getVbvalues())), literals, prefixes);
+                }
+            }
+
+            if (!literals.isEmpty()) {
+                addLiteral(rank, event, literals);
+            } else if (!prefixes.isEmpty()) {
+                addPrefix(rank, event, prefixes);
+            } else {
+                unindexed.add(rank, event);
+            }
+        }
+
+        private static List<String> values(final List<String> values) {
+            final List<String> nonNull = new ArrayList<>(values.size());
+            for (final String value : values) {
+                if (value != null) {
+                    nonNull.add(value);
+                }
+            }
+            return nonNull;
+        }
+
+        private static void classify(final Element element, final List<Element> literals, final List<Element> prefixes) {
+            if (element.values.isEmpty()) {
+                // Never matches, leave it to the matcher
+                return;
+            }
+            boolean literal = true;
+            boolean prefix = true;
+            for (final String value : element.values) {
+                literal &= isLiteral(value);
+                prefix &= isPrefix(value);
+            }
+            if (literal) {
+                literals.add(element);
+            } else if (prefix) {
+                prefixes.add(element);
+            }
+        }
+
+        private void addLiteral(final int rank, final Event event, final List<Element> elements) {
+            final List<Element> keyed = new ArrayList<>(elements);
+            // Leave the elements with the most values to the matcher until the keys are bounded
+            while (keyCount(keyed) > MAX_KEYS_PER_EVENT && keyed.size() > 1) {
+                keyed.remove(Collections.max(keyed, Comparator.comparingInt((Element e) -> e.values.size())));
+            }
+            if (keyCount(keyed) > MAX_KEYS_PER_EVENT) {
+                unindexed.add(rank, event);
+                return;
+            }
+            keyed.sort(Comparator.comparing((Element e) -> e.name));
+
+            final int[] fieldIndexes = new int[keyed.size()];
+            final StringBuilder signature = new StringBuilder();
+            for (int i = 0; i < keyed.size(); i++) {
+                fieldIndexes[i] = fieldIndex(keyed.get(i).name);
+                signature.append(keyed.get(i).name).append(',');
+            }
+
+            LiteralTableBuilder table = literalTables.get(signature.toString());
+            if (table == null) {
+                table = new LiteralTableBuilder(fieldIndexes);
+                literalTables.put(signature.toString(), table);
+            }
+            for (final String key : keys(keyed, 0, "")) {
+                CandidatesBuilder candidates = table.candidates.get(key);
+                if (candidates == null) {
+                    candidates = new CandidatesBuilder();
+                    table.candidates.put(key, candidates);
+                }
+                candidates.add(rank, event);
+            }
+        }
+
+        private void addPrefix(final int rank, final Event event, final List<Element> elements) {
+            // Prefer the enterprise id, which is the common wildcard for traps
+            Element keyed = elements.get(0);
+            for (final Element element : elements) {
+                if (Maskelement.TAG_SNMP_EID.equals(element.name)) {
+                    keyed = element;
+                    break;
+                }
+            }
+
+            final int fieldIndex = fieldIndex(keyed.name);
+            PrefixTableBuilder table = prefixTables.get(keyed.name);
+            if (table == null) {
+                table = new PrefixTableBuilder(fieldIndex);
+                prefixTables.put(keyed.name, table);
+            }
+            for (final String value : keyed.values) {
+                final String prefix = value.substring(0, value.length() - 1);
+                CandidatesBuilder candidates = table.candidates.get(prefix);
+                if (candidates == null) {
+                    candidates = new CandidatesBuilder();
+                    table.candidates.put(prefix, candidates);
+                }
+                candidates.add(rank, event);
+            }
+        }
+
+        private static long keyCount(final List<Element> elements) {
+            long count = 1;
+            for (final Element element : elements) {
+                count *= element.values.size();
+            }
+            return count;
+        }
+
+        private static List<String> keys(final List<Element> elements, final int index, final String prefix) {
+            if (index == elements.size()) {
+                return Collections.singletonList(prefix);
+            }
+            final List<String> keys = new ArrayList<>();
+            for (final String value : elements.get(index).values) {
+                keys.addAll(keys(elements, index + 1, index == 0 ? value : prefix + KEY_SEPARATOR + value));
+            }
+            return keys;
+        }
+
+        private int fieldIndex(final String name) {
+            Integer index = fieldIndexes.get(name);
+            if (index == null) {
+                index = fields.size();
+                fields.add(name.startsWith(VARBIND_PREFIX)
+                        ? EventMatchers.varbind(Integer.parseInt(name.substring(VARBIND_PREFIX.length())))
+                        : EventMatchers.field(name));
+                fieldIndexes.put(name, index);
+            }
+            return index;
+        }
+    }
+}
@@ -310,6 +310,23 @@ public class Events implements Serializable {
         return null;
     }
 
+    /**
+     * Returns the event definition indexed by the given UEI, which is the definition
+     * {@link #findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)} returns
+     * without consulting the masks when the event already carries that UEI.
+     */
+    Event getEventByUei(final String uei) {
+        return m_eventsByUei.get(uei);
+    }
+
+    /**
+     * Returns the loaded event files, in the order in which
+     * {@link #findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)} searches them.
+     */
+    Collection<Events> getLoadedEventFiles() {
+        return m_loadedEventFiles.values();
+    }
+
     public Event findFirstMatchingEvent(final EventCriteria criteria) {
         for(final Event event : m_events) {
             if (criteria.matches(event)) {
@@ -0,0 +1,228 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.event.Snmp;
+
+public class EventMatcherIndexTest {
+
+    private Events m_events;
+
+    private Events m_subEvents;
+
+    @Before
+    public void setUp() {
+        m_events = new Events();
+        m_subEvents = new Events();
+        m_events.addLoadedEventFile("sub.events.xml", m_subEvents);
+    }
+
+    @Test
+    public void canMatchInEventconfOrder() {
+        m_events.addEvent(definition("prefix", element("id", ".1.3.6.1.4.1.9.%")));
+        m_events.addEvent(definition("literal", element("id", ".1.3.6.1.4.1.9.1"), element("generic", "6"), element("specific", "1")));
+        m_events.addEvent(definition("varbind", element("id", ".1.3.6.1.4.1.5"), varbind(1, "up", "down")));
+        m_events.addEvent(definition("catchall", element("id", ".1.3.6.1.4.1.5")));
+        m_events.addEvent(definition("nomask"));
+        m_subEvents.addEvent(definition("regex", element("id", "~^\\.1\\.3\\.6\\.1\\.4\\.1\\.99\\..*")));
+        m_subEvents.addEvent(definition("overlapping", element("id", ".1.3.%", ".1.3.6.%")));
+        final EventMatcherIndex index = initialize();
+
+        assertMatch(index, "prefix", trap(".1.3.6.1.4.1.9.1", 6, 1));
+        assertMatch(index, "varbind", trap(".1.3.6.1.4.1.5", 6, 1, "down"));
+        assertMatch(index, "catchall", trap(".1.3.6.1.4.1.5", 6, 1, "sideways"));
+        assertMatch(index, "catchall", trap(".1.3.6.1.4.1.5", 6, 1));
+        assertMatch(index, "regex", trap(".1.3.6.1.4.1.99.1", 6, 1));
+        assertMatch(index, "overlapping", trap(".1.3.6.1.4.1.98", 6, 1));
+        assertMatch(index, null, trap(".2", 6, 1));
+
+        final org.opennms.netmgt.xml.event.Event event = new org.opennms.netmgt.xml.event.Event();
+        event.setUei("nomask");
+        assertMatch(index, "nomask", event);
+
+        assertEquals(6, index.getIndexedCount());
+        assertEquals(1, index.getUnindexedCount());
+    }
+
+    @Test
+    public void canMatchUeisDuplicatedAcrossFiles() {
+        final Events otherSubEvents = new Events();
+        m_events.addLoadedEventFile("other.events.xml", otherSubEvents);
+
+        m_events.addEvent(definition("root", element("id", ".1.3.6.1.4.1.9.%")));
+        m_subEvents.addEvent(definition("sub", element("id", ".1.3.6.1.4.1.5")));
+        final Event duplicate = definition("duplicate", element("id", ".1.3.6.1.4.1.7"));
+        m_subEvents.addEvent(duplicate);
+        final Event otherDuplicate = definition("duplicate", element("id", ".1.3.6.1.4.1.8"));
+        otherSubEvents.addEvent(otherDuplicate);
+        final EventMatcherIndex index = initialize();
+
+        // The definitions that come before the file are matched first
+        final org.opennms.netmgt.xml.event.Event rootTrap = trap(".1.3.6.1.4.1.9.1", 6, 1);
+        rootTrap.setUei("duplicate");
+        assertMatch(index, "root", rootTrap);
+
+        // Followed by the definition the first file indexes by UEI, before any of its masks
+        for (final String id : new String[] { ".1.3.6.1.4.1.5", ".1.3.6.1.4.1.7", ".1.3.6.1.4.1.8", ".2" }) {
+            final org.opennms.netmgt.xml.event.Event event = trap(id, 6, 1);
+            event.setUei("duplicate");
+            assertMatch(index, "duplicate", event);
+            assertSame(duplicate, index.findFirstMatchingEvent(event));
+        }
+
+        // Without the UEI, the masks are used
+        assertSame(otherDuplicate, index.findFirstMatchingEvent(trap(".1.3.6.1.4.1.8", 6, 1)));
+        assertMatch(index, "sub", trap(".1.3.6.1.4.1.5", 6, 1));
+    }
+
+    @Test
+    public void canMatchLikeEvents() {
+        final Random random = new Random(42);
+        for (int i = 0; i < 500; i++) {
+            final Events events = random.nextBoolean() ? m_events : m_subEvents;
+            final Mask mask = new Mask();
+            mask.addMaskelement(element("id", randomValue(random, ".1.3.6.1.4.1." + random.nextInt(5))));
+            if (random.nextBoolean()) {
+                mask.addMaskelement(element("generic", Integer.toString(random.nextInt(7))));
+            }
+            if (random.nextBoolean()) {
+                mask.addMaskelement(element("specific", randomValue(random, Integer.toString(random.nextInt(5))), Integer.toString(random.nextInt(5))));
+            }
+            if (random.nextInt(4) == 0) {
+                mask.addVarbind(varbind(1 + random.nextInt(2), randomValue(random, "v" + random.nextInt(3))));
+            }
+            final Event definition = new Event();
+            definition.setUei("uei" + i);
+            definition.setMask(mask);
+            events.addEvent(definition);
+        }
+        final EventMatcherIndex index = initialize();
+
+        for (int i = 0; i < 10000; i++) {
+            final org.opennms.netmgt.xml.event.Event event = random.nextBoolean()
+                    ? trap(".1.3.6.1.4.1." + random.nextInt(6), random.nextInt(7), random.nextInt(6), "v" + random.nextInt(3), "v" + random.nextInt(3))
+                    : trap(".1.3.6.1.4.1." + random.nextInt(6) + "." + random.nextInt(3), random.nextInt(7), random.nextInt(6));
+            assertSame(m_events.findFirstMatchingEvent(event), index.findFirstMatchingEvent(event));
+        }
+    }
+
+    private EventMatcherIndex initialize() {
+        // Leave all the definitions unpartitioned so the events are scanned in order
+        m_events.initialize(new Partition() {
+            @Override
+            public List<String> group(final Event eventConf) {
+                return null;
+            }
+
+            @Override
+            public String group(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+                return null;
+            }
+        }, new EventOrdering());
+        return new EventMatcherIndex(m_events);
+    }
+
+    private void assertMatch(final EventMatcherIndex index, final String uei, final org.opennms.netmgt.xml.event.Event event) {
+        final Event expected = m_events.findFirstMatchingEvent(event);
+        assertEquals(uei, expected == null ? null : expected.getUei());
+        assertSame(expected, index.findFirstMatchingEvent(event));
+        if (uei == null) {
+            assertNull(index.findFirstMatchingEvent(event));
+        }
+    }
+
+    private static String randomValue(final Random random, final String literal) {
+        switch (random.nextInt(4)) {
+        case 0:
+            return literal + "%";
+        case 1:
+            return "~^" + literal.replace(".", "\\.") + ".*";
+        default:
+            return literal;
+        }
+    }
+
+    private static Event definition(final String uei, final Object... elements) {
+        final Event definition = new Event();
+        definition.setUei(uei);
+        if (elements.length > 0) {
+            final Mask mask = new Mask();
+            for (final Object element : elements) {
+                if (element instanceof Varbind) {
+                    mask.addVarbind((Varbind) element);
+                } else {
+                    mask.addMaskelement((Maskelement) element);
+                }
+            }
+            definition.setMask(mask);
+        }
+        return definition;
+    }
+
+    private static Maskelement element(final String name, final String... values) {
+        final Maskelement element = new Maskelement();
+        element.setMename(name);
+        for (final String value : values) {
+            element.addMevalue(value);
+        }
+        return element;
+    }
+
+    private static Varbind varbind(final int number, final String... values) {
+        final Varbind varbind = new Varbind();
+        varbind.setVbnumber(number);
+        for (final String value : values) {
+            varbind.addVbvalue(value);
+        }
+        return varbind;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event trap(final String id, final int generic, final int specific, final String... varbinds) {
+        final Snmp snmp = new Snmp();
+        snmp.setId(id);
+        snmp.setGeneric(generic);
+        snmp.setSpecific(specific);
+        final org.opennms.netmgt.xml.event.Event event = new org.opennms.netmgt.xml.event.Event();
+        event.setSnmp(snmp);
+        for (int i = 0; i < varbinds.length; i++) {
+            event.addParm(new Parm(".1.3.6.1.2." + i, varbinds[i]));
+        }
+        return event;
+    }
+}
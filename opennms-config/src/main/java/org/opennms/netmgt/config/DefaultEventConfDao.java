@@ -43,6 +43,7 @@ import org.opennms.core.xml.JaxbUtils;
 import org.opennms.netmgt.config.api.EventConfDao;
 import org.opennms.netmgt.xml.eventconf.Event;
 import org.opennms.netmgt.xml.eventconf.EventLabelComparator;
+import org.opennms.netmgt.xml.eventconf.EventMatcherIndex;
 import org.opennms.netmgt.xml.eventconf.EventMatchers;
 import org.opennms.netmgt.xml.eventconf.EventOrdering;
 import org.opennms.netmgt.xml.eventconf.Events;
@@ -70,6 +71,12 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	private Partition m_partition;
 
+	/**
+	 * Compiled index used to match events against the definitions, rebuilt
+	 * whenever the events are initialized.
+	 */
+	private EventMatcherIndex m_matcherIndex;
+
     /**
      * Used to keep track of the last modified time for the loaded event files.
      * See the reloadConfig() for details.
@@ -176,7 +183,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 	@Override
 	public void addEvent(Event event) {
 		m_events.addEvent(event);
-		m_events.initialize(m_partition, new EventOrdering());
+		initialize(m_events);
 	}
 
 	@Override
@@ -188,7 +195,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 		}
 
 		programmaticEvents.addEvent(event);
-		m_events.initialize(m_partition, new EventOrdering());
+		initialize(m_events);
 
 	}
 
@@ -202,7 +209,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 			m_events.removeLoadedEventFile(m_programmaticStoreRelativePath);
 		} 
 
-		m_events.initialize(m_partition, new EventOrdering());
+		initialize(m_events);
 
 		return true;
 
@@ -227,7 +234,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 
 	@Override
 	public Event findByEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
-		return m_events.findFirstMatchingEvent(matchingEvent);
+		return m_matcherIndex.findFirstMatchingEvent(matchingEvent);
 	}
 
 	@Override
@@ -244,6 +251,11 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 		loadConfig();
 	}
 
+	private void initialize(final Events events) {
+		events.initialize(m_partition, new EventOrdering());
+		m_matcherIndex = new EventMatcherIndex(events);
+	}
+
 	private static class EnterpriseIdPartition implements Partition {
 
 		private Field m_field = EventMatchers.field("id");
@@ -292,7 +304,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
             events.loadEventFilesIfModified(m_configResource, m_lastModifiedEventFiles);
 
             // Order the events for efficient searching
-            events.initialize(m_partition, new EventOrdering());
+            initialize(events);
 
             m_events = events;
         } catch (Exception e) {
@@ -306,7 +318,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
 			m_lastModifiedEventFiles = events.loadEventFiles(m_configResource);
 
 			m_partition = new EnterpriseIdPartition();
-			events.initialize(m_partition, new EventOrdering());
+			initialize(events);
 
 			m_events = events;
 		} catch (Exception e) {
@@ -140,4 +140,12 @@ public interface SyslogdConfig {
      * @return interval in ms
      */
     int getBatchIntervalMs();
+
+    /**
+     * Number of sockets bound to the syslog port. Each socket
+     * is received by its own thread.
+     *
+     * @return number of sockets
+     */
+    int getListenerSockets();
 }
@@ -216,6 +216,11 @@ public final class SyslogdConfigFactory implements SyslogdConfig {
         return m_config.getConfiguration().getBatchInterval();
     }
 
+    @Override
+    public int getListenerSockets() {
+        return m_config.getConfiguration().getListenerSockets();
+    }
+
     /**
      * Parse import-file tags and add all uei-matchs and hide-messages.
      * 
@@ -0,0 +1,102 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.test.ConfigurationTestUtils;
+import org.opennms.netmgt.xml.event.Event;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Measures the lookups/s of the stock eventconf.xml for trap and syslog event mixes,
+ * using either the compiled matcher index or the partitioned search of the events.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EventConfMatcherBenchmark {
+
+    private static final int EVENTS = 10000;
+
+    @Param({"index", "partition"})
+    public String matcher;
+
+    @Param({"trap", "syslog", "mixed"})
+    public String mix;
+
+    private DefaultEventConfDao m_eventConfDao;
+
+    private Event[] m_events;
+
+    @Setup
+    public void setUp() throws Exception {
+        m_eventConfDao = new DefaultEventConfDao();
+        m_eventConfDao.setConfigResource(new FileSystemResource(ConfigurationTestUtils.getFileForConfigFile("eventconf.xml")));
+        m_eventConfDao.afterPropertiesSet();
+
+        final EventConfMix eventConfMix = new EventConfMix(m_eventConfDao);
+        final Random random = new Random(42);
+        final List<Event> events;
+        if ("trap".equals(mix)) {
+            events = eventConfMix.traps(random, EVENTS);
+        } else if ("syslog".equals(mix)) {
+            events = eventConfMix.syslogs(random, EVENTS);
+        } else {
+            events = eventConfMix.mixed(random, EVENTS);
+        }
+        m_events = events.toArray(new Event[events.size()]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void findByEvent(final Blackhole blackhole) {
+        if ("index".equals(matcher)) {
+            for (final Event event : m_events) {
+                blackhole.consume(m_eventConfDao.findByEvent(event));
+            }
+        } else {
+            for (final Event event : m_events) {
+                blackhole.consume(m_eventConfDao.getRootEvents().findFirstMatchingEvent(event));
+            }
+        }
+    }
+}
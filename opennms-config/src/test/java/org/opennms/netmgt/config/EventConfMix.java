@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.event.Snmp;
+import org.opennms.netmgt.xml.eventconf.Events.EventCallback;
+import org.opennms.netmgt.xml.eventconf.Mask;
+import org.opennms.netmgt.xml.eventconf.Maskelement;
+import org.opennms.netmgt.xml.eventconf.Varbind;
+
+/**
+ * Builds synthetic trap and syslog events from the event definitions of an eventconf,
+ * as well as some events that match none of them.
+ */
+class EventConfMix {
+
+    private final List<Event> m_traps = new ArrayList<>();
+
+    private final List<String> m_syslogUeis = new ArrayList<>();
+
+    EventConfMix(final DefaultEventConfDao dao) {
+        dao.getRootEvents().forEachEvent(null, new EventCallback<Void>() {
+            @Override
+            public Void process(final Void accum, final org.opennms.netmgt.xml.eventconf.Event definition) {
+                final String uei = definition.getUei();
+                if (uei != null && (uei.startsWith("uei.opennms.org/syslogd/") || uei.contains("/syslog/"))) {
+                    m_syslogUeis.add(uei);
+                }
+                final Event trap = trap(definition.getMask());
+                if (trap != null) {
+                    m_traps.add(trap);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * @return events of which one in ten is a trap from an unknown enterprise
+     */
+    List<Event> traps(final Random random, final int count) {
+        final List<Event> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(10) == 0) {
+                events.add(trap(".1.3.6.1.4.1.99999." + random.nextInt(100), 6, random.nextInt(100)));
+            } else {
+                events.add(m_traps.get(random.nextInt(m_traps.size())));
+            }
+        }
+        return events;
+    }
+
+    /**
+     * @return events of which one in ten has an unknown UEI
+     */
+    List<Event> syslogs(final Random random, final int count) {
+        final List<Event> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final Event event = new Event();
+            event.setUei(random.nextInt(10) == 0
+                    ? "uei.opennms.org/vendor/unknown/syslog/" + random.nextInt(100)
+                    : m_syslogUeis.get(random.nextInt(m_syslogUeis.size())));
+            event.setSource("syslogd");
+            event.setInterface("10.0.0." + random.nextInt(255));
+            event.addParm(new Parm("syslogmessage", "message " + i));
+            event.addParm(new Parm("severity", "Notice"));
+            event.addParm(new Parm("timestamp", "Jan  1 00:00:00"));
+            event.addParm(new Parm("process", "sshd"));
+            event.addParm(new Parm("service", "auth"));
+            events.add(event);
+        }
+        return events;
+    }
+
+    List<Event> mixed(final Random random, final int count) {
+        final List<Event> events = traps(random, count / 2);
+        events.addAll(syslogs(random, count - count / 2));
+        return events;
+    }
+
+    /**
+     * Builds a trap matched by the given mask, if its values can be derived without regular expressions.
+     */
+    private static Event trap(final Mask mask) {
+        if (mask == null) {
+            return null;
+        }
+        final Maskelement id = mask.getMaskElement(Maskelement.TAG_SNMP_EID);
+        final String enterprise = id == null ? null : value(id.getMevalues());
+        if (enterprise == null) {
+            return null;
+        }
+        final Maskelement generic = mask.getMaskElement(Maskelement.TAG_SNMP_GENERIC);
+        final Maskelement specific = mask.getMaskElement(Maskelement.TAG_SNMP_SPECIFIC);
+        final Event event = trap(enterprise, integer(generic == null ? null : value(generic.getMevalues()), 6), integer(specific == null ? null : value(specific.getMevalues()), 1));
+
+        int parms = 0;
+        for (final Varbind varbind : mask.getVarbinds()) {
+            if (varbind.getVbnumber() != null) {
+                parms = Math.max(parms, varbind.getVbnumber());
+            }
+        }
+        final String[] values = new String[parms];
+        for (final Varbind varbind : mask.getVarbinds()) {
+            if (varbind.getVbnumber() != null) {
+                values[varbind.getVbnumber() - 1] = value(varbind.getVbvalues());
+            }
+        }
+        for (int i = 0; i < values.length; i++) {
+            event.addParm(new Parm(enterprise + "." + (i + 1), values[i] == null ? "0" : values[i]));
+        }
+        return event;
+    }
+
+    private static Event trap(final String enterprise, final int generic, final int specific) {
+        final Snmp snmp = new Snmp();
+        snmp.setId(enterprise);
+        snmp.setGeneric(generic);
+        snmp.setSpecific(specific);
+        final Event event = new Event();
+        event.setSnmp(snmp);
+        event.setSource("trapd");
+        event.setInterface("10.0.0.1");
+        return event;
+    }
+
+    private static String value(final List<String> values) {
+        for (final String value : values) {
+            if (value == null || value.startsWith("~")) {
+                continue;
+            }
+            return value.endsWith("%") ? value.substring(0, value.length() - 1) + "1" : value;
+        }
+        return null;
+    }
+
+    private static int integer(final String value, final int defaultValue) {
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (final NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+}
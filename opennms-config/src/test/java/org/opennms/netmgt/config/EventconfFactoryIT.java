@@ -35,6 +35,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.opennms.core.utils.InetAddressUtils.str;
@@ -54,6 +55,7 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.Before;
@@ -361,6 +363,18 @@ public class EventconfFactoryIT {
         assertNull("returned event configuration for event with unknown UEI '" + unknownUEI1 + "' should be null", eventConf);
     }
 
+    /**
+     * The compiled matcher index must find the same definitions as the
+     * partitioned search of the events, in the same order.
+     */
+    @Test
+    public void testFindByEventMatchesPartitionedSearch() {
+        final EventConfMix mix = new EventConfMix(m_eventConfDao);
+        for (org.opennms.netmgt.xml.event.Event event : mix.mixed(new Random(42), 20000)) {
+            assertSame(m_eventConfDao.getRootEvents().findFirstMatchingEvent(event), m_eventConfDao.findByEvent(event));
+        }
+    }
+
     @Test
     public void testGetEventsByLabel() {
         List<Event> events = getEventsByLabel();
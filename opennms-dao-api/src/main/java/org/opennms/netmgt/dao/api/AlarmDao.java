@@ -40,6 +40,13 @@ public interface AlarmDao extends LegacyOnmsDao<OnmsAlarm, Integer> {
 
     OnmsAlarm findByReductionKey(String reductionKey);
 
+    /**
+     * Returns the ids of all the alarms, keyed by their reduction key.
+     *
+     * @return a map from reduction key to alarm id
+     */
+    Map<String, Integer> getAlarmIdsByReductionKey();
+
     /**
      * <p>Get the list of current - not yet acknowledged - alarms per node with severity greater than normal,
      * reflecting the max severity, the minimum last event time and alarm count;
@@ -51,4 +51,15 @@ public interface EventDao extends LegacyOnmsDao<OnmsEvent, Integer> {
 
     List<OnmsEvent> getEventsForEventParameters(final Map<String, String> eventParameters);
 
+    /**
+     * Inserts the given events, and their parameters, using as few statements
+     * as possible. The identifiers are assigned before this method returns.
+     *
+     * The events must be new and their associations (node, service type and
+     * monitoring system) only need to carry an identifier.
+     *
+     * @param events the events to insert
+     */
+    void saveAll(List<OnmsEvent> events);
+
 }
@@ -75,6 +75,11 @@ public class MockEventDao extends AbstractMockDao<OnmsEvent, Integer> implements
         return matchingEvents;
     }
 
+    @Override
+    public void saveAll(final List<OnmsEvent> events) {
+        events.forEach(this::save);
+    }
+
     @Override
     public Set<CountedObject<String>> getUeiCounts(final Integer limit) {
         final Map<String,Long> counts = new HashMap<String,Long>();
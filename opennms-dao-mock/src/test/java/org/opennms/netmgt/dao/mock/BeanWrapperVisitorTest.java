@@ -31,6 +31,7 @@ package org.opennms.netmgt.dao.mock;
 import static org.junit.Assert.assertEquals;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Before;
@@ -142,6 +143,15 @@ public class BeanWrapperVisitorTest {
         assertEquals(0, m_visitor.getMatches().size());
     }
 
+    @Test
+    public void testInRestriction() {
+        new CriteriaBuilder(TestBean.class).in("three", Arrays.asList(1, 3)).toCriteria().visit(m_visitor);
+        assertEquals(1, m_visitor.getMatches().size());
+        m_visitor.reset();
+        new CriteriaBuilder(TestBean.class).in("three", Arrays.asList(1, 2)).toCriteria().visit(m_visitor);
+        assertEquals(0, m_visitor.getMatches().size());
+    }
+
     @Test
     public void testGreaterThan() {
         new CriteriaBuilder(TestBean.class).gt("one", 0.0f).toCriteria().visit(m_visitor);
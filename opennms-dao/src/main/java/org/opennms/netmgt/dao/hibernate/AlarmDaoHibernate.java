@@ -30,6 +30,7 @@ package org.opennms.netmgt.dao.hibernate;
 
 import java.sql.SQLException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -65,6 +66,15 @@ public class AlarmDaoHibernate extends AbstractDaoHibernate<OnmsAlarm, Integer>
         return super.findUnique(hql, reductionKey);
     }
 
+    @Override
+    public Map<String, Integer> getAlarmIdsByReductionKey() {
+        final Map<String, Integer> alarmIds = new HashMap<>();
+        for (final Object[] row : findObjects(Object[].class, "select a.reductionKey, a.id from OnmsAlarm as a")) {
+            alarmIds.put((String)row[0], (Integer)row[1]);
+        }
+        return alarmIds;
+    }
+
     /** {@inheritDoc} */
     @Override
     public List<AlarmSummary> getNodeAlarmSummariesIncludeAcknowledgedOnes(List<Integer> nodeIds) {
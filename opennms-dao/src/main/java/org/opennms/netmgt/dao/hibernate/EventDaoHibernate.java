@@ -28,7 +28,12 @@
 
 package org.opennms.netmgt.dao.hibernate;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -36,13 +41,34 @@ import java.util.Map;
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
 import org.hibernate.Session;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.SessionImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.dao.api.EventDao;
 import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsEventParameter;
 import org.springframework.dao.DataAccessException;
 import org.springframework.orm.hibernate3.HibernateCallback;
 
 public class EventDaoHibernate extends AbstractDaoHibernate<OnmsEvent, Integer> implements EventDao {
 
+    private static final String[] EVENT_COLUMNS = {
+        "eventid", "eventuei", "nodeid", "eventtime", "eventhost", "eventsource", "ipaddr", "systemid",
+        "eventsnmphost", "serviceid", "eventsnmp", "eventcreatetime", "eventdescr", "eventloggroup",
+        "eventlogmsg", "eventseverity", "eventpathoutage", "eventcorrelation", "eventsuppressedcount",
+        "eventoperinstruct", "eventautoaction", "eventoperaction", "eventoperactionmenutext",
+        "eventnotification", "eventtticket", "eventtticketstate", "eventforward", "eventmouseovertext",
+        "eventlog", "eventdisplay", "eventackuser", "eventacktime", "alarmid", "ifindex"
+    };
+
+    private static final String[] PARAMETER_COLUMNS = { "eventid", "name", "value", "type" };
+
+    /**
+     * PostgreSQL limits the number of bind parameters in a single statement to 32767.
+     */
+    private static final int MAX_BIND_PARAMETERS = 32767;
+
 	public EventDaoHibernate() {
 		super(OnmsEvent.class);
 	}
@@ -93,4 +119,134 @@ public class EventDaoHibernate extends AbstractDaoHibernate<OnmsEvent, Integer>
             }
         });
     }
+
+    @Override
+    public void saveAll(final List<OnmsEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        getHibernateTemplate().execute(new HibernateCallback<Void>() {
+            @Override
+            public Void doInHibernate(Session session) throws HibernateException, SQLException {
+                // Use the same generator as save() so that both paths draw from the same id space
+                final IdentifierGenerator generator = ((SessionFactoryImplementor)session.getSessionFactory()).getIdentifierGenerator(OnmsEvent.class.getName());
+                final List<OnmsEventParameter> parameters = new ArrayList<>();
+                for (final OnmsEvent event : events) {
+                    event.setId((Integer)generator.generate((SessionImplementor)session, event));
+                    if (event.getEventParameters() != null) {
+                        parameters.addAll(event.getEventParameters());
+                    }
+                }
+
+                session.doWork(connection -> {
+                    insertRows(connection, "events", EVENT_COLUMNS, events, EventDaoHibernate::bindEvent);
+                    insertRows(connection, "event_parameters", PARAMETER_COLUMNS, parameters, EventDaoHibernate::bindParameter);
+                });
+                return null;
+            }
+        });
+    }
+
+    @FunctionalInterface
+    private interface RowBinder<T> {
+        int bind(PreparedStatement stmt, int index, T row) throws SQLException;
+    }
+
+    /**
+     * Inserts the rows using multi-row INSERT statements, splitting them up
+     * so that each statement stays within the bind parameter limit.
+     */
+    private static <T> void insertRows(final Connection connection, final String table, final String[] columns, final List<T> rows, final RowBinder<T> binder) throws SQLException {
+        final int rowsPerStatement = MAX_BIND_PARAMETERS / columns.length;
+        for (int offset = 0; offset < rows.size(); offset += rowsPerStatement) {
+            final List<T> chunk = rows.subList(offset, Math.min(rows.size(), offset + rowsPerStatement));
+            try (final PreparedStatement stmt = connection.prepareStatement(insertStatement(table, columns, chunk.size()))) {
+                int index = 1;
+                for (final T row : chunk) {
+                    index = binder.bind(stmt, index, row);
+                }
+                stmt.executeUpdate();
+            }
+        }
+    }
+
+    private static String insertStatement(final String table, final String[] columns, final int rowCount) {
+        final StringBuilder row = new StringBuilder("(");
+        for (int i = 0; i < columns.length; i++) {
+            row.append(i == 0 ? "?" : ",?");
+        }
+        row.append(')');
+
+        final StringBuilder sql = new StringBuilder("INSERT INTO ").append(table)
+                .append(" (").append(String.join(",", columns)).append(") VALUES ");
+        for (int i = 0; i < rowCount; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            sql.append(row);
+        }
+        return sql.toString();
+    }
+
+    private static int bindEvent(final PreparedStatement stmt, int index, final OnmsEvent event) throws SQLException {
+        setInteger(stmt, index++, event.getId());
+        stmt.setString(index++, event.getEventUei());
+        setInteger(stmt, index++, event.getNodeId());
+        setTimestamp(stmt, index++, event.getEventTime());
+        stmt.setString(index++, event.getEventHost());
+        stmt.setString(index++, event.getEventSource());
+        stmt.setString(index++, event.getIpAddr() == null ? null : InetAddressUtils.str(event.getIpAddr()));
+        stmt.setString(index++, event.getDistPoller().getId());
+        stmt.setString(index++, event.getEventSnmpHost());
+        setInteger(stmt, index++, event.getServiceType() == null ? null : event.getServiceType().getId());
+        stmt.setString(index++, event.getEventSnmp());
+        setTimestamp(stmt, index++, event.getEventCreateTime());
+        stmt.setString(index++, event.getEventDescr());
+        stmt.setString(index++, event.getEventLogGroup());
+        stmt.setString(index++, event.getEventLogMsg());
+        setInteger(stmt, index++, event.getEventSeverity());
+        stmt.setString(index++, event.getEventPathOutage());
+        stmt.setString(index++, event.getEventCorrelation());
+        setInteger(stmt, index++, event.getEventSuppressedCount());
+        stmt.setString(index++, event.getEventOperInstruct());
+        stmt.setString(index++, event.getEventAutoAction());
+        stmt.setString(index++, event.getEventOperAction());
+        stmt.setString(index++, event.getEventOperActionMenuText());
+        stmt.setString(index++, event.getEventNotification());
+        stmt.setString(index++, event.getEventTTicket());
+        setInteger(stmt, index++, event.getEventTTicketState());
+        stmt.setString(index++, event.getEventForward());
+        stmt.setString(index++, event.getEventMouseOverText());
+        stmt.setString(index++, event.getEventLog());
+        stmt.setString(index++, event.getEventDisplay());
+        stmt.setString(index++, event.getEventAckUser());
+        setTimestamp(stmt, index++, event.getEventAckTime());
+        setInteger(stmt, index++, event.getAlarm() == null ? null : event.getAlarm().getId());
+        setInteger(stmt, index++, event.getIfIndex());
+        return index;
+    }
+
+    private static int bindParameter(final PreparedStatement stmt, int index, final OnmsEventParameter parameter) throws SQLException {
+        setInteger(stmt, index++, parameter.getEvent().getId());
+        stmt.setString(index++, parameter.getName());
+        stmt.setString(index++, parameter.getValue());
+        stmt.setString(index++, parameter.getType());
+        return index;
+    }
+
+    private static void setInteger(final PreparedStatement stmt, final int index, final Integer value) throws SQLException {
+        if (value == null) {
+            stmt.setNull(index, Types.INTEGER);
+        } else {
+            stmt.setInt(index, value);
+        }
+    }
+
+    private static void setTimestamp(final PreparedStatement stmt, final int index, final Date value) throws SQLException {
+        if (value == null) {
+            stmt.setNull(index, Types.TIMESTAMP);
+        } else {
+            stmt.setTimestamp(index, new Timestamp(value.getTime()));
+        }
+    }
 }
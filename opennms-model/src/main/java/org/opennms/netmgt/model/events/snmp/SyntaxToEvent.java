@@ -28,6 +28,8 @@
 
 package org.opennms.netmgt.model.events.snmp;
 
+import java.util.regex.Pattern;
+
 import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.snmp.SnmpValue;
 import org.opennms.netmgt.xml.event.Parm;
@@ -37,6 +39,8 @@ import org.opennms.netmgt.xml.event.Value;
  * <p>SyntaxToEvent class.</p>
  */
 public class SyntaxToEvent {
+    private static final Pattern MAC_ADDRESS_NAME = Pattern.compile(".*[Mm][Aa][Cc].*");
+
     int m_typeId;
 
     String m_type;
@@ -104,6 +108,19 @@ public class SyntaxToEvent {
      * @return a {@link org.opennms.netmgt.xml.event.Parm} object.
      */
     public static Parm processSyntax(final String name, final SnmpValue value) {
+        return processSyntax(name, value, isMacAddressName(name));
+    }
+
+    /**
+     * <p>processSyntax</p>
+     *
+     * @param name a {@link java.lang.String} object.
+     * @param value a {@link org.opennms.netmgt.snmp.SnmpValue} object.
+     * @param macAddressName the result of {@link #isMacAddressName(String)} for the name,
+     *        for callers that process many values with the same name
+     * @return a {@link org.opennms.netmgt.xml.event.Parm} object.
+     */
+    public static Parm processSyntax(final String name, final SnmpValue value, final boolean macAddressName) {
     	final Value val = new Value();
 
         boolean found = false;
@@ -119,7 +136,7 @@ public class SyntaxToEvent {
                     // This should not be necessary when NMS-7547 is fixed
                 }
                 if (displayable) {
-                    if (name.matches(".*[Mm][Aa][Cc].*")) {
+                    if (macAddressName) {
                         encoding = EventConstants.XML_ENCODING_MAC_ADDRESS;
                     } else {
                         encoding = EventConstants.XML_ENCODING_TEXT;
@@ -147,4 +164,14 @@ public class SyntaxToEvent {
 
         return parm;
     }
+
+    /**
+     * <p>isMacAddressName</p>
+     *
+     * @param name a {@link java.lang.String} object.
+     * @return true if displayable values with this name are encoded as MAC addresses.
+     */
+    public static boolean isMacAddressName(final String name) {
+        return MAC_ADDRESS_NAME.matcher(name).matches();
+    }
 }
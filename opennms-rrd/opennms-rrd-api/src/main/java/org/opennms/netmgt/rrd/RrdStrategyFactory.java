@@ -46,6 +46,7 @@ public class RrdStrategyFactory implements ApplicationContextAware {
     private static enum StrategyName {
         basicRrdStrategy,
         queuingRrdStrategy,
+        shardedQueuingRrdStrategy,
         tcpAndBasicRrdStrategy,
         tcpAndQueuingRrdStrategy
     }
@@ -65,10 +66,13 @@ public class RrdStrategyFactory implements ApplicationContextAware {
         RrdStrategy<D, F> rrdStrategy = null;
         Boolean useQueue = (Boolean) m_context.getBean("useQueue");
         Boolean useTcp = (Boolean) m_context.getBean("useTcp");
+        Boolean useShardedQueue = m_context.containsBean("useShardedQueue") && (Boolean) m_context.getBean("useShardedQueue");
 
         if (useQueue) {
             if (useTcp) {
                 rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.tcpAndQueuingRrdStrategy.toString());
+            } else if (useShardedQueue) {
+                rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.shardedQueuingRrdStrategy.toString());
             } else {
                 rrdStrategy = (RrdStrategy<D, F>) m_context.getBean(StrategyName.queuingRrdStrategy.toString());
             }
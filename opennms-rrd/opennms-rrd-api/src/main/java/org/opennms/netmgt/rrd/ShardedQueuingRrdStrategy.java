@@ -0,0 +1,975 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.logging.Logging;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queuing implementation of RrdStrategy, which shards the files over a fixed set of write threads.
+ *
+ * Each file is assigned to a single write thread by the hash of its path, so the threads never compete for the same
+ * file and only share a lock with the collectors enqueuing updates for the files of their shard. The pending samples
+ * of a file are stored in primitive arrays, which are kept between writes, instead of an operation object per update.
+ *
+ * A write thread takes all pending samples of a file at once and writes them using a single open and close of the file,
+ * i.e. a single update command for rrdtool. Samples which are not newer than the previous sample of the file are
+ * dropped, as the file would reject them anyway.
+ *
+ * Files are written oldest first, i.e. in the order in which they received their first pending sample. If significant
+ * updates are prioritized, files with only zero valued samples are written after the files with significant samples,
+ * unless their oldest pending sample exceeds the maximum lag, in which case they are promoted and written first.
+ *
+ * System properties effecting the operation:
+ *
+ * org.opennms.rrd.queuing.writethreads: (default 2) The number of shards and write threads
+ *
+ * org.opennms.rrd.queuing.queuecreates: (default false) indicates whether rrd file creates should be queued or
+ * processed synchronously
+ *
+ * org.opennms.rrd.queuing.prioritizeSignificantUpdates: (default false) write files with non-zero samples first
+ *
+ * org.opennms.rrd.queuing.maxLagSeconds: (default 0) the maximum age of the oldest pending sample of a file
+ * with insignificant updates, before it is promoted. Zero means no promotion.
+ *
+ * org.opennms.rrd.queuing.queueHighWaterMark, sigHighWaterMark, inSigHighWaterMark: (default 0) the number of
+ * pending samples beyond which new (significant, insignificant) samples are discarded. Zero means no limit.
+ *
+ * org.opennms.rrd.queuing.modulus: (default 10000) the number of updates between statistics output
+ *
+ * org.opennms.rrd.queuing.category: (default "queued") the log routing prefix to place the statistics output in
+ */
+public class ShardedQueuingRrdStrategy implements RrdStrategy<ShardedQueuingRrdStrategy.CreateDefinition, String>, QueuingRrdStatistics {
+
+    private Logger m_log = LoggerFactory.getLogger(ShardedQueuingRrdStrategy.class);
+
+    // Kinds of the values of a sample
+    private static final byte LONG = 0;
+    private static final byte DOUBLE = 1;
+    private static final byte UNKNOWN = 2;
+    // Integers of 19 or 20 digits, i.e. 64-bit counters, stored as unsigned longs
+    private static final byte UNSIGNED_LONG = 3;
+
+    // Queue a file is waiting in
+    private static final int NONE = 0;
+    private static final int SIGNIFICANT = 1;
+    private static final int INSIGNIFICANT = 2;
+
+    private static final int INITIAL_CAPACITY = 2;
+
+    // Files without pending samples are forgotten after being idle for this long
+    private static final long IDLE_FILE_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private final RrdStrategy<Object, Object> m_delegate;
+
+    private Properties m_configurationProperties;
+
+    private String m_category = "queued";
+
+    private int m_writeThreads = 2;
+
+    private boolean m_queueCreates;
+
+    private boolean m_prioritizeSignificantUpdates;
+
+    private long m_maxLagSeconds;
+
+    private long m_inSigHighWaterMark;
+
+    private long m_sigHighWaterMark;
+
+    private long m_queueHighWaterMark;
+
+    private long m_modulus = 10000;
+
+    private volatile Shard[] m_shards;
+
+    private final AtomicLong m_totalOperationsPending = new AtomicLong();
+    private final AtomicLong m_enqueuedOperations = new AtomicLong();
+    private final AtomicLong m_dequeuedOperations = new AtomicLong();
+    private final AtomicLong m_significantOpsEnqueued = new AtomicLong();
+    private final AtomicLong m_significantOpsDequeued = new AtomicLong();
+    private final AtomicLong m_significantOpsCompleted = new AtomicLong();
+    private final AtomicLong m_dequeuedItems = new AtomicLong();
+    private final AtomicLong m_createsCompleted = new AtomicLong();
+    private final AtomicLong m_updatesCompleted = new AtomicLong();
+    private final AtomicLong m_errors = new AtomicLong();
+    private final AtomicLong m_promotionCount = new AtomicLong();
+    private final AtomicLong m_discarded = new AtomicLong();
+    private final AtomicLong m_coalesced = new AtomicLong();
+
+    private volatile long m_startTime = 0;
+
+    public ShardedQueuingRrdStrategy(RrdStrategy<Object, Object> delegate) {
+        m_delegate = delegate;
+    }
+
+    public RrdStrategy<Object, Object> getDelegate() {
+        return m_delegate;
+    }
+
+    public Properties getConfigurationProperties() {
+        return m_configurationProperties;
+    }
+
+    @Override
+    public void setConfigurationProperties(final Properties configurationParameters) {
+        m_configurationProperties = configurationParameters;
+    }
+
+    public int getWriteThreads() {
+        return m_writeThreads;
+    }
+
+    public void setWriteThreads(int writeThreads) {
+        m_writeThreads = writeThreads;
+    }
+
+    public boolean queueCreates() {
+        return m_queueCreates;
+    }
+
+    public void setQueueCreates(boolean queueCreates) {
+        m_queueCreates = queueCreates;
+    }
+
+    public boolean prioritizeSignificantUpdates() {
+        return m_prioritizeSignificantUpdates;
+    }
+
+    public void setPrioritizeSignificantUpdates(boolean prioritizeSignificantUpdates) {
+        m_prioritizeSignificantUpdates = prioritizeSignificantUpdates;
+    }
+
+    public long getMaxLagSeconds() {
+        return m_maxLagSeconds;
+    }
+
+    public void setMaxLagSeconds(long maxLagSeconds) {
+        m_maxLagSeconds = maxLagSeconds;
+    }
+
+    public long getInSigHighWaterMark() {
+        return m_inSigHighWaterMark;
+    }
+
+    public void setInSigHighWaterMark(long inSigHighWaterMark) {
+        m_inSigHighWaterMark = inSigHighWaterMark;
+    }
+
+    public long getSigHighWaterMark() {
+        return m_sigHighWaterMark;
+    }
+
+    public void setSigHighWaterMark(long sigHighWaterMark) {
+        m_sigHighWaterMark = sigHighWaterMark;
+    }
+
+    public long getQueueHighWaterMark() {
+        return m_queueHighWaterMark;
+    }
+
+    public void setQueueHighWaterMark(long queueHighWaterMark) {
+        m_queueHighWaterMark = queueHighWaterMark;
+    }
+
+    public long getModulus() {
+        return m_modulus;
+    }
+
+    public void setModulus(long modulus) {
+        m_modulus = modulus;
+    }
+
+    public String getCategory() {
+        return m_category;
+    }
+
+    public void setCategory(final String category) {
+        m_category = category;
+
+        m_log = LoggerFactory.getLogger(m_category);
+    }
+
+    //
+    // RrdStrategy Implementation.. These methods just enqueue the samples
+    //
+
+    /** {@inheritDoc} */
+    @Override
+    public CreateDefinition createDefinition(String creator, String directory, String rrdName, int step, List<RrdDataSource> dataSources, List<String> rraList) throws Exception {
+        String fileName = directory + File.separator + rrdName + m_delegate.getDefaultFileExtension();
+        Object def = m_delegate.createDefinition(creator, directory, rrdName, step, dataSources, rraList);
+        return new CreateDefinition(fileName, def);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void createFile(CreateDefinition createDefinition) throws Exception {
+        if (createDefinition == null || createDefinition.getDefinition() == null) {
+            // The file exists already
+            return;
+        }
+        if (m_queueCreates) {
+            getShard(createDefinition.getFileName()).enqueueCreate(createDefinition.getFileName(), createDefinition.getDefinition());
+        } else {
+            m_delegate.createFile(createDefinition.getDefinition());
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String openFile(String fileName) throws Exception {
+        return fileName;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateFile(String fileName, String owner, String data) throws Exception {
+        getShard(fileName).enqueueUpdate(fileName, data);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void closeFile(String fileName) throws Exception {
+        // no need to do anything here
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void promoteEnqueuedFiles(Collection<String> rrdFiles) {
+        for (String fileName : rrdFiles) {
+            getShard(fileName).promote(fileName);
+        }
+        m_delegate.promoteEnqueuedFiles(rrdFiles);
+    }
+
+    @Override
+    public Double fetchLastValue(String rrdFile, String ds, int interval) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValue(rrdFile, ds, interval);
+    }
+
+    @Override
+    public Double fetchLastValue(String rrdFile, String ds, String consolidationFunction, int interval) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValue(rrdFile, ds, consolidationFunction, interval);
+    }
+
+    @Override
+    public Double fetchLastValueInRange(String rrdFile, String ds, int interval, int range) throws NumberFormatException, RrdException {
+        return m_delegate.fetchLastValueInRange(rrdFile, ds, interval, range);
+    }
+
+    @Override
+    public InputStream createGraph(String command, File workDir) throws IOException, RrdException {
+        return m_delegate.createGraph(command, workDir);
+    }
+
+    @Override
+    public RrdGraphDetails createGraphReturnDetails(String command, File workDir) throws IOException, RrdException {
+        return m_delegate.createGraphReturnDetails(command, workDir);
+    }
+
+    @Override
+    public int getGraphLeftOffset() {
+        return m_delegate.getGraphLeftOffset();
+    }
+
+    @Override
+    public int getGraphRightOffset() {
+        return m_delegate.getGraphRightOffset();
+    }
+
+    @Override
+    public int getGraphTopOffsetWithText() {
+        return m_delegate.getGraphTopOffsetWithText();
+    }
+
+    @Override
+    public String getDefaultFileExtension() {
+        return m_delegate.getDefaultFileExtension();
+    }
+
+    @Override
+    public String getStats() {
+        final StringBuilder stats = new StringBuilder();
+        stats.append("\nQS:\ttotalOperationsPending=").append(getTotalOperationsPending())
+                .append(", significantOpsPending=").append(getSignificantOpsEnqueued() - getSignificantOpsCompleted());
+        final Shard[] shards = m_shards;
+        if (shards != null) {
+            for (int i = 0; i < shards.length; i++) {
+                stats.append(", shard").append(i).append("=").append(shards[i].getFilesPending());
+            }
+        }
+        stats.append("\nQS:\tcreatesCompleted=").append(getCreatesCompleted())
+                .append(", updatesCompleted=").append(getUpdatesCompleted())
+                .append(", errors=").append(getErrors())
+                .append(", promotionCount=").append(getPromotionCount())
+                .append(", discarded=").append(getDiscarded())
+                .append(", coalesced=").append(getCoalesced())
+                .append(", overallOpsPerUpdate=").append(getDequeuedOperations() / Math.max(getDequeuedItems(), 1.0));
+        return stats.toString();
+    }
+
+    //
+    // Statistics
+    //
+
+    @Override
+    public long getTotalOperationsPending() {
+        return m_totalOperationsPending.get();
+    }
+
+    @Override
+    public long getCreatesCompleted() {
+        return m_createsCompleted.get();
+    }
+
+    @Override
+    public long getUpdatesCompleted() {
+        return m_updatesCompleted.get();
+    }
+
+    @Override
+    public long getErrors() {
+        return m_errors.get();
+    }
+
+    @Override
+    public long getPromotionCount() {
+        return m_promotionCount.get();
+    }
+
+    @Override
+    public long getSignificantOpsEnqueued() {
+        return m_significantOpsEnqueued.get();
+    }
+
+    @Override
+    public long getSignificantOpsDequeued() {
+        return m_significantOpsDequeued.get();
+    }
+
+    @Override
+    public long getEnqueuedOperations() {
+        return m_enqueuedOperations.get();
+    }
+
+    @Override
+    public long getDequeuedOperations() {
+        return m_dequeuedOperations.get();
+    }
+
+    @Override
+    public long getDequeuedItems() {
+        return m_dequeuedItems.get();
+    }
+
+    @Override
+    public long getSignificantOpsCompleted() {
+        return m_significantOpsCompleted.get();
+    }
+
+    @Override
+    public long getStartTime() {
+        return m_startTime;
+    }
+
+    /**
+     * @return the number of samples discarded because a high water mark was reached
+     */
+    public long getDiscarded() {
+        return m_discarded.get();
+    }
+
+    /**
+     * @return the number of samples dropped because they were not newer than the previous sample of the file
+     */
+    public long getCoalesced() {
+        return m_coalesced.get();
+    }
+
+    private Shard getShard(String fileName) {
+        Shard[] shards = m_shards;
+        if (shards == null) {
+            synchronized (this) {
+                shards = m_shards;
+                if (shards == null) {
+                    shards = new Shard[Math.max(1, m_writeThreads)];
+                    for (int i = 0; i < shards.length; i++) {
+                        shards[i] = new Shard();
+                        final Thread thread = new Thread(shards[i], getClass().getSimpleName() + "-" + (i + 1));
+                        thread.setDaemon(true);
+                        thread.start();
+                    }
+                    m_startTime = System.currentTimeMillis();
+                    m_shards = shards;
+                }
+            }
+        }
+        // Spread the bits, as path names tend to share long prefixes
+        final int hash = fileName.hashCode();
+        return shards[Math.floorMod(hash ^ (hash >>> 16), shards.length)];
+    }
+
+    private boolean isFull(boolean significant) {
+        final long pending = m_totalOperationsPending.get();
+        if (m_queueHighWaterMark > 0 && pending >= m_queueHighWaterMark) {
+            m_log.error("RRD Data Queue is Full!! Discarding sample");
+            return true;
+        }
+        if (significant && m_sigHighWaterMark > 0 && pending >= m_sigHighWaterMark) {
+            m_log.error("RRD Data Significant Queue is Full!! Discarding sample");
+            return true;
+        }
+        if (!significant && m_inSigHighWaterMark > 0 && pending >= m_inSigHighWaterMark) {
+            m_log.error("RRD Insignificant Data Queue is Full!! Discarding sample");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The definition returned by {@link #createDefinition}, wrapping the definition of the delegate.
+     */
+    public static class CreateDefinition {
+        private final String fileName;
+        private final Object definition;
+
+        CreateDefinition(String fileName, Object definition) {
+            this.fileName = fileName;
+            this.definition = definition;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public Object getDefinition() {
+            return definition;
+        }
+    }
+
+    /**
+     * The pending samples of a file. The samples are stored in parallel arrays, the values of the sample at index i
+     * in the range [i * dsCount, (i + 1) * dsCount) of {@link #kinds} and {@link #values}.
+     */
+    private static class PendingFile {
+        private String fileName;
+
+        private int size;
+        private int dsCount = -1;
+        private long[] timestamps = new long[INITIAL_CAPACITY];
+        private byte[] kinds;
+        private long[] values;
+
+        // Updates which could not be parsed are passed on as they are
+        private String[] raw;
+
+        private Object createDefinition;
+
+        private int significantCount;
+
+        // Timestamp of the last sample, to drop samples which are not newer
+        private long lastTimestamp = Long.MIN_VALUE;
+
+        private int queue = NONE;
+
+        private long firstPendingMillis;
+
+        private long lastEnqueuedMillis;
+
+        private PendingFile(String fileName) {
+            this.fileName = fileName;
+        }
+
+        private void ensureCapacity() {
+            if (size == timestamps.length) {
+                final int capacity = timestamps.length * 2;
+                timestamps = Arrays.copyOf(timestamps, capacity);
+                if (values != null) {
+                    kinds = Arrays.copyOf(kinds, capacity * dsCount);
+                    values = Arrays.copyOf(values, capacity * dsCount);
+                }
+                if (raw != null) {
+                    raw = Arrays.copyOf(raw, capacity);
+                }
+            }
+        }
+
+        /**
+         * Moves the pending samples to the given batch, reusing its arrays.
+         */
+        private void drainTo(PendingFile batch) {
+            batch.fileName = fileName;
+            batch.size = size;
+            batch.dsCount = dsCount;
+            batch.createDefinition = createDefinition;
+            batch.significantCount = significantCount;
+            if (batch.timestamps.length < size) {
+                batch.timestamps = new long[timestamps.length];
+            }
+            System.arraycopy(timestamps, 0, batch.timestamps, 0, size);
+            if (values != null) {
+                final int length = size * dsCount;
+                if (batch.values == null || batch.values.length < length) {
+                    batch.kinds = new byte[kinds.length];
+                    batch.values = new long[values.length];
+                }
+                System.arraycopy(kinds, 0, batch.kinds, 0, length);
+                System.arraycopy(values, 0, batch.values, 0, length);
+            }
+            if (raw != null) {
+                batch.raw = raw;
+                raw = null;
+            } else {
+                batch.raw = null;
+            }
+
+            size = 0;
+            createDefinition = null;
+            significantCount = 0;
+            queue = NONE;
+            if (timestamps.length > INITIAL_CAPACITY * 16 && values != null) {
+                // Release the memory after catching up on a backlog
+                timestamps = new long[INITIAL_CAPACITY];
+                kinds = new byte[INITIAL_CAPACITY * dsCount];
+                values = new long[INITIAL_CAPACITY * dsCount];
+            }
+        }
+
+        /**
+         * Parses the given update of the form timestamp:value[:value...] into the next sample.
+         *
+         * @return 1 if the sample is significant, 0 if all values are zero, or -1 if the update could not be parsed
+         */
+        private int parse(String data) {
+            final int length = data.length();
+            int colon = data.indexOf(':');
+            if (colon <= 0) {
+                return -1;
+            }
+            int count = 0;
+            for (int i = colon; i < length; i++) {
+                if (data.charAt(i) == ':') {
+                    count++;
+                }
+            }
+            if (dsCount < 0) {
+                dsCount = count;
+                kinds = new byte[timestamps.length * dsCount];
+                values = new long[timestamps.length * dsCount];
+            } else if (count != dsCount) {
+                return -1;
+            }
+
+            final long timestamp = parseLong(data, 0, colon);
+            if (timestamp == Long.MIN_VALUE) {
+                return -1;
+            }
+
+            int significant = 0;
+            int offset = size * dsCount;
+            int start = colon + 1;
+            for (int ds = 0; ds < dsCount; ds++) {
+                int end = data.indexOf(':', start);
+                if (end < 0) {
+                    end = length;
+                }
+                if (end - start == 1 && (data.charAt(start) == 'U' || data.charAt(start) == 'u')) {
+                    kinds[offset + ds] = UNKNOWN;
+                    significant = 1;
+                } else {
+                    final long longValue = parseLong(data, start, end);
+                    if (longValue != Long.MIN_VALUE) {
+                        kinds[offset + ds] = LONG;
+                        values[offset + ds] = longValue;
+                        if (longValue != 0) {
+                            significant = 1;
+                        }
+                    } else if (isWideInteger(data, start, end)) {
+                        // Too wide to be parsed without allocating, but must be written back exactly
+                        final String token = data.substring(start, end);
+                        try {
+                            if (token.charAt(0) == '-') {
+                                kinds[offset + ds] = LONG;
+                                values[offset + ds] = Long.parseLong(token);
+                            } else {
+                                kinds[offset + ds] = UNSIGNED_LONG;
+                                values[offset + ds] = Long.parseUnsignedLong(token);
+                            }
+                        } catch (NumberFormatException e) {
+                            // Out of the range of 64-bit integers
+                            return -1;
+                        }
+                        significant = 1;
+                    } else {
+                        final double doubleValue;
+                        try {
+                            doubleValue = Double.parseDouble(data.substring(start, end));
+                        } catch (NumberFormatException e) {
+                            return -1;
+                        }
+                        kinds[offset + ds] = DOUBLE;
+                        values[offset + ds] = Double.doubleToRawLongBits(doubleValue);
+                        if (doubleValue != 0.0) {
+                            significant = 1;
+                        }
+                    }
+                }
+                start = end + 1;
+            }
+            timestamps[size] = timestamp;
+            return significant;
+        }
+
+        /**
+         * Parses a decimal integer without allocating.
+         *
+         * @return the value, or {@link Long#MIN_VALUE} if the range is not a plain integer of at most 18 digits
+         */
+        private static long parseLong(String data, int start, int end) {
+            boolean negative = false;
+            if (start < end && data.charAt(start) == '-') {
+                negative = true;
+                start++;
+            }
+            if (start == end || end - start > 18) {
+                return Long.MIN_VALUE;
+            }
+            long value = 0;
+            for (int i = start; i < end; i++) {
+                final char c = data.charAt(i);
+                if (c < '0' || c > '9') {
+                    return Long.MIN_VALUE;
+                }
+                value = value * 10 + (c - '0');
+            }
+            return negative ? -value : value;
+        }
+
+        /**
+         * @return true if the range is a decimal integer of 19 or 20 digits
+         */
+        private static boolean isWideInteger(String data, int start, int end) {
+            if (start < end && data.charAt(start) == '-') {
+                start++;
+            }
+            if (end - start < 19 || end - start > 20) {
+                return false;
+            }
+            for (int i = start; i < end; i++) {
+                final char c = data.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void appendUpdate(int index, StringBuilder update) {
+            update.append(timestamps[index]);
+            final int offset = index * dsCount;
+            for (int ds = 0; ds < dsCount; ds++) {
+                update.append(':');
+                switch (kinds[offset + ds]) {
+                case LONG:
+                    update.append(values[offset + ds]);
+                    break;
+                case DOUBLE:
+                    update.append(Double.longBitsToDouble(values[offset + ds]));
+                    break;
+                case UNSIGNED_LONG:
+                    update.append(Long.toUnsignedString(values[offset + ds]));
+                    break;
+                default:
+                    update.append('U');
+                }
+            }
+        }
+    }
+
+    /**
+     * The pending files of a shard and the thread writing them.
+     */
+    private class Shard implements Runnable {
+
+        private final Map<String, PendingFile> m_files = new HashMap<>();
+
+        private final ArrayDeque<PendingFile> m_significant = new ArrayDeque<>();
+
+        private final ArrayDeque<PendingFile> m_insignificant = new ArrayDeque<>();
+
+        private boolean m_waiting;
+
+        private long m_lastSweep = System.currentTimeMillis();
+
+        // The samples taken from the file currently written, only used by the write thread
+        private final PendingFile m_batch = new PendingFile(null);
+
+        private final StringBuilder m_update = new StringBuilder();
+
+        private synchronized void enqueueCreate(String fileName, Object definition) {
+            final PendingFile file = getFile(fileName);
+            if (file.createDefinition != null) {
+                // Already queued
+                return;
+            }
+            file.createDefinition = definition;
+            enqueue(file, true);
+        }
+
+        private synchronized void enqueueUpdate(String fileName, String data) {
+            final PendingFile file = getFile(fileName);
+            file.ensureCapacity();
+
+            int significant = file.parse(data);
+            if (significant < 0) {
+                // Pass it on as it is
+                if (file.raw == null) {
+                    file.raw = new String[file.timestamps.length];
+                }
+                file.raw[file.size] = data;
+                significant = 1;
+            } else if (file.timestamps[file.size] <= file.lastTimestamp) {
+                // The file would reject it, as it is not newer than the previous sample
+                m_log.debug("Dropping update {} for file {} as it is not newer than the previous one", data, fileName);
+                m_coalesced.incrementAndGet();
+                return;
+            } else if (file.raw != null) {
+                file.raw[file.size] = null;
+            }
+
+            if (isFull(significant > 0)) {
+                m_discarded.incrementAndGet();
+                return;
+            }
+            file.lastTimestamp = file.raw != null && file.raw[file.size] != null ? Long.MIN_VALUE : file.timestamps[file.size];
+            file.size++;
+            m_totalOperationsPending.incrementAndGet();
+            m_enqueuedOperations.incrementAndGet();
+            if (significant > 0) {
+                file.significantCount++;
+                m_significantOpsEnqueued.incrementAndGet();
+            }
+            enqueue(file, significant > 0);
+        }
+
+        private synchronized void promote(String fileName) {
+            final PendingFile file = m_files.get(fileName);
+            if (file != null && file.queue != NONE) {
+                file.queue = SIGNIFICANT;
+                m_significant.addFirst(file);
+            }
+        }
+
+        private synchronized int getFilesPending() {
+            int count = 0;
+            for (PendingFile file : m_files.values()) {
+                if (file.queue != NONE) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private PendingFile getFile(String fileName) {
+            PendingFile file = m_files.get(fileName);
+            if (file == null) {
+                file = new PendingFile(fileName);
+                m_files.put(fileName, file);
+            }
+            return file;
+        }
+
+        private void enqueue(PendingFile file, boolean significant) {
+            final long now = System.currentTimeMillis();
+            file.lastEnqueuedMillis = now;
+            if (file.queue == NONE) {
+                file.firstPendingMillis = now;
+            }
+            if (!m_prioritizeSignificantUpdates || significant) {
+                if (file.queue != SIGNIFICANT) {
+                    // Files with insignificant updates only are promoted by their first significant one
+                    file.queue = SIGNIFICANT;
+                    m_significant.addLast(file);
+                }
+            } else if (file.queue == NONE) {
+                file.queue = INSIGNIFICANT;
+                m_insignificant.addLast(file);
+            }
+            if (m_waiting) {
+                notify();
+            }
+        }
+
+        /**
+         * Takes the samples of the next file to write into the batch, waiting until there is one.
+         */
+        private synchronized void take() throws InterruptedException {
+            PendingFile file;
+            while ((file = select()) == null) {
+                sweep();
+                m_waiting = true;
+                try {
+                    wait(IDLE_FILE_MILLIS);
+                } finally {
+                    m_waiting = false;
+                }
+            }
+
+            m_totalOperationsPending.addAndGet(-file.size);
+            m_dequeuedOperations.addAndGet(file.size);
+            m_significantOpsDequeued.addAndGet(file.significantCount);
+            m_dequeuedItems.incrementAndGet();
+
+            // Copy the samples, so the lock is not held while writing
+            file.drainTo(m_batch);
+        }
+
+        private PendingFile select() {
+            if (m_maxLagSeconds > 0) {
+                // Promote files which are behind too long
+                final PendingFile oldest = peek(m_insignificant, INSIGNIFICANT);
+                if (oldest != null && System.currentTimeMillis() - oldest.firstPendingMillis >= TimeUnit.SECONDS.toMillis(m_maxLagSeconds)) {
+                    m_insignificant.removeFirst();
+                    m_promotionCount.incrementAndGet();
+                    return oldest;
+                }
+            }
+            PendingFile file = peek(m_significant, SIGNIFICANT);
+            if (file != null) {
+                return m_significant.removeFirst();
+            }
+            file = peek(m_insignificant, INSIGNIFICANT);
+            if (file != null) {
+                return m_insignificant.removeFirst();
+            }
+            return null;
+        }
+
+        // Returns the first file, which is still waiting in the given queue, skipping the others
+        private PendingFile peek(ArrayDeque<PendingFile> deque, int queue) {
+            PendingFile file;
+            while ((file = deque.peekFirst()) != null && file.queue != queue) {
+                deque.removeFirst();
+            }
+            return file;
+        }
+
+        private void sweep() {
+            final long now = System.currentTimeMillis();
+            if (now - m_lastSweep < IDLE_FILE_MILLIS) {
+                return;
+            }
+            m_lastSweep = now;
+            for (Iterator<PendingFile> it = m_files.values().iterator(); it.hasNext();) {
+                final PendingFile file = it.next();
+                if (file.queue == NONE && now - file.lastEnqueuedMillis >= IDLE_FILE_MILLIS) {
+                    it.remove();
+                }
+            }
+        }
+
+        private void write() {
+            Object rrd = null;
+            try {
+                if (m_batch.createDefinition != null) {
+                    m_delegate.createFile(m_batch.createDefinition);
+                    m_createsCompleted.incrementAndGet();
+                }
+                for (int index = 0; index < m_batch.size; index++) {
+                    if (rrd == null) {
+                        rrd = m_delegate.openFile(m_batch.fileName);
+                    }
+                    final String update;
+                    if (m_batch.raw != null && m_batch.raw[index] != null) {
+                        update = m_batch.raw[index];
+                    } else {
+                        m_update.setLength(0);
+                        m_batch.appendUpdate(index, m_update);
+                        update = m_update.toString();
+                    }
+                    try {
+                        m_delegate.updateFile(rrd, "", update);
+                    } catch (final Throwable e) {
+                        throw new Exception(String.format("Error processing update for file %s: %s", m_batch.fileName, update), e);
+                    }
+                    if (m_updatesCompleted.incrementAndGet() % m_modulus == 0 && m_log.isDebugEnabled()) {
+                        m_log.debug(getStats());
+                    }
+                }
+            } catch (final Throwable e) {
+                m_errors.incrementAndGet();
+                m_log.debug("Error updating file {}: {}", m_batch.fileName, e.getMessage(), e);
+            } finally {
+                m_significantOpsCompleted.addAndGet(m_batch.significantCount);
+                if (rrd != null) {
+                    try {
+                        m_delegate.closeFile(rrd);
+                    } catch (final Throwable e) {
+                        m_errors.incrementAndGet();
+                        m_log.debug("Error closing rrd {}: {}", rrd, e.getMessage(), e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            Logging.withPrefix(m_category, new Runnable() {
+                @Override
+                public void run() {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        try {
+                            take();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        write();
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,297 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShardedQueuingRrdStrategyTest {
+
+    private RecordingRrdStrategy m_delegate;
+
+    private ShardedQueuingRrdStrategy m_strategy;
+
+    @Before
+    public void setUp() {
+        m_delegate = new RecordingRrdStrategy();
+        m_strategy = new ShardedQueuingRrdStrategy(m_delegate);
+        m_strategy.setWriteThreads(1);
+    }
+
+    @Test
+    public void canWritePendingUpdatesAtOnce() throws Exception {
+        m_delegate.block("blocker.jrb");
+        update("blocker.jrb", "1:1");
+        m_delegate.awaitBlocked();
+
+        update("a.jrb", "1000:1:2.5:U");
+        update("a.jrb", "1300:-7:0.001:12345678901234567");
+        update("a.jrb", "1600:1e3:NaN:3");
+        m_delegate.unblock();
+
+        assertEquals(new Written("blocker.jrb", "1:1"), m_delegate.next());
+        assertEquals(new Written("a.jrb", "1000:1:2.5:U", "1300:-7:0.001:12345678901234567", "1600:1000.0:NaN:3"), m_delegate.next());
+        assertEquals(4, m_strategy.getUpdatesCompleted());
+        assertEquals(2, m_strategy.getDequeuedItems());
+        assertEquals(0, m_strategy.getTotalOperationsPending());
+    }
+
+    @Test
+    public void canWrite64BitCountersExactly() throws Exception {
+        m_delegate.block("blocker.jrb");
+        update("blocker.jrb", "1:1");
+        m_delegate.awaitBlocked();
+
+        // Beyond 2^53, where doubles lose precision, up to 2^64 - 1
+        update("a.jrb", "1000:18446744073709551557:9223372036854775807");
+        update("a.jrb", "1300:18446744073709551615:-9223372036854775808");
+        // Out of the range of 64-bit integers, passed on as it is
+        update("a.jrb", "1600:18446744073709551616:1");
+        m_delegate.unblock();
+
+        m_delegate.next();
+        assertEquals(new Written("a.jrb",
+                "1000:18446744073709551557:9223372036854775807",
+                "1300:18446744073709551615:-9223372036854775808",
+                "1600:18446744073709551616:1"), m_delegate.next());
+    }
+
+    @Test
+    public void canDropUpdatesWhichAreNotNewer() throws Exception {
+        m_delegate.block("blocker.jrb");
+        update("blocker.jrb", "1:1");
+        m_delegate.awaitBlocked();
+
+        update("a.jrb", "1000:1");
+        update("a.jrb", "1000:2");
+        update("a.jrb", "900:3");
+        update("a.jrb", "1300:4");
+        // Unparsable updates are passed on as they are
+        update("a.jrb", "N:5");
+        m_delegate.unblock();
+
+        m_delegate.next();
+        assertEquals(new Written("a.jrb", "1000:1", "1300:4", "N:5"), m_delegate.next());
+        assertEquals(2, m_strategy.getCoalesced());
+
+        // Even if the previous update was already written
+        update("a.jrb", "1600:6");
+        update("a.jrb", "1300:7");
+        assertEquals(new Written("a.jrb", "1600:6"), m_delegate.next());
+        assertNull(m_delegate.poll());
+    }
+
+    @Test
+    public void canPrioritizeSignificantUpdates() throws Exception {
+        m_strategy.setPrioritizeSignificantUpdates(true);
+        m_delegate.block("blocker.jrb");
+        update("blocker.jrb", "1:1");
+        m_delegate.awaitBlocked();
+
+        update("zero.jrb", "1000:0");
+        update("other.jrb", "1000:0:0");
+        update("nonzero.jrb", "1000:1");
+        // Promoted by a significant update
+        update("other.jrb", "1300:0:1");
+        m_delegate.unblock();
+
+        m_delegate.next();
+        assertEquals(new Written("nonzero.jrb", "1000:1"), m_delegate.next());
+        assertEquals(new Written("other.jrb", "1000:0:0", "1300:0:1"), m_delegate.next());
+        assertEquals(new Written("zero.jrb", "1000:0"), m_delegate.next());
+        assertEquals(0, m_strategy.getPromotionCount());
+    }
+
+    @Test
+    public void canPromoteFilesBehindDeadline() throws Exception {
+        m_strategy.setPrioritizeSignificantUpdates(true);
+        m_strategy.setMaxLagSeconds(1);
+        m_delegate.block("blocker.jrb");
+        update("blocker.jrb", "1:1");
+        m_delegate.awaitBlocked();
+
+        update("zero.jrb", "1000:0");
+        Thread.sleep(1100);
+        update("nonzero.jrb", "1000:1");
+        m_delegate.unblock();
+
+        m_delegate.next();
+        assertEquals(new Written("zero.jrb", "1000:0"), m_delegate.next());
+        assertEquals(new Written("nonzero.jrb", "1000:1"), m_delegate.next());
+        assertEquals(1, m_strategy.getPromotionCount());
+    }
+
+    @Test
+    public void canDiscardUpdatesAboveHighWaterMark() throws Exception {
+        m_strategy.setQueueHighWaterMark(2);
+        m_delegate.block("blocker.jrb");
+        update("blocker.jrb", "1:1");
+        m_delegate.awaitBlocked();
+
+        update("a.jrb", "1000:1");
+        update("a.jrb", "1300:2");
+        update("a.jrb", "1600:3");
+        m_delegate.unblock();
+
+        m_delegate.next();
+        assertEquals(new Written("a.jrb", "1000:1", "1300:2"), m_delegate.next());
+        assertEquals(1, m_strategy.getDiscarded());
+    }
+
+    @Test
+    public void canQueueCreates() throws Exception {
+        m_strategy.setQueueCreates(true);
+        m_delegate.block("blocker.jrb");
+        update("blocker.jrb", "1:1");
+        m_delegate.awaitBlocked();
+
+        final ShardedQueuingRrdStrategy.CreateDefinition def = m_strategy.createDefinition("test", "dir", "a", 300,
+                Collections.emptyList(), Collections.emptyList());
+        m_strategy.createFile(def);
+        m_strategy.createFile(def);
+        update(def.getFileName(), "1000:1");
+        m_delegate.unblock();
+
+        m_delegate.next();
+        assertEquals(new Written(def.getFileName(), "1000:1"), m_delegate.next());
+        assertEquals(Collections.singletonList(def.getFileName()), m_delegate.m_created);
+        assertEquals(1, m_strategy.getCreatesCompleted());
+    }
+
+    private void update(String fileName, String data) throws Exception {
+        final String rrd = m_strategy.openFile(fileName);
+        m_strategy.updateFile(rrd, "test", data);
+        m_strategy.closeFile(rrd);
+    }
+
+    private static class Written {
+        private final String fileName;
+        private final List<String> updates;
+
+        private Written(String fileName, String... updates) {
+            this.fileName = fileName;
+            this.updates = new ArrayList<>(Arrays.asList(updates));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Written)) {
+                return false;
+            }
+            final Written other = (Written) obj;
+            return fileName.equals(other.fileName) && updates.equals(other.updates);
+        }
+
+        @Override
+        public int hashCode() {
+            return fileName.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return fileName + updates;
+        }
+    }
+
+    /**
+     * Records the updates written per open file and blocks the write thread on a given file.
+     */
+    private static class RecordingRrdStrategy extends NullRrdStrategy {
+        private final BlockingQueue<Written> m_written = new LinkedBlockingQueue<>();
+        private final List<String> m_created = Collections.synchronizedList(new ArrayList<>());
+        private final CountDownLatch m_blocked = new CountDownLatch(1);
+        private final CountDownLatch m_unblocked = new CountDownLatch(1);
+        private String m_blockFileName;
+
+        private void block(String fileName) {
+            m_blockFileName = fileName;
+        }
+
+        private void awaitBlocked() throws InterruptedException {
+            m_blocked.await(10, TimeUnit.SECONDS);
+        }
+
+        private void unblock() {
+            m_unblocked.countDown();
+        }
+
+        private Written next() throws InterruptedException {
+            return m_written.poll(10, TimeUnit.SECONDS);
+        }
+
+        private Written poll() throws InterruptedException {
+            return m_written.poll(200, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public Object createDefinition(String creator, String directory, String rrdName, int step, List<RrdDataSource> dataSources, List<String> rraList) {
+            return directory + "/" + rrdName + getDefaultFileExtension();
+        }
+
+        @Override
+        public void createFile(Object rrdDef) {
+            m_created.add((String) rrdDef);
+        }
+
+        @Override
+        public Object openFile(String fileName) {
+            if (fileName.equals(m_blockFileName)) {
+                m_blocked.countDown();
+                try {
+                    m_unblocked.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new Written(fileName);
+        }
+
+        @Override
+        public void updateFile(Object rrd, String owner, String data) {
+            ((Written) rrd).updates.add(data);
+        }
+
+        @Override
+        public void closeFile(Object rrd) {
+            m_written.add((Written) rrd);
+        }
+    }
+}
@@ -44,6 +44,7 @@ import java.util.Map.Entry;
 import java.util.Properties;
 
 import org.jrobin.core.FetchData;
+import org.jrobin.core.RrdBackendFactory;
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdDef;
 import org.jrobin.core.RrdException;
@@ -71,6 +72,9 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
     private static final Logger LOG = LoggerFactory.getLogger(JRobinRrdStrategy.class);
     private static final String BACKEND_FACTORY_PROPERTY = "org.jrobin.core.RrdBackendFactory";
     private static final String DEFAULT_BACKEND_FACTORY = "FILE";
+    private static final String MAPPED_MAX_FILES_PROPERTY = "org.opennms.rrd.jrobin.mapped.maxFiles";
+    private static final String MAPPED_MAX_BYTES_PROPERTY = "org.opennms.rrd.jrobin.mapped.maxBytes";
+    private static final String MAPPED_SYNC_PERIOD_PROPERTY = "org.opennms.rrd.jrobin.mapped.syncPeriod";
 
     /*
      * Ensure that we only initialize certain things *once* per
@@ -130,6 +134,10 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
                 factory = (String)m_configurationProperties.get(BACKEND_FACTORY_PROPERTY);
             }
             try {
+                if (MappedRrdBackendFactory.NAME.equalsIgnoreCase(factory)) {
+                    registerMappedFactory();
+                    factory = MappedRrdBackendFactory.NAME;
+                }
                 RrdDb.setDefaultFactory(factory);
                 s_initialized=true;
             } catch (RrdException e) {
@@ -138,6 +146,22 @@ public class JRobinRrdStrategy implements RrdStrategy<RrdDef,RrdDb> {
         }
     }
 
+    private void registerMappedFactory() throws RrdException {
+        final int maxFiles = Integer.parseInt(m_configurationProperties.getProperty(MAPPED_MAX_FILES_PROPERTY,
+                Integer.toString(MappedRrdBackendFactory.DEFAULT_MAX_FILES)));
+        final long maxBytes = Long.parseLong(m_configurationProperties.getProperty(MAPPED_MAX_BYTES_PROPERTY,
+                Long.toString(MappedRrdBackendFactory.DEFAULT_MAX_BYTES)));
+        final long syncPeriod = Long.parseLong(m_configurationProperties.getProperty(MAPPED_SYNC_PERIOD_PROPERTY,
+                Long.toString(MappedRrdBackendFactory.DEFAULT_SYNC_PERIOD_SECONDS)));
+        try {
+            RrdBackendFactory.getFactory(MappedRrdBackendFactory.NAME);
+        } catch (RrdException e) {
+            // Not registered yet
+            LOG.info("Mapping up to {} JRobin files with up to {} bytes, syncing every {} seconds", maxFiles, maxBytes, syncPeriod);
+            RrdBackendFactory.registerFactory(new MappedRrdBackendFactory(maxFiles, maxBytes, syncPeriod));
+        }
+    }
+
     /**
      * Closes the JRobin RrdDb.
      *
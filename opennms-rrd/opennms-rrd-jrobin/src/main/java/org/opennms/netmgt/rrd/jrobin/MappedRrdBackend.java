@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.IOException;
+
+import org.jrobin.core.RrdBackend;
+
+/**
+ * Backend accessing a file mapped by the {@link MappedRrdBackendFactory}.
+ */
+class MappedRrdBackend extends RrdBackend {
+
+    private final MappedRrdBackendFactory.MappedFile m_file;
+
+    private boolean m_closed;
+
+    MappedRrdBackend(String path, MappedRrdBackendFactory.MappedFile file) {
+        super(path);
+        m_file = file;
+    }
+
+    @Override
+    protected void write(long offset, byte[] bytes) throws IOException {
+        m_file.write(offset, bytes);
+    }
+
+    @Override
+    protected void read(long offset, byte[] bytes) throws IOException {
+        m_file.read(offset, bytes);
+    }
+
+    @Override
+    public long getLength() throws IOException {
+        return m_file.getLength();
+    }
+
+    @Override
+    protected void setLength(long length) throws IOException {
+        m_file.setLength(length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        super.close();
+        if (!m_closed) {
+            m_closed = true;
+            // Keep the file mapped for the next access
+            m_file.release();
+        }
+    }
+}
@@ -0,0 +1,406 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jrobin.core.RrdBackend;
+import org.jrobin.core.RrdBackendFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JRobin backend factory which keeps the files memory mapped between accesses.
+ *
+ * All backends opened for the same file share a single mapping, so the collectors updating a file and
+ * the graphs and measurements reading it don't need any system calls to access it. The least recently used
+ * mappings, which are not in use, are closed once more than the maximum number of files or bytes are mapped.
+ *
+ * Modified mappings are not synced on close, but periodically by a single thread for all files, and when
+ * they are evicted. The data of a closed backend is visible to all other readers immediately, as they use
+ * the same pages, but may be lost if the system crashes before the next sync.
+ *
+ * The files are also synced and closed when the JVM shuts down, or when the factory is closed.
+ */
+public class MappedRrdBackendFactory extends RrdBackendFactory implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedRrdBackendFactory.class);
+
+    public static final String NAME = "MAPPED";
+
+    public static final int DEFAULT_MAX_FILES = 10000;
+
+    public static final long DEFAULT_MAX_BYTES = 1024L * 1024L * 1024L;
+
+    public static final long DEFAULT_SYNC_PERIOD_SECONDS = 300;
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    private final int m_maxFiles;
+
+    private final long m_maxBytes;
+
+    // All mapped files in access order, guarded by this
+    private final LinkedHashMap<String, MappedFile> m_files = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong m_mappedBytes = new AtomicLong();
+
+    // Null if the files are not synced periodically
+    private final ScheduledExecutorService m_syncExecutor;
+
+    private final Thread m_shutdownHook = new Thread(this::closeAll, "JRobin-MappedShutdown");
+
+    public MappedRrdBackendFactory() {
+        this(DEFAULT_MAX_FILES, DEFAULT_MAX_BYTES, DEFAULT_SYNC_PERIOD_SECONDS);
+    }
+
+    public MappedRrdBackendFactory(int maxFiles, long maxBytes, long syncPeriodSeconds) {
+        m_maxFiles = maxFiles;
+        m_maxBytes = maxBytes;
+        if (syncPeriodSeconds > 0) {
+            m_syncExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "JRobin-MappedSync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            m_syncExecutor.scheduleWithFixedDelay(this::sync, syncPeriodSeconds, syncPeriodSeconds, TimeUnit.SECONDS);
+        } else {
+            m_syncExecutor = null;
+        }
+        Runtime.getRuntime().addShutdownHook(m_shutdownHook);
+    }
+
+    @Override
+    protected RrdBackend open(String path, boolean readOnly) throws IOException {
+        final MappedFile file;
+        synchronized (this) {
+            MappedFile existing = m_files.get(path);
+            if (existing == null) {
+                existing = new MappedFile(path);
+                m_files.put(path, existing);
+            }
+            existing.m_references++;
+            file = existing;
+        }
+        try {
+            file.open(readOnly);
+        } catch (IOException | RuntimeException e) {
+            release(file);
+            throw e;
+        }
+        evict();
+        return new MappedRrdBackend(path, file);
+    }
+
+    @Override
+    protected boolean exists(String path) throws IOException {
+        return new File(path).exists();
+    }
+
+    @Override
+    public String getFactoryName() {
+        return NAME;
+    }
+
+    /**
+     * @return the number of files currently mapped
+     */
+    public synchronized int getMappedFiles() {
+        return m_files.size();
+    }
+
+    /**
+     * @return the number of bytes currently mapped
+     */
+    public long getMappedBytes() {
+        return m_mappedBytes.get();
+    }
+
+    /**
+     * Writes the modified pages of all files back to disk.
+     */
+    public void sync() {
+        final List<MappedFile> files;
+        synchronized (this) {
+            files = new ArrayList<>(m_files.values());
+        }
+        for (MappedFile file : files) {
+            try {
+                file.sync();
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to sync {}", file.m_path, e);
+            }
+        }
+    }
+
+    /**
+     * Syncs and closes all files, which are not in use.
+     */
+    public void closeAll() {
+        final List<MappedFile> unused = new ArrayList<>();
+        synchronized (this) {
+            for (Iterator<MappedFile> it = m_files.values().iterator(); it.hasNext();) {
+                final MappedFile file = it.next();
+                if (file.m_references == 0) {
+                    it.remove();
+                    unused.add(file);
+                }
+            }
+        }
+        close(unused);
+    }
+
+    /**
+     * Stops the periodic sync, removes the shutdown hook and syncs and closes all files, which are not in use.
+     */
+    @Override
+    public void close() {
+        if (m_syncExecutor != null) {
+            m_syncExecutor.shutdown();
+            try {
+                if (!m_syncExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    LOG.warn("The sync did not complete within {} seconds", SHUTDOWN_TIMEOUT_SECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            Runtime.getRuntime().removeShutdownHook(m_shutdownHook);
+        } catch (IllegalStateException e) {
+            // The JVM is already shutting down, and the hook closes the files
+        }
+        closeAll();
+    }
+
+    private void release(MappedFile file) {
+        synchronized (this) {
+            file.m_references--;
+        }
+        evict();
+    }
+
+    // Closes the least recently used files not in use, while over the limits
+    private void evict() {
+        List<MappedFile> evicted = null;
+        synchronized (this) {
+            final Iterator<MappedFile> it = m_files.values().iterator();
+            while ((m_files.size() > m_maxFiles || m_mappedBytes.get() > m_maxBytes) && it.hasNext()) {
+                final MappedFile file = it.next();
+                if (file.m_references == 0) {
+                    it.remove();
+                    if (evicted == null) {
+                        evicted = new ArrayList<>();
+                    }
+                    evicted.add(file);
+                    // Account for it now, so the loop ends
+                    m_mappedBytes.addAndGet(-file.m_accountedBytes);
+                    file.m_accountedBytes = 0;
+                }
+            }
+        }
+        if (evicted != null) {
+            close(evicted);
+        }
+    }
+
+    private static void close(List<MappedFile> files) {
+        for (MappedFile file : files) {
+            try {
+                file.close();
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Failed to close {}", file.m_path, e);
+            }
+        }
+    }
+
+    /**
+     * A mapped file shared by all its backends.
+     */
+    class MappedFile {
+        private final String m_path;
+
+        // Guarded by the factory
+        private int m_references;
+
+        private RandomAccessFile m_file;
+
+        private MappedByteBuffer m_buffer;
+
+        private boolean m_writable;
+
+        private boolean m_dirty;
+
+        // Bytes added to the mapped bytes of the factory for this file
+        private long m_accountedBytes;
+
+        private MappedFile(String path) {
+            m_path = path;
+        }
+
+        private synchronized void open(boolean readOnly) throws IOException {
+            if (m_file != null && (m_writable || readOnly)) {
+                return;
+            }
+            final File file = new File(m_path);
+            if (!file.exists() && readOnly) {
+                throw new FileNotFoundException("Could not open " + m_path + " [non existent]");
+            }
+            // Prefer a writable mapping, so it can be shared by readers and writers
+            final boolean writable = !file.exists() || file.canWrite();
+            if (!writable && !readOnly) {
+                throw new IOException("Could not open " + m_path + " for writing");
+            }
+            closeFile();
+            m_file = new RandomAccessFile(file, writable ? "rw" : "r");
+            m_writable = writable;
+            map();
+        }
+
+        private void map() throws IOException {
+            final long length = m_file.length();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Could not map " + m_path + ", its size of " + length + " bytes is too large");
+            }
+            m_buffer = m_file.getChannel().map(m_writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, length);
+            account(length);
+        }
+
+        private void unmap() {
+            if (m_buffer != null) {
+                if (m_dirty) {
+                    m_buffer.force();
+                    m_dirty = false;
+                }
+                MappedRrdBackendFactory.unmap(m_buffer);
+                m_buffer = null;
+                account(0);
+            }
+        }
+
+        private void account(long bytes) {
+            synchronized (MappedRrdBackendFactory.this) {
+                m_mappedBytes.addAndGet(bytes - m_accountedBytes);
+                m_accountedBytes = bytes;
+            }
+        }
+
+        synchronized long getLength() throws IOException {
+            return m_buffer.capacity();
+        }
+
+        synchronized void setLength(long length) throws IOException {
+            if (!m_writable) {
+                throw new IOException("Could not resize " + m_path + ", it is opened read-only");
+            }
+            if (length == m_buffer.capacity()) {
+                return;
+            }
+            unmap();
+            m_file.setLength(length);
+            map();
+        }
+
+        synchronized void read(long offset, byte[] bytes) throws IOException {
+            checkRange(offset, bytes);
+            m_buffer.position((int) offset);
+            m_buffer.get(bytes);
+        }
+
+        synchronized void write(long offset, byte[] bytes) throws IOException {
+            if (!m_writable) {
+                throw new IOException("Could not write to " + m_path + ", it is opened read-only");
+            }
+            checkRange(offset, bytes);
+            m_buffer.position((int) offset);
+            m_buffer.put(bytes);
+            m_dirty = true;
+        }
+
+        private void checkRange(long offset, byte[] bytes) throws IOException {
+            if (offset < 0 || offset + bytes.length > m_buffer.capacity()) {
+                throw new IOException("Access to " + m_path + " at " + offset + " with " + bytes.length + " bytes is out of bounds");
+            }
+        }
+
+        synchronized void sync() {
+            if (m_buffer != null && m_dirty) {
+                m_buffer.force();
+                m_dirty = false;
+            }
+        }
+
+        synchronized void close() throws IOException {
+            closeFile();
+        }
+
+        private void closeFile() throws IOException {
+            unmap();
+            if (m_file != null) {
+                m_file.close();
+                m_file = null;
+            }
+        }
+
+        void release() {
+            MappedRrdBackendFactory.this.release(this);
+        }
+    }
+
+    /**
+     * Releases the mapping immediately, instead of waiting for the garbage collector, if supported by the JVM.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            LOG.trace("Could not unmap buffer, leaving it to the garbage collector", e);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.RrdFileBackendFactory;
+import org.jrobin.core.RrdNioBackendFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Replays synthetic collection cycles against the JRobin backends: every cycle updates each file once,
+ * like collectd, and fetches the last day of a tenth of the files, like graphs and measurements requests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MappedRrdBackendBenchmark {
+
+    private static final long STEP = 300;
+
+    @Param({"FILE", "NIO", "MAPPED"})
+    public String backend;
+
+    @Param({"1000"})
+    public int files;
+
+    private File m_directory;
+
+    private RrdBackendFactory m_factory;
+
+    private String[] m_paths;
+
+    private long m_time;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        m_directory = Files.createTempDirectory("jrobin-bench").toFile();
+        if (MappedRrdBackendFactory.NAME.equals(backend)) {
+            m_factory = new MappedRrdBackendFactory(files, Long.MAX_VALUE, 300);
+        } else if (RrdNioBackendFactory.NAME.equals(backend)) {
+            m_factory = new RrdNioBackendFactory();
+        } else {
+            m_factory = new RrdFileBackendFactory();
+        }
+
+        m_time = System.currentTimeMillis() / 1000 - 30 * 86400;
+        m_paths = new String[files];
+        for (int i = 0; i < files; i++) {
+            m_paths[i] = new File(m_directory, "file" + i + ".jrb").getAbsolutePath();
+            final RrdDef def = new RrdDef(m_paths[i], m_time, STEP);
+            def.addDatasource("ifHCInOctets", "COUNTER", 2 * STEP, Double.NaN, Double.NaN);
+            def.addDatasource("ifHCOutOctets", "COUNTER", 2 * STEP, Double.NaN, Double.NaN);
+            def.addArchive("AVERAGE", 0.5, 1, 2016);
+            def.addArchive("AVERAGE", 0.5, 12, 1488);
+            def.addArchive("AVERAGE", 0.5, 288, 366);
+            def.addArchive("MAX", 0.5, 288, 366);
+            def.addArchive("MIN", 0.5, 288, 366);
+            new RrdDb(def, m_factory).close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (m_factory instanceof MappedRrdBackendFactory) {
+            ((MappedRrdBackendFactory) m_factory).close();
+        }
+        for (String path : m_paths) {
+            new File(path).delete();
+        }
+        m_directory.delete();
+    }
+
+    @Benchmark
+    public void collectionCycle() throws Exception {
+        m_time += STEP;
+        for (int i = 0; i < m_paths.length; i++) {
+            final RrdDb rrd = new RrdDb(m_paths[i], m_factory);
+            try {
+                rrd.createSample(m_time).setAndUpdate(m_time + ":" + (m_time * i) + ":" + (m_time * 2 * i));
+            } finally {
+                rrd.close();
+            }
+        }
+        for (int i = 0; i < m_paths.length; i += 10) {
+            final RrdDb rrd = new RrdDb(m_paths[i], true, m_factory);
+            try {
+                rrd.createFetchRequest("AVERAGE", m_time - 86400, m_time).fetchData();
+            } finally {
+                rrd.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+import org.jrobin.core.FetchData;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.RrdFileBackendFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedRrdBackendFactoryTest {
+
+    private static final long START = 1500000000L;
+
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    private MappedRrdBackendFactory m_factory;
+
+    @Before
+    public void setUp() {
+        m_factory = new MappedRrdBackendFactory(2, Long.MAX_VALUE, 0);
+    }
+
+    @After
+    public void tearDown() {
+        m_factory.close();
+    }
+
+    @Test
+    public void canShareMappingBetweenWritersAndReaders() throws Exception {
+        final String path = create("a.jrb");
+
+        final RrdDb writer = new RrdDb(path, m_factory);
+        writer.createSample(START + 300).setAndUpdate((START + 300) + ":10");
+        writer.createSample(START + 600).setAndUpdate((START + 600) + ":20");
+
+        // Readers see the updates immediately, while the writer is still open
+        final RrdDb reader = new RrdDb(path, true, m_factory);
+        assertEquals(START + 600, reader.getLastUpdateTime());
+        reader.close();
+        writer.close();
+        assertEquals(1, m_factory.getMappedFiles());
+
+        // And after syncing, also without the mapping
+        m_factory.sync();
+        final RrdDb fileReader = new RrdDb(path, true, new RrdFileBackendFactory());
+        final FetchData data = fileReader.createFetchRequest("AVERAGE", START + 300, START + 600).fetchData();
+        fileReader.close();
+        assertEquals(20.0, data.getValues("value")[data.getRowCount() - 1], 0.001);
+    }
+
+    @Test
+    public void canEvictLeastRecentlyUsedFiles() throws Exception {
+        final String a = create("a.jrb");
+        final String b = create("b.jrb");
+        final String c = create("c.jrb");
+        assertEquals(2, m_factory.getMappedFiles());
+
+        // Files in use are not evicted
+        final RrdDb rrdA = new RrdDb(a, m_factory);
+        final RrdDb rrdB = new RrdDb(b, m_factory);
+        final RrdDb rrdC = new RrdDb(c, m_factory);
+        assertEquals(3, m_factory.getMappedFiles());
+        rrdA.createSample(START + 300).setAndUpdate((START + 300) + ":1");
+        rrdA.close();
+        rrdB.close();
+        rrdC.close();
+        assertEquals(2, m_factory.getMappedFiles());
+        assertEquals(2 * new File(b).length(), m_factory.getMappedBytes());
+
+        // The evicted file was synced
+        final RrdDb fileReader = new RrdDb(a, true, new RrdFileBackendFactory());
+        assertEquals(START + 300, fileReader.getLastUpdateTime());
+        fileReader.close();
+    }
+
+    @Test
+    public void canEvictByBytes() throws Exception {
+        final String a = create("a.jrb");
+        m_factory.close();
+        final long size = new File(a).length();
+
+        m_factory = new MappedRrdBackendFactory(100, size + size / 2, 0);
+        new RrdDb(a, true, m_factory).close();
+        new RrdDb(create("b.jrb"), true, m_factory).close();
+        assertEquals(1, m_factory.getMappedFiles());
+        assertEquals(size, m_factory.getMappedBytes());
+    }
+
+    @Test
+    public void canStopTheSyncWhenClosed() throws Exception {
+        m_factory.close();
+        m_factory = new MappedRrdBackendFactory(2, Long.MAX_VALUE, 300);
+        final RrdDb writer = new RrdDb(create("a.jrb"), m_factory);
+        writer.createSample(START + 300).setAndUpdate((START + 300) + ":10");
+        writer.close();
+        final Thread syncThread = getSyncThread();
+        assertNotNull(syncThread);
+
+        m_factory.close();
+        syncThread.join(10000);
+        assertFalse(syncThread.isAlive());
+        assertEquals(0, m_factory.getMappedFiles());
+        assertEquals(0, m_factory.getMappedBytes());
+
+        // Closing it again is harmless
+        m_factory.close();
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void cannotOpenMissingFileReadOnly() throws Exception {
+        final File file = new File(m_folder.getRoot(), "missing.jrb");
+        try {
+            new RrdDb(file.getAbsolutePath(), true, m_factory);
+        } finally {
+            assertTrue(!file.exists());
+            assertEquals(0, m_factory.getMappedFiles());
+        }
+    }
+
+    private static Thread getSyncThread() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("JRobin-MappedSync".equals(thread.getName())) {
+                return thread;
+            }
+        }
+        return null;
+    }
+
+    private String create(String name) throws Exception {
+        final String path = new File(m_folder.getRoot(), name).getAbsolutePath();
+        final RrdDef def = new RrdDef(path, START, 300);
+        def.addDatasource("value", "GAUGE", 600, Double.NaN, Double.NaN);
+        def.addArchive("AVERAGE", 0.5, 1, 288);
+        new RrdDb(def, m_factory).close();
+        return path;
+    }
+}
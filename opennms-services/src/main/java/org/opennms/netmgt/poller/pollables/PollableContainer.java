@@ -31,23 +31,24 @@ package org.opennms.netmgt.poller.pollables;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.opennms.netmgt.poller.PollStatus;
 
 
 
 /**
- * Represents a PollableContainer
+ * Represents a PollableContainer. The members are kept in a concurrent map so
+ * that they can be looked up and iterated without locking the container.
  *
  * @author <a href="mailto:brozow@opennms.org">Mathew Brozowski</a>
  * @version $Id: $
  */
 abstract public class PollableContainer extends PollableElement {
 
-    private final Map<Object, PollableElement> m_members = new HashMap<Object, PollableElement>();
+    private final ConcurrentMap<Object, PollableElement> m_members = new ConcurrentHashMap<Object, PollableElement>();
 
     /**
      * <p>Constructor for PollableContainer.</p>
@@ -65,7 +66,7 @@ abstract public class PollableContainer extends PollableElement {
      * @param key a {@link java.lang.Object} object.
      * @return a {@link org.opennms.netmgt.poller.pollables.PollableElement} object.
      */
-    protected synchronized PollableElement getMember(Object key) {
+    protected PollableElement getMember(Object key) {
         return m_members.get(key);
     }
 
@@ -74,7 +75,7 @@ abstract public class PollableContainer extends PollableElement {
      *
      * @return a int.
      */
-    protected synchronized int getMemberCount() {
+    protected int getMemberCount() {
         return m_members.size();
     }
     
@@ -83,7 +84,7 @@ abstract public class PollableContainer extends PollableElement {
      *
      * @return a {@link java.util.Collection} object.
      */
-    protected synchronized Collection<PollableElement> getMembers() {
+    protected Collection<PollableElement> getMembers() {
         return new ArrayList<PollableElement>(m_members.values());
     }
     
@@ -100,17 +101,28 @@ abstract public class PollableContainer extends PollableElement {
      *
      * @param member a {@link org.opennms.netmgt.poller.pollables.PollableElement} object.
      */
-    protected synchronized void addMember(PollableElement member) {
+    protected void addMember(PollableElement member) {
         Object key = createMemberKey(member);
         m_members.put(key, member);
     }
+
+    /**
+     * Adds the given member unless a member with the same key already exists.
+     *
+     * @param member a {@link org.opennms.netmgt.poller.pollables.PollableElement} object.
+     * @return the existing member, or null if the given member was added
+     */
+    protected PollableElement addMemberIfAbsent(PollableElement member) {
+        Object key = createMemberKey(member);
+        return m_members.putIfAbsent(key, member);
+    }
     
     /**
      * <p>removeMember</p>
      *
      * @param member a {@link org.opennms.netmgt.poller.pollables.PollableElement} object.
      */
-    public synchronized void removeMember(PollableElement member) {
+    public void removeMember(PollableElement member) {
         Object key = createMemberKey(member);
         m_members.remove(key);
     }
@@ -123,7 +135,7 @@ abstract public class PollableContainer extends PollableElement {
      */
     public void deleteMember(PollableElement member) {
         removeMember(member);
-        if (m_members.size() == 0)
+        if (m_members.isEmpty())
             this.delete();
     }
     
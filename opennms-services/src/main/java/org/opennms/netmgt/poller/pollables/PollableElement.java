@@ -31,6 +31,7 @@ package org.opennms.netmgt.poller.pollables;
 import java.util.Date;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 import org.opennms.netmgt.poller.PollStatus;
 import org.opennms.netmgt.xml.event.Event;
@@ -45,11 +46,31 @@ import org.slf4j.LoggerFactory;
  */
 public abstract class PollableElement {
     private static final Logger LOG = LoggerFactory.getLogger(PollableElement.class);
+
+    /**
+     * An immutable snapshot of the status of an element. Every change of the
+     * status or of the changed flag publishes a new snapshot, with a higher
+     * version, using compare-and-set.
+     */
+    private static final class StatusState {
+        private final PollStatus m_status;
+        private final boolean m_changed;
+        private final long m_version;
+
+        private StatusState(PollStatus status, boolean changed, long version) {
+            m_status = status;
+            m_changed = changed;
+            m_version = version;
+        }
+    }
+
+    private static final AtomicReferenceFieldUpdater<PollableElement, StatusState> STATE_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(PollableElement.class, StatusState.class, "m_state");
+
     private final Scope m_scope; 
 
     private volatile PollableContainer m_parent;
-    private volatile PollStatus m_status = PollStatus.unknown();
-    private volatile boolean m_statusChanged = false;
+    private volatile StatusState m_state = new StatusState(PollStatus.unknown(), false, 0);
     private volatile PollEvent m_cause;
     private volatile boolean m_deleted;
 
@@ -119,41 +140,54 @@ public abstract class PollableElement {
      * @return a {@link org.opennms.netmgt.poller.PollStatus} object.
      */
     public PollStatus getStatus() {
-        return m_status;
-    }
-    private void setStatus(PollStatus status) {
-        m_status = status;
+        return m_state.m_status;
     }
+
     /**
      * <p>isStatusChanged</p>
      *
      * @return a boolean.
      */
     public boolean isStatusChanged() {
-        return m_statusChanged;
+        return m_state.m_changed;
     }
-    private void setStatusChanged(boolean statusChanged) {
-        m_statusChanged = statusChanged;
+
+    /**
+     * Returns the version of the status of this element, which is incremented
+     * every time the status or the changed flag is modified.
+     *
+     * @return a long.
+     */
+    public long getStatusVersion() {
+        return m_state.m_version;
     }
+
     /**
      * <p>updateStatus</p>
      *
      * @param newStatus a {@link org.opennms.netmgt.poller.PollStatus} object.
      */
     public void updateStatus(PollStatus newStatus) {
-        PollStatus oldStatus = getStatus();
-        if (!oldStatus.equals(newStatus)) {
-            
-            LOG.info("Changing status of PollableElement {} from {} to {}", this, oldStatus, newStatus);
-            setStatus(newStatus);
-            setStatusChanged(true);
-        }
+        StatusState oldState;
+        do {
+            oldState = m_state;
+            if (oldState.m_status.equals(newStatus)) {
+                return;
+            }
+        } while (!STATE_UPDATER.compareAndSet(this, oldState, new StatusState(newStatus, true, oldState.m_version + 1)));
+        LOG.info("Changing status of PollableElement {} from {} to {}", this, oldState.m_status, newStatus);
     }
     /**
      * <p>resetStatusChanged</p>
      */
     public void resetStatusChanged() {
-        setStatusChanged(false);
+        StatusState oldState;
+        do {
+            oldState = m_state;
+            if (!oldState.m_changed) {
+                return;
+            }
+        } while (!STATE_UPDATER.compareAndSet(this, oldState, new StatusState(oldState.m_status, false, oldState.m_version + 1)));
     }
     /**
      * <p>recalculateStatus</p>
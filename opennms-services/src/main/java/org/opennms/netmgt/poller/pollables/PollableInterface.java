@@ -223,12 +223,23 @@ public class PollableInterface extends PollableContainer {
     /** {@inheritDoc} */
     @Override
     protected PollStatus poll(PollableElement elem) {
-        PollableService critSvc = getCriticalService();
-        if (getStatus().isUp() || critSvc == null || elem == critSvc)
+        if (!isPollSuppressed(elem))
             return super.poll(elem);
     
         return PollStatus.down();
     }
+
+    /**
+     * Returns true if polls of the given member are suppressed because the
+     * interface is down and the member is not its critical service.
+     *
+     * @param elem a {@link org.opennms.netmgt.poller.pollables.PollableElement} object.
+     * @return a boolean.
+     */
+    boolean isPollSuppressed(PollableElement elem) {
+        PollableService critSvc = getCriticalService();
+        return !(getStatus().isUp() || critSvc == null || elem == critSvc);
+    }
     
     /** {@inheritDoc} */
     @Override
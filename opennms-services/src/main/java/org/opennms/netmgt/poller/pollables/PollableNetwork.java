@@ -91,10 +91,13 @@ public class PollableNetwork extends PollableContainer {
      * @return a {@link org.opennms.netmgt.poller.pollables.PollableNode} object.
      */
     public PollableNode createNodeIfNecessary(int nodeId, String nodeLabel, String nodeLocation) {
-        synchronized (this) {
-            PollableNode node = getNode(nodeId);
-            return (node != null ? node : createNode(nodeId, nodeLabel, nodeLocation));
+        PollableNode node = getNode(nodeId);
+        if (node != null) {
+            return node;
         }
+        node = new PollableNode(this, nodeId, nodeLabel, nodeLocation);
+        PollableNode existing = (PollableNode)addMemberIfAbsent(node);
+        return (existing != null ? existing : node);
     }
 
     /**
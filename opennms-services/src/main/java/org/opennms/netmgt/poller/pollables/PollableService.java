@@ -54,10 +54,19 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
 
     private final class PollRunner implements Runnable {
     	
+    	private final PollStatus m_polledStatus;
     	private volatile PollStatus m_pollStatus;
+    	public PollRunner(PollStatus polledStatus) {
+    	    m_polledStatus = polledStatus;
+    	}
             @Override
 		public void run() {
-		    doPoll();
+		    m_prePolledStatus = m_polledStatus;
+		    try {
+		        doPoll();
+		    } finally {
+		        m_prePolledStatus = null;
+		    }
 		    getNode().processStatusChange(new Date());
 		    m_pollStatus = getStatus();
 		}
@@ -72,6 +81,11 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     private volatile PollStatus m_oldStatus;
     private volatile Schedule m_schedule;
     private volatile long m_statusChangeTime = 0L;
+    /**
+     * The status polled outside of the tree lock, handed over to {@link #poll()}
+     * by the thread holding the tree lock.
+     */
+    private volatile PollStatus m_prePolledStatus;
     /**
      * <p>Constructor for PollableService.</p>
      *
@@ -174,9 +188,9 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     /**
      * <p>setPollConfig</p>
      *
-     * @param pollConfig a {@link org.opennms.netmgt.poller.pollables.PollableServiceConfig} object.
+     * @param pollConfig a {@link org.opennms.netmgt.poller.pollables.PollConfig} object.
      */
-    public void setPollConfig(PollableServiceConfig pollConfig) {
+    public void setPollConfig(PollConfig pollConfig) {
         m_pollConfig = pollConfig;
     }
 
@@ -187,7 +201,12 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      */
     @Override
     public PollStatus poll() {
-        PollStatus newStatus = m_pollConfig.poll();
+        PollStatus newStatus = m_prePolledStatus;
+        if (newStatus != null) {
+            m_prePolledStatus = null;
+        } else {
+            newStatus = m_pollConfig.poll();
+        }
         if (!newStatus.isUnknown()) { 
             updateStatus(newStatus);
         }
@@ -301,10 +320,7 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     @Override
     public void updateStatus(PollStatus newStatus) {
         
-        if (!getContext().isServiceUnresponsiveEnabled()) {
-            if (newStatus.equals(PollStatus.unresponsive()))
-                newStatus = PollStatus.down();
-        }
+        newStatus = normalizeStatus(newStatus);
         
         PollStatus currentStatus = getStatus();
         if (!currentStatus.equals(newStatus)) {
@@ -320,6 +336,23 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
         }
     }
 
+    private PollStatus normalizeStatus(PollStatus newStatus) {
+        if (!getContext().isServiceUnresponsiveEnabled()) {
+            if (newStatus.equals(PollStatus.unresponsive()))
+                return PollStatus.down();
+        }
+        return newStatus;
+    }
+
+    /**
+     * Returns true if applying the given polled status would change the status
+     * of this service. When it does not, polling the service leaves the status
+     * of its interface and node untouched, and there is no need to roll it up.
+     */
+    private boolean isStatusChange(PollStatus polledStatus) {
+        return !polledStatus.isUnknown() && !getStatus().equals(normalizeStatus(polledStatus));
+    }
+
     /**
      * <p>setSchedule</p>
      *
@@ -399,14 +432,22 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
             LOG.debug("Start Scheduled Poll of service {}", this);
             PollStatus status;
             if (getContext().isNodeProcessingEnabled()) {
-                PollRunner r = new PollRunner();
-                try {
-                    withTreeLock(r, timeout);
-                } catch (LockUnavailable e) {
-                    LOG.info("Postponing poll for {}", this, e);
-                    throw new PostponeNecessary("LockUnavailable postpone poll");
+                // Poll the monitor outside of the tree lock, and only take the
+                // lock of the node, whose holder is the single writer of the
+                // status of the node and its interfaces, when the status changed
+                PollStatus polledStatus = getInterface().isPollSuppressed(this) ? PollStatus.unknown() : m_pollConfig.poll();
+                if (isStatusChange(polledStatus)) {
+                    PollRunner r = new PollRunner(polledStatus);
+                    try {
+                        withTreeLock(r, timeout);
+                    } catch (LockUnavailable e) {
+                        LOG.info("Postponing poll for {}", this, e);
+                        throw new PostponeNecessary("LockUnavailable postpone poll");
+                    }
+                    status = r.getPollStatus();
+                } else {
+                    status = getStatus();
                 }
-                status = r.getPollStatus();
             }
             else {
                 doPoll();
@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.scheduler;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates the {@link Scheduler} used by the daemons.
+ *
+ * The implementation is selected using the {@value #IMPLEMENTATION_SYS_PROP} system property,
+ * which can be set to "legacy" to use the {@link LegacyScheduler} instead of the {@link TimingWheelScheduler}.
+ */
+public final class SchedulerFactory {
+
+    public static final String IMPLEMENTATION_SYS_PROP = "org.opennms.netmgt.scheduler.implementation";
+
+    public static final String LEGACY = "legacy";
+
+    public static final String TIMING_WHEEL = "timing-wheel";
+
+    private SchedulerFactory() {
+    }
+
+    /**
+     * Creates a new scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @return a scheduler that implements {@link org.opennms.core.fiber.PausableFiber}
+     */
+    public static Scheduler createScheduler(final String parent, final int maxSize) {
+        if (LEGACY.equalsIgnoreCase(System.getProperty(IMPLEMENTATION_SYS_PROP, TIMING_WHEEL))) {
+            return new LegacyScheduler(parent, maxSize);
+        }
+        return new TimingWheelScheduler(parent, maxSize);
+    }
+
+    /**
+     * Returns the thread pool used by the scheduler, if known.
+     *
+     * @return the thread pool, or {@code null} if the scheduler does not expose it
+     */
+    public static ExecutorService getRunner(final Scheduler scheduler) {
+        if (scheduler instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler)scheduler).getRunner();
+        } else if (scheduler instanceof LegacyScheduler) {
+            return ((LegacyScheduler)scheduler).getRunner();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,677 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.scheduler;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.MapMaker;
+
+/**
+ * A {@link Scheduler} built on a hierarchical timing wheel.
+ *
+ * Tasks are kept in doubly-linked buckets, one wheel of {@value #WHEEL_SIZE} buckets
+ * per level. Each bucket of the lowest level spans a single tick, and each bucket of the
+ * levels above spans a whole rotation of the level below. Scheduling and cancelling a task
+ * are constant time operations, and each tick only touches the tasks that are due, or that
+ * must be moved to a lower level, instead of re-checking every scheduled task.
+ *
+ * Tasks are never run before their deadline. When a task is due and
+ * {@link ReadyRunnable#isReady()} returns false, it is checked again after
+ * {@link #NOT_READY_RETRY_MS}, like the {@link LegacyScheduler} does.
+ *
+ * The first time a runnable is scheduled, it is delayed by a random phase offset of up to
+ * {@link #setMaxJitter(long)}, and of up to {@link #setJitterRatio(double)} of the interval
+ * when the interval is positive, so that the runnables scheduled together, i.e. all the
+ * services scheduled when a daemon starts, are spread instead of being run in bursts. The
+ * runnables rescheduling themselves are then run at exactly their interval, keeping the
+ * offset, so that their period isn't stretched by the jitter.
+ *
+ * The time elapsed between the deadline of a task and its submission to the thread pool
+ * is tracked in a "lateness" histogram per interval, exposed via JMX.
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    public static final String TICK_SYS_PROP = "org.opennms.netmgt.scheduler.tick";
+
+    public static final String JITTER_RATIO_SYS_PROP = "org.opennms.netmgt.scheduler.jitterRatio";
+
+    public static final String MAX_JITTER_SYS_PROP = "org.opennms.netmgt.scheduler.maxJitter";
+
+    public static final long DEFAULT_TICK_MS = 10;
+
+    public static final double DEFAULT_JITTER_RATIO = 0.01;
+
+    public static final long DEFAULT_MAX_JITTER_MS = 5000;
+
+    /**
+     * Delay before a task that was due, but not ready, is checked again.
+     */
+    public static final long NOT_READY_RETRY_MS = 1000;
+
+    private static final int WHEEL_BITS = 8;
+
+    private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    /**
+     * Enough levels to hold any deadline that fits in a long.
+     */
+    private static final int LEVELS = (Long.SIZE + WHEEL_BITS - 1) / WHEEL_BITS;
+
+    /**
+     * Maximum number of lateness histograms, additional intervals are tracked together.
+     */
+    private static final int MAX_HISTOGRAMS = 256;
+
+    private static final long OTHER_INTERVALS = -1;
+
+    /**
+     * Handle to a scheduled task.
+     */
+    public interface Timeout {
+        /**
+         * Cancels the task if it has not been submitted for execution yet.
+         *
+         * @return true if the task was cancelled by this call
+         */
+        boolean cancel();
+
+        boolean isCancelled();
+    }
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int SUBMITTED = 2;
+
+    private static final AtomicIntegerFieldUpdater<Task> STATE_UPDATER = AtomicIntegerFieldUpdater.newUpdater(Task.class, "m_state");
+
+    private final class Task implements Timeout {
+        private final ReadyRunnable m_runnable;
+        private final long m_interval;
+        private long m_deadline;
+        private long m_deadlineTick;
+        // Package-private for the field updater
+        volatile int m_state = PENDING;
+
+        // Only accessed by the worker thread
+        private Bucket m_bucket;
+        private Task m_prev;
+        private Task m_next;
+
+        private Task(ReadyRunnable runnable, long interval, long deadline) {
+            m_runnable = runnable;
+            m_interval = interval;
+            m_deadline = deadline;
+        }
+
+        @Override
+        public boolean cancel() {
+            if (!STATE_UPDATER.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            m_scheduled.decrementAndGet();
+            m_cancelled.add(this);
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return m_state == CANCELLED;
+        }
+
+        @Override
+        public String toString() {
+            return m_runnable + " (ready in " + Math.max(0, m_deadline - getCurrentTime()) + "ms)";
+        }
+    }
+
+    private static final class Bucket {
+        private Task m_head;
+        private Task m_tail;
+
+        private void add(Task task) {
+            task.m_bucket = this;
+            task.m_prev = m_tail;
+            task.m_next = null;
+            if (m_tail == null) {
+                m_head = task;
+            } else {
+                m_tail.m_next = task;
+            }
+            m_tail = task;
+        }
+
+        private void remove(Task task) {
+            if (task.m_prev == null) {
+                m_head = task.m_next;
+            } else {
+                task.m_prev.m_next = task.m_next;
+            }
+            if (task.m_next == null) {
+                m_tail = task.m_prev;
+            } else {
+                task.m_next.m_prev = task.m_prev;
+            }
+            task.m_bucket = null;
+            task.m_prev = null;
+            task.m_next = null;
+        }
+
+        /**
+         * Detaches and returns the tasks in this bucket.
+         */
+        private Task clear() {
+            final Task head = m_head;
+            m_head = null;
+            m_tail = null;
+            return head;
+        }
+    }
+
+    private final String m_name;
+
+    private final ExecutorService m_runner;
+
+    private final long m_tickMs;
+
+    private volatile double m_jitterRatio;
+
+    private volatile long m_maxJitterMs;
+
+    /**
+     * The runnables that were already scheduled, and got their phase offset, by identity.
+     */
+    private final Set<ReadyRunnable> m_offsetRunnables = Collections.newSetFromMap(new MapMaker().weakKeys().<ReadyRunnable, Boolean>makeMap());
+
+    /**
+     * Tasks that were scheduled, but not yet added to the wheel by the worker.
+     */
+    private final Queue<Task> m_pending = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Tasks that were cancelled, and may need to be removed from the wheel by the worker.
+     */
+    private final Queue<Task> m_cancelled = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The buckets of each level, only accessed by the worker thread.
+     */
+    private final Bucket[][] m_wheels = new Bucket[LEVELS][];
+
+    /**
+     * Start time of tick zero.
+     */
+    private final long m_startTime;
+
+    /**
+     * The next tick to process, only accessed by the worker thread.
+     */
+    private long m_tick = 0;
+
+    private final AtomicInteger m_scheduled = new AtomicInteger(0);
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+
+    /**
+     * Only accessed by the worker thread.
+     */
+    private final Map<Long, Histogram> m_lateness = new HashMap<>();
+
+    private JmxReporter m_reporter;
+
+    private volatile int m_status;
+
+    private volatile Thread m_worker;
+
+    private volatile long m_numTasksExecuted = 0;
+
+    /**
+     * Constructs a new instance of the scheduler. The maximum number of
+     * executable threads is specified in the constructor. The executable
+     * threads are part of a runnable thread pool where the scheduled runnables
+     * are executed.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, Long.getLong(TICK_SYS_PROP, DEFAULT_TICK_MS));
+    }
+
+    /**
+     * Constructs a new instance of the scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param tickMs
+     *            The duration of a tick, in milliseconds.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize, final long tickMs) {
+        Assert.isTrue(tickMs > 0, "The tick duration must be positive");
+        m_name = parent;
+        m_status = START_PENDING;
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        m_tickMs = tickMs;
+        m_jitterRatio = getJitterRatioFromSystemProperties();
+        m_maxJitterMs = Long.getLong(MAX_JITTER_SYS_PROP, DEFAULT_MAX_JITTER_MS);
+        for (int level = 0; level < LEVELS; level++) {
+            m_wheels[level] = new Bucket[WHEEL_SIZE];
+            for (int i = 0; i < WHEEL_SIZE; i++) {
+                m_wheels[level][i] = new Bucket();
+            }
+        }
+        m_startTime = getCurrentTime();
+    }
+
+    private static double getJitterRatioFromSystemProperties() {
+        final String ratio = System.getProperty(JITTER_RATIO_SYS_PROP);
+        if (ratio == null) {
+            return DEFAULT_JITTER_RATIO;
+        }
+        try {
+            return Double.parseDouble(ratio);
+        } catch (NumberFormatException e) {
+            LOG.warn("Invalid value for {}: {}. Using {} instead.", JITTER_RATIO_SYS_PROP, ratio, DEFAULT_JITTER_RATIO);
+            return DEFAULT_JITTER_RATIO;
+        }
+    }
+
+    /**
+     * Sets the maximum phase offset, as a ratio of the interval, added to the
+     * runnables first scheduled with a positive interval. Use 0 to disable the jitter.
+     */
+    public void setJitterRatio(double jitterRatio) {
+        Assert.isTrue(jitterRatio >= 0, "The jitter ratio must not be negative");
+        m_jitterRatio = jitterRatio;
+    }
+
+    public double getJitterRatio() {
+        return m_jitterRatio;
+    }
+
+    /**
+     * Sets the upper bound of the phase offset, in milliseconds.
+     */
+    public void setMaxJitter(long maxJitterMs) {
+        Assert.isTrue(maxJitterMs >= 0, "The maximum jitter must not be negative");
+        m_maxJitterMs = maxJitterMs;
+    }
+
+    public long getMaxJitter() {
+        return m_maxJitterMs;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(long interval, final ReadyRunnable runnable) {
+        newTimeout(interval, runnable);
+    }
+
+    /**
+     * Schedules the runnable to be run once the interval has elapsed, and it is ready.
+     *
+     * @param interval
+     *            delay in milliseconds
+     * @param runnable
+     *            the element to run when the interval expires
+     * @return a handle that can be used to cancel the task
+     */
+    public Timeout newTimeout(long interval, final ReadyRunnable runnable) {
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+        long delay = interval;
+        if (m_jitterRatio > 0 && m_offsetRunnables.add(runnable)) {
+            final long maxJitter = delay > 0 ? Math.min((long)(delay * m_jitterRatio), m_maxJitterMs) : m_maxJitterMs;
+            if (maxJitter > 0) {
+                delay += ThreadLocalRandom.current().nextLong(maxJitter + 1);
+            }
+        }
+        final Task task = new Task(runnable, interval, getCurrentTime() + Math.max(0, delay));
+        m_scheduled.incrementAndGet();
+        m_pending.add(task);
+        return task;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_reporter = JmxReporter.forRegistry(m_metrics)
+                .inDomain(TimingWheelScheduler.class.getPackage().getName())
+                .build();
+        m_reporter.start();
+
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+        m_status = STARTING;
+
+        LOG.info("start: scheduler started");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+        if (m_reporter != null) {
+            m_reporter.stop();
+        }
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_runner.toString();
+    }
+
+    /**
+     * Returns total number of elements currently scheduled.
+     *
+     * @return the number of tasks that were scheduled, and have not been
+     * submitted for execution or cancelled
+     */
+    public int getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by the class' instance.
+     *
+     * @return thread pool
+     */
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /**
+     * Returns the registry holding the lateness histograms, named
+     * &lt;parent&gt;.lateness.&lt;interval&gt;, with the intervals rounded
+     * to the second.
+     */
+    public MetricRegistry getMetrics() {
+        return m_metrics;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted;
+    }
+
+    /**
+     * The main method of the scheduler. This method is responsible for
+     * advancing the wheel, tick by tick, and enqueuing the tasks that are due
+     * into the thread pool for execution.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            m_status = RUNNING;
+        }
+
+        LOG.debug("run: scheduler running");
+
+        for (;;) {
+            synchronized (this) {
+                if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+                    LOG.debug("run: status = {}, time to exit", m_status);
+                    break;
+                }
+
+                // if paused or pause pending then block
+                boolean interrupted = false;
+                while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+                    if (m_status == PAUSE_PENDING) {
+                        LOG.debug("run: pausing.");
+                    }
+                    m_status = PAUSED;
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        interrupted = true;
+                        break;
+                    }
+                }
+                if (interrupted) {
+                    break;
+                }
+
+                if (m_status == RESUME_PENDING) {
+                    LOG.debug("run: resuming.");
+                    m_status = RUNNING;
+                }
+            }
+
+            try {
+                advance(getCurrentTime());
+            } catch (RejectedExecutionException e) {
+                LOG.debug("run: the thread pool was shut down, time to exit");
+                break;
+            }
+
+            // Sleep until the start of the next tick
+            final long sleepMs = m_startTime + m_tick * m_tickMs - getCurrentTime();
+            if (sleepMs > 0) {
+                try {
+                    Thread.sleep(sleepMs);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    /**
+     * Adds the pending tasks to the wheel, and processes all of the ticks
+     * that started at, or before the given time.
+     *
+     * Must only be called by a single thread, the worker, or the tests.
+     */
+    void advance(long now) {
+        Task cancelled;
+        while ((cancelled = m_cancelled.poll()) != null) {
+            if (cancelled.m_bucket != null) {
+                cancelled.m_bucket.remove(cancelled);
+            }
+        }
+
+        Task pending;
+        while ((pending = m_pending.poll()) != null) {
+            if (pending.m_state == PENDING) {
+                add(pending);
+            }
+        }
+
+        while (m_startTime + m_tick * m_tickMs <= now) {
+            final long tick = m_tick;
+
+            // Cascade the upper levels when the level below completed a rotation
+            for (int level = 1; level < LEVELS && (tick & ((1L << (level * WHEEL_BITS)) - 1)) == 0; level++) {
+                final Bucket bucket = m_wheels[level][(int)((tick >>> (level * WHEEL_BITS)) & WHEEL_MASK)];
+                Task task = bucket.clear();
+                while (task != null) {
+                    final Task next = task.m_next;
+                    task.m_bucket = null;
+                    task.m_prev = null;
+                    task.m_next = null;
+                    add(task);
+                    task = next;
+                }
+            }
+
+            Task task = m_wheels[0][(int)(tick & WHEEL_MASK)].clear();
+            m_tick++;
+            while (task != null) {
+                final Task next = task.m_next;
+                task.m_bucket = null;
+                task.m_prev = null;
+                task.m_next = null;
+                expire(task, now);
+                task = next;
+            }
+        }
+    }
+
+    private void add(Task task) {
+        task.m_deadlineTick = ceilDiv(task.m_deadline - m_startTime, m_tickMs);
+        if (task.m_deadlineTick < m_tick) {
+            // Already due
+            task.m_deadlineTick = m_tick;
+        }
+        final long ticks = task.m_deadlineTick - m_tick;
+
+        int level = 0;
+        while (level < LEVELS - 1 && (ticks >>> ((level + 1) * WHEEL_BITS)) != 0) {
+            level++;
+        }
+        m_wheels[level][(int)((task.m_deadlineTick >>> (level * WHEEL_BITS)) & WHEEL_MASK)].add(task);
+    }
+
+    private void expire(Task task, long now) {
+        if (task.m_state != PENDING) {
+            return;
+        }
+
+        if (!task.m_runnable.isReady()) {
+            LOG.debug("run: runnable {} is not ready, checking again in {}ms", task.m_runnable, NOT_READY_RETRY_MS);
+            task.m_deadline = now + NOT_READY_RETRY_MS;
+            add(task);
+            return;
+        }
+
+        if (!STATE_UPDATER.compareAndSet(task, PENDING, SUBMITTED)) {
+            // Cancelled concurrently
+            return;
+        }
+
+        LOG.debug("run: found ready runnable {}", task.m_runnable);
+        m_scheduled.decrementAndGet();
+        getLatenessHistogram(task.m_interval).update(Math.max(0, now - task.m_deadline));
+        m_runner.execute(task.m_runnable);
+        m_numTasksExecuted++;
+    }
+
+    private Histogram getLatenessHistogram(long interval) {
+        long key = Math.round(interval / 1000d) * 1000;
+        if (!m_lateness.containsKey(key) && m_lateness.size() >= MAX_HISTOGRAMS) {
+            key = OTHER_INTERVALS;
+        }
+        return m_lateness.computeIfAbsent(key, k -> m_metrics.histogram(MetricRegistry.name(m_name, "lateness",
+                k == OTHER_INTERVALS ? "other" : Long.toString(k))));
+    }
+
+    private static long ceilDiv(long x, long y) {
+        return -Math.floorDiv(-x, y);
+    }
+
+}
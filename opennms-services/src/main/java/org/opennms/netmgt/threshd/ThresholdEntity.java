@@ -59,8 +59,13 @@ public final class ThresholdEntity implements Cloneable {
     
     //Contains a list of evaluators for each used "instance".  Is populated with the list for the "default" instance (the "null" key)
     // in the Constructor.  Note that this means we must use a null-key capable map like HashMap
+    // The map isn't thread-safe: the thresholding set holding this entity is applied by one thread at a time
     private Map<String,List<ThresholdEvaluatorState>> m_thresholdEvaluatorStates = new HashMap<String,List<ThresholdEvaluatorState>>();
 
+    // Identify the states of this entity in the ThresholdStateStore, once bound by the thresholding set holding it
+    private volatile String m_stateResourceKey;
+    private volatile String m_stateKey;
+
     // the commands for these need to be listed in ThresholdController as well
     static {
         s_thresholdEvaluators = new LinkedList<ThresholdEvaluator>();
@@ -258,11 +263,67 @@ public final class ThresholdEntity implements Cloneable {
             if (event != null) {
                 events.add(event);
             }
+            saveState(instance, item);
         }
 
         return events;
     }
 
+    /**
+     * Binds the states of this entity to the {@link ThresholdStateStore}, restoring the
+     * states that were stored for the given keys, and storing the states after every
+     * evaluation from now on.
+     *
+     * @param resourceKey identifies the node, interface and service the thresholds apply to
+     * @param stateKey identifies this entity within the resource
+     */
+    void bindState(String resourceKey, String stateKey) {
+        if (resourceKey.equals(m_stateResourceKey) && stateKey.equals(m_stateKey)) {
+            return;
+        }
+        m_stateResourceKey = resourceKey;
+        m_stateKey = stateKey;
+        for (Map.Entry<String, List<ThresholdEvaluatorState>> entry : m_thresholdEvaluatorStates.entrySet()) {
+            for (ThresholdEvaluatorState state : entry.getValue()) {
+                restoreState(entry.getKey(), state);
+            }
+        }
+    }
+
+    private String getStateResourceKey(String instance) {
+        return m_stateResourceKey + "/" + (instance == null ? "" : instance);
+    }
+
+    /**
+     * Several thresholds of the same type can be defined on the same datasource (i.e. a warning
+     * and a critical high threshold), so the key identifies the threshold by its definition.
+     */
+    private String getStateKey(ThresholdEvaluatorState state) {
+        final BaseThresholdDefConfigWrapper config = state.getThresholdConfig();
+        return m_stateKey + "/" + config.getType()
+            + "/" + config.getValue()
+            + "/" + config.getRearm()
+            + "/" + config.getTrigger()
+            + "/" + config.getTriggeredUEI().orElse("")
+            + "/" + config.getRearmedUEI().orElse("");
+    }
+
+    private void restoreState(String instance, ThresholdEvaluatorState state) {
+        if (m_stateResourceKey != null) {
+            double[] values = ThresholdStateStore.getInstance().get(getStateResourceKey(instance), getStateKey(state));
+            if (values != null) {
+                LOG.debug("restoreState: restoring the state of {} for instance {}", this, instance);
+                state.restoreState(values);
+            }
+        }
+    }
+
+    private void saveState(String instance, ThresholdEvaluatorState state) {
+        if (m_stateResourceKey != null) {
+            ThresholdStateStore.getInstance().put(getStateResourceKey(instance), getStateKey(state), state.saveState());
+        }
+    }
+
     /**
      * <p>addThreshold</p>
      *
@@ -310,7 +371,9 @@ public final class ThresholdEntity implements Cloneable {
             //Create the new list
             result=new LinkedList<ThresholdEvaluatorState>();
             for(ThresholdEvaluatorState state: defaultList) {
-                result.add(state.getCleanClone());
+                ThresholdEvaluatorState clone = state.getCleanClone();
+                restoreState(instance, clone);
+                result.add(clone);
             }
             
             //Store the new list with the instance as the key
@@ -327,6 +390,8 @@ public final class ThresholdEntity implements Cloneable {
     public void merge(ThresholdEntity entity) {
         if (getThresholdConfig().equals(entity.getThresholdConfig()) == false) {
             sendRearmForTriggeredStates();
+            // The states are stored under the new definition on the next evaluation
+            removeStates();
             getThresholdConfig().merge(entity.getThresholdConfig());
         }
     }
@@ -336,6 +401,17 @@ public final class ThresholdEntity implements Cloneable {
      */
     public void delete() {
         sendRearmForTriggeredStates();
+        removeStates();
+    }
+
+    private void removeStates() {
+        if (m_stateResourceKey != null) {
+            for (String instance : m_thresholdEvaluatorStates.keySet()) {
+                for (ThresholdEvaluatorState state : m_thresholdEvaluatorStates.get(instance)) {
+                    ThresholdStateStore.getInstance().remove(getStateResourceKey(instance), getStateKey(state));
+                }
+            }
+        }
     }
     
     private void sendRearmForTriggeredStates() {
@@ -352,6 +428,7 @@ public final class ThresholdEntity implements Cloneable {
                     LOG.info("sendRearmForTriggeredStates: sending rearm for {}", e);
                     ThresholdingEventProxyFactory.getFactory().getProxy().add(e);
                     state.clearState();
+                    saveState(instance, state);
                 }
             }
         }
@@ -259,6 +259,19 @@ public class ThresholdEvaluatorHighLow implements ThresholdEvaluator {
             return new ThresholdEvaluatorStateHighLow(m_thresholdConfig);
         }
 
+        @Override
+        public double[] saveState() {
+            return new double[] { getExceededCount(), isArmed() ? 1 : 0 };
+        }
+
+        @Override
+        public void restoreState(double[] state) {
+            if (state.length == 2) {
+                setExceededCount((int)state[0]);
+                setArmed(state[1] != 0);
+            }
+        }
+
         @Override
         public boolean isTriggered() {
             return !isArmed();
@@ -93,4 +93,19 @@ public interface ThresholdEvaluatorState {
      * @return a {@link org.opennms.netmgt.threshd.ThresholdEvaluatorState} object.
      */
     public ThresholdEvaluatorState getCleanClone();
+
+    /**
+     * Returns the values that make up the current state of this evaluator (such as
+     * the last sample or the trigger count), so that it can be restored after a restart.
+     *
+     * @return an array of double.
+     */
+    public double[] saveState();
+
+    /**
+     * Restores the state previously returned by {@link #saveState()}.
+     *
+     * @param state an array of double.
+     */
+    public void restoreState(double[] state);
 }
@@ -0,0 +1,390 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.threshd;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the state of the threshold evaluators (trigger counts, last samples,
+ * armed flags...) so that it survives restarts.
+ *
+ * The states are partitioned by resource, in concurrent maps, and are
+ * periodically written to a compact snapshot on the local disk, which is read
+ * back when the store is first used.
+ *
+ * States that have not been updated for longer than the maximum age, such as
+ * the ones of deleted resources, are dropped when taking a snapshot.
+ */
+public class ThresholdStateStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThresholdStateStore.class);
+
+    /**
+     * The file holding the snapshot. Defaults to ${opennms.home}/share/threshd/threshold-states.dat.
+     */
+    public static final String FILE_SYS_PROP = "org.opennms.netmgt.threshd.state.file";
+
+    /**
+     * The interval between snapshots, in milliseconds. 0 disables the persistence of the states.
+     */
+    public static final String SNAPSHOT_INTERVAL_SYS_PROP = "org.opennms.netmgt.threshd.state.snapshotInterval";
+
+    /**
+     * The maximum age of the states that are kept, in milliseconds.
+     */
+    public static final String MAX_AGE_SYS_PROP = "org.opennms.netmgt.threshd.state.maxAge";
+
+    public static final long DEFAULT_SNAPSHOT_INTERVAL_MS = TimeUnit.MINUTES.toMillis(5);
+
+    public static final long DEFAULT_MAX_AGE_MS = TimeUnit.DAYS.toMillis(1);
+
+    private static final int MAGIC = 0x54485253; // THRS
+
+    private static final int VERSION = 1;
+
+    private static volatile ThresholdStateStore s_instance;
+
+    private static final class StateEntry {
+        private final double[] m_state;
+        private final long m_lastUpdated;
+
+        private StateEntry(double[] state, long lastUpdated) {
+            m_state = state;
+            m_lastUpdated = lastUpdated;
+        }
+    }
+
+    private final ConcurrentMap<String, ConcurrentMap<String, StateEntry>> m_resources = new ConcurrentHashMap<>();
+
+    private final File m_file;
+
+    private final long m_snapshotInterval;
+
+    private final long m_maxAge;
+
+    private volatile long m_snapshotSize = 0;
+
+    private ScheduledExecutorService m_executor;
+
+    /**
+     * <p>Constructor for ThresholdStateStore.</p>
+     *
+     * @param file the file holding the snapshot, or null to keep the states in memory only
+     * @param snapshotInterval the interval between snapshots, in milliseconds
+     * @param maxAge the maximum age of the states that are kept, in milliseconds
+     */
+    public ThresholdStateStore(File file, long snapshotInterval, long maxAge) {
+        m_file = file;
+        m_snapshotInterval = snapshotInterval;
+        m_maxAge = maxAge;
+    }
+
+    /**
+     * Returns the store shared by all the thresholding sets, loading its last
+     * snapshot and scheduling the next ones on first use.
+     *
+     * @return a {@link org.opennms.netmgt.threshd.ThresholdStateStore} object.
+     */
+    public static ThresholdStateStore getInstance() {
+        ThresholdStateStore instance = s_instance;
+        if (instance == null) {
+            synchronized (ThresholdStateStore.class) {
+                if (s_instance == null) {
+                    s_instance = createInstance();
+                    s_instance.start();
+                }
+                instance = s_instance;
+            }
+        }
+        return instance;
+    }
+
+    private static ThresholdStateStore createInstance() {
+        final long snapshotInterval = Long.getLong(SNAPSHOT_INTERVAL_SYS_PROP, DEFAULT_SNAPSHOT_INTERVAL_MS);
+        final long maxAge = Long.getLong(MAX_AGE_SYS_PROP, DEFAULT_MAX_AGE_MS);
+        File file = null;
+        if (snapshotInterval > 0) {
+            final String fileName = System.getProperty(FILE_SYS_PROP);
+            final String home = System.getProperty("opennms.home");
+            if (fileName != null) {
+                file = new File(fileName);
+            } else if (home != null) {
+                file = Paths.get(home, "share", "threshd", "threshold-states.dat").toFile();
+            }
+        }
+        return new ThresholdStateStore(file, snapshotInterval, maxAge);
+    }
+
+    /**
+     * Replaces the shared store, stopping the previous one (for JUnit only at this time).
+     *
+     * @param store a {@link org.opennms.netmgt.threshd.ThresholdStateStore} object.
+     */
+    static void setInstance(ThresholdStateStore store) {
+        synchronized (ThresholdStateStore.class) {
+            if (s_instance != null) {
+                s_instance.stop();
+            }
+            s_instance = store;
+        }
+    }
+
+    /**
+     * Loads the last snapshot, if any, and schedules the next ones.
+     */
+    public synchronized void start() {
+        if (m_file == null || m_executor != null) {
+            return;
+        }
+        try {
+            load();
+        } catch (IOException e) {
+            LOG.warn("Failed to load the threshold states from {}. Thresholds will start from a clean state.", m_file, e);
+        }
+        m_executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "ThresholdStateStore");
+            thread.setDaemon(true);
+            return thread;
+        });
+        m_executor.scheduleWithFixedDelay(this::snapshotQuietly, m_snapshotInterval, m_snapshotInterval, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "ThresholdStateStore-shutdown"));
+    }
+
+    /**
+     * Stops taking snapshots, taking a last one.
+     */
+    public synchronized void stop() {
+        if (m_executor == null) {
+            return;
+        }
+        m_executor.shutdownNow();
+        m_executor = null;
+        snapshotQuietly();
+    }
+
+    /**
+     * Returns the state stored for the given key, or null.
+     *
+     * @param resourceKey the key of the resource
+     * @param stateKey the key of the state within the resource
+     * @return an array of double.
+     */
+    public double[] get(String resourceKey, String stateKey) {
+        final Map<String, StateEntry> states = m_resources.get(resourceKey);
+        if (states == null) {
+            return null;
+        }
+        final StateEntry entry = states.get(stateKey);
+        return entry == null ? null : entry.m_state;
+    }
+
+    /**
+     * Stores the state for the given key.
+     *
+     * @param resourceKey the key of the resource
+     * @param stateKey the key of the state within the resource
+     * @param state an array of double.
+     */
+    public void put(String resourceKey, String stateKey, double[] state) {
+        final StateEntry entry = new StateEntry(state, System.currentTimeMillis());
+        // Updating the states within compute() keeps the update atomic with the
+        // removal of the resource when its states expire
+        m_resources.compute(resourceKey, (k, states) -> {
+            if (states == null) {
+                states = new ConcurrentHashMap<>();
+            }
+            states.put(stateKey, entry);
+            return states;
+        });
+    }
+
+    /**
+     * Removes the state stored for the given key.
+     *
+     * @param resourceKey the key of the resource
+     * @param stateKey the key of the state within the resource
+     */
+    public void remove(String resourceKey, String stateKey) {
+        m_resources.computeIfPresent(resourceKey, (k, states) -> {
+            states.remove(stateKey);
+            return states.isEmpty() ? null : states;
+        });
+    }
+
+    /**
+     * <p>getResourceCount</p>
+     *
+     * @return the number of resources with stored states
+     */
+    public int getResourceCount() {
+        return m_resources.size();
+    }
+
+    /**
+     * <p>getStateCount</p>
+     *
+     * @return the number of stored states
+     */
+    public int getStateCount() {
+        int count = 0;
+        for (Map<String, StateEntry> states : m_resources.values()) {
+            count += states.size();
+        }
+        return count;
+    }
+
+    /**
+     * <p>getSnapshotSize</p>
+     *
+     * @return the size of the last snapshot, in bytes
+     */
+    public long getSnapshotSize() {
+        return m_snapshotSize;
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (Throwable t) {
+            LOG.warn("Failed to write the threshold states to {}.", m_file, t);
+        }
+    }
+
+    /**
+     * Writes all the states to the snapshot file, dropping the ones that have
+     * not been updated for longer than the maximum age.
+     *
+     * @throws IOException if the snapshot cannot be written
+     */
+    public synchronized void snapshot() throws IOException {
+        if (m_file == null) {
+            return;
+        }
+        final long oldest = System.currentTimeMillis() - m_maxAge;
+        final File dir = m_file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+        final File tmp = new File(dir, m_file.getName() + ".tmp");
+        int count = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (String resourceKey : m_resources.keySet()) {
+                final ConcurrentMap<String, StateEntry> states = m_resources.computeIfPresent(resourceKey, (k, v) -> {
+                    v.values().removeIf(entry -> entry.m_lastUpdated < oldest);
+                    return v.isEmpty() ? null : v;
+                });
+                if (states == null) {
+                    continue;
+                }
+                final List<Map.Entry<String, StateEntry>> entries = new ArrayList<>(states.entrySet());
+                out.writeBoolean(true);
+                out.writeUTF(resourceKey);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, StateEntry> state : entries) {
+                    final StateEntry entry = state.getValue();
+                    out.writeUTF(state.getKey());
+                    out.writeLong(entry.m_lastUpdated);
+                    out.writeByte(entry.m_state.length);
+                    for (double value : entry.m_state) {
+                        out.writeDouble(value);
+                    }
+                }
+                count += entries.size();
+            }
+            out.writeBoolean(false);
+        }
+        Files.move(tmp.toPath(), m_file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        m_snapshotSize = m_file.length();
+        LOG.debug("Wrote {} threshold states to {} ({} bytes).", count, m_file, m_snapshotSize);
+    }
+
+    /**
+     * Reads the states from the snapshot file, if it exists.
+     *
+     * @throws IOException if the snapshot cannot be read
+     */
+    public synchronized void load() throws IOException {
+        if (m_file == null || !m_file.isFile()) {
+            return;
+        }
+        final long oldest = System.currentTimeMillis() - m_maxAge;
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(m_file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported threshold state snapshot " + m_file);
+            }
+            while (in.readBoolean()) {
+                final String resourceKey = in.readUTF();
+                final ConcurrentMap<String, StateEntry> states = new ConcurrentHashMap<>();
+                for (int n = in.readInt(); n > 0; n--) {
+                    final String stateKey = in.readUTF();
+                    final long lastUpdated = in.readLong();
+                    final double[] state = new double[in.readUnsignedByte()];
+                    for (int i = 0; i < state.length; i++) {
+                        state[i] = in.readDouble();
+                    }
+                    if (lastUpdated >= oldest) {
+                        states.put(stateKey, new StateEntry(state, lastUpdated));
+                    }
+                }
+                if (!states.isEmpty()) {
+                    count += states.size();
+                    m_resources.merge(resourceKey, states, (current, restored) -> {
+                        restored.forEach(current::putIfAbsent);
+                        return current;
+                    });
+                }
+            }
+        }
+        m_snapshotSize = m_file.length();
+        LOG.info("Restored {} threshold states from {}.", count, m_file);
+    }
+}
@@ -40,6 +40,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -79,6 +81,14 @@ public class ThresholdingSet {
     private boolean m_hasThresholds = false;
 
     protected final List<ThresholdGroup> m_thresholdGroups = new LinkedList<>();
+    /**
+     * Guards m_thresholdGroups: thresholds are applied under the read lock, and the
+     * groups are only modified under the write lock, while (re)initializing the set.
+     * The read lock doesn't make applying thresholds thread-safe: the states of the
+     * threshold entities aren't, so a set must be applied by one thread at a time, as
+     * the collections and polls of the service it belongs to are.
+     */
+    protected final ReadWriteLock m_thresholdGroupsLock = new ReentrantReadWriteLock();
     protected final List<String> m_scheduledOutages = new ArrayList<>();
 
     /**
@@ -110,7 +120,8 @@ public class ThresholdingSet {
     protected void initialize() throws ThresholdInitializationException {
         final String logHeader = "initialize(nodeId=" + m_nodeId + ",ipAddr=" + m_hostAddress + ",svc=" + m_serviceName + ")";
         final List<String> groupNameList = getThresholdGroupNames(m_nodeId, m_hostAddress, m_serviceName);
-        synchronized(m_thresholdGroups) {
+        m_thresholdGroupsLock.writeLock().lock();
+        try {
             m_thresholdGroups.clear();
             for (final String groupName : groupNameList) {
                 try {
@@ -127,6 +138,9 @@ public class ThresholdingSet {
                 }
             }
             m_hasThresholds = !m_thresholdGroups.isEmpty();
+            bindThresholdStates();
+        } finally {
+            m_thresholdGroupsLock.writeLock().unlock();
         }
         updateScheduledOutages();
     }
@@ -144,7 +158,13 @@ public class ThresholdingSet {
 
         final ThresholdingConfigFactory tcf = ThresholdingConfigFactory.getInstance();
         final boolean hasThresholds = m_hasThresholds;
-        final List<ThresholdGroup> thresholdGroups = new ArrayList<>(m_thresholdGroups);
+        final List<ThresholdGroup> thresholdGroups;
+        m_thresholdGroupsLock.readLock().lock();
+        try {
+            thresholdGroups = new ArrayList<>(m_thresholdGroups);
+        } finally {
+            m_thresholdGroupsLock.readLock().unlock();
+        }
         final List<String> scheduledOutages = new ArrayList<>(m_scheduledOutages);
         try {
             if (reloadThresholdConfig) {
@@ -156,10 +176,15 @@ public class ThresholdingSet {
         } catch (final Exception e) {
             LOG.error("Failed to reinitialize thresholding set.  Reverting to previous configuration.", e);
             ThresholdingConfigFactory.setInstance(tcf);
-            m_hasThresholds = hasThresholds;
-            if (!thresholdGroups.equals(m_thresholdGroups)) {
-                m_thresholdGroups.clear();
-                m_thresholdGroups.addAll(thresholdGroups);
+            m_thresholdGroupsLock.writeLock().lock();
+            try {
+                m_hasThresholds = hasThresholds;
+                if (!thresholdGroups.equals(m_thresholdGroups)) {
+                    m_thresholdGroups.clear();
+                    m_thresholdGroups.addAll(thresholdGroups);
+                }
+            } finally {
+                m_thresholdGroupsLock.writeLock().unlock();
             }
             if (!scheduledOutages.equals(m_scheduledOutages)) {
                 m_scheduledOutages.clear();
@@ -182,10 +207,11 @@ public class ThresholdingSet {
     private void mergeThresholdGroups(final int nodeId, final String hostAddress, final String serviceName) throws ThresholdInitializationException {
         final String logHeader = "mergeThresholdGroups(nodeId=" + nodeId + ",ipAddr=" + hostAddress + ",svc=" + serviceName + ")";
         LOG.debug("{}: Begin merging operation", logHeader);
-        final List<String> existingGroupNameList = m_thresholdGroups.stream().map(ThresholdGroup::getName).collect(Collectors.toList());
         List<String> newGroupNameList = getThresholdGroupNames(nodeId, hostAddress, serviceName);
 
-        synchronized(m_thresholdGroups) {
+        m_thresholdGroupsLock.writeLock().lock();
+        try {
+            final List<String> existingGroupNameList = m_thresholdGroups.stream().map(ThresholdGroup::getName).collect(Collectors.toList());
             // If size differs its because some groups where deleted.
             if (newGroupNameList.size() != m_thresholdGroups.size() || !existingGroupNameList.equals(newGroupNameList)) {
                 // Deleting Groups
@@ -228,6 +254,37 @@ public class ThresholdingSet {
             m_thresholdGroups.clear();
             m_thresholdGroups.addAll(newThresholdGroupList);
             m_hasThresholds = !m_thresholdGroups.isEmpty();
+            bindThresholdStates();
+        } finally {
+            m_thresholdGroupsLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Binds the threshold entities of all the groups to the {@link ThresholdStateStore},
+     * so that their states are restored, and kept across restarts.
+     */
+    private void bindThresholdStates() {
+        final String resourceKey = m_nodeId + "/" + m_hostAddress + "/" + m_serviceName;
+        for (final ThresholdGroup group : m_thresholdGroups) {
+            bindThresholdStates(resourceKey, group, group.getNodeResourceType());
+            bindThresholdStates(resourceKey, group, group.getIfResourceType());
+            if (group.getGenericResourceTypeMap() != null) {
+                for (final ThresholdResourceType type : group.getGenericResourceTypeMap().values()) {
+                    bindThresholdStates(resourceKey, group, type);
+                }
+            }
+        }
+    }
+
+    private static void bindThresholdStates(final String resourceKey, final ThresholdGroup group, final ThresholdResourceType type) {
+        if (type == null || type.getThresholdMap() == null) {
+            return;
+        }
+        for (final Entry<String, Set<ThresholdEntity>> entry : type.getThresholdMap().entrySet()) {
+            for (final ThresholdEntity entity : entry.getValue()) {
+                entity.bindState(resourceKey, group.getName() + "/" + type.getDsType() + "/" + entry.getKey());
+            }
         }
     }
 
@@ -252,7 +309,8 @@ public class ThresholdingSet {
      */
     public boolean hasThresholds(final String resourceTypeName, final String attributeName) {
         boolean ok = false;
-        synchronized(m_thresholdGroups) {
+        m_thresholdGroupsLock.readLock().lock();
+        try {
             for (ThresholdGroup group : m_thresholdGroups) {
                 Map<String,Set<ThresholdEntity>> entityMap = getEntityMap(group, resourceTypeName);
                 if (entityMap != null) {
@@ -270,6 +328,8 @@ public class ThresholdingSet {
                     }
                 }
             }
+        } finally {
+            m_thresholdGroupsLock.readLock().unlock();
         }
         return ok;
     }
@@ -308,7 +368,8 @@ public class ThresholdingSet {
         }
         LOG.debug("applyThresholds: Applying thresholds on {} using {} attributes.", resourceWrapper, attributesMap.size());
         Date date = new Date();
-        synchronized(m_thresholdGroups) {
+        m_thresholdGroupsLock.readLock().lock();
+        try {
             for (ThresholdGroup group : m_thresholdGroups) {
                 Map<String,Set<ThresholdEntity>> entityMap = getEntityMap(group, resourceWrapper.getResourceTypeName());
                 if (entityMap != null) {
@@ -347,6 +408,8 @@ public class ThresholdingSet {
                     }
                 }
             }
+        } finally {
+            m_thresholdGroupsLock.readLock().unlock();
         }
         return eventsList;
     }
@@ -539,8 +602,11 @@ public class ThresholdingSet {
     /** {@inheritDoc} */
     @Override
     public String toString() {
-        synchronized (m_thresholdGroups) {
+        m_thresholdGroupsLock.readLock().lock();
+        try {
             return m_thresholdGroups.toString();
+        } finally {
+            m_thresholdGroupsLock.readLock().unlock();
         }
     }
 }
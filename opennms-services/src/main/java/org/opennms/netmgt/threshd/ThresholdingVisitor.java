@@ -47,6 +47,11 @@ import org.opennms.netmgt.xml.event.Event;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
 /**
  * Implements CollectionSetVisitor to implement thresholding.
  * Works by simply recording all the attributes that come in via visitAttribute
@@ -74,6 +79,24 @@ public class ThresholdingVisitor extends AbstractCollectionSetVisitor {
 
     private static final Logger LOG = LoggerFactory.getLogger(ThresholdingVisitor.class);
 
+    /**
+     * Thresholding metrics, shared by all the visitors and exposed over JMX: the time
+     * spent evaluating the thresholds of a resource, and the size of the threshold state store.
+     */
+    private static final MetricRegistry METRICS = new MetricRegistry();
+
+    private static final Timer EVALUATION_TIMER = METRICS.timer("evaluation");
+
+    static {
+        METRICS.register("states", (Gauge<Integer>) () -> ThresholdStateStore.getInstance().getStateCount());
+        METRICS.register("resources", (Gauge<Integer>) () -> ThresholdStateStore.getInstance().getResourceCount());
+        METRICS.register("snapshotSize", (Gauge<Long>) () -> ThresholdStateStore.getInstance().getSnapshotSize());
+        JmxReporter.forRegistry(METRICS)
+                .inDomain(ThresholdingVisitor.class.getPackage().getName())
+                .build()
+                .start();
+    }
+
 	/**
      * Holds thresholds configuration for a node/interface/service
      */
@@ -198,7 +221,10 @@ public class ThresholdingVisitor extends AbstractCollectionSetVisitor {
      */
     @Override
     public void completeResource(CollectionResource resource) {
-        List<Event> eventList = m_thresholdingSet.applyThresholds(resource, m_attributesMap, m_collectionTimestamp);
+        final List<Event> eventList;
+        try (Timer.Context ctx = EVALUATION_TIMER.time()) {
+            eventList = m_thresholdingSet.applyThresholds(resource, m_attributesMap, m_collectionTimestamp);
+        }
         ThresholdingEventProxy proxy = ThresholdingEventProxyFactory.getFactory().getProxy();
         proxy.add(eventList);
         proxy.sendAllEvents();
@@ -211,6 +237,15 @@ public class ThresholdingVisitor extends AbstractCollectionSetVisitor {
     	return this.m_collectionTimestamp;
     }
 
+    /**
+     * Returns the thresholding metrics.
+     *
+     * @return the registry holding the evaluation timer and the threshold state gauges
+     */
+    public static MetricRegistry getMetrics() {
+        return METRICS;
+    }
+
     /** {@inheritDoc} */
     @Override
     public String toString() {
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.poller.pollables;
+
+import java.net.InetAddress;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.scheduler.Schedule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the poll throughput, and the poll latency including the time spent waiting
+ * for the tree locks, of a synthetic network of 10000 nodes with 2 interfaces and
+ * 5 services each, polled concurrently.
+ *
+ * Every poll consumes some CPU to stand in for the monitor, and the given percentage
+ * of the services flaps between up and down on every poll, to simulate an outage.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PollableNetworkBenchmark {
+
+    private static final int NODES = 10000;
+
+    private static final String[] SERVICES = { "ICMP", "HTTP", "SSH", "SNMP", "DNS" };
+
+    @Param({"0", "5"})
+    public int flappingPercent;
+
+    @Param({"1000"})
+    public int monitorTokens;
+
+    private PollableService[] m_services;
+
+    @Setup
+    public void setUp() {
+        final PollableNetwork network = new PollableNetwork(new PollableNetworkTest.StubPollContext());
+        m_services = new PollableService[NODES * 2 * SERVICES.length];
+        int i = 0;
+        for (int nodeId = 1; nodeId <= NODES; nodeId++) {
+            for (int iface = 0; iface < 2; iface++) {
+                final InetAddress addr = InetAddressUtils.addr(String.format("10.%d.%d.%d", nodeId >> 8, nodeId & 0xff, iface + 1));
+                for (String svcName : SERVICES) {
+                    final PollableService svc = network.createService(nodeId, "node" + nodeId, null, addr, svcName);
+                    final BenchmarkPollConfig pollConfig = new BenchmarkPollConfig(i % 100 < flappingPercent);
+                    svc.setPollConfig(pollConfig);
+                    svc.setSchedule(new Schedule(svc, pollConfig, pollConfig));
+                    svc.updateStatus(PollStatus.up());
+                    m_services[i++] = svc;
+                }
+            }
+        }
+        network.recalculateStatus();
+        network.resetStatusChanged();
+    }
+
+    @Benchmark
+    public PollStatus poll() {
+        return m_services[ThreadLocalRandom.current().nextInt(m_services.length)].doRun();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public PollStatus pollLatency() {
+        return poll();
+    }
+
+    private class BenchmarkPollConfig extends PollableNetworkTest.StubPollConfig {
+        private final boolean m_flapping;
+        private volatile boolean m_up = true;
+
+        private BenchmarkPollConfig(boolean flapping) {
+            m_flapping = flapping;
+        }
+
+        @Override
+        public PollStatus poll() {
+            Blackhole.consumeCPU(monitorTokens);
+            if (m_flapping) {
+                m_up = !m_up;
+            }
+            return m_up ? PollStatus.up() : PollStatus.down();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(PollableNetworkBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
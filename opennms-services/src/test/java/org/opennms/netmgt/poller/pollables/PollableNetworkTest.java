@@ -0,0 +1,348 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.poller.pollables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.scheduler.PostponeNecessary;
+import org.opennms.netmgt.scheduler.ReadyRunnable;
+import org.opennms.netmgt.scheduler.Schedule;
+import org.opennms.netmgt.scheduler.ScheduleInterval;
+import org.opennms.netmgt.scheduler.ScheduleTimer;
+import org.opennms.netmgt.xml.event.Event;
+
+/**
+ * Verifies the status propagation of the {@link PollableNetwork} without a database.
+ */
+public class PollableNetworkTest {
+
+    private static final InetAddress ADDR = InetAddressUtils.addr("192.168.1.1");
+
+    private StubPollContext m_context;
+
+    private PollableNetwork m_network;
+
+    @Before
+    public void setUp() {
+        m_context = new StubPollContext();
+        m_network = new PollableNetwork(m_context);
+    }
+
+    @Test
+    public void testUnchangedStatusIsNotRolledUp() throws Exception {
+        final StubPollConfig icmp = createService(1, ADDR, "ICMP");
+        final PollableService svc = m_network.getService(1, ADDR, "ICMP");
+        initializeStatus();
+        assertEquals(PollStatus.up(), svc.doRun());
+        assertEquals(PollStatus.up(), svc.getNode().getStatus());
+
+        // Polls that do not change the status don't need the lock of the node
+        withNodeLocked(svc.getNode(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                svc.run();
+                return null;
+            }
+        });
+        assertEquals(2, icmp.getPollCount());
+        assertFalse(svc.getNode().isStatusChanged());
+        assertEquals(PollStatus.up(), svc.getStatus());
+    }
+
+    @Test
+    public void testStatusChangeIsRolledUpUnderNodeLock() throws Exception {
+        final StubPollConfig icmp = createService(1, ADDR, "ICMP");
+        final PollableService svc = m_network.getService(1, ADDR, "ICMP");
+        initializeStatus();
+
+        icmp.setStatus(PollStatus.down());
+        withNodeLocked(svc.getNode(), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    svc.run();
+                    fail("Expected PostponeNecessary");
+                } catch (PostponeNecessary e) {
+                    // expected
+                }
+                return null;
+            }
+        });
+        assertEquals(PollStatus.up(), svc.getStatus());
+        assertEquals(PollStatus.up(), svc.getNode().getStatus());
+
+        assertEquals(PollStatus.down(), svc.doRun());
+        assertEquals(PollStatus.down(), svc.getInterface().getStatus());
+        assertEquals(PollStatus.down(), svc.getNode().getStatus());
+        assertEquals(1, m_context.getEventCount());
+        assertEquals("uei.opennms.org/nodes/nodeDown", m_context.getLastEvent().getUei());
+    }
+
+    @Test
+    public void testSuppressedPollsAreSkipped() throws Exception {
+        final StubPollConfig icmp = createService(1, ADDR, "ICMP");
+        final StubPollConfig http = createService(1, ADDR, "HTTP");
+        final PollableService icmpSvc = m_network.getService(1, ADDR, "ICMP");
+        final PollableService httpSvc = m_network.getService(1, ADDR, "HTTP");
+        initializeStatus();
+        httpSvc.doRun();
+        assertEquals(1, http.getPollCount());
+
+        icmp.setStatus(PollStatus.down());
+        http.setStatus(PollStatus.down());
+        assertEquals(PollStatus.down(), icmpSvc.doRun());
+        assertEquals(PollStatus.down(), icmpSvc.getInterface().getStatus());
+        final int httpPolls = http.getPollCount();
+
+        // The interface is down, so only its critical service gets polled
+        httpSvc.doRun();
+        assertEquals(httpPolls, http.getPollCount());
+        assertEquals(PollStatus.down(), httpSvc.getInterface().getStatus());
+    }
+
+    @Test
+    public void testStatusVersion() {
+        final PollableNode node = m_network.createNode(1, "node1", null);
+        final long version = node.getStatusVersion();
+
+        node.updateStatus(PollStatus.up());
+        assertTrue(node.isStatusChanged());
+        assertEquals(version + 1, node.getStatusVersion());
+
+        node.updateStatus(PollStatus.up());
+        assertEquals(version + 1, node.getStatusVersion());
+
+        node.resetStatusChanged();
+        assertFalse(node.isStatusChanged());
+        assertEquals(version + 2, node.getStatusVersion());
+
+        node.resetStatusChanged();
+        assertEquals(version + 2, node.getStatusVersion());
+    }
+
+    @Test
+    public void testCreateNodeIfNecessaryConcurrently() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<List<PollableNode>>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<List<PollableNode>>() {
+                    @Override
+                    public List<PollableNode> call() throws Exception {
+                        final List<PollableNode> nodes = new ArrayList<>();
+                        for (int nodeId = 0; nodeId < 1000; nodeId++) {
+                            nodes.add(m_network.createNodeIfNecessary(nodeId, "node" + nodeId, null));
+                        }
+                        return nodes;
+                    }
+                }));
+            }
+            for (Future<List<PollableNode>> future : futures) {
+                final List<PollableNode> nodes = future.get();
+                for (int nodeId = 0; nodeId < 1000; nodeId++) {
+                    assertSame(m_network.getNode(nodeId), nodes.get(nodeId));
+                }
+            }
+            assertEquals(1000, m_network.getNodeCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private StubPollConfig createService(int nodeId, InetAddress addr, String svcName) {
+        final PollableService svc = m_network.createService(nodeId, "node" + nodeId, null, addr, svcName);
+        final StubPollConfig pollConfig = new StubPollConfig();
+        svc.setPollConfig(pollConfig);
+        svc.setSchedule(new Schedule(svc, pollConfig, pollConfig));
+        svc.updateStatus(PollStatus.up());
+        return pollConfig;
+    }
+
+    /**
+     * Initializes the status of the network from the status of its services, like the poller does on startup.
+     */
+    private void initializeStatus() {
+        m_network.recalculateStatus();
+        m_network.resetStatusChanged();
+    }
+
+    /**
+     * Holds the tree lock of the given node from another thread while calling the given callable.
+     */
+    private static <T> T withNodeLocked(final PollableNode node, Callable<T> callable) throws Exception {
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread locker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                node.withTreeLock(new Runnable() {
+                    @Override
+                    public void run() {
+                        locked.countDown();
+                        try {
+                            done.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+        });
+        locker.start();
+        try {
+            assertTrue(locked.await(5, TimeUnit.SECONDS));
+            return callable.call();
+        } finally {
+            done.countDown();
+            locker.join();
+        }
+    }
+
+    static class StubPollContext implements PollContext {
+        private final AtomicInteger m_eventCount = new AtomicInteger();
+        private volatile Event m_lastEvent;
+
+        public int getEventCount() {
+            return m_eventCount.get();
+        }
+
+        public Event getLastEvent() {
+            return m_lastEvent;
+        }
+
+        @Override
+        public String getCriticalServiceName() {
+            return "ICMP";
+        }
+
+        @Override
+        public boolean isNodeProcessingEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isPollingAllIfCritServiceUndefined() {
+            return true;
+        }
+
+        @Override
+        public PollEvent sendEvent(Event event) {
+            m_lastEvent = event;
+            return new DbPollEvent(m_eventCount.incrementAndGet(), event.getUei(), new Date());
+        }
+
+        @Override
+        public Event createEvent(String uei, int nodeId, InetAddress address, String svcName, Date date, String reason) {
+            final EventBuilder bldr = new EventBuilder(uei, "Test", date);
+            bldr.setNodeid(nodeId);
+            bldr.setInterface(address);
+            bldr.setService(svcName);
+            return bldr.getEvent();
+        }
+
+        @Override
+        public void openOutage(PollableService pSvc, PollEvent svcLostEvent) {
+        }
+
+        @Override
+        public void resolveOutage(PollableService pSvc, PollEvent svcRegainEvent) {
+        }
+
+        @Override
+        public boolean isServiceUnresponsiveEnabled() {
+            return false;
+        }
+    }
+
+    static class StubPollConfig implements PollConfig, ScheduleInterval, ScheduleTimer {
+        private final AtomicInteger m_pollCount = new AtomicInteger();
+        private volatile PollStatus m_status = PollStatus.up();
+
+        public void setStatus(PollStatus status) {
+            m_status = status;
+        }
+
+        public int getPollCount() {
+            return m_pollCount.get();
+        }
+
+        @Override
+        public PollStatus poll() {
+            m_pollCount.incrementAndGet();
+            return m_status;
+        }
+
+        @Override
+        public long getCurrentTime() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public void refresh() {
+        }
+
+        @Override
+        public void refreshThresholds() {
+        }
+
+        @Override
+        public long getInterval() {
+            return 300000;
+        }
+
+        @Override
+        public boolean scheduledSuspension() {
+            return false;
+        }
+
+        @Override
+        public void schedule(long interval, ReadyRunnable schedule) {
+        }
+    }
+}
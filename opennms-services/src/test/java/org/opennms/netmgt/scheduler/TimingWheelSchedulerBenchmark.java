@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.scheduler;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the {@link TimingWheelScheduler} with a large number of scheduled tasks,
+ * spread over a 5 minute interval and rescheduling themselves once run.
+ *
+ * The scheduler's clock is advanced manually: "tick" advances the wheel by a single
+ * 10ms tick, expiring and submitting ~tasks/30000 tasks, while "scheduleAndCancel"
+ * schedules and cancels a task with the wheel fully loaded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TimingWheelSchedulerBenchmark {
+
+    private static final long INTERVAL = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long TICK = 10;
+
+    @Param({"1000000"})
+    public int tasks;
+
+    private volatile long m_now = 0;
+
+    private TimingWheelScheduler m_scheduler;
+
+    private ReadyRunnable m_task;
+
+    @Setup
+    public void setUp() {
+        m_scheduler = new TimingWheelScheduler("Benchmark", 4, TICK) {
+            @Override
+            public long getCurrentTime() {
+                return m_now;
+            }
+        };
+        m_scheduler.setJitterRatio(0);
+        m_task = new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void run() {
+                m_scheduler.schedule(INTERVAL, this);
+            }
+        };
+        for (int i = 0; i < tasks; i++) {
+            m_scheduler.schedule(ThreadLocalRandom.current().nextLong(INTERVAL), m_task);
+        }
+        m_scheduler.advance(m_now);
+    }
+
+    @TearDown
+    public void tearDown() {
+        m_scheduler.getRunner().shutdownNow();
+    }
+
+    @Benchmark
+    public void tick() {
+        m_now += TICK;
+        m_scheduler.advance(m_now);
+    }
+
+    @Benchmark
+    public boolean scheduleAndCancel() {
+        final boolean cancelled = m_scheduler.newTimeout(ThreadLocalRandom.current().nextLong(INTERVAL), m_task).cancel();
+        m_scheduler.advance(m_now);
+        return cancelled;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+            .include(TimingWheelSchedulerBenchmark.class.getSimpleName())
+            .build()).run();
+    }
+}
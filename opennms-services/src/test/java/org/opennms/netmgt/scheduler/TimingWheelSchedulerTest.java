@@ -0,0 +1,294 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelSchedulerTest {
+
+    /**
+     * Scheduler with a manually advanced clock.
+     */
+    private static class ManualTimingWheelScheduler extends TimingWheelScheduler {
+        private long m_now = 0;
+
+        public ManualTimingWheelScheduler(long tickMs) {
+            super("Test", 1, tickMs);
+            setJitterRatio(0);
+        }
+
+        @Override
+        public long getCurrentTime() {
+            return m_now;
+        }
+
+        public void advanceTo(long now) {
+            m_now = now;
+            advance(now);
+        }
+    }
+
+    private static final ReadyRunnable NOOP = new ReadyRunnable() {
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void run() {
+            // pass
+        }
+    };
+
+    private ManualTimingWheelScheduler m_scheduler;
+
+    @Before
+    public void setUp() {
+        m_scheduler = new ManualTimingWheelScheduler(10);
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.getRunner().shutdownNow();
+    }
+
+    @Test
+    public void canRunTasksAtTheirDeadline() {
+        final long[] delays = new long[] { 0, 1, 10, 11, 2559, 2560, 2561, 655359, 655360, 655361, 3600000 };
+        for (long delay : delays) {
+            final ManualTimingWheelScheduler scheduler = new ManualTimingWheelScheduler(10);
+            try {
+                scheduler.advanceTo(1234);
+                scheduler.schedule(delay, NOOP);
+                if (delay > 0) {
+                    scheduler.advanceTo(1234 + delay - 1);
+                    assertEquals("Task with delay " + delay + " was run early", 0, scheduler.getNumTasksExecuted());
+                }
+                // Tasks are due at the start of the next tick
+                scheduler.advanceTo(1234 + delay + 9);
+                assertEquals("Task with delay " + delay + " was not run", 1, scheduler.getNumTasksExecuted());
+                assertEquals(0, scheduler.getScheduled());
+            } finally {
+                scheduler.getRunner().shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void canScheduleTasksFarInTheFuture() {
+        final ManualTimingWheelScheduler scheduler = new ManualTimingWheelScheduler(1000);
+        try {
+            final long delay = TimeUnit.DAYS.toMillis(30);
+            scheduler.schedule(delay, NOOP);
+            scheduler.advanceTo(delay - 1);
+            assertEquals(0, scheduler.getNumTasksExecuted());
+            scheduler.advanceTo(delay);
+            assertEquals(1, scheduler.getNumTasksExecuted());
+        } finally {
+            scheduler.getRunner().shutdownNow();
+        }
+    }
+
+    @Test
+    public void canCancelTasks() {
+        final TimingWheelScheduler.Timeout first = m_scheduler.newTimeout(100, NOOP);
+        final TimingWheelScheduler.Timeout second = m_scheduler.newTimeout(100, NOOP);
+        m_scheduler.advanceTo(50);
+        assertEquals(2, m_scheduler.getScheduled());
+
+        // Cancel one task after it was added to the wheel, and one before
+        assertTrue(first.cancel());
+        final TimingWheelScheduler.Timeout third = m_scheduler.newTimeout(10, NOOP);
+        assertTrue(third.cancel());
+        assertFalse(third.cancel());
+        assertEquals(1, m_scheduler.getScheduled());
+
+        m_scheduler.advanceTo(100);
+        assertEquals(1, m_scheduler.getNumTasksExecuted());
+        assertTrue(first.isCancelled());
+        assertFalse(second.isCancelled());
+        assertFalse(second.cancel());
+        assertEquals(0, m_scheduler.getScheduled());
+    }
+
+    @Test
+    public void canRetryTasksThatAreNotReady() {
+        final AtomicBoolean ready = new AtomicBoolean(false);
+        m_scheduler.schedule(100, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return ready.get();
+            }
+
+            @Override
+            public void run() {
+                // pass
+            }
+        });
+
+        m_scheduler.advanceTo(100);
+        assertEquals(0, m_scheduler.getNumTasksExecuted());
+        assertEquals(1, m_scheduler.getScheduled());
+
+        ready.set(true);
+        m_scheduler.advanceTo(100 + TimingWheelScheduler.NOT_READY_RETRY_MS - 1);
+        assertEquals(0, m_scheduler.getNumTasksExecuted());
+        m_scheduler.advanceTo(100 + TimingWheelScheduler.NOT_READY_RETRY_MS);
+        assertEquals(1, m_scheduler.getNumTasksExecuted());
+    }
+
+    @Test
+    public void canSpreadTasksScheduledTogether() {
+        m_scheduler.setJitterRatio(0.5);
+        m_scheduler.setMaxJitter(400);
+        for (int i = 0; i < 1000; i++) {
+            m_scheduler.schedule(0, new CountingRunnable());
+        }
+
+        m_scheduler.advanceTo(200);
+        final long executed = m_scheduler.getNumTasksExecuted();
+        assertTrue("Expected about half of the tasks, got " + executed, executed > 250 && executed < 750);
+        m_scheduler.advanceTo(400);
+        assertEquals(1000, m_scheduler.getNumTasksExecuted());
+    }
+
+    @Test
+    public void canSpreadTasksSharingAnInterval() {
+        m_scheduler.setJitterRatio(0.5);
+        m_scheduler.setMaxJitter(400);
+        for (int i = 0; i < 1000; i++) {
+            m_scheduler.schedule(1000, new CountingRunnable());
+        }
+
+        m_scheduler.advanceTo(999);
+        assertEquals(0, m_scheduler.getNumTasksExecuted());
+        m_scheduler.advanceTo(1200);
+        final long executed = m_scheduler.getNumTasksExecuted();
+        assertTrue("Expected about half of the tasks, got " + executed, executed > 250 && executed < 750);
+        m_scheduler.advanceTo(1400);
+        assertEquals(1000, m_scheduler.getNumTasksExecuted());
+    }
+
+    @Test
+    public void canKeepTheIntervalOfRescheduledTasks() {
+        m_scheduler.setJitterRatio(0.5);
+        m_scheduler.setMaxJitter(400);
+        final CountingRunnable runnable = new CountingRunnable();
+
+        // Only the first scheduling gets a phase offset
+        m_scheduler.schedule(0, runnable);
+        long first = runUntilExecuted(1);
+        assertTrue("Unexpected offset " + first, first >= 0 && first <= 400);
+
+        final int cycles = 100;
+        long last = first;
+        for (int i = 0; i < cycles; i++) {
+            m_scheduler.schedule(1000, runnable);
+            final long now = runUntilExecuted(i + 2);
+            assertEquals(1000, now - last);
+            last = now;
+        }
+        assertEquals(1000, (last - first) / cycles);
+    }
+
+    /**
+     * Advances the clock a tick at a time, until the given number of tasks was executed.
+     *
+     * @return the time the last task was executed
+     */
+    private long runUntilExecuted(long count) {
+        long now = m_scheduler.getCurrentTime();
+        while (m_scheduler.getNumTasksExecuted() < count) {
+            now += 10;
+            m_scheduler.advanceTo(now);
+        }
+        return now;
+    }
+
+    private static class CountingRunnable implements ReadyRunnable {
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void run() {
+            // pass
+        }
+    }
+
+    @Test
+    public void canTrackLatenessPerInterval() {
+        m_scheduler.schedule(1000, NOOP);
+        m_scheduler.schedule(1000, NOOP);
+        m_scheduler.schedule(300000, NOOP);
+        m_scheduler.advanceTo(1500);
+        m_scheduler.advanceTo(300000);
+
+        assertEquals(2, m_scheduler.getMetrics().histogram("Test.lateness.1000").getCount());
+        assertEquals(500, m_scheduler.getMetrics().histogram("Test.lateness.1000").getSnapshot().getMax());
+        assertEquals(1, m_scheduler.getMetrics().histogram("Test.lateness.300000").getCount());
+    }
+
+    @Test(timeout=30000)
+    public void canRunTasksWhenStarted() throws InterruptedException {
+        final TimingWheelScheduler scheduler = new TimingWheelScheduler("Test", 2);
+        final CountDownLatch latch = new CountDownLatch(2);
+        final ReadyRunnable countDown = new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+
+        scheduler.start();
+        try {
+            scheduler.schedule(0, countDown);
+            scheduler.schedule(50, countDown);
+            latch.await();
+            assertEquals(2, scheduler.getNumTasksExecuted());
+        } finally {
+            scheduler.stop();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2018 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2018 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.threshd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.config.threshd.Threshold;
+import org.opennms.netmgt.config.threshd.ThresholdType;
+import org.opennms.netmgt.threshd.ThresholdEvaluatorHighLow.ThresholdEvaluatorStateHighLow;
+import org.opennms.netmgt.threshd.ThresholdEvaluatorState.Status;
+
+public class ThresholdStateStoreTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testPutGetRemove() {
+        ThresholdStateStore store = new ThresholdStateStore(null, 0, TimeUnit.DAYS.toMillis(1));
+        assertNull(store.get("1/127.0.0.1/SNMP", "group/node/ds"));
+
+        store.put("1/127.0.0.1/SNMP", "group/node/ds/high", new double[] { 2, 1 });
+        store.put("1/127.0.0.1/SNMP", "group/node/ds/low", new double[] { 0, 1 });
+        store.put("2/127.0.0.2/SNMP", "group/node/ds/high", new double[] { 1, 1 });
+        assertArrayEquals(new double[] { 2, 1 }, store.get("1/127.0.0.1/SNMP", "group/node/ds/high"), 0);
+        assertEquals(2, store.getResourceCount());
+        assertEquals(3, store.getStateCount());
+
+        store.remove("2/127.0.0.2/SNMP", "group/node/ds/high");
+        assertNull(store.get("2/127.0.0.2/SNMP", "group/node/ds/high"));
+        assertEquals(1, store.getResourceCount());
+        assertEquals(2, store.getStateCount());
+    }
+
+    @Test
+    public void testSnapshotAndLoad() throws Exception {
+        File file = new File(m_tempFolder.getRoot(), "threshd/threshold-states.dat");
+        ThresholdStateStore store = new ThresholdStateStore(file, TimeUnit.MINUTES.toMillis(5), TimeUnit.DAYS.toMillis(1));
+        store.put("1/127.0.0.1/SNMP", "group/node/ds/high", new double[] { 2, 1 });
+        store.put("1/127.0.0.1/SNMP", "group/if/ds/relativeChange", new double[] { 10.5, Double.NaN });
+        store.snapshot();
+        assertTrue(file.isFile());
+        assertEquals(file.length(), store.getSnapshotSize());
+
+        ThresholdStateStore restored = new ThresholdStateStore(file, TimeUnit.MINUTES.toMillis(5), TimeUnit.DAYS.toMillis(1));
+        restored.load();
+        assertEquals(1, restored.getResourceCount());
+        assertEquals(2, restored.getStateCount());
+        assertArrayEquals(new double[] { 2, 1 }, restored.get("1/127.0.0.1/SNMP", "group/node/ds/high"), 0);
+        assertArrayEquals(new double[] { 10.5, Double.NaN }, restored.get("1/127.0.0.1/SNMP", "group/if/ds/relativeChange"), 0);
+    }
+
+    @Test
+    public void testExpiredStatesAreDropped() throws Exception {
+        File file = m_tempFolder.newFile("threshold-states.dat");
+        ThresholdStateStore store = new ThresholdStateStore(file, TimeUnit.MINUTES.toMillis(5), 50);
+        store.put("1/127.0.0.1/SNMP", "group/node/ds/high", new double[] { 2, 1 });
+        Thread.sleep(100);
+        store.put("2/127.0.0.2/SNMP", "group/node/ds/high", new double[] { 1, 1 });
+        store.snapshot();
+        assertEquals(1, store.getResourceCount());
+        assertNull(store.get("1/127.0.0.1/SNMP", "group/node/ds/high"));
+
+        ThresholdStateStore restored = new ThresholdStateStore(file, TimeUnit.MINUTES.toMillis(5), TimeUnit.DAYS.toMillis(1));
+        restored.load();
+        assertEquals(1, restored.getStateCount());
+        assertArrayEquals(new double[] { 1, 1 }, restored.get("2/127.0.0.2/SNMP", "group/node/ds/high"), 0);
+    }
+
+    @Test
+    public void testHighLowStateRoundTrip() {
+        Threshold threshold = new Threshold();
+        threshold.setType(ThresholdType.HIGH);
+        threshold.setDsName("ds-name");
+        threshold.setDsType("node");
+        threshold.setValue(99.0);
+        threshold.setRearm(0.5);
+        threshold.setTrigger(3);
+        ThresholdConfigWrapper wrapper = new ThresholdConfigWrapper(threshold);
+
+        ThresholdEvaluatorStateHighLow item = new ThresholdEvaluatorStateHighLow(wrapper);
+        assertEquals(Status.NO_CHANGE, item.evaluate(100.0));
+        assertEquals(Status.NO_CHANGE, item.evaluate(100.0));
+
+        // A restarted evaluator picks up where the previous one stopped
+        ThresholdEvaluatorStateHighLow restored = new ThresholdEvaluatorStateHighLow(wrapper);
+        restored.restoreState(item.saveState());
+        assertEquals(2, restored.getExceededCount());
+        assertEquals(Status.TRIGGERED, restored.evaluate(100.0));
+        assertEquals(Status.NO_CHANGE, restored.evaluate(100.0));
+    }
+
+    @Test
+    public void testThresholdsOfTheSameTypeKeepTheirStates() {
+        ThresholdStateStore store = new ThresholdStateStore(null, 0, TimeUnit.DAYS.toMillis(1));
+        ThresholdStateStore.setInstance(store);
+        try {
+            // A warning and a critical threshold on the same datasource
+            ThresholdEntity warning = createHighThresholdEntity(80.0);
+            ThresholdEntity critical = createHighThresholdEntity(95.0);
+            warning.bindState("1/127.0.0.1/SNMP", "group/node/ds-name");
+            critical.bindState("1/127.0.0.1/SNMP", "group/node/ds-name");
+            for (int i = 0; i < 2; i++) {
+                warning.evaluateAndCreateEvents(Collections.singletonMap("ds-name", 90.0), new Date());
+                critical.evaluateAndCreateEvents(Collections.singletonMap("ds-name", 90.0), new Date());
+            }
+            assertEquals(2, store.getStateCount());
+
+            // Both restarted entities pick up their own state
+            ThresholdEntity restoredWarning = createHighThresholdEntity(80.0);
+            ThresholdEntity restoredCritical = createHighThresholdEntity(95.0);
+            restoredCritical.bindState("1/127.0.0.1/SNMP", "group/node/ds-name");
+            restoredWarning.bindState("1/127.0.0.1/SNMP", "group/node/ds-name");
+            assertEquals(2, ((ThresholdEvaluatorStateHighLow)restoredWarning.getThresholdEvaluatorStates(null).get(0)).getExceededCount());
+            assertEquals(0, ((ThresholdEvaluatorStateHighLow)restoredCritical.getThresholdEvaluatorStates(null).get(0)).getExceededCount());
+        } finally {
+            ThresholdStateStore.setInstance(null);
+        }
+    }
+
+    private static ThresholdEntity createHighThresholdEntity(double value) {
+        Threshold threshold = new Threshold();
+        threshold.setType(ThresholdType.HIGH);
+        threshold.setDsName("ds-name");
+        threshold.setDsType("node");
+        threshold.setValue(value);
+        threshold.setRearm(value - 10);
+        threshold.setTrigger(3);
+        ThresholdEntity entity = new ThresholdEntity();
+        entity.addThreshold(new ThresholdConfigWrapper(threshold));
+        return entity;
+    }
+}